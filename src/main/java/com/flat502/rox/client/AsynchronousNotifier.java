@@ -29,7 +29,7 @@ class AsynchronousNotifier implements Notifiable {
 		Exception exception = null;
 		try {
 			this.client.validateHttpResponse(this.call, response);
-			rsp = this.client.unmarshalResponse(response.getContentReader(), this.aid);
+			rsp = this.client.unmarshalResponse(response, this.aid);
 		} catch (Exception e) {
 			exception = e;
 		}
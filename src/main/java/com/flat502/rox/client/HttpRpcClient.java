@@ -22,6 +22,8 @@ import com.flat502.rox.http.*;
 import com.flat502.rox.log.Log;
 import com.flat502.rox.log.LogFactory;
 import com.flat502.rox.marshal.*;
+import com.flat502.rox.marshal.xmlrpc.SaxMethodResponseUnmarshaller;
+import com.flat502.rox.processing.ConnectionState;
 import com.flat502.rox.processing.HttpRpcProcessor;
 import com.flat502.rox.processing.ResourcePool;
 import com.flat502.rox.processing.RpcFaultException;
@@ -62,25 +64,15 @@ public abstract class HttpRpcClient extends HttpRpcProcessor {
 	// the caller (synchronously or asynchronously).
 	private Map notificationMap = new HashMap();
 
-	// Maps Sockets to incomplete HttpResponseBuffer instances.
-	private Map responseBuffers = new HashMap();
-
-	// Maps Sockets to ByteBuffer instances that are
-	// ready to be written out on the socket.
-	// Placing a ByteBuffer in here effectively 'queues' it for
-	// delivery to the associated SocketChannel when it next
-	// becomes available for writing.
-	private Map requestBuffers = new HashMap();
-
 	private URL url;
 	
 	private ClientResourcePool resourcePool;
 
 	private SharedSocketChannelPool connPool;
 
-	private long requestTimeout;
-	private Timer requestTimer;
-	private Map activeRequestTimers = new HashMap();
+	// The timeout for an outstanding request is held by the
+	// socket's ConnectionState.
+	private volatile long requestTimeout;
 	
 	private Encoding contentEncoding;
 	private boolean acceptEncodedResponses = true;
@@ -541,7 +533,6 @@ public abstract class HttpRpcClient extends HttpRpcProcessor {
 			throw new IllegalArgumentException("timeout is negative");
 		}
 
-		this.requestTimer = this.getTimer();
 		this.requestTimeout = timeout;
 	}
 	
@@ -606,7 +597,7 @@ public abstract class HttpRpcClient extends HttpRpcProcessor {
 
 	/**
 	 * This method exists to provide classes in this package with access to
-	 * {@link HttpRpcProcessor#queueRegistration(SocketChannel)} without having to make
+	 * {@link HttpRpcProcessor#queueRegistration(java.nio.channels.spi.AbstractSelectableChannel)} without having to make
 	 * it public.
 	 */
 	void register(SocketChannel channel) {
@@ -686,7 +677,7 @@ public abstract class HttpRpcClient extends HttpRpcProcessor {
 		HttpResponseBuffer response = notifier.waitForResponse();
 		this.validateHttpResponse(call, response);
 
-		return this.unmarshalResponse(response.getContentReader(), aid);
+		return this.unmarshalResponse(response, aid);
 	}
 
 	private void executeAsync(RpcCall call, MethodResponseUnmarshallerAid aid, AsynchronousResponseHandler handler) throws Exception {
@@ -750,6 +741,21 @@ public abstract class HttpRpcClient extends HttpRpcProcessor {
 		return this.getMethodResponseUnmarshaller().unmarshal(rspStream, aid);
 	}
 
+	/**
+	 * A package private method that unmarshals the content of a
+	 * response. Unless it's encoded, content handed to a 
+	 * {@link SaxMethodResponseUnmarshaller} is parsed where it is
+	 * (as bytes if possible) rather than through a {@link Reader}.
+	 */
+	RpcResponse unmarshalResponse(HttpResponseBuffer response, MethodResponseUnmarshallerAid aid) throws Exception {
+		MethodResponseUnmarshaller unmarshaller = this.getMethodResponseUnmarshaller();
+		if (unmarshaller instanceof SaxMethodResponseUnmarshaller && response.getContentEncoding() == null) {
+			return ((SaxMethodResponseUnmarshaller) unmarshaller).unmarshal(response.getContentBuffer(), response
+					.getContentCharset(), aid);
+		}
+		return this.unmarshalResponse(response.getContentReader(), aid);
+	}
+
 	private Socket getConnection() throws IOException {
 		this.connPool = this.resourcePool.getSocketChannelPool();
 		SocketChannel socketChannel = this.connPool.getChannel(this);
@@ -774,17 +780,17 @@ public abstract class HttpRpcClient extends HttpRpcProcessor {
 		long timeout = this.requestTimeout;
 
 		if (timeout > 0) {
-			// Set up a timer for this request
-			TimerTask task = new NotifiableTimerTask(socket);
-			this.activeRequestTimers.put(socket, task);
-			this.requestTimer.schedule(task, timeout);
+			ConnectionState state = this.getConnectionState(socket);
+			if (state != null) {
+				state.resetTimeout(timeout);
+			}
 		}
 	}
 
 	private void stopRequestTimer(Socket socket) {
-		TimerTask task = (TimerTask) this.activeRequestTimers.remove(socket);
-		if (task != null) {
-			task.cancel();
+		ConnectionState state = this.getConnectionState(socket);
+		if (state != null) {
+			state.cancelTimeout();
 		}
 	}
 
@@ -795,26 +801,28 @@ public abstract class HttpRpcClient extends HttpRpcProcessor {
 		}
 	}
 
-	private class NotifiableTimerTask extends TimerTask {
-		private Socket socket;
-
-		NotifiableTimerTask(Socket socket) {
-			this.socket = socket;
-		}
-
-		public void run() {
-			try {
-				handleTimeout(socket, null);
-			} catch(Exception e) {
-				log.warn("NotifiableTimerTask caught an exception", e);
+	protected void handleConnectionTimeout(ConnectionState state) {
+		this.handleTimeout(((SocketChannel) state.getChannel()).socket(), null);
+	}
+	
+	protected void handleTimeout(final Socket socket, final Exception cause) {
+		// Timeouts expire on the selecting thread and notifying the caller 
+		// may call out to application code, so leave that to a worker.
+		this.dispatch(new Runnable() {
+			public void run() {
+				try {
+					notifyTimeout(socket, cause);
+				} catch(Exception e) {
+					log.warn("Timeout notification caught an exception", e);
+				}
 			}
-		}
+		});
 	}
 	
-	protected void handleTimeout(Socket socket, Exception cause) {
+	private void notifyTimeout(Socket socket, Exception cause) {
 		// This might return null if a response has just been handled
-		// but the timeout logic in Timer had already been set in motion.
-		Notifiable notifier = HttpRpcClient.this.removeNotifier(socket);
+		// but the timeout had already expired.
+		Notifiable notifier = this.removeNotifier(socket);
 		
 		// Rather safe than sorry. Close the connection and remove it from
 		// the connection pool
@@ -924,73 +932,23 @@ public abstract class HttpRpcClient extends HttpRpcProcessor {
 	 * 	The exception that was raised.
 	 */
 	protected void handleMessageException(HttpMessageBuffer msg, Exception e) {
-		this.getQueue().add(new HttpMessageException(msg, e));
+		this.dispatch(new HttpMessageException(msg, e));
 	}
 
 	protected void handleProcessingException(Socket socket, Exception e) {
-		this.getQueue().add(new ProcessingException(this, socket, e));
+		this.dispatch(new ProcessingException(this, socket, e));
 	}
 
 	protected void handleSSLHandshakeFinished(Socket socket, SSLEngine engine) {
 		this.queueWrite(socket);
 	}
 
-	protected HttpMessageBuffer getReadBuffer(Socket socket) {
-		synchronized (this.responseBuffers) {
-			HttpResponseBuffer response = (HttpResponseBuffer) this.responseBuffers.get(socket);
-			if (response == null) {
-				Encoding acceptableEncoding = null;
-				if (this.acceptEncodedResponses) {
-					acceptableEncoding = this.contentEncoding;
-				}
-				response = new HttpResponseBuffer(this, socket, acceptableEncoding);
-				this.responseBuffers.put(socket, response);
-			}
-			return response;
+	protected HttpMessageBuffer newReadBuffer(Socket socket) {
+		Encoding acceptableEncoding = null;
+		if (this.acceptEncodedResponses) {
+			acceptableEncoding = this.contentEncoding;
 		}
-	}
-
-	protected void removeReadBuffer(Socket socket) {
-		synchronized (this.responseBuffers) {
-			this.responseBuffers.remove(socket);
-		}
-	}
-
-	protected void removeReadBuffers(Socket socket) {
-		this.removeReadBuffer(socket);
-	}
-
-	protected void putWriteBuffer(Socket socket, ByteBuffer data) {
-		synchronized (this.requestBuffers) {
-			ByteBuffer existing = (ByteBuffer) this.requestBuffers.get(socket);
-			if (existing != null) {
-				existing.put(data);
-			} else {
-				this.requestBuffers.put(socket, data);
-			}
-		}
-	}
-
-	protected boolean isWriteQueued(Socket socket) {
-		synchronized (this.requestBuffers) {
-			return this.requestBuffers.containsKey(socket);
-		}
-	}
-
-	protected ByteBuffer getWriteBuffer(Socket socket) {
-		synchronized (this.requestBuffers) {
-			return (ByteBuffer) this.requestBuffers.get(socket);
-		}
-	}
-
-	protected void removeWriteBuffer(Socket socket) {
-		synchronized (this.requestBuffers) {
-			this.requestBuffers.remove(socket);
-		}
-	}
-
-	protected void removeWriteBuffers(Socket socket) {
-		this.removeWriteBuffer(socket);
+		return new HttpResponseBuffer(this, socket, acceptableEncoding);
 	}
 
 	protected HttpRequest newHttpRequest(RpcCall call) throws Exception {
@@ -0,0 +1,42 @@
+package com.flat502.rox.http;
+
+/**
+ * An interface for consuming the content of an HTTP message
+ * as it arrives, rather than once all of it has been received.
+ * <p>
+ * A listener is attached to an {@link HttpMessageBuffer} once
+ * the message's headers are complete, and sees exactly
+ * <code>Content-Length</code> bytes of content. The buffer
+ * still holds on to the content, so a listener that runs into
+ * trouble can simply stop and leave the message to be handled
+ * once it is complete.
+ * <p>
+ * Implementations are called on the thread reading the
+ * message and should not throw exceptions or block.
+ * @see HttpMessageBuffer#newContentListener()
+ */
+public interface HttpContentListener {
+	/**
+	 * Called as each piece of content arrives.
+	 * @param data
+	 * 	The buffer holding the new content. This must not be
+	 * 	modified, or referenced after this method returns.
+	 * @param offset
+	 * 	The offset of the new content within <code>data</code>.
+	 * @param length
+	 * 	The length of the new content.
+	 */
+	void contentReceived(byte[] data, int offset, int length);
+
+	/**
+	 * Called once all of the content has been received.
+	 */
+	void contentComplete();
+
+	/**
+	 * Called if the rest of the content will never arrive,
+	 * typically because the connection it was being read
+	 * from has been closed.
+	 */
+	void contentAbandoned();
+}
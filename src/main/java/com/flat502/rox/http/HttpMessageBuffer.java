@@ -2,6 +2,7 @@ package com.flat502.rox.http;
 
 import java.io.*;
 import java.net.Socket;
+import java.nio.ByteBuffer;
 import java.nio.charset.Charset;
 import java.util.Collections;
 import java.util.Iterator;
@@ -19,19 +20,61 @@ import com.flat502.rox.utils.Utils;
 public abstract class HttpMessageBuffer {
 	private static final Pattern HTTP_VERSION = Pattern.compile("HTTP/(\\d+\\.\\d+)");
 
+	// The most we'll allocate ahead of the data actually arriving on
+	// the strength of a Content-Length header. Beyond this the buffer
+	// grows with the data, so a client can't make us hold on to a 
+	// large buffer by sending nothing but headers.
+	private static final int MAX_PREALLOCATION = 64 * 1024;
+
+	// Headers we look at ourselves. Their names are matched against
+	// the raw bytes so we don't allocate a String (or two) for each
+	// of them, and are stored in the map in their normalized form.
+	private static final String[] KNOWN_HEADERS = new String[] {
+			HttpConstants.Headers.CONTENT_LENGTH,
+			HttpConstants.Headers.CONTENT_TYPE,
+			HttpConstants.Headers.HOST,
+			HttpConstants.Headers.CONNECTION,
+			HttpConstants.Headers.ACCEPT_ENCODING,
+			HttpConstants.Headers.CONTENT_ENCODING };
+	private static final byte[][] KNOWN_HEADER_BYTES = new byte[KNOWN_HEADERS.length][];
+	static {
+		for (int i = 0; i < KNOWN_HEADERS.length; i++) {
+			String name = KNOWN_HEADERS[i].toLowerCase();
+			KNOWN_HEADER_BYTES[i] = new byte[name.length()];
+			for (int j = 0; j < name.length(); j++) {
+				KNOWN_HEADER_BYTES[i][j] = (byte) name.charAt(j);
+			}
+		}
+	}
+
 	private HttpRpcProcessor processor;
 	private Socket socket;
 
+	// Everything received so far is in data[0..offset). The array
+	// grows geometrically, up to the end of the message once we know 
+	// its Content-Length, so large bodies aren't recopied on every 
+	// read. It may be longer than the message once it's complete.
 	private byte[] data;
 	private int offset;
 	private int contentStarts;
+
+	// How far we've looked for the end of the headers, and how much of
+	// the terminating CRLFCRLF we'd seen at that point.
+	private int headerScan;
+	private int headerEndState;
 	private Map<String, String> headers;
 	private String contentType;
 	private Charset contentCharset;
 	private int contentLength;
+	// Only copied out of data if someone asks for it as an array
 	private byte[] content;
 	private boolean isComplete;
 
+	// Sees the content as it arrives, if anyone asked to. This is
+	// how much of it we've passed on so far.
+	private HttpContentListener contentListener;
+	private int contentNotified;
+
 	/**
 	 * Construct a new buffer for the given socket.
 	 * @param processor 
@@ -84,14 +127,7 @@ public abstract class HttpMessageBuffer {
 	 * 	for the same reasons described under {@link #isComplete()}.
 	 */
 	public int addBytes(byte[] newData, int offset, int count) throws Exception {
-		if (this.data == null) {
-			this.data = new byte[count];
-			this.offset = 0;
-		} else {
-			byte[] tmp = new byte[this.data.length + count];
-			System.arraycopy(this.data, 0, tmp, 0, this.data.length);
-			this.data = tmp;
-		}
+		this.grow(count);
 		System.arraycopy(newData, offset, this.data, this.offset, count);
 		this.offset += count;
 		
@@ -99,22 +135,93 @@ public abstract class HttpMessageBuffer {
 			return -1;
 		}
 		
-		// Check if there's extra data in the buffer
-		int excess = this.data.length - (this.contentStarts + this.contentLength);
+		int excess = this.trimExcess();
 		if (excess > 0) {
-			// Trim our copied buffer so we don't hang onto large chunks of
-			// duplicate data. This won't impact non-pipelined performance
-			// since in that case we should only ever get complete (or partial)
-			// messages.
-			byte[] tmp = new byte[this.data.length - excess];
-			System.arraycopy(this.data, 0, tmp, 0, tmp.length);
-			this.data = tmp;
 			return offset + count - excess;
 		}
 		
 		return 0;
 	}
 
+	/**
+	 * Add new data received on the socket this buffer is
+	 * associated with.
+	 * <p>
+	 * This behaves exactly as {@link #addBytes(byte[], int, int)}
+	 * but copies directly out of a (possibly direct) {@link ByteBuffer},
+	 * consuming the bytes between its position and its limit.
+	 * @param newData
+	 * 	The data to add to this buffer.
+	 * @return
+	 * 	<code>-1</code> if the message is incomplete, <code>0</code> if it is complete and
+	 * 	a positive integer if the message is complete and additional data remains
+	 * 	in the input buffer. In the latter case the returned value is the index
+	 * 	into newData at which the excess data begins, and the position of 
+	 * 	<code>newData</code> is moved back to that index.
+	 * @throws Exception
+	 * 	for the same reasons described under {@link #isComplete()}.
+	 */
+	public int addBytes(ByteBuffer newData) throws Exception {
+		int start = newData.position();
+		int count = newData.remaining();
+		this.grow(count);
+		newData.get(this.data, this.offset, count);
+		this.offset += count;
+		
+		if (!this.isComplete()) {
+			return -1;
+		}
+		
+		int excess = this.trimExcess();
+		if (excess > 0) {
+			newData.position(start + count - excess);
+			return newData.position();
+		}
+		
+		return 0;
+	}
+
+	private void grow(int count) {
+		if (this.data == null) {
+			// Most messages arrive in a single read
+			this.data = new byte[count];
+			this.offset = 0;
+		} else if (this.offset + count > this.data.length) {
+			int capacity = this.data.length * 2;
+			if (this.contentStarts != -1 && this.contentStarts + this.contentLength > this.offset) {
+				// There's no point growing beyond the end of the message
+				capacity = Math.min(capacity, this.contentStarts + this.contentLength);
+			}
+			this.resize(Math.max(this.offset + count, capacity));
+		}
+	}
+
+	/**
+	 * Package private so we can unit test the buffer's growth.
+	 */
+	int getCapacity() {
+		return this.data == null ? 0 : this.data.length;
+	}
+
+	private void resize(int capacity) {
+		byte[] tmp = new byte[capacity];
+		System.arraycopy(this.data, 0, tmp, 0, this.offset);
+		this.data = tmp;
+	}
+
+	// Returns the number of bytes beyond the end of this (complete) 
+	// message, dropping them from our copy.
+	private int trimExcess() {
+		// Check if there's extra data in the buffer. There's no need to
+		// copy anything, the excess (at most one read's worth) is just
+		// left unused at the end of the array.
+		int excess = this.offset - (this.contentStarts + this.contentLength);
+		if (excess > 0) {
+			this.offset -= excess;
+		}
+		return excess;
+	}
+
 	/**
 	 * Test if this buffer contains a complete HTTP
 	 * message.
@@ -156,12 +263,40 @@ public abstract class HttpMessageBuffer {
 			// We have all of the headers at this point.
 			// Unpack and validate.
 			this.headers = this.unpackHeaders(contentStarts);
+			this.unpackContentHeaders();
+			this.contentListener = this.newContentListener();
+		}
+
+		if (this.contentListener != null) {
+			this.notifyContentListener();
 		}
 
 		isComplete = this.isContentComplete();
 		return isComplete;
 	}
 
+	/**
+	 * Called when the rest of this message will never arrive,
+	 * typically because the connection it was being read from
+	 * has been closed.
+	 */
+	public void abandon() {
+		if (this.contentListener != null && !this.isComplete) {
+			this.contentListener.contentAbandoned();
+		}
+	}
+
+	/**
+	 * Get the listener that was given the content of this
+	 * message as it arrived.
+	 * @return
+	 * 	The listener returned by {@link #newContentListener()},
+	 * 	or <code>null</code> if there wasn't one.
+	 */
+	public HttpContentListener getContentListener() {
+		return this.contentListener;
+	}
+
 	/**
 	 * Provides access to the headers in the underlying
 	 * HTTP message.
@@ -196,15 +331,49 @@ public abstract class HttpMessageBuffer {
 		return (String) this.headers.get(this.normalizeHeaderName(name));
 	}
 
+	/**
+	 * Get the content of the underlying HTTP message as an array.
+	 * <p>
+	 * This is copied out of the buffer the message was received into
+	 * the first time it is called. Use {@link #getContentBuffer()}
+	 * or {@link #getContentStream()} to avoid the copy.
+	 * @return
+	 * 	The content, or <code>null</code> if this message is not
+	 * 	yet complete.
+	 * @throws IllegalStateException
+	 * 	if the headers for this message have not been received.
+	 */
 	public byte[] getContent() {
 		if (this.headers == null) {
 			throw new IllegalStateException("This request is incomplete");
 		}
+		if (this.content == null && this.isComplete) {
+			this.content = new byte[this.contentLength];
+			System.arraycopy(this.data, this.contentStarts, this.content, 0, this.contentLength);
+		}
 		return this.content;
 	}
 
+	/**
+	 * Get a read-only view of the content of the underlying
+	 * HTTP message, without copying it.
+	 * @return
+	 * 	A buffer whose position and limit bound the content.
+	 * @throws IllegalStateException
+	 * 	if this message is not yet complete.
+	 */
+	public ByteBuffer getContentBuffer() {
+		if (!this.isComplete) {
+			throw new IllegalStateException("This request is incomplete");
+		}
+		return ByteBuffer.wrap(this.data, this.contentStarts, this.contentLength).asReadOnlyBuffer();
+	}
+
 	public InputStream getContentStream() throws IOException {
-		return new ByteArrayInputStream(this.getContent());
+		if (!this.isComplete) {
+			return new ByteArrayInputStream(this.getContent());
+		}
+		return new ByteArrayInputStream(this.data, this.contentStarts, this.contentLength);
 	}
 
 	public Reader getContentReader() throws IOException {
@@ -238,7 +407,7 @@ public abstract class HttpMessageBuffer {
 			}
 		}
 		pw.println();
-		if (this.content == null) {
+		if (!this.isComplete) {
 			pw.println("<null content>");
 		} else {
 			try {
@@ -255,76 +424,139 @@ public abstract class HttpMessageBuffer {
 	}
 
 	/**
-	 * This is easy: just look for two CRLF pairs.
+	 * This is easy: just look for two CRLF pairs. We pick up where
+	 * we left off on the previous read so nothing is scanned twice.
 	 * 
 	 * @return The index of the first byte of data after the headers or -1 if the
 	 *         headers are not all present.
 	 */
 	private int seekToContentStart() {
-		for (int i = 0; i < this.data.length; i++) {
+		int state = this.headerEndState;
+		for (int i = this.headerScan; i < this.offset; i++) {
 			byte ch = this.data[i];
-			if (this.data[i] == '\r') {
-				if (i > this.data.length - 4) {
-					return -1;
-				}
-				if (this.data[i + 1] == '\n' && this.data[i + 2] == '\r' && this.data[i + 3] == '\n') {
-					return i + 4;
+			if (ch == '\r') {
+				state = state == 2 ? 3 : 1;
+			} else if (ch == '\n' && (state == 1 || state == 3)) {
+				if (++state == 4) {
+					return i + 1;
 				}
+			} else {
+				state = 0;
 			}
 		}
+		this.headerScan = this.offset;
+		this.headerEndState = state;
 		return -1;
 	}
 
 	private Map<String, String> unpackHeaders(int contentStarts) throws Exception {
 		Map<String, String> headers = new LinkedHashMap<String, String>();
 		boolean firstLine = true;
-		int idx = 0;
-		int lineBegins = idx;
+		int lineBegins = 0;
 		while (true) {
-			// Seek to end of line
-			while (true) {
-				if (this.data[idx] == '\r' && this.data[idx + 1] == '\n') {
-					if (idx + 4 < contentStarts && (this.data[idx + 2] == ' ' || this.data[idx + 2] == '\t')) {
-						// Multiline header
-					} else {
-						break;
-					}
-				}
-				idx++;
-			}
+			int idx = this.seekToLineEnd(lineBegins, contentStarts);
 			if (lineBegins == idx) {
 				break;
 			}
-			String line = new String(this.data, lineBegins, idx - lineBegins, "ASCII");
 			if (firstLine) {
-				this.unpackPreamble(line);
+				this.unpackPreamble(new String(this.data, lineBegins, idx - lineBegins, "ASCII"));
 				firstLine = false;
 			} else {
-				this.addHeader(headers, line);
+				this.addHeader(headers, lineBegins, idx);
 			}
 
 			lineBegins = idx + 2;
-			idx += 2;
 		}
 		return headers;
 	}
 
-	private void addHeader(Map<String, String> headers, String line) {
-		int splitIdx = line.indexOf(':');
-		String name = this.normalizeHeaderName(line.substring(0, splitIdx).trim());
-		String value = line.substring(splitIdx + 1).trim();
+	// Returns the index of the CRLF ending the line starting at idx,
+	// skipping over any that are followed by a continuation line.
+	private int seekToLineEnd(int idx, int contentStarts) {
+		while (true) {
+			if (this.data[idx] == '\r' && this.data[idx + 1] == '\n') {
+				if (idx + 4 < contentStarts && (this.data[idx + 2] == ' ' || this.data[idx + 2] == '\t')) {
+					// Multiline header
+				} else {
+					return idx;
+				}
+			}
+			idx++;
+		}
+	}
+
+	private void addHeader(Map<String, String> headers, int lineBegins, int lineEnds) throws Exception {
+		int splitIdx = lineBegins;
+		while (splitIdx < lineEnds && this.data[splitIdx] != ':') {
+			splitIdx++;
+		}
+		if (splitIdx == lineEnds) {
+			throw new HttpBufferException("Malformed HTTP header: "
+					+ new String(this.data, lineBegins, lineEnds - lineBegins, "ASCII"));
+		}
+
+		// Trim the name and value the way String.trim() would
+		int nameBegins = lineBegins;
+		int nameEnds = splitIdx;
+		while (nameBegins < nameEnds && (this.data[nameBegins] & 0xFF) <= ' ') {
+			nameBegins++;
+		}
+		while (nameEnds > nameBegins && (this.data[nameEnds - 1] & 0xFF) <= ' ') {
+			nameEnds--;
+		}
+		int valueBegins = splitIdx + 1;
+		int valueEnds = lineEnds;
+		while (valueBegins < valueEnds && (this.data[valueBegins] & 0xFF) <= ' ') {
+			valueBegins++;
+		}
+		while (valueEnds > valueBegins && (this.data[valueEnds - 1] & 0xFF) <= ' ') {
+			valueEnds--;
+		}
 
-		if (headers.containsKey(name)) {
+		String name = this.knownHeaderName(nameBegins, nameEnds);
+		if (name == null) {
+			name = this.normalizeHeaderName(new String(this.data, nameBegins, nameEnds - nameBegins, "ASCII"));
+		}
+		String value = new String(this.data, valueBegins, valueEnds - valueBegins, "ASCII");
+
+		String prevValue = headers.get(name);
+		if (prevValue != null) {
 			// the spec allows us to roll these up into a single
 			// key:value pair where value is all the values
 			// of duplicate keys are comma separated (in
 			// the order in which they occur in the request)
-			String prevValue = (String) headers.get(name);
 			value = prevValue + ", " + value;
 		}
 		headers.put(name, value);
 	}
 
+	// Case-insensitively matches data[begins..ends) against the headers
+	// we know about and returns the matching (normalized) name, if any.
+	private String knownHeaderName(int begins, int ends) {
+		int len = ends - begins;
+		for (int i = 0; i < KNOWN_HEADER_BYTES.length; i++) {
+			byte[] known = KNOWN_HEADER_BYTES[i];
+			if (known.length != len) {
+				continue;
+			}
+			int j = 0;
+			while (j < len) {
+				int ch = this.data[begins + j];
+				if (ch >= 'A' && ch <= 'Z') {
+					ch += 'a' - 'A';
+				}
+				if (ch != known[j]) {
+					break;
+				}
+				j++;
+			}
+			if (j == len) {
+				return KNOWN_HEADERS[i];
+			}
+		}
+		return null;
+	}
+
 	protected abstract void unpackPreamble(String line) throws Exception;
 
 	public abstract double getHttpVersion();
@@ -336,10 +568,37 @@ public abstract class HttpMessageBuffer {
 	}
 
 	/**
-	 * This is more interesting. We need to find the content-length (mandatory
-	 * header according to the XMLRPC spec). Then we can check if the
+	 * Called once all of the headers for this message have been
+	 * received and validated, to find out whether anything wants
+	 * to see the content as it arrives.
+	 * <p>
+	 * This implementation returns <code>null</code>.
+	 * @return
+	 * 	A listener to hand the content to as it arrives, or
+	 * 	<code>null</code>.
+	 * @throws HttpBufferException
 	 */
-	private boolean isContentComplete() throws HttpBufferException {
+	protected HttpContentListener newContentListener() throws HttpBufferException {
+		return null;
+	}
+
+	// Hands the listener whatever content has arrived since we
+	// last did so, and tells it once it has all of it.
+	private void notifyContentListener() {
+		int received = Math.min(this.offset - this.contentStarts, this.contentLength);
+		if (received > this.contentNotified) {
+			this.contentListener.contentReceived(this.data, this.contentStarts + this.contentNotified, received
+					- this.contentNotified);
+			this.contentNotified = received;
+		}
+		if (this.contentNotified == this.contentLength) {
+			this.contentListener.contentComplete();
+		}
+	}
+
+	// Interprets the headers that describe the content. This only
+	// needs doing once, as soon as we have all of the headers.
+	private void unpackContentHeaders() throws HttpBufferException {
 		this.validateHeaders();
 
 		String contentTypeValue = this.getHeaderValue(HttpConstants.Headers.CONTENT_TYPE);
@@ -353,7 +612,7 @@ public abstract class HttpMessageBuffer {
 			}
 		}
 
-		String lenStr = (String) this.headers.get(this.normalizeHeaderName(HttpConstants.Headers.CONTENT_LENGTH));
+		String lenStr = (String) this.headers.get(HttpConstants.Headers.CONTENT_LENGTH);
 		try {
 			if (lenStr != null) {
 				this.contentLength = Integer.parseInt(lenStr);
@@ -361,18 +620,31 @@ public abstract class HttpMessageBuffer {
 		} catch (NumberFormatException e) {
 			throw new InvalidHeaderException(HttpConstants.Headers.CONTENT_LENGTH, lenStr, e);
 		}
-		int receivedLen = this.data.length - this.contentStarts;
+	}
+
+	/**
+	 * This is more interesting. We need to find the content-length (mandatory
+	 * header according to the XMLRPC spec). Then we can check if the
+	 */
+	private boolean isContentComplete() {
+		int receivedLen = this.offset - this.contentStarts;
 //		if (receivedLen > this.contentLength) {
 //			throw new ExcessiveContentException("Content length (" + this.contentLength + ") exceeded: "
 //					+ receivedLen);
 //		}
 
 		if (receivedLen < this.contentLength) {
+			// Make room for (at least some of) the rest of the body
+			// now so we don't copy what we have again as it arrives.
+			// Anything too big to trust the header for grows with the
+			// data.
+			int capacity = this.contentStarts + Math.min(this.contentLength, MAX_PREALLOCATION);
+			if (this.data.length < capacity) {
+				this.resize(capacity);
+			}
 			return false;
 		}
 
-		this.content = new byte[this.contentLength];
-		System.arraycopy(this.data, this.contentStarts, this.content, 0, this.content.length);
 		return true;
 	}
 
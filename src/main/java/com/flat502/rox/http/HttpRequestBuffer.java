@@ -37,6 +37,10 @@ public class HttpRequestBuffer extends HttpMessageBuffer {
 
 	private Map<String, Float> acceptedEncodings;
 
+	// Where this request falls among those received on its 
+	// connection, so responses can be sent in the same order.
+	private int sequence = -1;
+
 	public HttpRequestBuffer(HttpRpcServer server, Socket socket) {
 		this(server, socket, null);
 	}
@@ -65,6 +69,21 @@ public class HttpRequestBuffer extends HttpMessageBuffer {
 		return this.uri;
 	}
 
+	/**
+	 * Returns the position of this request among those received
+	 * on its connection. The response to this request will not
+	 * be sent until responses to all earlier requests have been.
+	 * @return
+	 * 	The sequence number, or -1 if none has been assigned.
+	 */
+	public int getSequence() {
+		return this.sequence;
+	}
+
+	public void setSequence(int sequence) {
+		this.sequence = sequence;
+	}
+
 	public boolean isComplete() throws Exception {
 		try {
 			return super.isComplete();
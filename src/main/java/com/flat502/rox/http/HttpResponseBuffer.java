@@ -110,6 +110,17 @@ public class HttpResponseBuffer extends HttpMessageBuffer {
 		return this.statusCode;
 	}
 	
+	/**
+	 * Get the {@link Encoding} the content of this response was
+	 * encoded with.
+	 * @return
+	 * 	The encoding, or <code>null</code> if the content was not
+	 * 	encoded.
+	 */
+	public Encoding getContentEncoding() {
+		return this.responseEncoding;
+	}
+
 	public InputStream getContentStream() throws IOException {
 		if (this.responseEncoding != null) {
 			return this.responseEncoding.getDecoder(super.getContentStream());
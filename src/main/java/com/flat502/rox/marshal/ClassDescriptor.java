@@ -4,11 +4,14 @@ import java.beans.BeanInfo;
 import java.beans.IntrospectionException;
 import java.beans.Introspector;
 import java.beans.PropertyDescriptor;
+import java.lang.reflect.AccessibleObject;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Member;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Defines an interface for accessing members of a Java 
@@ -28,12 +31,110 @@ import java.util.*;
  * sense) accessible via either a public getter or setter 
  * method. If there is an overlap (i.e. a setter or getter
  * exists for a public field) methods are given precedence.
+ * <p>
+ * Members are resolved to an {@link Accessor} once, when an
+ * instance is created. Callers that handle every member of an
+ * object (a marshaller, for example) can iterate over
+ * {@link #getterPlan()} rather than looking each one up by name.
  */
 public class ClassDescriptor {
-	private static Map cache = new HashMap();
+	private static Map cache = new ConcurrentHashMap();
+
+	private static final Accessor[] NO_ACCESSORS = new Accessor[0];
+
+	/**
+	 * Reads or writes a single member of instances of a class,
+	 * whether it's a public field or a property accessed through
+	 * a getter or setter method.
+	 * <p>
+	 * An accessor obtained from {@link ClassDescriptor#getterPlan()}
+	 * or {@link ClassDescriptor#getGetter(String)} can only be used
+	 * to read a member. One obtained from
+	 * {@link ClassDescriptor#setterPlan()} or
+	 * {@link ClassDescriptor#getSetter(String)} can only be used to
+	 * write it.
+	 */
+	public static final class Accessor {
+		private String name;
+		private Class type;
+		private Method method;
+		private Field field;
+
+		private Accessor(String name, Method method, Class type) {
+			this.name = name;
+			this.method = method;
+			this.type = type;
+			skipAccessChecks(method);
+		}
+
+		private Accessor(Field field) {
+			this.name = field.getName();
+			this.field = field;
+			this.type = field.getType();
+			skipAccessChecks(field);
+		}
+
+		// Java checks access on every call unless told not to. Only
+		// do that where the check would pass anyway.
+		private static void skipAccessChecks(Member member) {
+			if (Modifier.isPublic(member.getDeclaringClass().getModifiers())) {
+				try {
+					((AccessibleObject) member).setAccessible(true);
+				} catch (RuntimeException e) {
+					// A security manager (or module system) said no
+				}
+			}
+		}
+
+		/**
+		 * @return
+		 * 	The name of the member.
+		 */
+		public String getName() {
+			return this.name;
+		}
+
+		/**
+		 * @return
+		 * 	The type of the member: the return type of its getter
+		 * 	or the parameter type of its setter if it is accessed
+		 * 	through a method.
+		 */
+		public Class getType() {
+			return this.type;
+		}
+
+		/**
+		 * Get the value of this member.
+		 * @see ClassDescriptor#getValue(Object, String)
+		 */
+		public Object get(Object target) throws IllegalAccessException, InvocationTargetException {
+			if (this.method != null) {
+				return this.method.invoke(target, (Object[]) null);
+			}
+			return this.field.get(target);
+		}
+
+		/**
+		 * Set the value of this member.
+		 * @see ClassDescriptor#setValue(Object, String, Object)
+		 */
+		public void set(Object target, Object value) throws IllegalAccessException, InvocationTargetException {
+			if (this.method != null) {
+				this.method.invoke(target, new Object[] { value });
+			} else {
+				this.field.set(target, value);
+			}
+		}
+
+		public String toString() {
+			return this.name;
+		}
+	}
 
 	// TODO: How do we cope with method overloading?
-	private Map fields = new HashMap();
+	// Accessors by name. Methods take precedence when
+	// there's an overlap.
 	private Map getters = new HashMap();
 	private Map setters = new HashMap();
 
@@ -43,6 +144,10 @@ public class ClassDescriptor {
 	private Set getterNames = new TreeSet();
 	private Set setterNames = new TreeSet();
 
+	// The accessors above, in name order
+	private Accessor[] getterPlan;
+	private Accessor[] setterPlan;
+
 	private Class clazz;
 
 	private ClassDescriptor(Class clazz) throws IntrospectionException {
@@ -77,16 +182,9 @@ public class ClassDescriptor {
 			IllegalAccessException, InvocationTargetException {
 		this.validateAccessorArgs(target, name);
 
-		//  Methods take precendence when there's an overlap.
-		Method setter = (Method) this.setters.get(name);
+		Accessor setter = (Accessor) this.setters.get(name);
 		if (setter != null) {
-			setter.invoke(target, new Object[] { value });
-			return;
-		}
-
-		Field field = (Field) this.fields.get(name);
-		if (field != null) {
-			field.set(target, value);
+			setter.set(target, value);
 			return;
 		}
 
@@ -116,15 +214,9 @@ public class ClassDescriptor {
 			InvocationTargetException {
 		this.validateAccessorArgs(target, name);
 
-		// Methods take precendence when there's an overlap.
-		Method getter = (Method) this.getters.get(name);
+		Accessor getter = (Accessor) this.getters.get(name);
 		if (getter != null) {
-			return getter.invoke(target, (Object[])null);
-		}
-
-		Field field = (Field) this.fields.get(name);
-		if (field != null) {
-			return field.get(target);
+			return getter.get(target);
 		}
 
 		throw new IllegalArgumentException("No getter for " + name);
@@ -160,39 +252,69 @@ public class ClassDescriptor {
 		return this.setterNames.iterator();
 	}
 
-	public Class getGetterType(String name) {
+	/**
+	 * Provides the accessors for the readable properties on the 
+	 * represented {@link Class}, in the same order as 
+	 * {@link #getters()}.
+	 * <p>
+	 * The array returned is shared and must not be modified.
+	 * @return
+	 * 	The accessors for the readable properties.
+	 */
+	public Accessor[] getterPlan() {
+		return this.getterPlan;
+	}
+
+	/**
+	 * Provides the accessors for the writeable properties on the 
+	 * represented {@link Class}, in the same order as 
+	 * {@link #setters()}.
+	 * <p>
+	 * The array returned is shared and must not be modified.
+	 * @return
+	 * 	The accessors for the writeable properties.
+	 */
+	public Accessor[] setterPlan() {
+		return this.setterPlan;
+	}
+
+	/**
+	 * @return
+	 * 	The accessor for reading the named property, or 
+	 * 	<code>null</code> if it isn't readable.
+	 */
+	public Accessor getGetter(String name) {
 		if (name == null) {
 			throw new IllegalArgumentException("name is null");
 		}
+		return (Accessor) this.getters.get(name);
+	}
 
-		//  Methods take precendence when there's an overlap.
-		Method getter = (Method) this.getters.get(name);
-		if (getter != null) {
-			return getter.getReturnType();
+	/**
+	 * @return
+	 * 	The accessor for writing the named property, or 
+	 * 	<code>null</code> if it isn't writeable.
+	 */
+	public Accessor getSetter(String name) {
+		if (name == null) {
+			throw new IllegalArgumentException("name is null");
 		}
+		return (Accessor) this.setters.get(name);
+	}
 
-		Field field = (Field) this.fields.get(name);
-		if (field != null) {
-			return field.getType();
+	public Class getGetterType(String name) {
+		Accessor getter = this.getGetter(name);
+		if (getter != null) {
+			return getter.getType();
 		}
 
 		throw new IllegalArgumentException("No getter for " + name);
 	}
 
 	public Class getSetterType(String name) {
-		if (name == null) {
-			throw new IllegalArgumentException("name is null");
-		}
-
-		//  Methods take precendence when there's an overlap.
-		Method setter = (Method) this.setters.get(name);
+		Accessor setter = this.getSetter(name);
 		if (setter != null) {
-			return setter.getParameterTypes()[0];
-		}
-
-		Field field = (Field) this.fields.get(name);
-		if (field != null) {
-			return field.getType();
+			return setter.getType();
 		}
 
 		throw new IllegalArgumentException("No setter for " + name + " on " + clazz.getName());
@@ -230,25 +352,46 @@ public class ClassDescriptor {
 			if ((modifiers & Modifier.FINAL) != 0) {
 				continue;
 			}
-			this.fields.put(pubFields[i].getName(), pubFields[i]);
-			this.getterNames.add(pubFields[i].getName());
-			this.setterNames.add(pubFields[i].getName());
+			Accessor accessor = new Accessor(pubFields[i]);
+			this.getters.put(accessor.getName(), accessor);
+			this.setters.put(accessor.getName(), accessor);
+			this.getterNames.add(accessor.getName());
+			this.setterNames.add(accessor.getName());
 		}
 
-		// Introspect for getter and setter methods.
+		// Introspect for getter and setter methods. These replace
+		// any field of the same name.
 		BeanInfo info = Introspector.getBeanInfo(clazz, Object.class);
 
 		PropertyDescriptor[] props = info.getPropertyDescriptors();
 		for (int i = 0; i < props.length; i++) {
-			if (props[i].getReadMethod() != null) {
-				this.getters.put(props[i].getName(), props[i].getReadMethod());
+			Method getter = props[i].getReadMethod();
+			if (getter != null) {
+				this.getters.put(props[i].getName(), new Accessor(props[i].getName(), getter, getter.getReturnType()));
 				this.getterNames.add(props[i].getName());
 			}
-			if (props[i].getWriteMethod() != null) {
-				this.setters.put(props[i].getName(), props[i].getWriteMethod());
+			Method setter = props[i].getWriteMethod();
+			if (setter != null) {
+				this.setters.put(props[i].getName(), new Accessor(props[i].getName(), setter,
+						setter.getParameterTypes()[0]));
 				this.setterNames.add(props[i].getName());
 			}
 		}
+
+		this.getterPlan = this.plan(this.getterNames, this.getters);
+		this.setterPlan = this.plan(this.setterNames, this.setters);
+	}
+
+	private Accessor[] plan(Set names, Map accessors) {
+		if (names.isEmpty()) {
+			return NO_ACCESSORS;
+		}
+		Accessor[] plan = new Accessor[names.size()];
+		Iterator iter = names.iterator();
+		for (int i = 0; iter.hasNext(); i++) {
+			plan[i] = (Accessor) accessors.get(iter.next());
+		}
+		return plan;
 	}
 
 	/**
@@ -270,14 +413,17 @@ public class ClassDescriptor {
 		if (clazz == null) {
 			throw new IllegalArgumentException("null clazz");
 		}
-		synchronized (cache) {
-			ClassDescriptor descriptor = (ClassDescriptor) cache.get(clazz);
+		ClassDescriptor descriptor = (ClassDescriptor) cache.get(clazz);
+		if (descriptor == null) {
+			// Two threads may both introspect the class, but only one
+			// instance is ever handed out.
+			ClassDescriptor newDescriptor = new ClassDescriptor(clazz);
+			descriptor = (ClassDescriptor) ((ConcurrentHashMap) cache).putIfAbsent(clazz, newDescriptor);
 			if (descriptor == null) {
-				descriptor = new ClassDescriptor(clazz);
-				cache.put(clazz, descriptor);
+				descriptor = newDescriptor;
 			}
-			return descriptor;
 		}
+		return descriptor;
 	}
 
     public String toString() { return "[CD for " + clazz.getName() + "]"; }
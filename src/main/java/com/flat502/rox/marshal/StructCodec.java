@@ -0,0 +1,79 @@
+package com.flat502.rox.marshal;
+
+import java.io.IOException;
+
+/**
+ * Reads and writes the members of a single class without reflection.
+ * <p>
+ * Implementations are usually generated by 
+ * {@link com.flat502.rox.processor.StructCodecProcessor} for classes
+ * annotated with {@link XmlRpcStruct}, and located through
+ * {@link StructCodecRegistry}. A codec must behave exactly as
+ * {@link ClassDescriptor} would for the same class: the same members,
+ * visited in the same order, with methods taking precedence over
+ * fields of the same name.
+ * <p>
+ * Members that can be set are identified by an index, from 0 to
+ * one less than the number of setters, so that a member can be
+ * located once and then set without any further lookups.
+ */
+public interface StructCodec {
+	/**
+	 * Receives the members of an object as a {@link StructCodec}
+	 * visits them.
+	 */
+	public interface MemberWriter {
+		/**
+		 * @param name
+		 * 	The name of the field or property.
+		 * @param value
+		 * 	Its value, boxed if it is a primitive.
+		 */
+		void writeMember(String name, Object value) throws MarshallingException, IOException;
+	}
+
+	/**
+	 * @return
+	 * 	The class this codec handles.
+	 */
+	Class getStructClass();
+
+	/**
+	 * @return
+	 * 	A new instance of the class this codec handles.
+	 * @throws UnsupportedOperationException
+	 * 	if the class has no public no-argument constructor.
+	 */
+	Object newInstance();
+
+	/**
+	 * Pass the name and value of each readable member of an object
+	 * to a {@link MemberWriter}, in the same order as 
+	 * {@link ClassDescriptor#getters()}.
+	 */
+	void writeMembers(Object struct, MemberWriter writer) throws MarshallingException, IOException;
+
+	/**
+	 * @param name
+	 * 	The name of a field or property.
+	 * @return
+	 * 	The index of the named writeable member, or -1 if there
+	 * 	isn't one.
+	 */
+	int getSetterIndex(String name);
+
+	/**
+	 * @return
+	 * 	The type of the writeable member at the given index.
+	 */
+	Class getSetterType(int index);
+
+	/**
+	 * Set the writeable member at the given index.
+	 * @param value
+	 * 	The new value, which must already be of the type 
+	 * 	returned by {@link #getSetterType(int)} (or its boxed 
+	 * 	equivalent).
+	 */
+	void setMember(Object struct, int index, Object value);
+}
@@ -0,0 +1,92 @@
+package com.flat502.rox.marshal;
+
+import java.lang.reflect.InvocationTargetException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Locates the {@link StructCodec} for a class, if it has one.
+ * <p>
+ * A codec is found either because it was registered explicitly,
+ * using {@link #register(StructCodec)}, or because the class is 
+ * annotated with {@link XmlRpcStruct} and a codec was generated for
+ * it by {@link com.flat502.rox.processor.StructCodecProcessor}. 
+ * Generated codecs are named by {@link #getCodecClassName(Class)}
+ * and are loaded by the same class loader as the class they handle.
+ * <p>
+ * The outcome of a lookup is cached, including the absence of
+ * a codec.
+ */
+public class StructCodecRegistry {
+	// Cached in place of a codec for classes known not to have one
+	private static final Object NO_CODEC = new Object();
+
+	// Codecs (or NO_CODEC) by the class they handle
+	private static Map codecs = new ConcurrentHashMap();
+
+	private StructCodecRegistry() {
+	}
+
+	/**
+	 * @return
+	 * 	The codec for the given class, or <code>null</code> if it 
+	 * 	doesn't have one.
+	 */
+	public static StructCodec getCodec(Class clazz) {
+		Object codec = codecs.get(clazz);
+		if (codec == null) {
+			codec = findCodec(clazz);
+			if (codec == null) {
+				codec = NO_CODEC;
+			}
+			codecs.put(clazz, codec);
+		}
+		return codec == NO_CODEC ? null : (StructCodec) codec;
+	}
+
+	/**
+	 * Register a codec, replacing any codec found (or registered)
+	 * for the same class previously.
+	 */
+	public static void register(StructCodec codec) {
+		codecs.put(codec.getStructClass(), codec);
+	}
+
+	/**
+	 * Forget any codec found or registered for a class. The next
+	 * lookup for the class will search for a generated codec again.
+	 */
+	public static void unregister(Class clazz) {
+		codecs.remove(clazz);
+	}
+
+	/**
+	 * @return
+	 * 	The fully qualified name of the codec generated for a class.
+	 * 	This is the name of the class with any <code>$</code>
+	 * 	separating nested class names replaced by <code>_</code>, 
+	 * 	followed by <code>_StructCodec</code>.
+	 */
+	public static String getCodecClassName(Class clazz) {
+		return clazz.getName().replace('$', '_') + "_StructCodec";
+	}
+
+	private static StructCodec findCodec(Class clazz) {
+		if (!clazz.isAnnotationPresent(XmlRpcStruct.class)) {
+			return null;
+		}
+		try {
+			Class codecClass = Class.forName(getCodecClassName(clazz), true, clazz.getClassLoader());
+			return (StructCodec) codecClass.getConstructor((Class[]) null).newInstance((Object[]) null);
+		} catch (ClassNotFoundException e) {
+			// The processor wasn't run
+			return null;
+		} catch (InvocationTargetException e) {
+			throw (IllegalStateException) new IllegalStateException("Couldn't instantiate codec for "
+					+ clazz.getName()).initCause(e.getTargetException());
+		} catch (Exception e) {
+			throw (IllegalStateException) new IllegalStateException("Couldn't instantiate codec for "
+					+ clazz.getName()).initCause(e);
+		}
+	}
+}
@@ -0,0 +1,32 @@
+package com.flat502.rox.marshal;
+
+import java.lang.annotation.Documented;
+import java.lang.annotation.ElementType;
+import java.lang.annotation.Retention;
+import java.lang.annotation.RetentionPolicy;
+import java.lang.annotation.Target;
+
+/**
+ * Marks a class whose instances are marshalled as XML-RPC structs.
+ * <p>
+ * Annotating a class has no effect on its own. When the class is 
+ * compiled with {@link com.flat502.rox.processor.StructCodecProcessor}
+ * a {@link StructCodec} is generated for it, and the marshaller and
+ * unmarshaller use that codec (see {@link StructCodecRegistry}) in
+ * place of reflection. Without the processor the class is
+ * marshalled using {@link ClassDescriptor} as usual.
+ * <p>
+ * The generated codec handles the same members 
+ * {@link ClassDescriptor} does: public fields that aren't static,
+ * transient or final, and JavaBean properties with public getters 
+ * or setters.
+ * <p>
+ * No codec is generated for an abstract class or a class without a
+ * public no-argument constructor. The processor warns about these and
+ * they are marshalled using {@link ClassDescriptor}.
+ */
+@Documented
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.TYPE)
+public @interface XmlRpcStruct {
+}
@@ -0,0 +1,152 @@
+package com.flat502.rox.marshal.xmlrpc;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+import org.xml.sax.SAXException;
+
+import com.flat502.rox.marshal.MarshallingException;
+import com.flat502.rox.marshal.RpcCall;
+
+/**
+ * Unmarshals an XML-RPC method call from raw bytes handed to it
+ * as they arrive, so the call is ready as soon as the last of
+ * them has.
+ * <p>
+ * Instances are obtained from
+ * {@link SaxMethodCallUnmarshaller#newPushParser(com.flat502.rox.marshal.MethodCallUnmarshallerAid, Charset)}
+ * and hold on to a parser from the unmarshaller's pool until
+ * {@link #finish()} or {@link #abandon()} is called. Once either
+ * has been called, or a method throws an exception, an instance
+ * can't be used again.
+ */
+public class MethodCallPushParser {
+	private static final int CHUNK_SIZE = 8192;
+
+	private SaxMethodCallUnmarshaller owner;
+	private SaxParserPool pool;
+	private XmlRpcSaxParser parser;
+	private SaxUnmarshaller unmarshaller;
+
+	private CharsetDecoder decoder;
+	private CharBuffer chars = CharBuffer.allocate(CHUNK_SIZE);
+	// The start of a multi-byte character split across two pieces
+	private ByteBuffer partial = ByteBuffer.allocate(16);
+
+	MethodCallPushParser(SaxMethodCallUnmarshaller owner, SaxParserPool pool, XmlRpcSaxParser parser,
+			SaxUnmarshaller unmarshaller, Charset charset) throws SAXException {
+		this.owner = owner;
+		this.pool = pool;
+		this.parser = parser;
+		this.unmarshaller = unmarshaller;
+		// Malformed input is handled the same way an InputStreamReader
+		// would handle it, so the result doesn't depend on which path
+		// a call took.
+		this.decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE).onUnmappableCharacter(
+				CodingErrorAction.REPLACE);
+		this.parser.startPush(unmarshaller);
+	}
+
+	/**
+	 * Parse the next piece of the method call.
+	 * @param data
+	 * 	The buffer holding the piece.
+	 * @param offset
+	 * 	The offset of the piece within <code>data</code>.
+	 * @param length
+	 * 	The length of the piece.
+	 * @throws MarshallingException
+	 * 	if the XML received so far is malformed.
+	 */
+	public void write(byte[] data, int offset, int length) throws MarshallingException {
+		this.checkActive();
+		try {
+			ByteBuffer in = ByteBuffer.wrap(data, offset, length);
+			while (this.partial.position() > 0 && in.hasRemaining()) {
+				// Complete the split character a byte at a time
+				this.partial.put(in.get());
+				this.partial.flip();
+				this.decode(this.partial, false);
+				this.partial.compact();
+			}
+			this.decode(in, false);
+			if (in.hasRemaining()) {
+				this.partial.put(in);
+			}
+		} catch (SAXException e) {
+			this.abandon();
+			throw new MarshallingException(e);
+		}
+	}
+
+	/**
+	 * Complete the method call once all of it has been passed to
+	 * {@link #write(byte[], int, int)}.
+	 * @return
+	 * 	The method call.
+	 * @throws MarshallingException
+	 * 	if the XML is malformed or incomplete.
+	 */
+	public RpcCall finish() throws MarshallingException {
+		this.checkActive();
+		try {
+			this.partial.flip();
+			this.decode(this.partial, true);
+			this.decoder.flush(this.chars);
+			this.flushChars();
+			this.parser.endPush();
+
+			RpcCall call = this.owner.buildXmlRpcMethodCall(this.unmarshaller);
+			this.pool.returnUnmarshaller(this.unmarshaller);
+			return call;
+		} catch (SAXException e) {
+			throw new MarshallingException(e);
+		} finally {
+			// Whatever went wrong, the parser goes back to the pool
+			this.abandon();
+		}
+	}
+
+	/**
+	 * Stop parsing, releasing the parser this instance holds.
+	 * <p>
+	 * This should be called if the rest of the method call will
+	 * never arrive.
+	 */
+	public void abandon() {
+		if (this.parser != null) {
+			// The unmarshaller isn't reused, just as it isn't when a
+			// blocking parse fails.
+			this.pool.returnParser(this.parser);
+			this.parser = null;
+		}
+	}
+
+	private void checkActive() {
+		if (this.parser == null) {
+			throw new IllegalStateException("This parser has been finished or abandoned");
+		}
+	}
+
+	private void decode(ByteBuffer in, boolean endOfInput) throws SAXException {
+		for (;;) {
+			CoderResult result = this.decoder.decode(in, this.chars, endOfInput);
+			this.flushChars();
+			if (result.isUnderflow()) {
+				return;
+			}
+		}
+	}
+
+	private void flushChars() throws SAXException {
+		if (this.chars.position() > 0) {
+			this.chars.flip();
+			this.parser.push(this.chars.array(), 0, this.chars.limit());
+			this.chars.clear();
+		}
+	}
+}
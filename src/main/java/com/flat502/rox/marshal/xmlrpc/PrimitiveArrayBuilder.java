@@ -0,0 +1,185 @@
+package com.flat502.rox.marshal.xmlrpc;
+
+import com.flat502.rox.marshal.MarshallingException;
+
+/**
+ * Accumulates the elements of an XML-RPC array being unmarshalled
+ * as an array of <code>int</code>, <code>long</code>,
+ * <code>double</code>, <code>float</code> or <code>boolean</code>
+ * values, without boxing them.
+ * <p>
+ * Elements are appended to a buffer that grows as needed, and
+ * {@link #toArray()} copies them into an array of the right size
+ * once the array is complete.
+ */
+class PrimitiveArrayBuilder {
+	private static final int INITIAL_CAPACITY = 16;
+
+	private Class componentType;
+	private int size;
+
+	// Exactly one of these is used, depending on componentType
+	private int[] ints;
+	private long[] longs;
+	private double[] doubles;
+	private float[] floats;
+	private boolean[] booleans;
+
+	private PrimitiveArrayBuilder(Class componentType) {
+		this.componentType = componentType;
+		if (componentType == Integer.TYPE) {
+			this.ints = new int[INITIAL_CAPACITY];
+		} else if (componentType == Long.TYPE) {
+			this.longs = new long[INITIAL_CAPACITY];
+		} else if (componentType == Double.TYPE) {
+			this.doubles = new double[INITIAL_CAPACITY];
+		} else if (componentType == Float.TYPE) {
+			this.floats = new float[INITIAL_CAPACITY];
+		} else {
+			this.booleans = new boolean[INITIAL_CAPACITY];
+		}
+	}
+
+	/**
+	 * @param arrayType
+	 * 	The type of array being unmarshalled.
+	 * @return
+	 * 	A new builder, or <code>null</code> if arrays of the given
+	 * 	type aren't supported.
+	 */
+	public static PrimitiveArrayBuilder newInstance(Class arrayType) {
+		Class componentType = arrayType.getComponentType();
+		if (componentType == Integer.TYPE || componentType == Long.TYPE || componentType == Double.TYPE
+				|| componentType == Float.TYPE || componentType == Boolean.TYPE) {
+			return new PrimitiveArrayBuilder(componentType);
+		}
+		return null;
+	}
+
+	/**
+	 * @return
+	 * 	<code>true</code> if this builder accepts XML-RPC 
+	 * 	<code>&lt;int&gt;</code> values.
+	 */
+	public boolean acceptsInt() {
+		return this.ints != null || this.longs != null;
+	}
+
+	/**
+	 * @return
+	 * 	<code>true</code> if this builder accepts XML-RPC 
+	 * 	<code>&lt;double&gt;</code> values.
+	 */
+	public boolean acceptsDouble() {
+		return this.doubles != null || this.floats != null;
+	}
+
+	/**
+	 * @return
+	 * 	<code>true</code> if this builder accepts XML-RPC 
+	 * 	<code>&lt;boolean&gt;</code> values.
+	 */
+	public boolean acceptsBoolean() {
+		return this.booleans != null;
+	}
+
+	public void addInt(int value) {
+		if (this.ints != null) {
+			if (this.size == this.ints.length) {
+				int[] grown = new int[this.size * 2];
+				System.arraycopy(this.ints, 0, grown, 0, this.size);
+				this.ints = grown;
+			}
+			this.ints[this.size++] = value;
+		} else {
+			this.addLong(value);
+		}
+	}
+
+	private void addLong(long value) {
+		if (this.size == this.longs.length) {
+			long[] grown = new long[this.size * 2];
+			System.arraycopy(this.longs, 0, grown, 0, this.size);
+			this.longs = grown;
+		}
+		this.longs[this.size++] = value;
+	}
+
+	public void addDouble(double value) {
+		if (this.doubles != null) {
+			if (this.size == this.doubles.length) {
+				double[] grown = new double[this.size * 2];
+				System.arraycopy(this.doubles, 0, grown, 0, this.size);
+				this.doubles = grown;
+			}
+			this.doubles[this.size++] = value;
+		} else {
+			if (this.size == this.floats.length) {
+				float[] grown = new float[this.size * 2];
+				System.arraycopy(this.floats, 0, grown, 0, this.size);
+				this.floats = grown;
+			}
+			this.floats[this.size++] = (float) value;
+		}
+	}
+
+	public void addBoolean(boolean value) {
+		if (this.size == this.booleans.length) {
+			boolean[] grown = new boolean[this.size * 2];
+			System.arraycopy(this.booleans, 0, grown, 0, this.size);
+			this.booleans = grown;
+		}
+		this.booleans[this.size++] = value;
+	}
+
+	/**
+	 * Append a boxed value. This handles values that weren't
+	 * unmarshalled directly into this builder.
+	 * @throws MarshallingException
+	 * 	if the value can't be converted to the component type.
+	 */
+	public void add(Object value) throws MarshallingException {
+		if (value instanceof Integer && this.acceptsInt()) {
+			this.addInt(((Integer) value).intValue());
+		} else if (value instanceof Long && this.longs != null) {
+			this.addLong(((Long) value).longValue());
+		} else if ((value instanceof Double || value instanceof Float) && this.acceptsDouble()) {
+			this.addDouble(((Number) value).doubleValue());
+		} else if (value instanceof Boolean && this.acceptsBoolean()) {
+			this.addBoolean(((Boolean) value).booleanValue());
+		} else {
+			throw new MarshallingException("Incompatible value (" + (value == null ? "null" : value.getClass().getName())
+					+ ") for an element of " + this.componentType.getName() + "[]");
+		}
+	}
+
+	/**
+	 * @return
+	 * 	A new array holding the elements added so far.
+	 */
+	public Object toArray() {
+		if (this.ints != null) {
+			int[] array = new int[this.size];
+			System.arraycopy(this.ints, 0, array, 0, this.size);
+			return array;
+		}
+		if (this.longs != null) {
+			long[] array = new long[this.size];
+			System.arraycopy(this.longs, 0, array, 0, this.size);
+			return array;
+		}
+		if (this.doubles != null) {
+			double[] array = new double[this.size];
+			System.arraycopy(this.doubles, 0, array, 0, this.size);
+			return array;
+		}
+		if (this.floats != null) {
+			float[] array = new float[this.size];
+			System.arraycopy(this.floats, 0, array, 0, this.size);
+			return array;
+		}
+		boolean[] array = new boolean[this.size];
+		System.arraycopy(this.booleans, 0, array, 0, this.size);
+		return array;
+	}
+}
@@ -3,6 +3,8 @@ package com.flat502.rox.marshal.xmlrpc;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import javax.xml.parsers.SAXParser;
 
@@ -35,16 +37,18 @@ public class SaxMethodCallUnmarshaller implements ExtendedMethodCallUnmarshaller
 		return new XmlRpcMethodCall(unmarshaller.getMethodName(), unmarshaller.getParams());
 	}
 
-	private RpcCall unmarshalAny(Object in, MethodCallUnmarshallerAid aid) throws Exception {
+	private RpcCall unmarshalAny(Object in, Charset charset, MethodCallUnmarshallerAid aid) throws Exception {
 		SAXParser parser = pool.provideParser();
 		try {
 			SaxUnmarshaller unmarshaller = pool.provideUnmarshaller();
 			unmarshaller.expectRequest(true);
 			unmarshaller.setCallAid(aid);
 			if (in instanceof InputStream) {
-				parser.parse((InputStream) in, unmarshaller.getSaxHandler());
+				XmlRpcUtils.parse(parser, new InputSource((InputStream) in), unmarshaller);
+			} else if (in instanceof ByteBuffer) {
+				XmlRpcUtils.parse(parser, (ByteBuffer) in, charset, unmarshaller);
 			} else {
-				parser.parse((InputSource) in, unmarshaller.getSaxHandler());
+				XmlRpcUtils.parse(parser, (InputSource) in, unmarshaller);
 			}
 
 			RpcCall call = buildXmlRpcMethodCall(unmarshaller);
@@ -57,12 +61,67 @@ public class SaxMethodCallUnmarshaller implements ExtendedMethodCallUnmarshaller
 		}
 	}
 
+	/**
+	 * Begin unmarshalling a method call that will be supplied
+	 * as raw bytes, a piece at a time, as they arrive.
+	 * <p>
+	 * This is only possible when this unmarshaller's pool is
+	 * using the internal SAX parser. Standard SAX parsers can
+	 * only pull input from a stream.
+	 * @param aid
+	 * 	An unmarshaller aid, or <code>null</code>.
+	 * @param charset
+	 * 	The character set the XML is encoded in.
+	 * @return
+	 * 	A parser to hand the bytes to, or <code>null</code> if
+	 * 	method calls can't be unmarshalled this way.
+	 */
+	public MethodCallPushParser newPushParser(MethodCallUnmarshallerAid aid, Charset charset) throws Exception {
+		SAXParser parser = pool.provideParser();
+		if (!(parser instanceof XmlRpcSaxParser)) {
+			pool.returnParser(parser);
+			return null;
+		}
+
+		try {
+			SaxUnmarshaller unmarshaller = pool.provideUnmarshaller();
+			unmarshaller.expectRequest(true);
+			unmarshaller.setCallAid(aid);
+			return new MethodCallPushParser(this, pool, (XmlRpcSaxParser) parser, unmarshaller, charset);
+		} catch (SAXException e) {
+			pool.returnParser(parser);
+			throw new MarshallingException(e);
+		}
+	}
+
 	public RpcCall unmarshal(InputStream in, MethodCallUnmarshallerAid aid) throws Exception {
-		return unmarshalAny(in, aid);
+		return unmarshalAny(in, null, aid);
 	}
 
 	protected RpcCall unmarshal(InputSource in, MethodCallUnmarshallerAid aid) throws Exception {
-		return unmarshalAny(in, aid);
+		return unmarshalAny(in, null, aid);
+	}
+
+	/**
+	 * Unmarshal an {@link RpcCall} instance from a complete document
+	 * held in a {@link ByteBuffer}.
+	 * <p>
+	 * If the internal SAX parser is in use and the document's character 
+	 * set is one it can 
+	 * {@link XmlRpcSaxParser#isByteCompatible(Charset) parse as bytes}
+	 * the document is parsed without being decoded up front. Otherwise
+	 * it is decoded and parsed as usual.
+	 * @param in
+	 * 	The document, between the buffer's position and limit. Neither
+	 * 	is changed.
+	 * @param charset
+	 * 	The character set the document is encoded in. If this is
+	 * 	<code>null</code> UTF-8 is assumed.
+	 * @param aid
+	 * 	An unmarshaller aid, or <code>null</code>.
+	 */
+	public RpcCall unmarshal(ByteBuffer in, Charset charset, MethodCallUnmarshallerAid aid) throws Exception {
+		return unmarshalAny(in, charset, aid);
 	}
 
 	public RpcCall unmarshal(Reader in, MethodCallUnmarshallerAid aid) throws Exception {
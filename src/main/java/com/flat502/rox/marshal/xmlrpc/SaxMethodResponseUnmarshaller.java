@@ -3,6 +3,8 @@ package com.flat502.rox.marshal.xmlrpc;
 import java.io.InputStream;
 import java.io.Reader;
 import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import javax.xml.parsers.SAXParser;
 
@@ -35,7 +37,7 @@ public class SaxMethodResponseUnmarshaller implements ExtendedMethodResponseUnma
 		}
 	}
 
-	private RpcResponse unmarshalAny(Object in, MethodResponseUnmarshallerAid aid) throws Exception {
+	private RpcResponse unmarshalAny(Object in, Charset charset, MethodResponseUnmarshallerAid aid) throws Exception {
 		SAXParser parser = pool.provideParser();
 		try {
 			SaxUnmarshaller unmarshaller = pool.provideUnmarshaller();
@@ -43,9 +45,11 @@ public class SaxMethodResponseUnmarshaller implements ExtendedMethodResponseUnma
 				unmarshaller.expectRequest(false);
 				unmarshaller.setResponseAid(aid);
 				if (in instanceof InputStream) {
-					parser.parse((InputStream) in, unmarshaller.getSaxHandler());
+					XmlRpcUtils.parse(parser, new InputSource((InputStream) in), unmarshaller);
+				} else if (in instanceof ByteBuffer) {
+					XmlRpcUtils.parse(parser, (ByteBuffer) in, charset, unmarshaller);
 				} else {
-					parser.parse((InputSource) in, unmarshaller.getSaxHandler());
+					XmlRpcUtils.parse(parser, (InputSource) in, unmarshaller);
 				}
 
 				return buildXmlRpcResponse(unmarshaller);
@@ -60,11 +64,30 @@ public class SaxMethodResponseUnmarshaller implements ExtendedMethodResponseUnma
 	}
 
 	public RpcResponse unmarshal(InputStream in, MethodResponseUnmarshallerAid aid) throws Exception {
-		return unmarshalAny(in, aid);
+		return unmarshalAny(in, null, aid);
 	}
 
 	protected RpcResponse unmarshal(InputSource in, MethodResponseUnmarshallerAid aid) throws Exception {
-		return unmarshalAny(in, aid);
+		return unmarshalAny(in, null, aid);
+	}
+
+	/**
+	 * Unmarshal an {@link RpcResponse} instance from a complete document
+	 * held in a {@link ByteBuffer}.
+	 * <p>
+	 * This is parsed as bytes where possible, as described under
+	 * {@link SaxMethodCallUnmarshaller#unmarshal(ByteBuffer, Charset, com.flat502.rox.marshal.MethodCallUnmarshallerAid)}.
+	 * @param in
+	 * 	The document, between the buffer's position and limit. Neither
+	 * 	is changed.
+	 * @param charset
+	 * 	The character set the document is encoded in. If this is
+	 * 	<code>null</code> UTF-8 is assumed.
+	 * @param aid
+	 * 	An unmarshaller aid, or <code>null</code>.
+	 */
+	public RpcResponse unmarshal(ByteBuffer in, Charset charset, MethodResponseUnmarshallerAid aid) throws Exception {
+		return unmarshalAny(in, charset, aid);
 	}
 
 	public RpcResponse unmarshal(Reader in, MethodResponseUnmarshallerAid aid) throws Exception {
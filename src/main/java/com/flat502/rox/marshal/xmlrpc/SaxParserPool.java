@@ -1,6 +1,8 @@
 package com.flat502.rox.marshal.xmlrpc;
 
-import java.util.Stack;
+import java.lang.reflect.Method;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.xml.parsers.SAXParser;
 import javax.xml.parsers.SAXParserFactory;
@@ -10,24 +12,114 @@ import com.flat502.rox.marshal.HyphenatedFieldNameCodec;
 
 /**
  * Maintains a pool of SAX parsers and unmarshallers.
+ * <p>
+ * Each thread keeps one parser and one unmarshaller for itself,
+ * so a thread that unmarshals a message, returns what it used and
+ * then unmarshals another never touches state shared with other
+ * threads. Anything else that's returned goes onto a lock-free
+ * stack shared by all threads, which holds at most
+ * {@link #setMaxIdle(int) a fixed number} of each. The rest are
+ * left for the garbage collector, so a burst of concurrent
+ * requests doesn't leave the pool holding on to a parser (and its
+ * buffer) for each of them.
+ * <p>
+ * Virtual threads don't keep anything for themselves. They
+ * typically handle a single request and are never reused.
  */
 public class SaxParserPool {
+	/**
+	 * The default for {@link #setMaxIdle(int)}.
+	 */
+	public static final int DEFAULT_MAX_IDLE = 16;
+
 	private static boolean USE_INTERNAL_PARSER_IMPL;
 	public static SaxParserPool DEFAULT_PARSER_POOL;
-	
+
+	// Thread.isVirtual(), on JVMs that have it (Java 21 or later)
+	private static final Method IS_VIRTUAL;
+
+	// Stands in for the cache of a thread that doesn't keep anything
+	private static final ThreadCache NO_CACHE = new ThreadCache();
+
 	static {
+		Method isVirtual = null;
+		try {
+			isVirtual = Thread.class.getMethod("isVirtual", (Class[]) null);
+		} catch (NoSuchMethodException e) {
+		}
+		IS_VIRTUAL = isVirtual;
 		reset();
 	}
-	
-	private boolean resetChecked = false;
-	private boolean resetAvailable;
+
+	private volatile boolean resetChecked = false;
+	private volatile boolean resetAvailable;
 
 	private SAXParserFactory factory = null;
-	private Stack parsers = new Stack();
-	private Stack unmarshallers = new Stack();
+	private volatile int maxIdle = DEFAULT_MAX_IDLE;
+	private IdleStack parsers = new IdleStack();
+	private IdleStack unmarshallers = new IdleStack();
+	private ThreadLocal threadCache = new ThreadLocal() {
+		protected Object initialValue() {
+			return isVirtualThread(Thread.currentThread()) ? NO_CACHE : new ThreadCache();
+		}
+	};
 
 	private FieldNameCodec codec;
-	
+
+	// What a single thread keeps for itself
+	private static class ThreadCache {
+		public SAXParser parser;
+		public SaxUnmarshaller unmarshaller;
+	}
+
+	// A Treiber stack. Nodes are never reused, so the garbage collector
+	// rules out the ABA problem.
+	private static class IdleStack {
+		private static class Node {
+			public Object item;
+			public Node next;
+
+			public Node(Object item) {
+				this.item = item;
+			}
+		}
+
+		private AtomicReference head = new AtomicReference();
+		// Incremented before a push and decremented after a pop, so
+		// this is never less than the number of items on the stack.
+		private AtomicInteger size = new AtomicInteger();
+
+		public Object pop() {
+			for (;;) {
+				Node top = (Node) head.get();
+				if (top == null) {
+					return null;
+				}
+				if (head.compareAndSet(top, top.next)) {
+					size.decrementAndGet();
+					return top.item;
+				}
+			}
+		}
+
+		// Returns false (leaving the stack unchanged) if it already
+		// holds max items.
+		public boolean push(Object item, int max) {
+			if (size.incrementAndGet() > max) {
+				size.decrementAndGet();
+				return false;
+			}
+			Node node = new Node(item);
+			for (;;) {
+				Node top = (Node) head.get();
+				node.next = top;
+				if (head.compareAndSet(top, node)) {
+					return true;
+				}
+			}
+		}
+	}
+
 	/**
 	 * Package private reset method for forcing reinitialization so we can unit
 	 * test more effectively.
@@ -46,24 +138,68 @@ public class SaxParserPool {
 		this.codec = codec;
 	}
 
-	public synchronized SAXParser provideParser() throws Exception {
-		if (parsers.isEmpty()) {
-			//	    System.out.println( "*********************** Creating new parser ****************************" );
-			if (USE_INTERNAL_PARSER_IMPL) {
-				return new XmlRpcSaxParser();
-			}
-			if (factory == null) {
-				factory = SAXParserFactory.newInstance();
-				factory.setNamespaceAware(false);
-				factory.setValidating(false);
-			}
-			return factory.newSAXParser();
-		} else {
-			return (SAXParser) parsers.pop();
+	private static boolean isVirtualThread(Thread thread) {
+		if (IS_VIRTUAL == null) {
+			return false;
+		}
+		try {
+			return ((Boolean) IS_VIRTUAL.invoke(thread, (Object[]) null)).booleanValue();
+		} catch (Exception e) {
+			return false;
 		}
 	}
 
-	public synchronized void returnParser(SAXParser parser) {
+	/**
+	 * Set the maximum number of idle parsers this pool holds for
+	 * sharing between threads. The same limit applies, separately,
+	 * to unmarshallers.
+	 * <p>
+	 * This doesn't include the parser and unmarshaller each
+	 * (platform) thread keeps for itself. The default is
+	 * {@link #DEFAULT_MAX_IDLE}.
+	 * @param maxIdle
+	 * 	The maximum, which may be 0.
+	 */
+	public void setMaxIdle(int maxIdle) {
+		if (maxIdle < 0) {
+			throw new IllegalArgumentException("Maximum idle count can't be negative: " + maxIdle);
+		}
+		this.maxIdle = maxIdle;
+	}
+
+	public int getMaxIdle() {
+		return this.maxIdle;
+	}
+
+	public SAXParser provideParser() throws Exception {
+		ThreadCache cache = (ThreadCache) this.threadCache.get();
+		SAXParser parser = cache.parser;
+		if (parser != null) {
+			cache.parser = null;
+			return parser;
+		}
+
+		parser = (SAXParser) parsers.pop();
+		if (parser != null) {
+			return parser;
+		}
+
+		if (USE_INTERNAL_PARSER_IMPL) {
+			return new XmlRpcSaxParser();
+		}
+		return this.getFactory().newSAXParser();
+	}
+
+	private synchronized SAXParserFactory getFactory() {
+		if (factory == null) {
+			factory = SAXParserFactory.newInstance();
+			factory.setNamespaceAware(false);
+			factory.setValidating(false);
+		}
+		return factory;
+	}
+
+	public void returnParser(SAXParser parser) {
 		try {
 			if (!resetChecked) {
 				try {
@@ -77,26 +213,45 @@ public class SaxParserPool {
 
 			if (resetAvailable) {
 				parser.reset();
-				parsers.push(parser);
 			} else if (USE_INTERNAL_PARSER_IMPL) {
 				((XmlRpcSaxParser) parser).reset();
-				parsers.push(parser);
+			} else {
+				return;
+			}
+
+			ThreadCache cache = (ThreadCache) this.threadCache.get();
+			if (cache != NO_CACHE && cache.parser == null) {
+				cache.parser = parser;
+			} else {
+				parsers.push(parser, this.maxIdle);
 			}
 		} catch (Exception e) {
 			e.printStackTrace(); // TODO log properly
 		}
 	}
 
-	public synchronized SaxUnmarshaller provideUnmarshaller() throws Exception {
-		if (unmarshallers.isEmpty()) {
-			return XmlRpcUtils.newSaxUnmarshaller(this.codec);
-		} else {
-			return (SaxUnmarshaller) unmarshallers.pop();
+	public SaxUnmarshaller provideUnmarshaller() throws Exception {
+		ThreadCache cache = (ThreadCache) this.threadCache.get();
+		SaxUnmarshaller unmarshaller = cache.unmarshaller;
+		if (unmarshaller != null) {
+			cache.unmarshaller = null;
+			return unmarshaller;
 		}
+
+		unmarshaller = (SaxUnmarshaller) unmarshallers.pop();
+		if (unmarshaller != null) {
+			return unmarshaller;
+		}
+		return XmlRpcUtils.newSaxUnmarshaller(this.codec);
 	}
 
-	public synchronized void returnUnmarshaller(SaxUnmarshaller unmarshaller) {
-		unmarshallers.push(unmarshaller);
+	public void returnUnmarshaller(SaxUnmarshaller unmarshaller) {
+		ThreadCache cache = (ThreadCache) this.threadCache.get();
+		if (cache != NO_CACHE && cache.unmarshaller == null) {
+			cache.unmarshaller = unmarshaller;
+		} else {
+			unmarshallers.push(unmarshaller, this.maxIdle);
+		}
 	}
 
 }
@@ -1,6 +1,7 @@
 package com.flat502.rox.marshal.xmlrpc;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -15,207 +16,47 @@ import com.flat502.rox.utils.Utils;
 /**
  * Marshal an XML-RPC method call using easy (v1) SAX.
  */
-public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
-	private static enum State {
-		ROOT, METHOD_CALL {
-			public String tagName() {
-				return Tags.METHOD_CALL;
-			}
-		},
-		METHOD_NAME {
-			public String tagName() {
-				return Tags.METHOD_NAME;
-			}
-		},
-		PARAMS {
-			public String tagName() {
-				return Tags.PARAMS;
-			}
-		},
-		PARAM {
-			public String tagName() {
-				return Tags.PARAM;
-			}
-		},
+public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller implements XmlRpcElementHandler {
+	// Once an element has been opened we're in the state identified by
+	// the element's ID. ROOT is the state outside the document element.
+	private static final int ROOT = ELEMENT_COUNT;
 
-		METHOD_RSP {
-			public String tagName() {
-				return Tags.METHOD_RESPONSE;
-			}
-		},
+	private static final int NO_TRANSITION = -1;
 
-		FAULT {
-			public String tagName() {
-				return Tags.FAULT;
-			}
-		},
+	// The initial size of the buffer holding scalar values. It's 
+	// reallocated at this size if an unusually long value grew it 
+	// beyond MAX_IDLE_SCALAR_CHARS_SIZE.
+	private static final int SCALAR_CHARS_SIZE = 32;
+	private static final int MAX_IDLE_SCALAR_CHARS_SIZE = 1024;
 
-		VALUE {
-			public String tagName() {
-				return Tags.VALUE;
-			}
-		},
+	// The state each element leads to, indexed by [current state][element ID]
+	private static final int[][] TRANSITIONS = new int[ELEMENT_COUNT + 1][ELEMENT_COUNT];
 
-		STRING {
-			public String tagName() {
-				return Tags.STRING;
-			}
-		},
-		INT {
-			public String tagName() {
-				return Tags.INT;
-			}
-		},
-		I4 {
-			public String tagName() {
-				return Tags.I4;
-			}
-		},
-		BOOLEAN {
-			public String tagName() {
-				return Tags.BOOLEAN;
-			}
-		},
-		DOUBLE {
-			public String tagName() {
-				return Tags.DOUBLE;
-			}
-		},
-		DATETIME {
-			public String tagName() {
-				return Tags.DATETIME;
-			}
-		},
-		BASE64 {
-			public String tagName() {
-				return Tags.BASE64;
-			}
-		},
-
-		STRUCT {
-			public String tagName() {
-				return Tags.STRUCT;
-			}
-		},
-		MEMBER {
-			public String tagName() {
-				return Tags.MEMBER;
-			}
-		},
-		NAME {
-			public String tagName() {
-				return Tags.NAME;
-			}
-		},
-
-		ARRAY {
-			public String tagName() {
-				return Tags.ARRAY;
-			}
-		},
-		DATA {
-			public String tagName() {
-				return Tags.DATA;
-			}
-		};
-
-		public String tagName() {
-			throw new IllegalStateException();
+	private static void addTransitions(int state, int[] elements) {
+		for (int i = 0; i < elements.length; i++) {
+			TRANSITIONS[state][elements[i]] = elements[i];
 		}
-	};
-
-	private static Map<String, State> rootTransitions() {
-		Map<String, State> nextState = new HashMap<String, State>();
-		nextState.put(Tags.METHOD_CALL, State.METHOD_CALL);
-		nextState.put(Tags.METHOD_RESPONSE, State.METHOD_RSP);
-		return nextState;
 	}
 
-	private static Map<String, State> methodCallTransitions() {
-		Map<String, State> nextState = new HashMap<String, State>();
-		nextState.put(Tags.METHOD_NAME, State.METHOD_NAME);
-		nextState.put(Tags.PARAMS, State.PARAMS);
-		return nextState;
-	}
-
-	private static Map<String, State> paramsTransitions() {
-		Map<String, State> nextState = new HashMap<String, State>();
-		nextState.put(Tags.PARAM, State.PARAM);
-		return nextState;
-	}
-
-	private static Map<String, State> paramTransitions() {
-		Map<String, State> nextState = new HashMap<String, State>();
-		nextState.put(Tags.VALUE, State.VALUE);
-		return nextState;
-	}
-
-	private static Map<String, State> valueTransitions() {
-		Map<String, State> nextState = new HashMap<String, State>();
-		nextState.put(Tags.STRING, State.STRING);
-		nextState.put(Tags.BASE64, State.BASE64);
-		nextState.put(Tags.INT, State.INT);
-		nextState.put(Tags.I4, State.I4);
-		nextState.put(Tags.DOUBLE, State.DOUBLE);
-		nextState.put(Tags.BOOLEAN, State.BOOLEAN);
-		nextState.put(Tags.DATETIME, State.DATETIME);
-		nextState.put(Tags.STRUCT, State.STRUCT);
-		nextState.put(Tags.ARRAY, State.ARRAY);
-		return nextState;
-	}
-
-	private static Map<String, State> structTransitions() {
-		Map<String, State> nextState = new HashMap<String, State>();
-		nextState.put(Tags.MEMBER, State.MEMBER);
-		return nextState;
-	}
-
-	private static Map<String, State> memberTransitions() {
-		Map<String, State> nextState = new HashMap<String, State>();
-		nextState.put(Tags.NAME, State.NAME);
-		nextState.put(Tags.VALUE, State.VALUE);
-		return nextState;
-	}
-
-	private static Map<String, State> arrayTransitions() {
-		Map<String, State> nextState = new HashMap<String, State>();
-		nextState.put(Tags.DATA, State.DATA);
-		return nextState;
-	}
-
-	private static Map<String, State> dataTransitions() {
-		Map<String, State> nextState = new HashMap<String, State>();
-		nextState.put(Tags.VALUE, State.VALUE);
-		return nextState;
-	}
-
-	private static Map<String, State> methodRspTransitions() {
-		Map<String, State> nextState = new HashMap<String, State>();
-		nextState.put(Tags.PARAMS, State.PARAMS);
-		nextState.put(Tags.FAULT, State.FAULT);
-		return nextState;
-	}
-
-	private static Map<String, State> faultTransitions() {
-		Map<String, State> nextState = new HashMap<String, State>();
-		nextState.put(Tags.VALUE, State.VALUE);
-		return nextState;
+	static {
+		for (int i = 0; i < TRANSITIONS.length; i++) {
+			Arrays.fill(TRANSITIONS[i], NO_TRANSITION);
+		}
+		addTransitions(ROOT, new int[] { METHOD_CALL, METHOD_RESPONSE });
+		addTransitions(METHOD_CALL, new int[] { METHOD_NAME, PARAMS });
+		addTransitions(PARAMS, new int[] { PARAM });
+		addTransitions(PARAM, new int[] { VALUE });
+		addTransitions(VALUE, new int[] { STRING, BASE64, INT, I4, DOUBLE, BOOLEAN, DATETIME, STRUCT, ARRAY });
+		addTransitions(STRUCT, new int[] { MEMBER });
+		addTransitions(MEMBER, new int[] { NAME, VALUE });
+		addTransitions(ARRAY, new int[] { DATA });
+		addTransitions(DATA, new int[] { VALUE });
+		addTransitions(METHOD_RESPONSE, new int[] { PARAMS, FAULT });
+		addTransitions(FAULT, new int[] { VALUE });
 	}
 
-	private static final Map<State, Map<String, State>> TRANSITIONS = new HashMap<State, Map<String, State>>();
-
-	static {
-		TRANSITIONS.put(State.ROOT, rootTransitions());
-		TRANSITIONS.put(State.METHOD_CALL, methodCallTransitions());
-		TRANSITIONS.put(State.PARAMS, paramsTransitions());
-		TRANSITIONS.put(State.PARAM, paramTransitions());
-		TRANSITIONS.put(State.VALUE, valueTransitions());
-		TRANSITIONS.put(State.STRUCT, structTransitions());
-		TRANSITIONS.put(State.MEMBER, memberTransitions());
-		TRANSITIONS.put(State.ARRAY, arrayTransitions());
-		TRANSITIONS.put(State.DATA, dataTransitions());
-		TRANSITIONS.put(State.METHOD_RSP, methodRspTransitions());
-		TRANSITIONS.put(State.FAULT, faultTransitions());
+	private static String stateName(int state) {
+		return state == ROOT ? "ROOT" : Tags.getName(state);
 	}
 
 	private static final StructInfo SENTINEL_STRUCT = new StructInfo((Object) null);
@@ -234,16 +75,25 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 	private StringBuilder memberName;
 	private StringBuilder implicitStringValue;
 	private StringBuilder stringValue;
+	// Content of the current <int>, <i4>, <boolean>, <double> or
+	// <dateTime.iso8601> element. Reused so these can be parsed
+	// without creating a string.
+	private char[] scalarChars = new char[SCALAR_CHARS_SIZE];
+	private int scalarLength;
+	// true once the current value has been added to an array of primitives
+	private boolean primitiveStored;
 	private List<Object> params;
 	private boolean isFault;
 	private Fault fault;
 
-	// Stack of nested states and saved values. The top elements is always a state (STATE_XXXX).
-	private Stack stateStack;
-	private State currentState;
+	// Stack of nested states
+	private int[] stateStack = new int[16];
+	private int stateDepth;
+	private int currentState;
 
 	// Stack of nested struct objects
-	private Stack structStack;
+	private StructInfo[] structStack = new StructInfo[8];
+	private int structDepth;
 	private StructInfo currentStruct;
 
 	// The struct whose members we are busy parsing
@@ -256,9 +106,18 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 		// Non-null if this represents a list
 		public List<Object> asList;
 
+		// Non-null if this represents an array of primitives
+		public PrimitiveArrayBuilder primitives;
+
 		// Track info for the member we're currently handling in this struct
 		public String memberName;
 		public Class memberClass;
+		// Non-null if this is a user-defined class with a generated codec
+		public StructCodec codec;
+
+		// Resolved once the member's name is known, if this is a user-defined class
+		public ClassDescriptor.Accessor memberSetter;
+		public int memberIndex = -1;
 
 		public StructInfo(Map<String, Object> map) {
 			this.value = this.asMap = map;
@@ -268,6 +127,10 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 			this.value = this.asList = list;
 		}
 
+		public StructInfo(PrimitiveArrayBuilder primitives) {
+			this.primitives = primitives;
+		}
+
 		public StructInfo(Object obj) {
 			this.value = obj;
 			if (obj instanceof Map) {
@@ -323,45 +186,63 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 		this.methodName = new StringBuilder();
 		this.stringValue = null;
 		this.implicitStringValue = null;
+		this.scalarLength = 0;
+		if (this.scalarChars.length > MAX_IDLE_SCALAR_CHARS_SIZE) {
+			this.scalarChars = new char[SCALAR_CHARS_SIZE];
+		}
+		this.primitiveStored = false;
 		this.params = new ArrayList<Object>();
-		this.stateStack = new Stack();
+		this.stateDepth = 0;
 		this.value = null;
 		this.isFault = false;
 		this.fault = null;
 
-		// Initialize the struct stack with a sentinel
-		this.structStack = new Stack();
+		// Initialize the struct stack with a sentinel, dropping
+		// references to anything left from a failed parse
+		Arrays.fill(this.structStack, null);
+		this.structDepth = 0;
 		pushStruct(SENTINEL_STRUCT);
 	}
 	
-	private void pushState(State s) {
+	private void pushState(int s) {
+		if (this.stateDepth == this.stateStack.length) {
+			int[] stack = new int[this.stateStack.length * 2];
+			System.arraycopy(this.stateStack, 0, stack, 0, this.stateDepth);
+			this.stateStack = stack;
+		}
 		this.currentState = s;
-		stateStack.push(s);
+		this.stateStack[this.stateDepth++] = s;
 	}
 
-	private State popState() {
-		State s = (State) stateStack.pop();
-		currentState = (State) stateStack.peek();
+	private int popState() {
+		int s = this.stateStack[--this.stateDepth];
+		this.currentState = this.stateStack[this.stateDepth - 1];
 		return s;
 	}
 
-	private State currentState() {
+	private int currentState() {
 		return currentState;
 	}
 
 	private void pushStruct(StructInfo s) {
+		if (this.structDepth == this.structStack.length) {
+			StructInfo[] stack = new StructInfo[this.structStack.length * 2];
+			System.arraycopy(this.structStack, 0, stack, 0, this.structDepth);
+			this.structStack = stack;
+		}
 		this.currentStruct = s;
-		structStack.push(s);
+		this.structStack[this.structDepth++] = s;
 	}
 
 	private StructInfo popStruct() {
-		StructInfo s = (StructInfo) structStack.pop();
-		currentStruct = (StructInfo) structStack.peek();
+		StructInfo s = this.structStack[--this.structDepth];
+		this.structStack[this.structDepth] = null;
+		this.currentStruct = this.structStack[this.structDepth - 1];
 		return s;
 	}
 
 	private StructInfo currentStruct() {
-		return (StructInfo) structStack.peek();
+		return this.currentStruct;
 	}
 
 	private void info(Object msg) {
@@ -400,7 +281,7 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 	public void startDocument() throws SAXException {
 //		info("");
 		this.reset();
-		pushState(State.ROOT);
+		pushState(ROOT);
 	}
 
 	public void endDocument() throws SAXException {
@@ -417,19 +298,18 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 	}
 
 	public void startElement(String element, AttributeList attrs) throws SAXException {
-		if (!Tags.isValid(element)) {
+		int id = Tags.getId(element);
+		if (id == -1) {
 			throw new SAXException("Unexpected tag [" + element + "]");
 		}
+		this.startElement(id);
+	}
 
-		State curState = currentState();
-		Map<String, State> nextStateMap = TRANSITIONS.get(curState);
-		if (nextStateMap == null) {
-			throw new SAXException("No state transitions defined for state [" + curState + "]");
-		}
-
-		State nextState = nextStateMap.get(element);
-		if (nextState == null) {
-			throw new SAXException("No transition for [" + curState + ", " + element + "]");
+	public void startElement(int element) throws SAXException {
+		int curState = currentState();
+		int nextState = TRANSITIONS[curState][element];
+		if (nextState == NO_TRANSITION) {
+			throw new SAXException("No transition for [" + stateName(curState) + ", " + Tags.getName(element) + "]");
 		}
 
 //		debug("start[" + element + "] transitions from " + curState + " to " + nextState);
@@ -444,7 +324,7 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 				}
 				this.isMethodCall = true;
 				break;
-			case METHOD_RSP:
+			case METHOD_RESPONSE:
 				if (this.expectRequest) {
 					throw new SAXException("Method call expected");
 				}
@@ -463,7 +343,7 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 				if (this.value != null) {
 					throw new SAXException("Repeated struct");
 				}
-				if (structStack.size() == 1) {
+				if (structDepth == 1) {
 					if (this.isFault) {
 						structClass = Fault.class;
 					} else {
@@ -478,6 +358,7 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 					struct = new StructInfo(new HashMap<String, Object>());
 				} else {
 					struct = new StructInfo(newStructObject(structClass));
+					struct.codec = StructCodecRegistry.getCodec(struct.value.getClass());
 				}
 				
 				if (this.isFault) {
@@ -498,12 +379,14 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 				this.value = null;
 				this.stringValue = null;
 				this.implicitStringValue = null;
+				this.scalarLength = 0;
+				this.primitiveStored = false;
 				break;
 			case ARRAY:
 				if (this.value != null) {
 					throw new SAXException("Repeated array");
 				}
-				if (structStack.size() == 1) {
+				if (structDepth == 1) {
 					structClass = getType();
 				} else {
 					structClass = currentStruct().memberClass;
@@ -512,10 +395,14 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 				if (structClass == null) {
 					struct = new StructInfo(new ArrayList<Object>());
 				} else if (structClass.isArray()) {
-					struct = new StructInfo(new ArrayList<Object>());
-					if (structClass.isArray()) {
-						struct.memberClass = structClass.getComponentType();
+					PrimitiveArrayBuilder primitives = PrimitiveArrayBuilder.newInstance(structClass);
+					if (primitives != null) {
+						// Elements are unmarshalled straight into this, unboxed
+						struct = new StructInfo(primitives);
+					} else {
+						struct = new StructInfo(new ArrayList<Object>());
 					}
+					struct.memberClass = structClass.getComponentType();
 				} else {
 					if (!List.class.isAssignableFrom(structClass)) {
 						throw new SAXException(structClass.getName() + " is not a List implementation");
@@ -554,7 +441,7 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 	
 	private Object finalizeString(StringBuilder value) throws MarshallingException {
 		String v = this.toString(value);
-		if (structStack.size() == 1 && getType() != null) {
+		if (structDepth == 1 && getType() != null) {
 			return this.parseString(v, getType());
 		}
 		return this.parseString(v);
@@ -565,12 +452,20 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 	}
 	
 	public void endElement(String element) throws SAXException {
-		State curState = currentState();
-		if (!element.equals(curState.tagName())) {
-			throw new SAXException("Expected </" + curState.tagName() + ">, got </" + element + ">");
+		int id = Tags.getId(element);
+		if (id == -1) {
+			throw new SAXException("Expected </" + stateName(currentState()) + ">, got </" + element + ">");
+		}
+		this.endElement(id);
+	}
+
+	public void endElement(int element) throws SAXException {
+		int curState = currentState();
+		if (element != curState) {
+			throw new SAXException("Expected </" + stateName(curState) + ">, got </" + Tags.getName(element) + ">");
 		}
 		
-		State prevState = popState();
+		int prevState = popState();
 		curState = currentState();
 //		debug("end[" + element + "] transitions from " + prevState + " to " + curState);
 		
@@ -590,19 +485,37 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 				break;
 			case INT:
 			case I4:
-				this.storeValue(this.parseInt(this.toString(this.stringValue)));
+				curStruct = this.currentStruct();
+				if (curStruct.primitives != null && curStruct.primitives.acceptsInt()) {
+					this.storePrimitive();
+					curStruct.primitives.addInt(this.parseIntValue(this.scalarChars, 0, this.scalarLength));
+				} else {
+					this.storeValue(this.parseInt(this.scalarChars, 0, this.scalarLength));
+				}
 				break;
 			case BOOLEAN:
-				this.storeValue(this.parseBoolean(this.toString(this.stringValue)));
+				curStruct = this.currentStruct();
+				if (curStruct.primitives != null && curStruct.primitives.acceptsBoolean()) {
+					this.storePrimitive();
+					curStruct.primitives.addBoolean(this.parseBooleanValue(this.scalarChars, 0, this.scalarLength));
+				} else {
+					this.storeValue(this.parseBoolean(this.scalarChars, 0, this.scalarLength));
+				}
 				break;
 			case DOUBLE:
-				this.storeValue(this.parseDouble(this.toString(this.stringValue)));
+				curStruct = this.currentStruct();
+				if (curStruct.primitives != null && curStruct.primitives.acceptsDouble()) {
+					this.storePrimitive();
+					curStruct.primitives.addDouble(this.parseDoubleValue(this.scalarChars, 0, this.scalarLength));
+				} else {
+					this.storeValue(this.parseDouble(this.scalarChars, 0, this.scalarLength));
+				}
 				break;
 			case BASE64:
 				this.storeValue(this.parseBase64(this.toString(this.stringValue)));
 				break;
 			case DATETIME:
-				this.storeValue(this.parseDate(this.toString(this.stringValue)));
+				this.storeValue(this.parseDate(this.scalarChars, 0, this.scalarLength));
 				break;
 			case STRUCT:
 				this.value = popStruct().value;
@@ -612,6 +525,11 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 	//			info("Setting struct member [" + curStruct.memberName + "] to [" + this.value + "]");
 				if (curStruct.asMap != null) {
 					curStruct.asMap.put(curStruct.memberName.toString(), this.value);
+				} else if (curStruct.memberIndex >= 0) {
+					this.setObjectMember(curStruct.value, curStruct.codec, curStruct.memberIndex, curStruct.memberName,
+							this.value);
+				} else if (curStruct.memberSetter != null) {
+					this.setObjectMember(curStruct.value, curStruct.memberSetter, curStruct.memberName, this.value);
 				} else {
 					this.setObjectMember(curStruct.value, curStruct.memberName, this.value, this.callAid);
 				}
@@ -624,29 +542,60 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 				if (curStruct.asMap != null || curStruct.asList != null) {
 					// It's just a map or list, there's no type info here.
 					curStruct.memberClass = null;
+					curStruct.memberSetter = null;
 				} else {
 					// It's a user-defined class, use the field type info
-					curStruct.memberClass = this.getStructMemberType(curStruct.value, curStruct.memberName);
+					String name = this.isFault ? curStruct.memberName : this.decodeFieldName(curStruct.memberName);
+					curStruct.memberSetter = null;
+					curStruct.memberIndex = -1;
+					if (curStruct.codec != null) {
+						curStruct.memberIndex = curStruct.codec.getSetterIndex(name);
+						if (curStruct.memberIndex >= 0) {
+							curStruct.memberClass = curStruct.codec.getSetterType(curStruct.memberIndex);
+						}
+					} else {
+						curStruct.memberSetter = this.getStructMemberSetter(curStruct.value, name);
+						if (curStruct.memberSetter != null) {
+							curStruct.memberClass = curStruct.memberSetter.getType();
+						}
+					}
+					if (curStruct.memberIndex < 0 && curStruct.memberSetter == null) {
+						// Reports the missing member, unless we've been asked to ignore it
+						curStruct.memberClass = this.getStructMemberType(curStruct.value, curStruct.memberName);
+					}
 				}
 				break;
 			case ARRAY:
-				this.value = popStruct().value;
+				curStruct = popStruct();
+				if (curStruct.primitives != null) {
+					this.value = curStruct.primitives.toArray();
+				} else {
+					this.value = curStruct.value;
+				}
 				
 				Class paramClass = getType();
-				if (structStack.size() == 1 && paramClass != null) {
+				if (structDepth == 1 && paramClass != null) {
 					this.value = Utils.coerce(this.value, paramClass);
 				}
 				break;
 			case DATA:
 				break;
 			case VALUE:
+				if (this.primitiveStored) {
+					// Already added to the enclosing array
+					this.primitiveStored = false;
+					break;
+				}
 				if (this.value == null) {
 					// Special case for implicit string value
 					this.value = this.finalizeString(this.implicitStringValue);
 				}
 	
 				curStruct = this.currentStruct();
-				if (curStruct.asList != null) {
+				if (curStruct.primitives != null) {
+					curStruct.primitives.add(this.value);
+					this.value = null;
+				} else if (curStruct.asList != null) {
 	//				info("Appending array element [" + this.value + "]");
 					if (curStruct.memberClass != null) {
 						curStruct.asList.add(Utils.coerce(this.value, curStruct.memberClass));
@@ -672,11 +621,19 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 	}
 	
 	private void storeValue(Object v) throws SAXException {
-		if (this.value != null) {
+		if (this.value != null || this.primitiveStored) {
 			throw new SAXException("Repeated values");
 		}
 		this.value = v;
 	}
+
+	// Called when a value is added directly to the array being built
+	private void storePrimitive() throws SAXException {
+		if (this.value != null || this.primitiveStored) {
+			throw new SAXException("Repeated values");
+		}
+		this.primitiveStored = true;
+	}
 	
 	public HandlerBase getSaxHandler() {
 		return this.saxHandler;
@@ -685,31 +642,39 @@ public class SaxUnmarshaller extends XmlRpcMethodUnmarshaller {
 	public void characters(char[] ch, int start, int length) throws SAXException {
 //		debug("chars[" + new String(ch, start, length) + "] in state " + currentState());
 
-		State curState = currentState();
+		int curState = currentState();
 		switch (curState) {
 		case METHOD_NAME:
-			this.methodName.append(new String(ch, start, length));
+			this.methodName.append(ch, start, length);
 			break;
 		case NAME:
-			this.memberName.append(new String(ch, start, length));
+			this.memberName.append(ch, start, length);
 			break;
 		case VALUE: // This is an implicit string value
 			if (this.implicitStringValue == null) {
 				this.implicitStringValue = new StringBuilder();
 			}
-			this.implicitStringValue.append(new String(ch, start, length));
+			this.implicitStringValue.append(ch, start, length);
 			break;
 		case STRING:
+		case BASE64:
+			if (this.stringValue == null) {
+				this.stringValue = new StringBuilder();
+			}
+			this.stringValue.append(ch, start, length);
+			break;
 		case INT:
 		case I4:
 		case BOOLEAN:
-		case BASE64:
 		case DATETIME:
 		case DOUBLE:
-			if (this.stringValue == null) {
-				this.stringValue = new StringBuilder();
+			if (this.scalarLength + length > this.scalarChars.length) {
+				char[] chars = new char[Math.max(this.scalarChars.length * 2, this.scalarLength + length)];
+				System.arraycopy(this.scalarChars, 0, chars, 0, this.scalarLength);
+				this.scalarChars = chars;
 			}
-			this.stringValue.append(new String(ch, start, length));
+			System.arraycopy(ch, start, this.scalarChars, this.scalarLength, length);
+			this.scalarLength += length;
 			break;
 		}
 	}
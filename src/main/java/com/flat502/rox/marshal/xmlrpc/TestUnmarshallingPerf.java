@@ -1,5 +1,6 @@
 package com.flat502.rox.marshal.xmlrpc;
 
+import java.io.StringReader;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -9,6 +10,9 @@ import java.util.Properties;
 import java.util.Set;
 import java.util.Map.Entry;
 
+import org.xml.sax.InputSource;
+
+import com.flat502.rox.marshal.HyphenatedFieldNameCodec;
 import com.flat502.rox.marshal.RpcResponse;
 
 
@@ -59,6 +63,33 @@ public class TestUnmarshallingPerf {
 		}
 	}
 	
+	private static final XmlRpcSaxParser PARSER = new XmlRpcSaxParser();
+	private static final SaxUnmarshaller UNMARSHALLER = new SaxUnmarshaller(new HyphenatedFieldNameCodec());
+
+	// The internal parser, reporting elements by name as any other SAX parser would
+	public static RpcResponse saxCompatibleUnmarshal(String xml) {
+		try {
+			UNMARSHALLER.expectRequest(false);
+			PARSER.parse(new InputSource(new StringReader(xml)), UNMARSHALLER.getSaxHandler());
+			PARSER.reset();
+			return new XmlRpcMethodResponse(UNMARSHALLER.getResponse());
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
+	// The internal parser, reporting elements by ID
+	public static RpcResponse elementIdUnmarshal(String xml) {
+		try {
+			UNMARSHALLER.expectRequest(false);
+			PARSER.parse(new InputSource(new StringReader(xml)), UNMARSHALLER);
+			PARSER.reset();
+			return new XmlRpcMethodResponse(UNMARSHALLER.getResponse());
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		}
+	}
+	
 	private static class Exec {
 		public Runnable init;
 		public Runnable oper;
@@ -97,6 +128,18 @@ public class TestUnmarshallingPerf {
 						new Runnable() {public void run() { saxUnmarshal(xml); }}
 						)
 						);
+		map.put("SAX(Rox)    ",
+				new Exec(
+						new Runnable() {public void run() { }},
+						new Runnable() {public void run() { saxCompatibleUnmarshal(xml); }}
+						)
+						);
+		map.put("IDs(Rox)    ",
+				new Exec(
+						new Runnable() {public void run() { }},
+						new Runnable() {public void run() { elementIdUnmarshal(xml); }}
+						)
+						);
 //		map.put("SAX(Xerces) ",
 //				new Exec(
 //						new Runnable() {public void run() { System.getProperties().setProperty("javax.xml.parsers.SAXParserFactory", "org.apache.xerces.jaxp.SAXParserFactoryImpl"); SaxParserPool.reset(); }},
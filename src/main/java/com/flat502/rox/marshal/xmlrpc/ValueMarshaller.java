@@ -0,0 +1,43 @@
+package com.flat502.rox.marshal.xmlrpc;
+
+import java.io.IOException;
+
+import com.flat502.rox.marshal.MarshallingException;
+import com.flat502.rox.utils.XmlPrinter;
+
+/**
+ * Marshals values of a particular type as XML-RPC.
+ * <p>
+ * {@link XmlRpcMarshaller} resolves the marshaller for each runtime
+ * class it encounters once, and then reuses it for every value of
+ * that class. Marshallers for types XML-RPC has no direct
+ * representation for (<code>BigDecimal</code> or <code>UUID</code>,
+ * for example) can be added using 
+ * {@link XmlRpcMarshaller#registerValueMarshaller(Class, ValueMarshaller)}.
+ * <p>
+ * Implementations must be thread safe.
+ */
+public interface ValueMarshaller {
+	/**
+	 * Marshal a value as the content of an XML-RPC
+	 * <code>&lt;value&gt;</code> element, which has already
+	 * been opened.
+	 * <p>
+	 * An implementation that converts its value to a type the
+	 * marshaller already handles (a {@link String}, say) can write 
+	 * the converted value using
+	 * {@link XmlRpcMarshaller#marshalValueContent(XmlPrinter, int, Object)}.
+	 * 
+	 * @param marshaller
+	 *            The marshaller this value is being marshalled by.
+	 * @param out
+	 *            The printer to write the value to.
+	 * @param depth
+	 *            The depth of the enclosing <code>&lt;value&gt;</code>
+	 *            element. Used for pretty printing the output.
+	 * @param value
+	 *            The value to marshal.
+	 */
+	void marshal(XmlRpcMarshaller marshaller, XmlPrinter out, int depth, Object value) throws MarshallingException,
+			IOException;
+}
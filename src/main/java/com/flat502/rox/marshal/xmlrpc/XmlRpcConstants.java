@@ -1,7 +1,7 @@
 package com.flat502.rox.marshal.xmlrpc;
 
-import java.util.HashSet;
-import java.util.Set;
+import java.util.HashMap;
+import java.util.Map;
 
 /**
  * Various constants defined by the XML-RPC specification.
@@ -44,32 +44,39 @@ public interface XmlRpcConstants {
 		public static final String METHOD_RESPONSE = "methodResponse";
 		public static final String FAULT = "fault";
 
-		private static final Set<String> VALID_TAGS = new HashSet<String>();
+		// Indexed by the element IDs defined by XmlRpcElementHandler
+		private static final String[] NAMES = { METHOD_CALL, METHOD_NAME, PARAMS, PARAM, VALUE, INT, I4, BOOLEAN,
+				DOUBLE, STRING, DATETIME, BASE64, STRUCT, MEMBER, NAME, ARRAY, DATA, METHOD_RESPONSE, FAULT };
+
+		private static final Map<String, Integer> IDS = new HashMap<String, Integer>();
 
 		static {
-			VALID_TAGS.add(METHOD_CALL);
-			VALID_TAGS.add(METHOD_NAME);
-			VALID_TAGS.add(PARAMS);
-			VALID_TAGS.add(PARAM);
-			VALID_TAGS.add(VALUE);
-			VALID_TAGS.add(INT);
-			VALID_TAGS.add(I4);
-			VALID_TAGS.add(BOOLEAN);
-			VALID_TAGS.add(DOUBLE);
-			VALID_TAGS.add(STRING);
-			VALID_TAGS.add(DATETIME);
-			VALID_TAGS.add(BASE64);
-			VALID_TAGS.add(STRUCT);
-			VALID_TAGS.add(MEMBER);
-			VALID_TAGS.add(NAME);
-			VALID_TAGS.add(ARRAY);
-			VALID_TAGS.add(DATA);
-			VALID_TAGS.add(METHOD_RESPONSE);
-			VALID_TAGS.add(FAULT);
+			for (int i = 0; i < NAMES.length; i++) {
+				IDS.put(NAMES[i], Integer.valueOf(i));
+			}
 		}
 		
 		public static boolean isValid(String name) {
-			return VALID_TAGS.contains(name);
+			return IDS.containsKey(name);
+		}
+
+		/**
+		 * @return
+		 * 	The {@link XmlRpcElementHandler element ID} for the
+		 * 	named tag, or -1 if it isn't an XML-RPC tag.
+		 */
+		public static int getId(String name) {
+			Integer id = IDS.get(name);
+			return id == null ? -1 : id.intValue();
+		}
+
+		/**
+		 * @return
+		 * 	The name of the tag with the given
+		 * 	{@link XmlRpcElementHandler element ID}.
+		 */
+		public static String getName(int id) {
+			return NAMES[id];
 		}
 	}
 	
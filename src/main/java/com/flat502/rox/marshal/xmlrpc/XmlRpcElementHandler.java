@@ -0,0 +1,68 @@
+package com.flat502.rox.marshal.xmlrpc;
+
+import org.xml.sax.SAXException;
+
+/**
+ * A leaner alternative to a SAX {@link org.xml.sax.DocumentHandler}
+ * for documents parsed by {@link XmlRpcSaxParser}.
+ * <p>
+ * XML-RPC has a small, fixed set of elements. Rather than
+ * reporting each one by name the parser reports it using one
+ * of the integer constants defined here, so a handler can
+ * switch on it (or index a table with it) without comparing
+ * or hashing strings.
+ * <p>
+ * Element IDs run from 0 to {@link #ELEMENT_COUNT}-1.
+ * {@link XmlRpcConstants.Tags#getName(int)} and
+ * {@link XmlRpcConstants.Tags#getId(String)} convert between
+ * IDs and names.
+ */
+public interface XmlRpcElementHandler {
+	public static final int METHOD_CALL = 0;
+	public static final int METHOD_NAME = 1;
+	public static final int PARAMS = 2;
+	public static final int PARAM = 3;
+	public static final int VALUE = 4;
+	public static final int INT = 5;
+	public static final int I4 = 6;
+	public static final int BOOLEAN = 7;
+	public static final int DOUBLE = 8;
+	public static final int STRING = 9;
+	public static final int DATETIME = 10;
+	public static final int BASE64 = 11;
+	public static final int STRUCT = 12;
+	public static final int MEMBER = 13;
+	public static final int NAME = 14;
+	public static final int ARRAY = 15;
+	public static final int DATA = 16;
+	public static final int METHOD_RESPONSE = 17;
+	public static final int FAULT = 18;
+
+	/**
+	 * The number of distinct element IDs.
+	 */
+	public static final int ELEMENT_COUNT = 19;
+
+	void startDocument() throws SAXException;
+
+	void endDocument() throws SAXException;
+
+	/**
+	 * @param element
+	 * 	The ID of the element being opened.
+	 */
+	void startElement(int element) throws SAXException;
+
+	/**
+	 * @param element
+	 * 	The ID of the element being closed.
+	 */
+	void endElement(int element) throws SAXException;
+
+	/**
+	 * Report character data, with references already translated.
+	 * The characters must not be referenced after this method
+	 * returns.
+	 */
+	void characters(char[] ch, int start, int length) throws SAXException;
+}
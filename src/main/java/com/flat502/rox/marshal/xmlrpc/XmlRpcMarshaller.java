@@ -9,11 +9,14 @@ import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.Charset;
 import java.text.DateFormat;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.flat502.rox.marshal.ClassDescriptor;
 import com.flat502.rox.marshal.FieldNameEncoder;
 import com.flat502.rox.marshal.HyphenatedFieldNameCodec;
 import com.flat502.rox.marshal.MarshallingException;
+import com.flat502.rox.marshal.StructCodec;
+import com.flat502.rox.marshal.StructCodecRegistry;
 import com.flat502.rox.utils.*;
 
 /**
@@ -77,13 +80,23 @@ import com.flat502.rox.utils.*;
  * <td></td>
  * </tr>
  * </table>
+ * <p>
+ * Other types can be supported by registering a {@link ValueMarshaller}
+ * for them (see {@link #registerValueMarshaller(Class, ValueMarshaller)}).
+ * The marshaller for each runtime class is determined the first time a
+ * value of that class is marshalled and reused thereafter.
  */
 public class XmlRpcMarshaller implements XmlRpcConstants {
 	private static final DateFormat DATE_FORMAT = new UTCSimpleDateFormat(XmlRpcConstants.Formats.DATE_FORMAT);
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
 	private static DateFormatThreadLocal dateFormats;
 
 	private boolean marshalCompactXml;
 
+	// True unless a sub-class provides its own date format, in which
+	// case dates in range are formatted without a DateFormat.
+	private boolean defaultDateFormat;
+
 	// We cache field name encodings to avoid potentially
 	// expensive string manipulation. This hurts the NOP
 	// codec case a little but improves the general case
@@ -92,6 +105,13 @@ public class XmlRpcMarshaller implements XmlRpcConstants {
 
 	private FieldNameEncoder fieldNameEncoder;
 
+	// Marshallers registered by users, by the class they were registered for
+	private static Map registeredMarshallers = new ConcurrentHashMap();
+
+	// The marshaller each runtime class resolves to. Cleared whenever
+	// the registered marshallers change.
+	private static Map resolvedMarshallers = new ConcurrentHashMap();
+
 	/**
 	 * Initialize a new instance of this class.
 	 * <p>
@@ -102,7 +122,9 @@ public class XmlRpcMarshaller implements XmlRpcConstants {
 	 * 	struct members are marshalled. May be <code>null</code>.
 	 */
 	protected XmlRpcMarshaller(FieldNameEncoder fieldNameEncoder) {
-		XmlRpcMarshaller.dateFormats = XmlRpcUtils.getDateFormatProvider(XmlRpcMarshaller.class, this.newDateFormat());
+		DateFormat dateFormat = this.newDateFormat();
+		XmlRpcMarshaller.dateFormats = XmlRpcUtils.getDateFormatProvider(XmlRpcMarshaller.class, dateFormat);
+		this.defaultDateFormat = (dateFormat == DATE_FORMAT);
 		this.marshalCompactXml = true;
 		this.fieldNameEncoder = fieldNameEncoder;
 		if (this.fieldNameEncoder == null) {
@@ -146,6 +168,9 @@ public class XmlRpcMarshaller implements XmlRpcConstants {
 	 */
 	protected XmlPrinter newXmlWriter(OutputStream out, Charset charSet) throws IOException {
 		if (this.marshalCompactXml) {
+			if (UTF_8.equals(charSet)) {
+				return new XmlUtf8Printer(out);
+			}
 			return new XmlPlainPrinter(out);
 		}
 		return new XmlPrettyPrinter(new PrintStream(out, false, charSet.name()));
@@ -192,6 +217,11 @@ public class XmlRpcMarshaller implements XmlRpcConstants {
 	 * formatters always produce the same string literal when formatting
 	 * a given {@link Date} instance.
 	 * <p>
+	 * Unless this method is overridden dates are formatted using
+	 * {@link DateTimeCodec}, which produces the same literal without
+	 * the cost of a {@link DateFormat}. The formatter is only used
+	 * for dates {@link DateTimeCodec#canFormat(long) outside its range}.
+	 * <p>
 	 * @return
 	 * 	A new date
 	 */
@@ -199,123 +229,366 @@ public class XmlRpcMarshaller implements XmlRpcConstants {
 		return DATE_FORMAT;
 	}
 
-	protected void marshalValue(XmlPrinter out, int depth, Object param) throws MarshallingException, IOException {
-		if (param == null) {
-			throw new NullPointerException("null values are not supported by XML-RPC");
+	/**
+	 * Register a marshaller for values of a given type, replacing 
+	 * any marshaller previously registered for it.
+	 * <p>
+	 * The marshaller applies to instances of <code>type</code> and
+	 * of any of its subclasses (or implementations) that don't have
+	 * a marshaller registered for them. Registered marshallers take 
+	 * precedence over the marshalling this class performs itself.
+	 * <p>
+	 * Registration applies to all instances of this class. It's 
+	 * intended to be done once, before marshalling begins.
+	 * @param type
+	 * 	The class or interface the marshaller handles.
+	 * @param marshaller
+	 * 	The marshaller.
+	 */
+	public static void registerValueMarshaller(Class type, ValueMarshaller marshaller) {
+		if (type == null || marshaller == null) {
+			throw new NullPointerException();
 		}
-		if (param instanceof Map && param instanceof List) {
-			throw new IllegalArgumentException("Parameter implements both Map and List. What must I do?");
+		registeredMarshallers.put(type, marshaller);
+		resolvedMarshallers.clear();
+	}
+
+	/**
+	 * Remove the marshaller registered for a type, if any.
+	 * @param type
+	 * 	The class or interface the marshaller was registered for.
+	 */
+	public static void unregisterValueMarshaller(Class type) {
+		registeredMarshallers.remove(type);
+		resolvedMarshallers.clear();
+	}
+
+	/**
+	 * Find the marshaller for values of a given runtime class.
+	 * <p>
+	 * The marshaller is determined once per class. Subsequent
+	 * calls return the same instance.
+	 * @param type
+	 * 	The runtime class of a value.
+	 * @return
+	 * 	The marshaller for values of that class.
+	 */
+	protected static ValueMarshaller getValueMarshaller(Class type) {
+		ValueMarshaller marshaller = (ValueMarshaller) resolvedMarshallers.get(type);
+		if (marshaller == null) {
+			marshaller = findRegisteredMarshaller(type);
+			if (marshaller == null) {
+				marshaller = resolveValueMarshaller(type);
+			}
+			resolvedMarshallers.put(type, marshaller);
 		}
+		return marshaller;
+	}
 
-		out.openTag("value");
+	// Looks for a marshaller registered for the class, a superclass, or
+	// an interface implemented by one of them. The nearest class wins.
+	private static ValueMarshaller findRegisteredMarshaller(Class type) {
+		if (registeredMarshallers.isEmpty()) {
+			return null;
+		}
+		for (Class c = type; c != null; c = c.getSuperclass()) {
+			ValueMarshaller marshaller = (ValueMarshaller) registeredMarshallers.get(c);
+			if (marshaller != null) {
+				return marshaller;
+			}
+			marshaller = findRegisteredInterfaceMarshaller(c.getInterfaces());
+			if (marshaller != null) {
+				return marshaller;
+			}
+		}
+		return null;
+	}
+
+	private static ValueMarshaller findRegisteredInterfaceMarshaller(Class[] interfaces) {
+		for (int i = 0; i < interfaces.length; i++) {
+			ValueMarshaller marshaller = (ValueMarshaller) registeredMarshallers.get(interfaces[i]);
+			if (marshaller == null) {
+				marshaller = findRegisteredInterfaceMarshaller(interfaces[i].getInterfaces());
+			}
+			if (marshaller != null) {
+				return marshaller;
+			}
+		}
+		return null;
+	}
 
-		String tag = null;
-		String value = null;
-		Class paramClass = param.getClass();
-		if (param instanceof Map) {
+	// The mapping described in the class description
+	private static ValueMarshaller resolveValueMarshaller(Class type) {
+		boolean isMap = Map.class.isAssignableFrom(type);
+		boolean isList = List.class.isAssignableFrom(type);
+		if (isMap && isList) {
+			return MAP_AND_LIST_MARSHALLER;
+		}
+		if (isMap) {
 			// We support this in addition to field introspection
 			// for convenience.
-			this.marshalMap(out, depth + 1, (Map) param);
-		} else if (param instanceof List) {
-			this.marshalList(out, depth + 1, (List) param);
-		} else if (paramClass == Boolean.TYPE || paramClass == Boolean.class) {
-			tag = this.getBooleanTagName();
+			return MAP_MARSHALLER;
+		}
+		if (isList) {
+			return LIST_MARSHALLER;
+		}
+		if (type == Boolean.class) {
+			return BOOLEAN_MARSHALLER;
+		}
+		if (type == Character.class) {
+			return CHARACTER_MARSHALLER;
+		}
+		if (type == Float.class || type == Double.class) {
+			return DOUBLE_MARSHALLER;
+		}
+		if (Number.class.isAssignableFrom(type)) {
+			return INT_MARSHALLER;
+		}
+		if (type == String.class) {
+			return STRING_MARSHALLER;
+		}
+		if (type == Date.class) {
+			return DATE_MARSHALLER;
+		}
+		if (type.isArray()) {
+			if (type == byte[].class) {
+				return BASE64_MARSHALLER;
+			}
+			if (type == char[].class) {
+				return CHAR_ARRAY_MARSHALLER;
+			}
+			if (type == Character[].class) {
+				return CHARACTER_ARRAY_MARSHALLER;
+			}
+			if (!type.getComponentType().isPrimitive()) {
+				return ARRAY_MARSHALLER;
+			}
+			if (type == int[].class) {
+				return INT_ARRAY_MARSHALLER;
+			}
+			if (type == long[].class) {
+				return LONG_ARRAY_MARSHALLER;
+			}
+			if (type == boolean[].class) {
+				return BOOLEAN_ARRAY_MARSHALLER;
+			}
+			if (type == double[].class) {
+				return DOUBLE_ARRAY_MARSHALLER;
+			}
+			if (type == float[].class) {
+				return FLOAT_ARRAY_MARSHALLER;
+			}
+			return UNSUPPORTED_ARRAY_MARSHALLER;
+		}
+		return OBJECT_MARSHALLER;
+	}
+
+	private static final ValueMarshaller MAP_AND_LIST_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) {
+			throw new IllegalArgumentException("Parameter implements both Map and List. What must I do?");
+		}
+	};
+
+	private static final ValueMarshaller MAP_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			m.marshalMap(out, depth + 1, (Map) value);
+		}
+	};
+
+	private static final ValueMarshaller LIST_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			m.marshalList(out, depth + 1, (List) value);
+		}
+	};
+
+	private static final ValueMarshaller BOOLEAN_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			String tag = m.getBooleanTagName();
 			out.openTag(tag);
-			this.marshalValue(out, (Boolean) param);
+			m.marshalValue(out, (Boolean) value);
 			out.closeTag(tag);
-		} else if (paramClass == Character.TYPE || paramClass == Character.class) {
-			tag = this.getStringTagName();
+		}
+	};
+
+	private static final ValueMarshaller CHARACTER_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			String tag = m.getStringTagName();
 			out.openTag(tag);
-			this.marshalValue(out, (Character) param);
+			m.marshalValue(out, (Character) value);
 			out.closeTag(tag);
-		} else if (Number.class.isAssignableFrom(paramClass) || paramClass.isPrimitive()) {
-			if (paramClass == Float.class || paramClass == Float.TYPE || paramClass == Double.class
-					|| paramClass == Double.TYPE) {
-				tag = this.getDoubleTagName();
-			} else {
-				tag = this.getIntTagName();
-			}
+		}
+	};
+
+	private static final ValueMarshaller DOUBLE_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			String tag = m.getDoubleTagName();
 			out.openTag(tag);
-			this.marshalValue(out, (Number) param);
+			m.marshalValue(out, (Number) value);
 			out.closeTag(tag);
-		} else if (paramClass == Boolean.TYPE || paramClass == Boolean.class) {
-			tag = this.getBooleanTagName();
+		}
+	};
+
+	private static final ValueMarshaller INT_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			String tag = m.getIntTagName();
 			out.openTag(tag);
-			this.marshalValue(out, (Boolean) param);
+			m.marshalValue(out, (Number) value);
 			out.closeTag(tag);
-		} else if (paramClass == String.class) {
-			tag = this.getStringTagName();
-			if (tag != null) {
-				out.openTag(tag);
-				this.marshalValue(out, (String) param);
-				out.closeTag(tag);
-			} else {
-				this.marshalValue(out, (String) param);
-			}
-		} else if (paramClass == Date.class) {
-			tag = this.getDateTagName();
+		}
+	};
+
+	private static final ValueMarshaller STRING_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			m.marshalString(out, (String) value);
+		}
+	};
+
+	private static final ValueMarshaller DATE_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			String tag = m.getDateTagName();
 			out.openTag(tag);
-			this.marshalValue(out, (Date) param);
+			m.marshalValue(out, (Date) value);
 			out.closeTag(tag);
-		} else if (paramClass.isArray()) {
-			if (paramClass == byte[].class) {
-				tag = this.getBase64TagName();
-				out.openTag(tag);
-				this.marshalValue(out, (byte[]) param);
-				out.closeTag(tag);
-			} else if (paramClass == char[].class) {
-				tag = this.getStringTagName();
-				if (tag != null) {
-					out.openTag(tag);
-					this.marshalValue(out, new String((char[]) param));
-					out.closeTag(tag);
-				} else {
-					this.marshalValue(out, new String((char[]) param));
-				}
-			} else if (paramClass == Character[].class) {
-				tag = this.getStringTagName();
-				if (tag != null) {
-					out.openTag(tag);
-					Character[] paramAsArray = (Character[]) param;
-					StringBuffer sb = new StringBuffer();
-					for (int i = 0; i < paramAsArray.length; i++) {
-						sb.append(paramAsArray[i]);
-					}
-					this.marshalValue(out, sb.toString());
-					out.closeTag(tag);
-				} else {
-					this.marshalValue(out, new String((char[]) param));
-				}
-			} else if (param instanceof Object[]) {
-				this.marshalArray(out, depth + 1, param);
-			} else if (paramClass == int[].class) {
-				this.marshalArray(out, depth + 1, param);
-			} else if (paramClass == long[].class) {
-				this.marshalArray(out, depth + 1, param);
-			} else if (paramClass == boolean[].class) {
-				this.marshalArray(out, depth + 1, param);
-			} else if (paramClass == double[].class) {
-				this.marshalArray(out, depth + 1, param);
-			} else if (paramClass == float[].class) {
-				this.marshalArray(out, depth + 1, param);
-			} else {
-				throw new MarshallingException("Unsupported primitive array type: " + paramClass.getName());
-			}
-		} else if (paramClass == char[].class) {
-			tag = this.getStringTagName();
-			if (tag != null) {
-				out.openTag(tag);
-				this.marshalValue(out, new String((char[]) param));
-				out.closeTag(tag);
-			} else {
-				this.marshalValue(out, new String((char[]) param));
+		}
+	};
+
+	private static final ValueMarshaller BASE64_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			String tag = m.getBase64TagName();
+			out.openTag(tag);
+			m.marshalValue(out, (byte[]) value);
+			out.closeTag(tag);
+		}
+	};
+
+	private static final ValueMarshaller CHAR_ARRAY_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			m.marshalString(out, new String((char[]) value));
+		}
+	};
+
+	private static final ValueMarshaller CHARACTER_ARRAY_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			Character[] chars = (Character[]) value;
+			StringBuffer sb = new StringBuffer(chars.length);
+			for (int i = 0; i < chars.length; i++) {
+				sb.append(chars[i]);
 			}
-		} else {
-			this.marshalObject(out, depth + 1, param);
+			m.marshalString(out, sb.toString());
+		}
+	};
+
+	private static final ValueMarshaller ARRAY_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			m.marshalArray(out, depth + 1, value);
+		}
+	};
+
+	private static final ValueMarshaller INT_ARRAY_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			m.marshalArray(out, (int[]) value);
+		}
+	};
+
+	private static final ValueMarshaller LONG_ARRAY_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			m.marshalArray(out, (long[]) value);
+		}
+	};
+
+	private static final ValueMarshaller BOOLEAN_ARRAY_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			m.marshalArray(out, (boolean[]) value);
+		}
+	};
+
+	private static final ValueMarshaller DOUBLE_ARRAY_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			m.marshalArray(out, (double[]) value);
+		}
+	};
+
+	private static final ValueMarshaller FLOAT_ARRAY_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			m.marshalArray(out, (float[]) value);
 		}
+	};
+
+	private static final ValueMarshaller UNSUPPORTED_ARRAY_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException {
+			throw new MarshallingException("Unsupported primitive array type: " + value.getClass().getName());
+		}
+	};
+
+	private static final ValueMarshaller OBJECT_MARSHALLER = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller m, XmlPrinter out, int depth, Object value) throws MarshallingException,
+				IOException {
+			m.marshalObject(out, depth + 1, value);
+		}
+	};
+
+	protected void marshalValue(XmlPrinter out, int depth, Object param) throws MarshallingException, IOException {
+		if (param == null) {
+			throw new NullPointerException("null values are not supported by XML-RPC");
+		}
+
+		ValueMarshaller marshaller = getValueMarshaller(param.getClass());
+		out.openTag("value");
+		marshaller.marshal(this, out, depth, param);
 		out.closeTag("value");
 	}
 
+	/**
+	 * Marshal a value without the enclosing <code>&lt;value&gt;</code>
+	 * element, using the marshaller for its class.
+	 * <p>
+	 * This is intended for use by {@link ValueMarshaller} 
+	 * implementations that convert their value into one of the 
+	 * types this class handles.
+	 * @param out
+	 *            The printer to write the value to.
+	 * @param depth
+	 *            The depth of the enclosing <code>&lt;value&gt;</code>
+	 *            element.
+	 * @param param
+	 *            The value to marshal.
+	 */
+	public void marshalValueContent(XmlPrinter out, int depth, Object param) throws MarshallingException, IOException {
+		if (param == null) {
+			throw new NullPointerException("null values are not supported by XML-RPC");
+		}
+		getValueMarshaller(param.getClass()).marshal(this, out, depth, param);
+	}
+
+	// Strings may be written without a type tag
+	private void marshalString(XmlPrinter out, String val) throws MarshallingException, IOException {
+		String tag = this.getStringTagName();
+		if (tag != null) {
+			out.openTag(tag);
+			this.marshalValue(out, val);
+			out.closeTag(tag);
+		} else {
+			this.marshalValue(out, val);
+		}
+	}
+
 	protected void marshalValue(XmlPrinter out, Boolean val) throws MarshallingException, IOException {
 		out.writeValue(val.booleanValue() ? "1" : "0");
 	}
@@ -337,21 +610,130 @@ public class XmlRpcMarshaller implements XmlRpcConstants {
 	}
 
 	protected void marshalValue(XmlPrinter out, String val) throws MarshallingException, IOException {
-		val = val.replaceAll("&", "&amp;");
-		val = val.replaceAll("<", "&lt;");
-		val = val.replaceAll(">", "&gt;");
-		out.writeValue(val);
+		if (out instanceof XmlUtf8Printer) {
+			((XmlUtf8Printer) out).writeEscapedValue(val);
+		} else {
+			out.writeValue(escape(val));
+		}
+	}
+
+	// Escape &, < and > in a single pass, returning the original string
+	// if none of them appear.
+	private static String escape(String val) {
+		int len = val.length();
+		int i = 0;
+		while (i < len) {
+			char c = val.charAt(i);
+			if (c == '&' || c == '<' || c == '>') {
+				break;
+			}
+			i++;
+		}
+		if (i == len) {
+			return val;
+		}
+
+		StringBuilder sb = new StringBuilder(len + 16);
+		sb.append(val, 0, i);
+		for (; i < len; i++) {
+			char c = val.charAt(i);
+			switch (c) {
+			case '&':
+				sb.append("&amp;");
+				break;
+			case '<':
+				sb.append("&lt;");
+				break;
+			case '>':
+				sb.append("&gt;");
+				break;
+			default:
+				sb.append(c);
+			}
+		}
+		return sb.toString();
 	}
 
 	protected void marshalValue(XmlPrinter out, Number val) throws MarshallingException, IOException {
 		if (val.longValue() < Integer.MIN_VALUE || val.longValue() > Integer.MAX_VALUE) {
 			throw new MarshallingException("Integer value out of range: " + val);
 		}
-		out.writeValue(val.toString());
+		Class type = val.getClass();
+		if (type == Integer.class || type == Long.class || type == Short.class || type == Byte.class) {
+			this.marshalValue(out, val.longValue());
+		} else if (type == Double.class) {
+			this.marshalValue(out, val.doubleValue());
+		} else if (type == Float.class) {
+			this.marshalValue(out, val.floatValue());
+		} else {
+			out.writeValue(val.toString());
+		}
+	}
+
+	/**
+	 * Marshal an element of an <code>int[]</code>.
+	 */
+	protected void marshalValue(XmlPrinter out, int val) throws MarshallingException, IOException {
+		if (out instanceof XmlUtf8Printer) {
+			((XmlUtf8Printer) out).writeValue((long) val);
+		} else {
+			out.writeValue(Integer.toString(val));
+		}
+	}
+
+	/**
+	 * Marshal an element of a <code>long[]</code>.
+	 */
+	protected void marshalValue(XmlPrinter out, long val) throws MarshallingException, IOException {
+		if (val < Integer.MIN_VALUE || val > Integer.MAX_VALUE) {
+			throw new MarshallingException("Integer value out of range: " + val);
+		}
+		if (out instanceof XmlUtf8Printer) {
+			((XmlUtf8Printer) out).writeValue(val);
+		} else {
+			out.writeValue(Long.toString(val));
+		}
+	}
+
+	/**
+	 * Marshal an element of a <code>boolean[]</code>.
+	 */
+	protected void marshalValue(XmlPrinter out, boolean val) throws MarshallingException, IOException {
+		out.writeValue(val ? "1" : "0");
+	}
+
+	/**
+	 * Marshal an element of a <code>double[]</code>.
+	 */
+	protected void marshalValue(XmlPrinter out, double val) throws MarshallingException, IOException {
+		if (out instanceof XmlUtf8Printer) {
+			((XmlUtf8Printer) out).writeValue(val);
+		} else {
+			out.writeValue(Double.toString(val));
+		}
+	}
+
+	/**
+	 * Marshal an element of a <code>float[]</code>.
+	 */
+	protected void marshalValue(XmlPrinter out, float val) throws MarshallingException, IOException {
+		if (out instanceof XmlUtf8Printer) {
+			((XmlUtf8Printer) out).writeValue(val);
+		} else {
+			out.writeValue(Float.toString(val));
+		}
 	}
 
 	protected void marshalValue(XmlPrinter out, Date val) throws MarshallingException, IOException {
-		out.writeValue(this.getDateFormat().format(val));
+		if (this.defaultDateFormat && DateTimeCodec.canFormat(val.getTime())) {
+			if (out instanceof XmlUtf8Printer) {
+				((XmlUtf8Printer) out).writeValue(val);
+			} else {
+				out.writeValue(DateTimeCodec.format(val.getTime()));
+			}
+		} else {
+			out.writeValue(this.getDateFormat().format(val));
+		}
 	}
 
 	protected void marshalValue(XmlPrinter out, byte[] val) throws MarshallingException, IOException {
@@ -366,6 +748,10 @@ public class XmlRpcMarshaller implements XmlRpcConstants {
 	 * The object is not a simple type ({@link Integer} etc) and does not
 	 * implement either the {@link Map} or {@link List} interface.
 	 * <P>
+	 * If the object's class has a {@link StructCodec} (see 
+	 * {@link StructCodecRegistry}) its members are read using that.
+	 * Otherwise they're read using a {@link ClassDescriptor}.
+	 * <P>
 	 * 
 	 * @param depth
 	 *            Used for pretty printing the output. Implementations are free
@@ -376,6 +762,14 @@ public class XmlRpcMarshaller implements XmlRpcConstants {
 	 * @throws IOException 
 	 */
 	protected void marshalObject(XmlPrinter out, int depth, Object param) throws MarshallingException, IOException {
+		StructCodec codec = StructCodecRegistry.getCodec(param.getClass());
+		if (codec != null) {
+			out.openTag(Types.STRUCT);
+			codec.writeMembers(param, new MemberPrinter(out, depth));
+			out.closeTag(Types.STRUCT);
+			return;
+		}
+
 		ClassDescriptor cDesc;
 		try {
 			cDesc = ClassDescriptor.getInstance(param.getClass());
@@ -385,12 +779,12 @@ public class XmlRpcMarshaller implements XmlRpcConstants {
 
 		out.openTag(Types.STRUCT);
 
-		Iterator getters = cDesc.getters();
+		ClassDescriptor.Accessor[] getters = cDesc.getterPlan();
 		int memberCount = 0;
-		while (getters.hasNext()) {
-			String getterName = (String) getters.next();
+		for (int i = 0; i < getters.length; i++) {
+			String getterName = getters[i].getName();
 			try {
-				Object paramValue = cDesc.getValue(param, getterName);
+				Object paramValue = getters[i].get(param);
 				if (paramValue != null) {
 					out.openTag("member");
 					out.openTag("name");
@@ -418,6 +812,30 @@ public class XmlRpcMarshaller implements XmlRpcConstants {
 //		}
 	}
 
+	// Writes the members a StructCodec passes it as they're
+	// visited, exactly as marshalObject() does.
+	private class MemberPrinter implements StructCodec.MemberWriter {
+		private XmlPrinter out;
+		private int depth;
+
+		public MemberPrinter(XmlPrinter out, int depth) {
+			this.out = out;
+			this.depth = depth;
+		}
+
+		public void writeMember(String name, Object value) throws MarshallingException, IOException {
+			if (value == null) {
+				return;
+			}
+			this.out.openTag("member");
+			this.out.openTag("name");
+			this.out.writeValue(encodeFieldName(name));
+			this.out.closeTag("name");
+			marshalValue(this.out, this.depth + 2, value);
+			this.out.closeTag("member");
+		}
+	}
+
 	protected void marshalMap(XmlPrinter out, int depth, Map param) throws MarshallingException, IOException {
 		out.openTag(Types.STRUCT);
 		Iterator entries = param.entrySet().iterator();
@@ -467,6 +885,84 @@ public class XmlRpcMarshaller implements XmlRpcConstants {
 		out.closeTag(Types.ARRAY);
 	}
 
+	// The primitive array variants below write each element without
+	// boxing it.
+
+	private void marshalArray(XmlPrinter out, int[] array) throws MarshallingException, IOException {
+		String tag = this.getIntTagName();
+		out.openTag(Types.ARRAY);
+		out.openTag("data");
+		for (int i = 0; i < array.length; i++) {
+			out.openTag("value");
+			out.openTag(tag);
+			this.marshalValue(out, array[i]);
+			out.closeTag(tag);
+			out.closeTag("value");
+		}
+		out.closeTag("data");
+		out.closeTag(Types.ARRAY);
+	}
+
+	private void marshalArray(XmlPrinter out, long[] array) throws MarshallingException, IOException {
+		String tag = this.getIntTagName();
+		out.openTag(Types.ARRAY);
+		out.openTag("data");
+		for (int i = 0; i < array.length; i++) {
+			out.openTag("value");
+			out.openTag(tag);
+			this.marshalValue(out, array[i]);
+			out.closeTag(tag);
+			out.closeTag("value");
+		}
+		out.closeTag("data");
+		out.closeTag(Types.ARRAY);
+	}
+
+	private void marshalArray(XmlPrinter out, boolean[] array) throws MarshallingException, IOException {
+		String tag = this.getBooleanTagName();
+		out.openTag(Types.ARRAY);
+		out.openTag("data");
+		for (int i = 0; i < array.length; i++) {
+			out.openTag("value");
+			out.openTag(tag);
+			this.marshalValue(out, array[i]);
+			out.closeTag(tag);
+			out.closeTag("value");
+		}
+		out.closeTag("data");
+		out.closeTag(Types.ARRAY);
+	}
+
+	private void marshalArray(XmlPrinter out, double[] array) throws MarshallingException, IOException {
+		String tag = this.getDoubleTagName();
+		out.openTag(Types.ARRAY);
+		out.openTag("data");
+		for (int i = 0; i < array.length; i++) {
+			out.openTag("value");
+			out.openTag(tag);
+			this.marshalValue(out, array[i]);
+			out.closeTag(tag);
+			out.closeTag("value");
+		}
+		out.closeTag("data");
+		out.closeTag(Types.ARRAY);
+	}
+
+	private void marshalArray(XmlPrinter out, float[] array) throws MarshallingException, IOException {
+		String tag = this.getDoubleTagName();
+		out.openTag(Types.ARRAY);
+		out.openTag("data");
+		for (int i = 0; i < array.length; i++) {
+			out.openTag("value");
+			out.openTag(tag);
+			this.marshalValue(out, array[i]);
+			out.closeTag(tag);
+			out.closeTag("value");
+		}
+		out.closeTag("data");
+		out.closeTag(Types.ARRAY);
+	}
+
 	/**
 	 * Determine the name of an XML-RPC struct member from an Object field name.
 	 * <p>
@@ -6,6 +6,7 @@ import java.lang.reflect.Field;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,6 +17,7 @@ import com.flat502.rox.marshal.HyphenatedFieldNameCodec;
 import com.flat502.rox.marshal.MarshallingException;
 import com.flat502.rox.marshal.MethodUnmarshaller;
 import com.flat502.rox.utils.DateFormatThreadLocal;
+import com.flat502.rox.utils.DateTimeCodec;
 import com.flat502.rox.utils.UTCSimpleDateFormat;
 import com.flat502.rox.utils.Utils;
 
@@ -24,14 +26,27 @@ public abstract class XmlRpcMethodUnmarshaller implements MethodUnmarshaller, Xm
 
 	private static DateFormatThreadLocal dateFormats;
 
+	// Powers of ten that are exactly representable as doubles
+	private static final double[] POWERS_OF_TEN = { 1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+			1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22 };
+
+	// Decimals with more significant digits than this may not have
+	// an exact double representation
+	private static final int MAX_EXACT_DIGITS = 15;
+
 	private FieldNameCodec fieldNameCodec;
 
+	// True unless a sub-class provides its own date format
+	private boolean defaultDateFormat;
+
 	public XmlRpcMethodUnmarshaller() {
 		this(null);
 	}
 	
 	public XmlRpcMethodUnmarshaller(FieldNameCodec fieldNameCodec) {
-		dateFormats = XmlRpcUtils.getDateFormatProvider(DomUnmarshaller.class, this.newDateFormat());
+		DateFormat dateFormat = this.newDateFormat();
+		dateFormats = XmlRpcUtils.getDateFormatProvider(DomUnmarshaller.class, dateFormat);
+		this.defaultDateFormat = (dateFormat == DATE_FORMAT);
 		this.fieldNameCodec = fieldNameCodec;
 		if (this.fieldNameCodec == null) {
 			this.fieldNameCodec = new HyphenatedFieldNameCodec();
@@ -60,18 +75,95 @@ public abstract class XmlRpcMethodUnmarshaller implements MethodUnmarshaller, Xm
 	}
 
 	protected Object parseInt(String value) throws MarshallingException {
+		return Integer.valueOf(this.parseIntValue(value));
+	}
+
+	/**
+	 * Parse an integer value from a range of characters.
+	 * @see #parseIntValue(char[], int, int)
+	 */
+	protected Object parseInt(char[] ch, int start, int length) throws MarshallingException {
+		return Integer.valueOf(this.parseIntValue(ch, start, length));
+	}
+
+	/**
+	 * Parse an integer value from a range of characters without
+	 * creating a string.
+	 * <p>
+	 * Values consisting of an optional minus sign followed by ASCII
+	 * digits are parsed directly. Anything else (including a leading
+	 * plus sign, which {@link Integer#parseInt(String)} only accepts
+	 * on some JREs) is passed to {@link #parseIntValue(String)}.
+	 */
+	protected int parseIntValue(char[] ch, int start, int length) throws MarshallingException {
+		int end = start + length;
+		int i = start;
+		boolean negative = false;
+		if (i < end && ch[i] == '-') {
+			negative = true;
+			i++;
+		}
+		// Ten digits or fewer can't overflow a long
+		if (i < end && end - i <= 10) {
+			long value = 0;
+			for (; i < end; i++) {
+				char c = ch[i];
+				if (c < '0' || c > '9') {
+					break;
+				}
+				value = value * 10 + (c - '0');
+			}
+			if (negative) {
+				value = -value;
+			}
+			if (i == end && value >= Integer.MIN_VALUE && value <= Integer.MAX_VALUE) {
+				return (int) value;
+			}
+		}
+		return this.parseIntValue(new String(ch, start, length));
+	}
+
+	/**
+	 * Parse an integer value without boxing it. Used when 
+	 * unmarshalling directly into an <code>int[]</code> or
+	 * <code>long[]</code>.
+	 */
+	protected int parseIntValue(String value) throws MarshallingException {
 		try {
-			return new Integer(value);
+			return Integer.parseInt(value);
 		} catch (NumberFormatException e) {
 			throw new MarshallingException("Invalid integer value: " + value, e);
 		}
 	}
 
 	protected Object parseBoolean(String value) throws MarshallingException {
+		return this.parseBooleanValue(value) ? Boolean.TRUE : Boolean.FALSE;
+	}
+
+	/**
+	 * Parse a boolean value without boxing it. Used when 
+	 * unmarshalling directly into a <code>boolean[]</code>.
+	 */
+	protected boolean parseBooleanValue(String value) throws MarshallingException {
 		if (!value.equals("0") && !value.equals("1")) {
 			throw new MarshallingException("Invalid boolean value: " + value);
 		}
-		return value.equals("1") ? Boolean.TRUE : Boolean.FALSE;
+		return value.equals("1");
+	}
+
+	protected Object parseBoolean(char[] ch, int start, int length) throws MarshallingException {
+		return this.parseBooleanValue(ch, start, length) ? Boolean.TRUE : Boolean.FALSE;
+	}
+
+	/**
+	 * Parse a boolean value from a range of characters without 
+	 * creating a string.
+	 */
+	protected boolean parseBooleanValue(char[] ch, int start, int length) throws MarshallingException {
+		if (length == 1 && (ch[start] == '0' || ch[start] == '1')) {
+			return ch[start] == '1';
+		}
+		return this.parseBooleanValue(new String(ch, start, length));
 	}
 
 	protected Object parseString(String value, Class structClass) throws MarshallingException {
@@ -94,8 +186,72 @@ public abstract class XmlRpcMethodUnmarshaller implements MethodUnmarshaller, Xm
 	}
 
 	protected Object parseDouble(String value) throws MarshallingException {
+		return Double.valueOf(this.parseDoubleValue(value));
+	}
+
+	/**
+	 * Parse a double value from a range of characters.
+	 * @see #parseDoubleValue(char[], int, int)
+	 */
+	protected Object parseDouble(char[] ch, int start, int length) throws MarshallingException {
+		return Double.valueOf(this.parseDoubleValue(ch, start, length));
+	}
+
+	/**
+	 * Parse a double value from a range of characters without
+	 * creating a string.
+	 * <p>
+	 * Plain decimals (an optional sign, ASCII digits and an optional
+	 * decimal point) with at most 15 significant digits are parsed
+	 * directly. The digits and the power of ten they're scaled by
+	 * are then both exact, so a single division produces the same 
+	 * correctly rounded result {@link Double#parseDouble(String)} does.
+	 * Anything else is passed to {@link #parseDoubleValue(String)}.
+	 */
+	protected double parseDoubleValue(char[] ch, int start, int length) throws MarshallingException {
+		int end = start + length;
+		int i = start;
+		boolean negative = false;
+		if (i < end && (ch[i] == '-' || ch[i] == '+')) {
+			negative = ch[i++] == '-';
+		}
+		long digits = 0;
+		int digitCount = 0;
+		int scale = -1;
+		for (; i < end; i++) {
+			char c = ch[i];
+			if (c >= '0' && c <= '9') {
+				digits = digits * 10 + (c - '0');
+				if (++digitCount > MAX_EXACT_DIGITS) {
+					break;
+				}
+				if (scale >= 0) {
+					scale++;
+				}
+			} else if (c == '.' && scale < 0) {
+				scale = 0;
+			} else {
+				break;
+			}
+		}
+		if (i == end && digitCount > 0) {
+			double value = (double) digits;
+			if (scale > 0) {
+				value /= POWERS_OF_TEN[scale];
+			}
+			return negative ? -value : value;
+		}
+		return this.parseDoubleValue(new String(ch, start, length));
+	}
+
+	/**
+	 * Parse a double value without boxing it. Used when 
+	 * unmarshalling directly into a <code>double[]</code> or
+	 * <code>float[]</code>.
+	 */
+	protected double parseDoubleValue(String value) throws MarshallingException {
 		try {
-			return new Double(value);
+			return Double.parseDouble(value);
 		} catch (NumberFormatException e) {
 			throw new MarshallingException("Invalid integer value: " + value, e);
 		}
@@ -109,6 +265,25 @@ public abstract class XmlRpcMethodUnmarshaller implements MethodUnmarshaller, Xm
 		}
 	}
 
+	/**
+	 * Parse a date value from a range of characters.
+	 * <p>
+	 * Unless {@link #newDateFormat()} is overridden values in the
+	 * canonical <code>yyyyMMdd'T'HH:mm:ss</code> form are parsed 
+	 * using {@link DateTimeCodec}, without creating a string or
+	 * using a {@link DateFormat}. Anything else is passed to
+	 * {@link #parseDate(String)}.
+	 */
+	protected Object parseDate(char[] ch, int start, int length) throws MarshallingException {
+		if (this.defaultDateFormat) {
+			long time = DateTimeCodec.parse(ch, start, length);
+			if (time != DateTimeCodec.NOT_PARSED) {
+				return new Date(time);
+			}
+		}
+		return this.parseDate(new String(ch, start, length));
+	}
+
 	protected Object parseBase64(String value) {
 		return Base64Codec.decode(value.toCharArray());
 	}
@@ -127,7 +302,11 @@ public abstract class XmlRpcMethodUnmarshaller implements MethodUnmarshaller, Xm
 			return new ArrayList();
 		}
 
+		StructCodec codec = StructCodecRegistry.getCodec(structClass);
 		try {
+			if (codec != null) {
+				return codec.newInstance();
+			}
 			return structClass.newInstance();
 		} catch (Exception e) {
 			throw new MarshallingException("Couldn't instantiate  " + structClass.getName(), e);
@@ -149,6 +328,35 @@ public abstract class XmlRpcMethodUnmarshaller implements MethodUnmarshaller, Xm
 	}
 
 	protected Class getStructMemberType(Object structObject, String name) throws MarshallingException {
+		// We use the type of the setter and not a getter because 
+		// we're creating this object for unmarshalling and we don't 
+		// want to impose that a getter be around when all we'll be 
+		// doing is initializing the object.
+		ClassDescriptor.Accessor setter = this.getStructMemberSetter(structObject, name);
+		if (setter == null) {
+			throw new IllegalArgumentException("No setter for " + name + " on " + structObject.getClass().getName());
+		}
+		return setter.getType();
+	}
+
+	/**
+	 * Locate the accessor used to set a member of an object
+	 * an XML-RPC struct is being unmarshalled as.
+	 * <p>
+	 * The accessor can be passed to 
+	 * {@link #setObjectMember(Object, ClassDescriptor.Accessor, String, Object)}
+	 * for each instance of the same class, avoiding a lookup by name
+	 * for every member of every struct.
+	 * 
+	 * @param structObject
+	 *            The object the XML-RPC struct is being unmarshalled as.
+	 * @param name
+	 *            The name of the field or property (already decoded).
+	 * @return The accessor, or <code>null</code> if there is no such
+	 *         writeable member.
+	 * @throws MarshallingException
+	 */
+	protected ClassDescriptor.Accessor getStructMemberSetter(Object structObject, String name) throws MarshallingException {
 		Class structClass = structObject.getClass();
 		ClassDescriptor cDesc;
 		try {
@@ -156,12 +364,7 @@ public abstract class XmlRpcMethodUnmarshaller implements MethodUnmarshaller, Xm
 		} catch (IntrospectionException e) {
 			throw new MarshallingException("Introspection of " + structClass.getName() + " failed", e);
 		}
-
-		// We use the type of the setter and not a getter because 
-		// we're creating this object for unmarshalling and we don't 
-		// want to impose that a getter be around when all we'll be 
-		// doing is initializing the object.
-		return cDesc.getSetterType(name);
+		return cDesc.getSetter(name);
 	}
 
 	/**
@@ -200,14 +403,6 @@ public abstract class XmlRpcMethodUnmarshaller implements MethodUnmarshaller, Xm
 	 * @throws MarshallingException
 	 */
 	protected void setObjectMember(Object structObject, String name, Object value, UnmarshallerAid aid) throws MarshallingException {
-		Class structClass = structObject.getClass();
-		ClassDescriptor cDesc;
-		try {
-			cDesc = ClassDescriptor.getInstance(structClass);
-		} catch (IntrospectionException e) {
-			throw new MarshallingException("Introspection of " + structClass.getName() + " failed", e);
-		}
-
 		String setterName = name;
 		if (!(structObject instanceof Fault)) {
 			// For faults we don't need to do anything to the member names (faultCode, faultString)
@@ -215,22 +410,75 @@ public abstract class XmlRpcMethodUnmarshaller implements MethodUnmarshaller, Xm
 			// into our own type.
 			setterName = this.decodeFieldName(name);
 		}
-		Class targetType = null;
-		try {
-			targetType = cDesc.getSetterType(setterName);
-		} catch(IllegalArgumentException e) {
+		ClassDescriptor.Accessor setter = this.getStructMemberSetter(structObject, setterName);
+		if (setter == null) {
 			if (aid != null && !aid.ignoreMissingFields()) {
-				throw new MarshallingException("Can't find member '" + setterName + "'", e);
+				throw new MarshallingException("Can't find member '" + setterName + "'",
+						new IllegalArgumentException("No setter for " + setterName + " on "
+								+ structObject.getClass().getName()));
 			}
+			return;
 		}
-		if (targetType != null) {
-			Object coercedValue = Utils.coerce(value, targetType);
-			try {
-				cDesc.setValue(structObject, setterName, coercedValue);
-			} catch (Exception e2) {
-				throw new MarshallingException("Error setting property " + setterName + " for struct member '" + name
-						+ "' of " + structObject.getClass().getName(), e2);
-			}
+		this.setObjectMember(structObject, setter, name, value);
+	}
+
+	/**
+	 * Set a member of an object an XML-RPC struct is being 
+	 * unmarshalled as, using an accessor previously located by
+	 * {@link #getStructMemberSetter(Object, String)}.
+	 * <p>
+	 * The value is coerced as described for
+	 * {@link #setObjectMember(Object, String, Object, UnmarshallerAid)}.
+	 * 
+	 * @param structObject
+	 *            The object the XML-RPC struct is being unmarshalled as.
+	 * @param setter
+	 *            The accessor for the member.
+	 * @param name
+	 *            The name of the XML-RPC member, for error reporting.
+	 * @param value
+	 *            The value of the XML-RPC member.
+	 * @throws MarshallingException
+	 */
+	protected void setObjectMember(Object structObject, ClassDescriptor.Accessor setter, String name, Object value)
+			throws MarshallingException {
+		Object coercedValue = Utils.coerce(value, setter.getType());
+		try {
+			setter.set(structObject, coercedValue);
+		} catch (Exception e2) {
+			throw new MarshallingException("Error setting property " + setter.getName() + " for struct member '" + name
+					+ "' of " + structObject.getClass().getName(), e2);
+		}
+	}
+
+	/**
+	 * Set a member of an object an XML-RPC struct is being 
+	 * unmarshalled as, using the {@link StructCodec} for its class.
+	 * <p>
+	 * The value is coerced as described for
+	 * {@link #setObjectMember(Object, String, Object, UnmarshallerAid)}.
+	 * 
+	 * @param structObject
+	 *            The object the XML-RPC struct is being unmarshalled as.
+	 * @param codec
+	 *            The codec for the class of <code>structObject</code>.
+	 * @param index
+	 *            The index of the member, as returned by 
+	 *            {@link StructCodec#getSetterIndex(String)}.
+	 * @param name
+	 *            The name of the XML-RPC member, for error reporting.
+	 * @param value
+	 *            The value of the XML-RPC member.
+	 * @throws MarshallingException
+	 */
+	protected void setObjectMember(Object structObject, StructCodec codec, int index, String name, Object value)
+			throws MarshallingException {
+		Object coercedValue = Utils.coerce(value, codec.getSetterType(index));
+		try {
+			codec.setMember(structObject, index, coercedValue);
+		} catch (RuntimeException e) {
+			throw new MarshallingException("Error setting struct member '" + name + "' of "
+					+ structObject.getClass().getName(), e);
 		}
 	}
 }
@@ -4,6 +4,8 @@ import java.io.*;
 import java.util.*;
 import java.net.URI;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
 
 import org.xml.sax.*;
 import javax.xml.parsers.*;
@@ -21,17 +23,29 @@ public class XmlRpcSaxParser extends SAXParser implements Parser {
 	public String getValue (String name) { return null; }
     }
 
+    // reports elements to a DocumentHandler by name
+    private static class DocumentHandlerAdapter implements XmlRpcElementHandler {
+	private DocumentHandler handler;
+	public DocumentHandlerAdapter (DocumentHandler handler) { this.handler = handler; }
+	public void startDocument () throws SAXException { handler.startDocument(); }
+	public void endDocument () throws SAXException { handler.endDocument(); }
+	public void startElement (int element) throws SAXException { handler.startElement( XML_RPC_ELEMENTS[element], EMPTY_ATTRS ); }
+	public void endElement (int element) throws SAXException { handler.endElement( XML_RPC_ELEMENTS[element] ); }
+	public void characters (char[] ch, int start, int length) throws SAXException { handler.characters( ch, start, length ); }
+    }
+
     private static final int BUF_SIZE = 64*1024;
 
+    private static final Charset UTF_8      = Charset.forName( "UTF-8" );
+    private static final Charset US_ASCII   = Charset.forName( "US-ASCII" );
+    private static final Charset ISO_8859_1 = Charset.forName( "ISO-8859-1" );
+
     private static final AttributeList EMPTY_ATTRS = new EmptyAttributeList();
     
     private static final char[] EMPTY_CHARS = new char[0];
 
-    private static final String METHOD_CALL     = "methodCall";
-    private static final String METHOD_RESPONSE = "methodResponse";
-
+    // indexed by the element IDs defined by XmlRpcElementHandler
     private static final String[] XML_RPC_ELEMENTS = {
-	METHOD_CALL,
 	"methodCall",
 	"methodName",
 	"params",
@@ -49,7 +63,7 @@ public class XmlRpcSaxParser extends SAXParser implements Parser {
 	"name",
 	"array",
 	"data",
-	METHOD_RESPONSE,
+	"methodResponse",
 	"fault",
     };
 
@@ -88,7 +102,7 @@ public class XmlRpcSaxParser extends SAXParser implements Parser {
 
     private EntityResolver entityResolver;
     private DTDHandler dtdHandler;
-    private DocumentHandler documentHandler;
+    private XmlRpcElementHandler handler;
     private ErrorHandler errorHandler;
     private char[] buf = new char[BUF_SIZE];
     private int pos, limit;
@@ -96,6 +110,11 @@ public class XmlRpcSaxParser extends SAXParser implements Parser {
     private int state;
     private boolean isComplete;
 
+    // the document being parsed as bytes, if any
+    private ByteBuffer bytes;
+    private boolean isLatin1;
+    private int decoded;
+
     public XmlRpcSaxParser() {
 	reset();
     }
@@ -174,24 +193,93 @@ public class XmlRpcSaxParser extends SAXParser implements Parser {
 	throw new SAXException( "Unrecognised character reference \"" + new String( buf, start-1, len+1 ) + "\"" );
     }
 
-    private boolean equalChars( String element, int start, int len ) {
-	char[] buf = this.buf;
-	for( int i = 1; i < len; i++ ) {
-	    if( buf[start+i] != element.charAt(i) ) { return false; }
+    ///////////////////////////////////////// Tags /////////////////////////////////////////
+    //
+    // Tags are scanned by the same methods whether we're parsing characters
+    // (from buf) or bytes (from bytes, which is only set while we are). A 
+    // start tag is a name optionally followed by spaces and then '>' or '/>'.
+    // An end tag is a name followed directly by '>'. XML-RPC doesn't use
+    // attributes so neither they nor any other whitespace are supported.
+    // TODO allow whitespace and attributes!
+
+    /// The character at pos in whatever we're parsing. Markup is ASCII so bytes needn't be decoded.
+    private int charAt( int pos ) {
+	return this.bytes != null ? this.bytes.get(pos) & 0xFF : this.buf[pos];
+    }
+
+    private String text( int start, int len ) {
+	return this.bytes != null ? bytesToString( start, len ) : new String( this.buf, start, len );
+    }
+
+    /// @return the position following the name starting at pos (which may be limit)
+    private int scanName( int pos, int limit ) {
+	int c;
+	while( pos < limit && (c = charAt(pos)) < NAME_CHARS.length && NAME_CHARS[c] ) { pos++; }
+	return pos;
+    }
+
+    /// Finish parsing (and report) a start tag whose name runs from start to nameEnd.
+    /// @return the position following the tag, or -1 if it doesn't end before limit
+    private int parseStartTag( int start, int nameEnd, int limit ) throws SAXException {
+	int pos = nameEnd;
+	while( pos < limit && charAt(pos) == ' ' ) { pos++; }
+	if( limit <= pos ) {
+	    return -1;
 	}
-	return true;
+
+	int c = charAt(pos);
+	if( c == '>' ) {
+	    if( handler != null ) {
+		handler.startElement( getElement( start, nameEnd-start ) );
+	    }
+	    return pos+1;
+	}
+	else if( c == '/' ) {
+	    if( limit <= pos+1 ) {
+		return -1;
+	    }
+	    if( charAt(pos+1) != '>' ) {
+		throw new SAXException( "Illegal character '" + (char)charAt(pos+1) + "' after '/' in element starting \"" + text( start-1, pos+1-(start-1) ) + "\"" );
+	    }
+	    // report the element (along with an empty value)
+	    if( handler != null ) {
+		int element = getElement( start, nameEnd-start );
+		handler.startElement( element );
+		handler.characters(EMPTY_CHARS, 0, 0);
+		handler.endElement(element);
+	    }
+	    return pos+2;
+	}
+	throw new SAXException( "Illegal character '" + (char)c + "' in element starting \"" + text( start-1, pos-(start-1) ) + "\"" );
     }
 
-    /// Get an element - it must be one of the recognised ones
-    private String getElement( int start, int len ) throws SAXException {
-	char c0 = buf[start];	    
+    /// Finish parsing (and report) an end tag whose name runs from start to nameEnd, which must be before the limit.
+    /// @return the position following the tag
+    private int parseEndTag( int start, int nameEnd ) throws SAXException {
+	if( charAt(nameEnd) != '>' ) {
+	    throw new SAXException( "Illegal character '" + (char)charAt(nameEnd) + "' in close element starting \"" + text( start-2, nameEnd-(start-2) ) + "...\"" );
+	}
+
+	int element = getElement( start, nameEnd-start );
+	// take note if we have a plausibly complete document
+	if( element == XmlRpcElementHandler.METHOD_CALL || element == XmlRpcElementHandler.METHOD_RESPONSE ) {
+	    this.isComplete = true;
+	}
+	if( handler != null ) { handler.endElement(element); }
+	return nameEnd+1;
+    }
+
+    /// Get the ID of an element - it must be one of the recognised ones
+    private int getElement( int start, int len ) throws SAXException {
 	for( int i = 0; i < XML_RPC_ELEMENTS.length; i++ ) {
 	    String element = XML_RPC_ELEMENTS[i];
-	    if( element.length() == len && c0 == element.charAt(0) && equalChars( element, start, len ) ) {
-		return element;
+	    if( element.length() == len ) {
+		int j = 0;
+		while( j < len && charAt(start+j) == element.charAt(j) ) { j++; }
+		if( j == len ) { return i; }
 	    }
 	}
-	throw new SAXException( "Unrecognised element <" + new String( buf, start, len ) + ">" );
+	throw new SAXException( "Unrecognised element <" + text( start, len ) + ">" );
     }
 
     /// Parse CDATA overwriting the buffer in-place with the compacted raw characters with references translated to raw characters.
@@ -238,7 +326,7 @@ public class XmlRpcSaxParser extends SAXParser implements Parser {
 	    }
 	}
 	// report the characters
-	if( start < copyPos && documentHandler != null ) { documentHandler.characters( buf, start, copyPos-start ); }
+	if( start < copyPos && handler != null ) { handler.characters( buf, start, copyPos-start ); }
 
 	state = STATE_OPEN;
 
@@ -249,27 +337,24 @@ public class XmlRpcSaxParser extends SAXParser implements Parser {
     private void parsePi() throws SAXException {
 	int pos = this.pos, limit = this.limit;
 	char[] buf = this.buf;
-	int c = -1;
 
 	while( pos < limit ) {
 	    // look for PI terminator - TODO embedded strings!
-	    while( pos < limit && (c = buf[pos]) != '?' ) { pos++; }
+	    while( pos < limit && buf[pos] != '?' ) { pos++; }
 
-	    if( c == '?' ) {
-		if( limit <= pos ) {
+	    if( pos < limit ) {
+		if( limit-1 <= pos ) {
 		    // we can't tell yet, so reparse the '?' at the start of the next chunk
 		    resetBuf( pos, 1 );
 		    return;
 		}
-		else {
-		    pos++;
-		    if( buf[pos++] == '>' ) {
-			// we're done - expect some CDATA
-			this.state = STATE_CDATA;
-			this.pos = pos;
-			return;
-		    }
+		if( buf[pos+1] == '>' ) {
+		    // we're done - expect some CDATA
+		    this.state = STATE_CDATA;
+		    this.pos = pos+2;
+		    return;
 		}
+		pos++;
 	    }
 	}
 	this.pos = pos;
@@ -279,28 +364,24 @@ public class XmlRpcSaxParser extends SAXParser implements Parser {
     private void parseComment() throws SAXException {
 	int pos = this.pos, limit = this.limit;
 	char[] buf = this.buf;
-	int c = -1;
 
 	while( pos < limit ) {
 	    // look for PI terminator - TODO embedded strings?
-	    while( pos < limit && (c = buf[pos]) != '-' ) { pos++; }
+	    while( pos < limit && buf[pos] != '-' ) { pos++; }
 
-	    if( c == '-' ) {
-		if( limit-1 <= pos ) {
-		    // we can't tell yet, so reparse the '-' at the start of the next chunk
+	    if( pos < limit ) {
+		if( limit-2 <= pos ) {
+		    // we can't tell yet, so reparse the '-' (or '--') at the start of the next chunk
 		    resetBuf( pos, limit-pos );
 		    return;
 		}
-		else {
-		    pos++;
-		    if( buf[pos] == '-' && buf[pos+1] == '>' ) {
-			pos += 2;
-			// we're done - expect some CDATA
-			this.state = STATE_CDATA;
-			this.pos = pos;
-			return;
-		    }
+		if( buf[pos+1] == '-' && buf[pos+2] == '>' ) {
+		    // we're done - expect some CDATA
+		    this.state = STATE_CDATA;
+		    this.pos = pos+3;
+		    return;
 		}
+		pos++;
 	    }
 	}
 	this.pos = pos;
@@ -352,145 +433,394 @@ public class XmlRpcSaxParser extends SAXParser implements Parser {
     }
 
     private void parseStartElement() throws SAXException {
-	int pos = this.pos, limit = this.limit, start = pos;
-	char[] buf = this.buf;
-	int c = -1;
-
-	while( pos < limit && NAME_CHARS[ (c = buf[pos]) ] ) { pos++; }
-
-	if( limit <= pos ) {
+	int start = this.pos;
+	int end = parseStartTag( start, scanName( start, this.limit ), this.limit );
+	if( end == -1 ) {
 	    // end of buffer in the middle of an element - reparse as part of the new chunk
-	    resetBuf( start-1, limit-(start-1) );
-	    this.state = STATE_CDATA;
-	    return;
+	    resetBuf( start-1, this.limit-(start-1) );
 	}
-	
-	// record end of tag name and consume remaining whitespace within this tag
-	int nameEnd = pos;
-	while( pos < limit && (c = buf[pos]) == ' ' ) { pos++; }
+	else {
+	    this.pos = end;
+	}
+	this.state = STATE_CDATA;
+    }
 
-	// TODO allow whitespace and attributes!
-	if( c == '>' ) {
-	    // report the element
-	    if( documentHandler != null ) {
-		String element = getElement( start, nameEnd-start );
-		documentHandler.startElement( element, EMPTY_ATTRS );
-	    }
-	    this.pos = pos+1;
-	    this.state = STATE_CDATA;
+    private void parseEndElement() throws SAXException {
+	int start = this.pos;
+	int nameEnd = scanName( start, this.limit );
+	if( this.limit <= nameEnd ) {
+	    // end of buffer in the middle of an close element - reparse as part of the new chunk
+	    resetBuf( start-2, this.limit-(start-2) );
 	}
-	else if( c == '/' ) {
-	    if( limit-1 <= pos ) {
-		// we can't tell yet, so reparse the element at the start of the next chunk
-		resetBuf( start-1, limit-(start-1) );
-		this.state = STATE_CDATA;
-		return;
+	else {
+	    this.pos = parseEndTag( start, nameEnd );
+	}
+	this.state = STATE_CDATA;
+    }
+
+    private void parse( Reader reader ) throws SAXException, IOException {
+
+	// we're starting to parse
+	if( handler != null ) { handler.startDocument(); }
+
+	try {
+	    startChunks();
+	    while( readBuf(reader) ) {
+		parseChunk();
 	    }
-	    if( buf[pos+1] == '>' ) {
-		// report the element (along with an empty value)
-		if( documentHandler != null ) {
-		    String element = getElement( start, nameEnd-start );
-		    documentHandler.startElement( element, EMPTY_ATTRS );
-		    documentHandler.characters(EMPTY_CHARS, 0, 0);
-		    documentHandler.endElement(element);
+	    endChunks();
+	}
+	finally {
+	    if( handler != null ) { handler.endDocument(); }
+	}
+
+    }
+
+    private void startChunks() {
+	this.isComplete = false;
+
+	// read the next chunk of input
+	this.pos = 0;
+	this.state = STATE_CDATA;
+    }
+
+    // parse the chunk between pos and limit, setting aside any partial item
+    // so it's parsed again once the next chunk has been appended to it
+    private void parseChunk() throws SAXException {
+	try {
+	    while( !isReset && pos < limit ) {
+		switch(state) {
+		case STATE_CDATA:
+		case STATE_CDATA_CONTINUE:
+		    parseCdata();
+		    break;
+		case STATE_OPEN:
+		    parseFromOpen();
+		    break;
+		case STATE_PI:
+		    parsePi();
+		    break;
+		case STATE_COMMENT:
+		    parseComment();
+		    break;
+		default:
+		    throw new SAXException( "Invalid internal state " + state );
 		}
-		this.pos = pos+2;
-		this.state = STATE_CDATA;
 	    }
-	    else {
-		throw new SAXException( "Illegal character '" + (char)buf[pos] + "' after '/' in element starting \"" + new String( buf, start-1, pos-(start-1) ) + "\"" );
+	    if(!isReset) {
+		resetBuf(0,0);
 	    }
 	}
-	else {
-	    throw new SAXException( "Illegal character '" + (char)buf[pos] + "' in element starting \"" + new String( buf, start-1, pos-(start-1) ) + "\"" );
+	catch( ArrayIndexOutOfBoundsException e ) {
+	    throw (SAXException) new SAXException( "Non-ASCII characters are not yet supported." ).initCause(e);
 	}
     }
 
-    private void parseEndElement() throws SAXException {
-	int pos = this.pos, limit = this.limit, start = pos;
-	char[] buf = this.buf;
-	int c = -1;
+    private void endChunks() throws SAXException {
+	// STATE_CDATA_CONTINUE is OK cos we can ignore CDATA at the end of the document
+	if( state != STATE_CDATA && state != STATE_CDATA_CONTINUE ) {
+	    throw new SAXException( "Unexpected end of document." );
+	}
+	else if( !isComplete ) {
+	    throw new SAXException( "Incomplete document - top-level end element not found" );
+	}
+    }
 
-	while( pos < limit && NAME_CHARS[ (c = buf[pos]) ] ) { pos++; }
+    ///////////////////////////////////////// Push Parsing //////////////////////////////////////////
+
+    /**
+     * Begin parsing a document that will be handed to this parser
+     * a piece at a time using {@link #push(char[], int, int)}, rather
+     * than read from a {@link Reader}.
+     * <p>
+     * This lets a caller parse a document as it arrives, without
+     * waiting for (or buffering) all of it first.
+     * @param handler
+     * 	The handler the document is reported to.
+     */
+    public void startPush( DocumentHandler handler ) throws SAXException {
+	startPush( adapt(handler) );
+    }
 
-	if( limit <= pos ) {
-	    // end of buffer in the middle of an close element - reparse as part of the new chunk
-	    resetBuf( start-2, limit-(start-2) );
-	    this.state = STATE_CDATA;
-	    return;
+    /**
+     * Begin parsing a document a piece at a time, as
+     * {@link #startPush(DocumentHandler)} does, reporting it to an
+     * {@link XmlRpcElementHandler}.
+     */
+    public void startPush( XmlRpcElementHandler handler ) throws SAXException {
+	reset();
+	setElementHandler( handler );
+	if( handler != null ) { handler.startDocument(); }
+	startChunks();
+    }
+
+    /**
+     * Parse the next piece of a document started with 
+     * {@link #startPush(DocumentHandler)}.
+     * <p>
+     * Pieces may be split anywhere. Anything that can't be parsed
+     * until more of the document arrives is held on to.
+     */
+    public void push( char[] chars, int offset, int len ) throws SAXException {
+	while( len > 0 ) {
+	    int from = isReset ? limit : 0;
+	    isReset = false;
+	    int n = Math.min( len, this.buf.length - from );
+	    System.arraycopy( chars, offset, this.buf, from, n );
+	    this.limit = from + n;
+	    offset += n;
+	    len -= n;
+	    parseChunk();
 	}
+    }
 
-	// TODO allow whitespace and attributes!
-	if( c == '>' ) {
-	    String element = getElement( start, pos-start );
-	    // take note if we have a plausibly complete document
-	    if( element == METHOD_CALL || element == METHOD_RESPONSE ) {
-		this.isComplete = true;
-	    }
-	    // report the element
-	    if( documentHandler != null ) { documentHandler.endElement(element); }
-	    this.pos = pos+1;
-	    this.state = STATE_CDATA;
+    /**
+     * Finish parsing a document started with 
+     * {@link #startPush(DocumentHandler)}.
+     * @throws SAXException
+     * 	if the document is incomplete.
+     */
+    public void endPush() throws SAXException {
+	try {
+	    endChunks();
 	}
-	else {
-	    throw new SAXException( "Illegal character '" + (char)buf[pos] + "' in close element starting \"" + new String( buf, start-2, pos-(start-2) ) + "...\"" );
+	finally {
+	    if( handler != null ) { handler.endDocument(); }
 	}
     }
 
-    private void parse( Reader reader ) throws SAXException, IOException {
+    ///////////////////////////////////////// Byte Parsing //////////////////////////////////////////
+
+    /**
+     * Test whether documents in a character set can be parsed as
+     * bytes by {@link #parse(ByteBuffer, Charset, DocumentHandler)}.
+     * <p>
+     * This is true of UTF-8, US-ASCII and ISO-8859-1: every
+     * character used in markup is a single byte, and those bytes
+     * never appear within another character.
+     */
+    public static boolean isByteCompatible( Charset charset ) {
+	return charset.equals( UTF_8 ) || charset.equals( US_ASCII ) || charset.equals( ISO_8859_1 );
+    }
 
-	// we're starting to parse
-	if( documentHandler != null ) { documentHandler.startDocument(); }
+    /**
+     * Parse a complete document held as bytes, without decoding 
+     * all of it first.
+     * <p>
+     * Markup is matched directly against the bytes and only text
+     * is decoded, as it's reported. The bytes between the position
+     * and limit of <code>in</code> are parsed. Neither is changed.
+     * @param in
+     * 	The document.
+     * @param charset
+     * 	The character set the document is encoded in. This must be
+     * 	one for which {@link #isByteCompatible(Charset)} is
+     * 	<code>true</code>.
+     * @param handler
+     * 	The handler the document is reported to.
+     */
+    public void parse( ByteBuffer in, Charset charset, DocumentHandler handler ) throws SAXException {
+	parse( in, charset, adapt(handler) );
+    }
+
+    /**
+     * Parse a complete document held as bytes, as
+     * {@link #parse(ByteBuffer, Charset, DocumentHandler)} does,
+     * reporting it to an {@link XmlRpcElementHandler}.
+     */
+    public void parse( ByteBuffer in, Charset charset, XmlRpcElementHandler handler ) throws SAXException {
+	if( !isByteCompatible(charset) ) {
+	    throw new IllegalArgumentException( "Can't parse " + charset.name() + " as bytes" );
+	}
+	setElementHandler( handler );
+	this.bytes = in;
+	this.isLatin1 = charset.equals( ISO_8859_1 );
+
+	if( handler != null ) { handler.startDocument(); }
 
 	try {
-	    try {
-		this.isComplete = false;
+	    this.isComplete = false;
+	    int pos = in.position(), limit = in.limit();
+	    // skip any (UTF-8) byte order mark
+	    if( limit - pos >= 3 && in.get(pos) == (byte)0xEF && in.get(pos+1) == (byte)0xBB && in.get(pos+2) == (byte)0xBF ) {
+		pos += 3;
+	    }
+	    while( pos < limit ) {
+		int start = pos;
+		while( pos < limit && in.get(pos) != '<' ) { pos++; }
+		if( start < pos ) { reportText( start, pos ); }
+		if( pos < limit ) { pos = parseMarkup( pos+1, limit ); }
+	    }
+	    if( !isComplete ) {
+		throw new SAXException( "Incomplete document - top-level end element not found" );
+	    }
+	}
+	finally {
+	    this.bytes = null;
+	    if( handler != null ) { handler.endDocument(); }
+	}
+    }
 
-		// read the next chunk of input
-		this.pos = 0;
-		this.state = STATE_CDATA;
-		
-		while( readBuf(reader) ) {
-		    // parse the next chunk
-		    while( !isReset && pos < limit ) {
-			switch(state) {
-			case STATE_CDATA:
-			case STATE_CDATA_CONTINUE:
-			    parseCdata();
-			    break;
-			case STATE_OPEN:
-			    parseFromOpen();
-			    break;
-			case STATE_PI:
-			    parsePi();
-			    break;
-			case STATE_COMMENT:
-			    parseComment();
-			    break;
-			default:
-			    throw new SAXException( "Invalid internal state " + state );
-			}
-		    }
-		    if(!isReset) {
-			resetBuf(0,0);
-		    }
+    // parse whatever follows a '<', returning the position just after it
+    private int parseMarkup( int pos, int limit ) throws SAXException {
+	ByteBuffer in = this.bytes;
+	if( limit <= pos ) {
+	    throw new SAXException( "Unexpected end of document." );
+	}
+
+	int c = in.get(pos);
+	if( c == '/' ) {
+	    return parseEndElement( pos+1, limit );
+	}
+	else if( c == '?' ) {
+	    // skip a PI
+	    for( pos++; pos < limit-1; pos++ ) {
+		if( in.get(pos) == '?' && in.get(pos+1) == '>' ) { return pos+2; }
+	    }
+	    throw new SAXException( "Unexpected end of document." );
+	}
+	else if( c == '!' ) {
+	    // skip a comment
+	    if( pos+2 < limit && in.get(pos+1) == '-' && in.get(pos+2) == '-' ) {
+		for( pos += 3; pos < limit-2; pos++ ) {
+		    if( in.get(pos) == '-' && in.get(pos+1) == '-' && in.get(pos+2) == '>' ) { return pos+3; }
 		}
-		// STATE_CDATA_CONTINUE is OK cos we can ignore CDATA at the end of the document
-		if( state != STATE_CDATA && state != STATE_CDATA_CONTINUE ) {
-		    throw new SAXException( "Unexpected end of document." );
+		throw new SAXException( "Unexpected end of document." );
+	    }
+	}
+	else if( c >= 0 && NAME_CHARS[c] ) {
+	    return parseStartElement( pos, limit );
+	}
+	throw new SAXException( "Unrecognised item starting with \"" + bytesToString( pos-1, Math.min( 5, limit-(pos-1) ) ) + "...\"" );
+    }
+
+    private int parseStartElement( int start, int limit ) throws SAXException {
+	int end = parseStartTag( start, scanName( start, limit ), limit );
+	if( end == -1 ) {
+	    throw new SAXException( "Unexpected end of document." );
+	}
+	return end;
+    }
+
+    private int parseEndElement( int start, int limit ) throws SAXException {
+	int nameEnd = scanName( start, limit );
+	if( limit <= nameEnd ) {
+	    throw new SAXException( "Unexpected end of document." );
+	}
+	return parseEndTag( start, nameEnd );
+    }
+
+    // decode and report the text between start and end, translating references
+    private void reportText( int start, int end ) throws SAXException {
+	ByteBuffer in = this.bytes;
+	// text never decodes to more chars than it has bytes
+	char[] chars = end-start <= this.buf.length ? this.buf : new char[end-start];
+	int n = 0;
+	int pos = start;
+	while( pos < end ) {
+	    int b = in.get(pos);
+	    if( b >= 0 ) {
+		if( b == '&' ) {
+		    int startRef = ++pos;
+		    while( pos < end && in.get(pos) != ';' ) { pos++; }
+		    if( end <= pos ) {
+			throw new SAXException( "Unterminated character reference \"" + bytesToString( startRef-1, pos-(startRef-1) ) + "\"" );
+		    }
+		    pos++;
+		    chars[n++] = derefBytes( startRef, pos-startRef );
 		}
-		else if( !isComplete ) {
-		    throw new SAXException( "Incomplete document - top-level end element not found" );
+		else {
+		    chars[n++] = (char)b;
+		    pos++;
 		}
 	    }
-	    catch( ArrayIndexOutOfBoundsException e ) {
-		throw (SAXException) new SAXException( "Non-ASCII characters are not yet supported." ).initCause(e);
+	    else if( isLatin1 ) {
+		chars[n++] = (char)(b & 0xFF);
+		pos++;
+	    }
+	    else {
+		pos = decodeUtf8( pos, end, chars, n );
+		n = this.decoded;
 	    }
 	}
-	finally {
-	    if( documentHandler != null ) { documentHandler.endDocument(); }
+	if( handler != null ) { handler.characters( chars, 0, n ); }
+    }
+
+    // decode the multi-byte UTF-8 sequence at pos into chars[n], leaving the new
+    // value of n in decoded and returning the position after the sequence
+    private int decodeUtf8( int pos, int end, char[] chars, int n ) {
+	ByteBuffer in = this.bytes;
+	int b0 = in.get(pos) & 0xFF;
+	int len = b0 >= 0xF0 ? 4 : b0 >= 0xE0 ? 3 : b0 >= 0xC0 ? 2 : 1;
+	int cp = len == 4 ? b0 & 0x07 : len == 3 ? b0 & 0x0F : b0 & 0x1F;
+	boolean valid = len > 1 && pos+len <= end;
+	for( int i = 1; valid && i < len; i++ ) {
+	    int b = in.get(pos+i);
+	    valid = (b & 0xC0) == 0x80;
+	    cp = (cp << 6) | (b & 0x3F);
+	}
+	// reject overlong forms, surrogates and anything past U+10FFFF
+	if( valid ) {
+	    valid = len == 2 ? cp >= 0x80 : len == 3 ? cp >= 0x800 && (cp < 0xD800 || cp > 0xDFFF) : cp >= 0x10000 && cp <= 0x10FFFF;
+	}
+
+	if( !valid ) {
+	    // just as a decoder replacing malformed input would
+	    chars[n++] = '\uFFFD';
+	    this.decoded = n;
+	    return pos+1;
+	}
+	if( cp >= 0x10000 ) {
+	    cp -= 0x10000;
+	    chars[n++] = (char)(0xD800 + (cp >> 10));
+	    chars[n++] = (char)(0xDC00 + (cp & 0x3FF));
+	}
+	else {
+	    chars[n++] = (char)cp;
+	}
+	this.decoded = n;
+	return pos+len;
+    }
+
+    /// Translate a reference (held as bytes) into a raw character
+    private char derefBytes( int start, int len ) throws SAXException {
+	ByteBuffer in = this.bytes;
+	int c1 = in.get(start);
+
+	if( c1 == 'a' ) {
+	    return len == 4 ? '&' : '\'';
+	}
+	else if( c1 == 'l' ) {
+	    return '<';
+	}
+	else if( c1 == 'g' ) {
+	    return '>';
+	}
+	else if( c1 == 'q' ) {
+	    return '"';
+	}
+	else if( c1 == '#' ) {
+	    // numeric ref
+	    try {
+		if( in.get(start+1) == 'x' ) {
+		    return (char) Integer.parseInt( bytesToString( start+2, len-3 ), 16 );
+		}
+		else {
+		    return (char) Integer.parseInt( bytesToString( start+1, len-2 ) );
+		}
+	    }
+	    catch( NumberFormatException e ) { /*ignore*/ }
 	}
+	throw new SAXException( "Unrecognised character reference \"" + bytesToString( start-1, len+1 ) + "\"" );
+    }
 
+    // markup is ASCII so this is only ever used for names, references and error messages
+    private String bytesToString( int start, int len ) {
+	char[] chars = new char[Math.max( len, 0 )];
+	for( int i = 0; i < chars.length; i++ ) {
+	    chars[i] = (char)(this.bytes.get(start+i) & 0xFF);
+	}
+	return new String( chars );
     }
 
     ///////////////////////////////////////// SAXParser Impl /////////////////////////////////////////
@@ -535,7 +865,20 @@ public class XmlRpcSaxParser extends SAXParser implements Parser {
     
     
     public void setDocumentHandler (DocumentHandler handler) {
-	this.documentHandler = handler;
+	this.handler = adapt( handler );
+    }
+    
+    /**
+     * Report documents to an {@link XmlRpcElementHandler} rather
+     * than a {@link DocumentHandler}. Elements are then reported
+     * by ID, sparing the handler from matching names.
+     */
+    public void setElementHandler (XmlRpcElementHandler handler) {
+	this.handler = handler;
+    }
+
+    private static XmlRpcElementHandler adapt( DocumentHandler handler ) {
+	return handler == null ? null : new DocumentHandlerAdapter( handler );
     }
     
     public void setErrorHandler (ErrorHandler handler) {
@@ -576,5 +919,13 @@ public class XmlRpcSaxParser extends SAXParser implements Parser {
     public void parse (String systemId) throws SAXException, IOException {
 	parse( new InputSource(systemId) );
     }
+
+    /**
+     * Parse a document, reporting it to an {@link XmlRpcElementHandler}.
+     */
+    public void parse (InputSource source, XmlRpcElementHandler handler) throws SAXException, IOException {
+	setElementHandler( handler );
+	parse( source );
+    }
     
 }
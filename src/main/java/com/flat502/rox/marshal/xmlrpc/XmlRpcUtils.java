@@ -1,8 +1,16 @@
 package com.flat502.rox.marshal.xmlrpc;
 
+import java.io.CharArrayReader;
 import java.lang.reflect.Constructor;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
 import java.text.DateFormat;
 
+import javax.xml.parsers.SAXParser;
+
+import org.xml.sax.InputSource;
+
 import com.flat502.rox.log.Log;
 import com.flat502.rox.log.LogFactory;
 import com.flat502.rox.marshal.FieldNameCodec;
@@ -20,6 +28,8 @@ class XmlRpcUtils {
 	
 	private static DateFormatThreadLocal[] dateFormats = new DateFormatThreadLocal[2];
 
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
 	public static DateFormatThreadLocal getDateFormatProvider(Class user, DateFormat initialFormat) {
 		// This may well be called by multiple threads. Without
 		// synchronization the worst is that we'll create more than
@@ -73,4 +83,41 @@ class XmlRpcUtils {
 	public static SaxUnmarshaller newSaxUnmarshaller(FieldNameCodec fieldNameCodec) {
 		return new SaxUnmarshaller(fieldNameCodec);
 	}
+
+	/**
+	 * Parses a document into an unmarshaller.
+	 * <p>
+	 * If the parser is our own elements are reported to the
+	 * unmarshaller by ID. Otherwise they're reported by name
+	 * through its SAX handler.
+	 */
+	public static void parse(SAXParser parser, InputSource in, SaxUnmarshaller unmarshaller) throws Exception {
+		if (parser instanceof XmlRpcSaxParser) {
+			((XmlRpcSaxParser) parser).parse(in, unmarshaller);
+		} else {
+			parser.parse(in, unmarshaller.getSaxHandler());
+		}
+	}
+
+	/**
+	 * Parses a complete document held in a {@link ByteBuffer}
+	 * into an unmarshaller.
+	 * <p>
+	 * If the parser is our own and can parse the document's
+	 * character set as bytes it does so. Otherwise the document
+	 * is decoded first.
+	 */
+	public static void parse(SAXParser parser, ByteBuffer in, Charset charset, SaxUnmarshaller unmarshaller)
+			throws Exception {
+		if (charset == null) {
+			charset = UTF_8;
+		}
+		if (parser instanceof XmlRpcSaxParser && XmlRpcSaxParser.isByteCompatible(charset)) {
+			((XmlRpcSaxParser) parser).parse(in, charset, unmarshaller);
+		} else {
+			CharBuffer chars = charset.decode(in.duplicate());
+			parse(parser, new InputSource(new CharArrayReader(chars.array(), chars.arrayOffset() + chars.position(),
+					chars.remaining())), unmarshaller);
+		}
+	}
 }
@@ -6,6 +6,7 @@ import java.nio.channels.*;
 import java.nio.channels.spi.SelectorProvider;
 import java.util.*;
 import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.flat502.rox.log.Log;
 import com.flat502.rox.log.LogFactory;
@@ -14,13 +15,70 @@ import com.flat502.rox.utils.Utils;
 class ChannelSelector implements Runnable {
 	private static Log log = LogFactory.getLog(ChannelSelector.class);
 
+	// 512 ticks of 10ms covers about 5s per revolution. Longer timeouts
+	// just sit in their slot for more than one revolution.
+	private static final long TIMER_TICK_MILLIS = 10;
+	private static final int TIMER_TICKS_PER_WHEEL = 512;
+
+	// Orders selected keys by when their connections were accepted
+	// (or opened).
+	private static final Comparator CONNECTION_ORDER = new Comparator() {
+		public int compare(Object o1, Object o2) {
+			long serial1 = serialOf((SelectionKey) o1);
+			long serial2 = serialOf((SelectionKey) o2);
+			return serial1 < serial2 ? -1 : (serial1 == serial2 ? 0 : 1);
+		}
+
+		private long serialOf(SelectionKey key) {
+			ConnectionState state = (ConnectionState) key.attachment();
+			return state == null ? 0 : state.getSerial();
+		}
+	};
+
 	private boolean shouldShutdown;
 	private Object mutex = new Object();
 	private Set processors = new HashSet();
-	private Map channelOwners = new HashMap();
+	
+	// Maps each channel currently owned by a processor to its
+	// ConnectionState. Only touched when ownership changes, the
+	// selecting thread finds the owner via the SelectionKey.
+	private Map ownedChannels = new HashMap();
 
 	// A local buffer used when we read() to check for remote closure
 	private ByteBuffer closureTestBuf = ByteBuffer.allocate(16);
+
+	// A local buffer for non-blocking I/O read operations on
+	// SSL channels owned by this selector.
+	private ByteBuffer readBuf = ByteBuffer.allocate(8192);
+
+	// Direct buffers for all other non-blocking reads. Only
+	// touched by the thread backing this instance.
+	private ReadBufferPool readBufferPool = new ReadBufferPool();
+
+	// Changes to the underlying Selector are queued and applied by
+	// the thread backing this instance, in the order they were queued.
+	private SelectorChangeQueue pendingChanges = new SelectorChangeQueue(4096);
+	private Object drainMutex = new Object();
+
+	// Set once a wakeup has been requested since the selecting thread
+	// last drained pendingChanges, so producers only wake it once.
+	private AtomicBoolean wakenUp = new AtomicBoolean();
+	private volatile Thread selectingThread;
+
+	// Idle, request and handshake timeouts for channels owned by
+	// this selector. Serviced by the thread backing this instance.
+	private TimerWheel timerWheel = new TimerWheel(this, TIMER_TICK_MILLIS, TIMER_TICKS_PER_WHEEL);
+
+	// Keys for connections we've stopped reading from because the
+	// pool has too much work waiting, oldest first. Only touched by
+	// the thread backing this instance.
+	private LinkedList pausedReads = new LinkedList();
+	private volatile int pausedReadCount;
+	private AtomicBoolean resumeRequested = new AtomicBoolean();
+
+	// The keys returned by the last select(), in connection order.
+	// Only touched by the thread backing this instance.
+	private SelectionKey[] orderedKeys = new SelectionKey[16];
 	
 	private Selector socketSelector;
 	private ResourcePool resourcePool;
@@ -34,6 +92,43 @@ class ChannelSelector implements Runnable {
 		return this.socketSelector;
 	}
 
+	/**
+	 * Returns the wheel on which timeouts for channels owned by this
+	 * selector are scheduled. Timeouts expire on the thread backing
+	 * this instance.
+	 */
+	TimerWheel getTimerWheel() {
+		return this.timerWheel;
+	}
+	
+	/**
+	 * Returns the buffer used for non-blocking reads on SSL channels
+	 * owned by this selector. This must only be used by the
+	 * thread backing this instance.
+	 */
+	ByteBuffer getReadBuffer() {
+		return this.readBuf;
+	}
+
+	/**
+	 * Returns the pool of direct buffers used for non-blocking reads
+	 * on channels owned by this selector. This must only be used by
+	 * the thread backing this instance.
+	 */
+	ReadBufferPool getReadBufferPool() {
+		return this.readBufferPool;
+	}
+	
+	/**
+	 * An approximate count of the channels owned by this selector,
+	 * used to balance new connections across selectors.
+	 */
+	int getChannelCount() {
+		synchronized (this.mutex) {
+			return this.ownedChannels.size();
+		}
+	}
+
 	protected void register(HttpRpcProcessor processor) {
 		if (log.logTrace()) {
 			log.trace("ChannelSelector registers " + processor);
@@ -53,21 +148,23 @@ class ChannelSelector implements Runnable {
 			this.processors.remove(processor);
 			
 			// Cleaning up all channels associated with this processor.
-			Iterator i = this.channelOwners.entrySet().iterator();
+			Iterator i = this.ownedChannels.entrySet().iterator();
 			while (i.hasNext()) {
 				Entry entry = (Map.Entry) i.next();
-				if (processor == entry.getValue()) {
+				ConnectionState state = (ConnectionState) entry.getValue();
+				if (processor == state.getOwner()) {
 					i.remove();
+					state.release();
 					
 					// Physically close the associated channel
 					((SelectableChannel)entry.getKey()).close();
 				}
 			}
 
-			// Ensure the associated processor has a chance to process
-			// pending changes (e.g. ServerChannel cancellation).
+			// Ensure pending changes queued by the associated processor
+			// (e.g. ServerChannel cancellation) are processed.
 			try {
-				processor.processPendingSelectorChanges();
+				this.processPendingSelectorChanges();
 			} catch (IOException e) {
 				processor.handleProcessingException(null, e);
 			}
@@ -77,15 +174,104 @@ class ChannelSelector implements Runnable {
 		this.socketSelector.wakeup();
 	}
 
-	protected void addChannel(HttpRpcProcessor processor, SelectableChannel channel) {
+	protected void addChannel(HttpRpcProcessor processor, ConnectionState state) {
 		synchronized (this.mutex) {
-			this.channelOwners.put(channel, processor);
+			state.setOwner(processor);
+			this.ownedChannels.put(state.getChannel(), state);
+		}
+		
+		// Pooled connections stay registered between owners. Make sure
+		// the key is carrying the state the new owner is using.
+		SelectionKey key = state.getChannel().keyFor(this.socketSelector);
+		if (key != null) {
+			key.attach(state);
 		}
 	}
 
 	protected void removeChannel(SelectableChannel channel) {
 		synchronized (this.mutex) {
-			this.channelOwners.remove(channel);
+			ConnectionState state = (ConnectionState) this.ownedChannels.remove(channel);
+			if (state != null) {
+				state.release();
+			}
+		}
+	}
+
+	/**
+	 * Stops reading from the connection for the given key until
+	 * {@link #resumeReads()} is called. This must only be called by
+	 * the thread backing this instance.
+	 */
+	void pauseReads(SelectionKey key) {
+		key.interestOps(0);
+		ConnectionState state = (ConnectionState) key.attachment();
+		if (state.isReadPaused()) {
+			return;
+		}
+		state.setReadPaused(true);
+		this.pausedReads.add(key);
+		this.pausedReadCount = this.pausedReads.size();
+	}
+
+	/**
+	 * Asks the selecting thread to start reading from paused
+	 * connections again.
+	 */
+	void resumeReads() {
+		if (this.resumeRequested.compareAndSet(false, true)) {
+			this.wakeup();
+		}
+	}
+
+	int getPausedReadCount() {
+		return this.pausedReadCount;
+	}
+
+	private void resumePausedReads() {
+		if (!this.resumeRequested.getAndSet(false)) {
+			return;
+		}
+		// Oldest first, and stop if the pool fills up again. Whatever's
+		// left is resumed the next time round.
+		while (!this.pausedReads.isEmpty() && !this.resourcePool.isReadingPaused()) {
+			SelectionKey key = (SelectionKey) this.pausedReads.removeFirst();
+			((ConnectionState) key.attachment()).setReadPaused(false);
+			// Anything else (a pending write, say) will put
+			// us back on OP_READ when it's done.
+			if (key.isValid() && key.interestOps() == 0) {
+				key.interestOps(SelectionKey.OP_READ);
+			}
+		}
+		this.pausedReadCount = this.pausedReads.size();
+	}
+
+	void queueRegistration(SelectableChannel channel) {
+		this.queueSelectorChange(channel, SelectorChangeQueue.REGISTER);
+	}
+
+	void queueCancellation(SelectableChannel channel) {
+		this.queueSelectorChange(channel, SelectorChangeQueue.CANCEL);
+	}
+
+	void queueInterestOpsUpdate(SocketChannel channel, int interestOps) {
+		this.queueSelectorChange(channel, interestOps);
+	}
+
+	private void queueSelectorChange(SelectableChannel channel, int operation) {
+		this.pendingChanges.offer(channel, operation);
+		this.wakeup();
+	}
+
+	/**
+	 * Wakes the selecting thread so it notices newly queued selector
+	 * changes or timeouts.
+	 */
+	void wakeup() {
+		// The selecting thread drains its queues before every select(), so
+		// it never needs waking for its own changes. Anyone else only needs
+		// to wake it if nobody has done so since it last drained them.
+		if (Thread.currentThread() != this.selectingThread && this.wakenUp.compareAndSet(false, true)) {
+			this.socketSelector.wakeup();
 		}
 	}
 
@@ -95,18 +281,32 @@ class ChannelSelector implements Runnable {
 	}
 
 	public void run() {
+		this.selectingThread = Thread.currentThread();
 		while (true) {
 			if (this.shouldShutdown) {
 				break;
 			}
 
 			try {
-				this.processPendingSelectorChanges();
+				// Anything queued from here on needs a fresh wakeup, 
+				// anything queued before this is drained below.
+				this.wakenUp.set(false);
+				try {
+					this.processPendingSelectorChanges();
+				} catch (IOException e) {
+					this.handleProcessingException(e);
+				}
+				this.resumePausedReads();
+				long timeout = this.timerWheel.expireTimeouts(System.currentTimeMillis());
 
 				if (log.logTrace()) {
 					log.trace(resourcePool.getClass().getSimpleName()+": select() call");
 				}
-				this.socketSelector.select();
+				if (timeout < 0) {
+					this.socketSelector.select();
+				} else {
+					this.socketSelector.select(timeout);
+				}
 				if (log.logTrace()) {
 					log.trace("select() returns");
 				}
@@ -124,24 +324,26 @@ class ChannelSelector implements Runnable {
 					log.trace("select() returned " + readyKeys.size() + " selected key(s)");
 				}
 
-				// Someone is ready for I/O, get the ready keys
-				Iterator i = readyKeys.iterator();
+				// Someone is ready for I/O, get the ready keys in the
+				// order their connections were accepted (or opened)
+				// rather than the selector's hash order, so requests that
+				// arrive together on different connections are dispatched
+				// in the same order every time.
+				int count = this.orderReadyKeys(readyKeys);
 
 				// Process the next event
-				while (i.hasNext()) {
-					SelectionKey key = (SelectionKey) i.next();
-					i.remove();
+				for (int n = 0; n < count; n++) {
+					SelectionKey key = this.orderedKeys[n];
+					this.orderedKeys[n] = null;
 
 					if (log.logTrace()) {
 						log.trace("select() returned key: " + Utils.toString(key));
 					}
 					
-					HttpRpcProcessor processor = null;
 					if (key.isValid()) {
 						// Decide who should handle it
-						synchronized (this) {
-							processor = (HttpRpcProcessor) this.channelOwners.get(key.channel());
-						}
+						ConnectionState state = (ConnectionState) key.attachment();
+						HttpRpcProcessor processor = state == null ? null : state.getOwner();
 
 						if (processor == null) {
 							// There's no owner associated with this channel. This probably
@@ -166,6 +368,19 @@ class ChannelSelector implements Runnable {
 		}
 	}
 
+	private int orderReadyKeys(Set readyKeys) {
+		int count = readyKeys.size();
+		if (count > this.orderedKeys.length) {
+			this.orderedKeys = new SelectionKey[Math.max(count, this.orderedKeys.length * 2)];
+		}
+		readyKeys.toArray(this.orderedKeys);
+		readyKeys.clear();
+		if (count > 1) {
+			Arrays.sort(this.orderedKeys, 0, count, CONNECTION_ORDER);
+		}
+		return count;
+	}
+
 	private void checkForClosure(SelectionKey key) {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
 		if (log.logTrace()) {
@@ -225,18 +440,108 @@ class ChannelSelector implements Runnable {
 		}
 	}
 
-	private void processPendingSelectorChanges() {
-		synchronized (this.mutex) {
-			Iterator i = processors.iterator();
-			while (i.hasNext()) {
-				HttpRpcProcessor processor = (HttpRpcProcessor) i.next();
+	void processPendingSelectorChanges() throws IOException {
+		// Normally only the selecting thread gets here but deregister()
+		// drains too, and the queue only supports a single consumer.
+		synchronized (this.drainMutex) {
+			IOException failure = null;
+			while (true) {
+				SelectableChannel channel = this.pendingChanges.poll();
+				if (channel == null) {
+					break;
+				}
 				try {
-					processor.processPendingSelectorChanges();
+					this.applySelectorChange(channel, this.pendingChanges.lastOperation());
 				} catch (IOException e) {
-					processor.handleProcessingException(null, e);
+					// Keep going, the remaining changes are unrelated.
+					if (failure == null) {
+						failure = e;
+					}
+				}
+			}
+			if (failure != null) {
+				throw failure;
+			}
+		}
+	}
+
+	private void applySelectorChange(SelectableChannel selectable, int operation) throws IOException {
+		switch (operation) {
+		case SelectorChangeQueue.REGISTER:
+			if (selectable instanceof ServerSocketChannel) {
+				if (log.logTrace()) {
+					log.trace("Interest ops change to OP_ACCEPT for "
+							+ Utils.toString(((ServerSocketChannel) selectable).socket()));
+				}
+				selectable.register(this.socketSelector, SelectionKey.OP_ACCEPT, this.getConnectionState(selectable));
+				return;
+			}
+			SocketChannel channel = (SocketChannel) selectable;
+			if (channel.isConnected()) {
+				// A registration is re-queued after an SSL I/O 
+				// operation to avoid a CancelledKeyException.
+				// In that case we are interested in reads, not
+				// connections.
+				if (log.logTrace()) {
+					log.trace("Interest ops change to OP_READ for " + Utils.toString(channel.socket()));
+				}
+				channel.register(this.socketSelector, SelectionKey.OP_READ, this.getConnectionState(channel));
+			} else {
+				if (log.logTrace()) {
+					log.trace("Interest ops change to OP_CONNECT for " + Utils.toString(channel.socket()));
 				}
+				channel.register(this.socketSelector, SelectionKey.OP_CONNECT, this.getConnectionState(channel));
+			}
+			return;
+
+		case SelectorChangeQueue.CANCEL:
+			boolean client = selectable instanceof SocketChannel;
+			boolean connected = (client && ((SocketChannel)selectable).isConnected());
+			if (!client || connected) {
+				selectable.close();
+				SelectionKey key = selectable.keyFor(this.socketSelector);
+				if (key != null) {
+					key.cancel();
+				}
+			}
+			if (log.logTrace()) {
+				if (client) {
+					log.trace("Cancellation on socket " + Utils.toString(((SocketChannel)selectable).socket()));
+				} else {
+					log.trace("Cancellation on serverSocket " + Utils.toString(((ServerSocketChannel)selectable).socket()));
+				}
+			}
+			return;
+
+		default:
+			SocketChannel socketChannel = (SocketChannel) selectable;
+			SelectionKey sk = socketChannel.keyFor(this.socketSelector);
+			if (socketChannel.isConnected()) {
+				// Only update the interest ops set if we're not
+				// waiting to complete the connection (otherwise we
+				// disable the OP_CONNECT interest op and never see
+				// the connection complete).
+				if (sk != null && sk.isValid()) {
+					if (log.logTrace()) {
+						log.trace("Interest ops change for " + Utils.toString(socketChannel.socket()) + ": "
+								+ (operation == SelectionKey.OP_READ ? "OP_READ" : "OP_WRITE"));
+					}
+					sk.interestOps(operation);
+				}
+			}
+		}
+	}
+
+	private ConnectionState getConnectionState(SelectableChannel channel) {
+		synchronized (this.mutex) {
+			ConnectionState state = (ConnectionState) this.ownedChannels.get(channel);
+			if (state != null) {
+				return state;
 			}
 		}
+		// Unowned channels (idle pooled connections) still need one
+		// so their key carries it when they're next checked out.
+		return this.resourcePool.getConnectionState(channel);
 	}
 
 	private void handleProcessingException(Exception e) {
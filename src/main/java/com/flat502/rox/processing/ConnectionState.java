@@ -0,0 +1,320 @@
+package com.flat502.rox.processing;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectableChannel;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.flat502.rox.http.HttpMessageBuffer;
+
+/**
+ * Everything an {@link HttpRpcProcessor} tracks for a single
+ * connection.
+ * <p>
+ * An instance is created when a channel is first handed to a
+ * {@link ChannelSelector} and is attached to the channel's
+ * {@link java.nio.channels.SelectionKey} when it is registered,
+ * so the selecting thread can get at it without any lookups.
+ * Other threads find it using
+ * {@link HttpRpcProcessor#getConnectionState(java.net.Socket)}.
+ * <p>
+ * The fields that belong to the processor currently
+ * owning the channel are reset when it gives up ownership (a
+ * pooled client connection being returned to the pool, for
+ * example). Those that belong to the connection itself (the
+ * SSL session and the receive buffer size) are retained.
+ * <p>
+ * Everything other than the receive buffer size and the
+ * paused read flag may be accessed from any thread.
+ */
+public class ConnectionState {
+	private static final AtomicLong nextSerial = new AtomicLong();
+
+	private final SelectableChannel channel;
+	// Increases in the order connections are accepted (or opened)
+	private final long serial;
+	private final ChannelSelector selector;
+	private volatile HttpRpcProcessor owner;
+
+	// Only touched by the selecting thread
+	private final ReadBufferPool.ReceiveSize receiveSize = new ReadBufferPool.ReceiveSize();
+	private boolean readPaused;
+
+	private volatile SSLSessionMetadata sslMetadata;
+
+	private volatile HttpMessageBuffer readBuffer;
+	private final LinkedList writeBuffers = new LinkedList();
+	private long queuedWriteBytes;
+	private volatile boolean closeAfterWrite;
+
+	// Allocated once and reset on every use
+	private final Timeout timeout;
+	private Object responseSequencer;
+
+	// Only allocated if the peer falls behind with its reads
+	private Timeout writeBacklogTimeout;
+
+	ConnectionState(SelectableChannel channel, ChannelSelector selector) {
+		this.channel = channel;
+		this.serial = nextSerial.incrementAndGet();
+		this.selector = selector;
+		this.timeout = selector == null ? null : new ConnectionTimeout(selector.getTimerWheel());
+	}
+
+	public SelectableChannel getChannel() {
+		return this.channel;
+	}
+
+	ChannelSelector getSelector() {
+		return this.selector;
+	}
+
+	long getSerial() {
+		return this.serial;
+	}
+
+	/**
+	 * @return
+	 * 	The processor that currently owns this connection, or
+	 * 	<code>null</code> if it is unowned (an idle pooled
+	 * 	client connection, for example).
+	 */
+	public HttpRpcProcessor getOwner() {
+		return this.owner;
+	}
+
+	void setOwner(HttpRpcProcessor owner) {
+		this.owner = owner;
+	}
+
+	ReadBufferPool.ReceiveSize getReceiveSize() {
+		return this.receiveSize;
+	}
+
+	boolean isReadPaused() {
+		return this.readPaused;
+	}
+
+	void setReadPaused(boolean paused) {
+		this.readPaused = paused;
+	}
+
+	SSLSessionMetadata getSSLSessionMetadata() {
+		return this.sslMetadata;
+	}
+
+	void setSSLSessionMetadata(SSLSessionMetadata metadata) {
+		this.sslMetadata = metadata;
+	}
+
+	/**
+	 * @return
+	 * 	The partially received message on this connection,
+	 * 	or <code>null</code> if there isn't one.
+	 */
+	public HttpMessageBuffer getReadBuffer() {
+		return this.readBuffer;
+	}
+
+	public void setReadBuffer(HttpMessageBuffer readBuffer) {
+		this.readBuffer = readBuffer;
+	}
+
+	/**
+	 * Adds a buffer to the end of this connection's
+	 * outbound queue.
+	 */
+	public synchronized void putWriteBuffer(ByteBuffer data) {
+		this.writeBuffers.add(data);
+		this.queuedWriteBytes += data.remaining();
+	}
+
+	/**
+	 * @return
+	 * 	The number of bytes in buffers on this connection's
+	 * 	outbound queue. A partially written buffer counts in
+	 * 	full until it has been removed.
+	 */
+	public synchronized long getQueuedWriteBytes() {
+		return this.queuedWriteBytes;
+	}
+
+	public synchronized boolean isWriteQueued() {
+		return !this.writeBuffers.isEmpty();
+	}
+
+	/**
+	 * @return
+	 * 	The buffer at the head of the outbound queue, or
+	 * 	<code>null</code> if the queue is empty.
+	 */
+	public synchronized ByteBuffer getWriteBuffer() {
+		if (this.writeBuffers.isEmpty()) {
+			return null;
+		}
+		return (ByteBuffer) this.writeBuffers.getFirst();
+	}
+
+	/**
+	 * Returns as many of the buffers at the head of the outbound
+	 * queue as fit within <code>limit</code> bytes (but always at
+	 * least one) so they can be written out with a single gathering
+	 * write.
+	 * @return
+	 * 	The buffers, or <code>null</code> if the queue is empty.
+	 */
+	public synchronized ByteBuffer[] getWriteBuffers(int limit) {
+		if (this.writeBuffers.isEmpty()) {
+			return null;
+		}
+
+		int count = 0;
+		long total = 0;
+		Iterator iter = this.writeBuffers.iterator();
+		while (iter.hasNext()) {
+			ByteBuffer buf = (ByteBuffer) iter.next();
+			if (count > 0 && total + buf.remaining() > limit) {
+				break;
+			}
+			total += buf.remaining();
+			count++;
+		}
+		return (ByteBuffer[]) this.writeBuffers.subList(0, count).toArray(new ByteBuffer[count]);
+	}
+
+	/**
+	 * Removes the buffer at the head of the outbound queue.
+	 */
+	public synchronized void removeWriteBuffer() {
+		if (!this.writeBuffers.isEmpty()) {
+			ByteBuffer buf = (ByteBuffer) this.writeBuffers.removeFirst();
+			// Buffers are queued from position 0 and only removed
+			// once they've been written out
+			this.queuedWriteBytes -= buf.limit();
+		}
+	}
+
+	public synchronized void removeWriteBuffers() {
+		this.writeBuffers.clear();
+		this.queuedWriteBytes = 0;
+	}
+
+	boolean isCloseAfterWrite() {
+		return this.closeAfterWrite;
+	}
+
+	void setCloseAfterWrite(boolean close) {
+		this.closeAfterWrite = close;
+	}
+
+	/**
+	 * (Re)starts the timeout associated with this connection (an
+	 * idle or request timeout, for example). When it expires
+	 * {@link HttpRpcProcessor#handleConnectionTimeout(ConnectionState)}
+	 * is invoked on the current owner, on the selecting thread.
+	 * <p>
+	 * This just updates a deadline so it is cheap enough to call
+	 * on every read and write.
+	 */
+	public void resetTimeout(long delay) {
+		this.timeout.reset(delay);
+	}
+
+	public void cancelTimeout() {
+		if (this.timeout != null) {
+			this.timeout.cancel();
+		}
+	}
+
+	/**
+	 * Starts the timeout for a peer that isn't reading what we're
+	 * writing to it, unless it is already running. When it expires
+	 * {@link HttpRpcProcessor#handleWriteBacklogTimeout(ConnectionState)}
+	 * is invoked on the current owner, on the selecting thread.
+	 */
+	void startWriteBacklogTimeout(long delay) {
+		if (this.selector == null) {
+			return;
+		}
+		Timeout backlogTimeout;
+		synchronized (this) {
+			if (this.writeBacklogTimeout == null) {
+				this.writeBacklogTimeout = new WriteBacklogTimeout(this.selector.getTimerWheel());
+			}
+			backlogTimeout = this.writeBacklogTimeout;
+		}
+		if (backlogTimeout.getDeadline() == 0) {
+			backlogTimeout.reset(delay);
+		}
+	}
+
+	void cancelWriteBacklogTimeout() {
+		Timeout backlogTimeout;
+		synchronized (this) {
+			backlogTimeout = this.writeBacklogTimeout;
+		}
+		if (backlogTimeout != null) {
+			backlogTimeout.cancel();
+		}
+	}
+
+	/**
+	 * Returns the object used to order responses on this
+	 * connection. Callers should synchronize on this instance
+	 * when creating one.
+	 */
+	public synchronized Object getResponseSequencer() {
+		return this.responseSequencer;
+	}
+
+	public synchronized void setResponseSequencer(Object sequencer) {
+		this.responseSequencer = sequencer;
+	}
+
+	/**
+	 * Called when the owning processor gives up this connection.
+	 */
+	void release() {
+		this.owner = null;
+		HttpMessageBuffer readBuffer = this.readBuffer;
+		if (readBuffer != null) {
+			readBuffer.abandon();
+			this.readBuffer = null;
+		}
+		this.closeAfterWrite = false;
+		this.cancelTimeout();
+		this.cancelWriteBacklogTimeout();
+		synchronized (this) {
+			this.writeBuffers.clear();
+			this.queuedWriteBytes = 0;
+			this.responseSequencer = null;
+		}
+	}
+
+	private class ConnectionTimeout extends Timeout {
+		ConnectionTimeout(TimerWheel wheel) {
+			super(wheel);
+		}
+
+		protected void expired() {
+			HttpRpcProcessor owner = ConnectionState.this.owner;
+			if (owner != null) {
+				owner.handleConnectionTimeout(ConnectionState.this);
+			}
+		}
+	}
+
+	private class WriteBacklogTimeout extends Timeout {
+		WriteBacklogTimeout(TimerWheel wheel) {
+			super(wheel);
+		}
+
+		protected void expired() {
+			HttpRpcProcessor owner = ConnectionState.this.owner;
+			if (owner != null) {
+				owner.handleWriteBacklogTimeout(ConnectionState.this);
+			}
+		}
+	}
+}
@@ -20,6 +20,9 @@ public abstract class HttpMessageHandler implements Runnable {
 
 	private Thread thisThread;
 
+	// Set when this is one of a pool's worker threads.
+	private ResourcePool pool;
+
 	/**
 	 * Constructs a new instance coupled to a
 	 * {@link BlockingQueue}.
@@ -37,7 +40,7 @@ public abstract class HttpMessageHandler implements Runnable {
 	 * with this instance.
 	 * <p>
 	 * The default implementation of {@link HttpRpcProcessor}
-	 * enqueues two types of items on the underlying queue:
+	 * enqueues the following types of items on the underlying queue:
 	 * <ol>
 	 * <li>{@link HttpMessageBuffer} instances, representing complete
 	 * HTTP messages received from a remote entity. These are passed to
@@ -45,6 +48,11 @@ public abstract class HttpMessageHandler implements Runnable {
 	 * <li>{@link HttpMessageException} instances when an error occurs
 	 * while compiling an HTTP message. These are unpacked and passed to
 	 * {@link #handleHttpMessageException(HttpMessageBuffer, Throwable)} for processing.</li>
+	 * <li>{@link ProcessingException} instances when an error occurs
+	 * in the main processing loop.</li>
+	 * <li>{@link Runnable} instances for work handed off by the selecting
+	 * thread that may call out to application code (timeout notifications,
+	 * for example). These are simply run.</li>
 	 * </ol>
 	 */
 	public void run() {
@@ -61,16 +69,19 @@ public abstract class HttpMessageHandler implements Runnable {
 			}
 			
 			try {
-				Object o = this.queue.take();
-				if (o instanceof HttpMessageBuffer) {
-					this.handleMessage((HttpMessageBuffer) o);
-				} else if (o instanceof HttpMessageException) {
-					HttpMessageException exception = (HttpMessageException) o;
-					this.handleHttpMessageException(exception.getMsg(), exception.getCause());
-				} else if (o instanceof ProcessingException) {
-					ProcessingException exception = (ProcessingException) o;
-					this.handleProcessingException(exception);
+				long keepAlive = this.pool == null ? 0 : this.pool.getWorkerKeepAlive();
+				Object o = this.queue.poll(keepAlive);
+				if (o == null) {
+					// Idle for the keep-alive period
+					if (this.pool.retireWorker(this)) {
+						return;
+					}
+					continue;
+				}
+				if (this.pool != null) {
+					this.pool.workTaken();
 				}
+				this.handleWorkItem(o);
 			} catch (InterruptedException e) {
 				if (shouldTerminate) {
 					break;
@@ -82,6 +93,35 @@ public abstract class HttpMessageHandler implements Runnable {
 		}
 	}
 
+	void setResourcePool(ResourcePool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Processes a single work item, as described for {@link #run()}.
+	 * <p>
+	 * This is also invoked directly (and concurrently) when the
+	 * {@link ResourcePool} this instance belongs to has been configured
+	 * to dispatch work to an {@link java.util.concurrent.Executor}.
+	 * @param o
+	 * 	The work item.
+	 * @throws Exception
+	 * 	If the item could not be processed.
+	 */
+	protected void handleWorkItem(Object o) throws Exception {
+		if (o instanceof HttpMessageBuffer) {
+			this.handleMessage((HttpMessageBuffer) o);
+		} else if (o instanceof HttpMessageException) {
+			HttpMessageException exception = (HttpMessageException) o;
+			this.handleHttpMessageException(exception.getMsg(), exception.getCause());
+		} else if (o instanceof ProcessingException) {
+			ProcessingException exception = (ProcessingException) o;
+			this.handleProcessingException(exception);
+		} else if (o instanceof Runnable) {
+			((Runnable) o).run();
+		}
+	}
+
 	/**
 	 * Stops this instance.
 	 * <p>
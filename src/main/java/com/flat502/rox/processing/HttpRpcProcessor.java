@@ -10,6 +10,7 @@ import java.nio.channels.*;
 import java.nio.channels.spi.AbstractSelectableChannel;
 import java.security.GeneralSecurityException;
 import java.util.*;
+import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 
 import javax.net.ssl.*;
@@ -32,7 +33,11 @@ import com.flat502.rox.utils.Utils;
  * (this class) to manage all I/O on the underlying collection of
  * sockets. I/O is managed using a {@link java.nio.channels.Selector}
  * instance. This thread may be shared with other instances by means
- * of a {@link com.flat502.rox.processing.ResourcePool}.
+ * of a {@link com.flat502.rox.processing.ResourcePool}. A pool may
+ * be {@link com.flat502.rox.processing.ResourcePool#setSelectorCount(int) configured}
+ * with more than one selecting thread, in which case connections are
+ * spread across them and each connection is serviced by the thread
+ * that owns it.
  * <p>
  * I/O writes are queued and written whenever the target socket becomes
  * available for writing. I/O reads are buffered in an instance of
@@ -71,16 +76,11 @@ public abstract class HttpRpcProcessor {
 	 */
 	public static final String ALL_CIPHER_SUITES = SSLConfiguration.ALL_CIPHER_SUITES;
 
-	private static final String CLOSE_AFTER_WRITE = "CloseAfterWrite";
-
 	// Implementation note: Win32 NIO implementations have had 
 	// problems in the past if OP_READ and OP_WRITE are set at
 	// the same time. Interleaving them solves the problem.
-	private static final Integer OP_WRITE = new Integer(SelectionKey.OP_WRITE);
-	private static final Integer OP_READ = new Integer(SelectionKey.OP_READ);
-
-	// A local buffer for all non-blocking I/O read operations.
-	private ByteBuffer nonBlockingReadBuf = ByteBuffer.allocate(8192);
+	private static final int OP_WRITE = SelectionKey.OP_WRITE;
+	private static final int OP_READ = SelectionKey.OP_READ;
 
 	// A local buffer for all blocking I/O read operations.
 	private byte[] blockingReadBuf = new byte[8192];
@@ -105,17 +105,10 @@ public abstract class HttpRpcProcessor {
 	// The shared queue events should be delivered via.
 	private BlockingQueue queue;
 	
-	// The Selector worker threads wait on for
-	// socket events.
+	// The primary Selector. Server sockets are registered
+	// with this Selector.
 	private Selector socketSelector;
 
-	// Maps Socket to OP_WRITE or OP_READ.
-	private Map pendingInterestOps = new LinkedHashMap();
-
-	private Set pendingRegistrations = new HashSet();
-	private Set pendingCancellations = new HashSet();
-
-	private Map sslEngineMap = new HashMap();
 	private SSLContext sslContext;
 
 	// true if we're using SSL
@@ -128,6 +121,15 @@ public abstract class HttpRpcProcessor {
 
 	private boolean shouldShutdown;
 
+	// The most data we'll try to push out in a single gathering write.
+	private int gatheringWriteLimit = 64 * 1024;
+
+	// Per-connection cap on queued outbound data (0 means no cap) and
+	// how long a connection may stay over it before it's closed (0
+	// means indefinitely).
+	private volatile int maxQueuedWriteBytes;
+	private volatile long writeBacklogTimeout;
+
 	/**
 	 * Initializes a new instance of this class.
 	 * @param useHttps
@@ -216,6 +218,17 @@ public abstract class HttpRpcProcessor {
 			return this.resourcePool.getWorkerCount();
 		}
 	}
+
+	/**
+	 * Dispatch complete HTTP messages to an {@link Executor}
+	 * instead of this instance's worker threads.
+	 * @see ResourcePool#setExecutor(Executor)
+	 */
+	public void setExecutor(Executor executor) {
+		synchronized(this.workerPoolMutex) {
+			this.resourcePool.setExecutor(executor);
+		}
+	}
 	
 	/**
 	 * Removes a worker thread from the thread pool.
@@ -286,6 +299,83 @@ public abstract class HttpRpcProcessor {
 		this.sslConfig.setHandshakeTimeout(timeout);
 	}
 
+	/**
+	 * Configure the maximum number of bytes written to a socket
+	 * in a single gathering write.
+	 * <p>
+	 * When several buffers are queued for the same socket (for
+	 * example, responses to pipelined requests) they are written
+	 * using a single {@link SocketChannel#write(ByteBuffer[])} call.
+	 * Buffers are added to the write until this limit would be
+	 * exceeded. The first queued buffer is always included, whatever
+	 * its size.
+	 * <p>
+	 * This defaults to 64KB. Gathering writes are not used
+	 * for HTTPS connections.
+	 * @param limit
+	 * 	The limit in bytes.
+	 * @throws IllegalArgumentException
+	 * 	If the limit provided is less than 1.
+	 */
+	public void setGatheringWriteLimit(int limit) {
+		if (limit < 1) {
+			throw new IllegalArgumentException("limit must be at least 1");
+		}
+		this.gatheringWriteLimit = limit;
+	}
+
+	/**
+	 * Configure the most data that may be queued for writing on
+	 * a single connection before we stop reading from it.
+	 * <p>
+	 * A peer that sends requests faster than it reads the responses
+	 * (a client pipelining requests, for example) would otherwise
+	 * have responses queued on its behalf without limit. While more
+	 * than this many bytes are queued for a connection nothing more is
+	 * read from it, so no new requests are taken on until it catches
+	 * up. See {@link #setWriteBacklogTimeout(long)} for dealing with
+	 * peers that never do.
+	 * <p>
+	 * By default there is no limit.
+	 * @param bytes
+	 * 	The limit in bytes, or 0 for no limit.
+	 * @throws IllegalArgumentException
+	 * 	If the limit provided is negative.
+	 */
+	public void setMaxQueuedWriteBytes(int bytes) {
+		if (bytes < 0) {
+			throw new IllegalArgumentException("limit must not be negative");
+		}
+		this.maxQueuedWriteBytes = bytes;
+	}
+
+	public int getMaxQueuedWriteBytes() {
+		return this.maxQueuedWriteBytes;
+	}
+
+	/**
+	 * Configure how long a connection may have more than 
+	 * {@link #setMaxQueuedWriteBytes(int) the maximum} amount
+	 * of data queued for writing before it is closed.
+	 * <p>
+	 * This has no effect unless a limit has been configured.
+	 * By default connections are never closed for this reason.
+	 * @param timeout
+	 * 	The timeout in milliseconds, or 0 to disable it.
+	 * @throws IllegalArgumentException
+	 * 	If the timeout provided is negative.
+	 */
+	public void setWriteBacklogTimeout(long timeout) {
+		if (timeout < 0) {
+			throw new IllegalArgumentException("timeout must not be negative");
+		}
+		this.writeBacklogTimeout = timeout;
+	}
+
+	public long getWriteBacklogTimeout() {
+		return this.writeBacklogTimeout;
+	}
+
 //	public void configureSSL(SSLConfiguration config) throws SSLException {
 //		if (!this.useHttps) {
 //			throw new IllegalStateException("This instance is not configured to use HTTPS");
@@ -307,7 +397,8 @@ public abstract class HttpRpcProcessor {
 	}
 
 	protected javax.net.ssl.SSLSession getSSLSession(Socket socket) {
-		SSLSessionMetadata sessionMetadata = (SSLSessionMetadata) this.sslEngineMap.get(socket);
+		ConnectionState state = this.getConnectionState(socket);
+		SSLSessionMetadata sessionMetadata = state == null ? null : state.getSSLSessionMetadata();
 		if (sessionMetadata == null) {
 			return null;
 		}
@@ -368,11 +459,12 @@ public abstract class HttpRpcProcessor {
 			
 			// But this is still requires for server instances
 			// TODO: Move into stopImpl on the server?
-			this.channelSelector.deregister(this);
-			
-			// Wake up the selecting thread so it notices this channel should
-			// be deregistered.
-			this.socketSelector.wakeup();
+			// Deregistering also wakes up each selecting thread so it
+			// notices that channels should be deregistered.
+			ChannelSelector[] selectors = this.resourcePool.getChannelSelectors();
+			for (int i = 0; i < selectors.length; i++) {
+				selectors[i].deregister(this);
+			}
 		}
 	}
 
@@ -382,93 +474,6 @@ public abstract class HttpRpcProcessor {
 		return this.useHttps;
 	}
 	
-	void processPendingSelectorChanges() throws IOException {
-		// Process any queued channel registrations
-		synchronized (this.pendingRegistrations) {
-			if (this.pendingRegistrations.size() > 0) {
-				Iterator channels = this.pendingRegistrations.iterator();
-				while (channels.hasNext()) {
-					SocketChannel channel = (SocketChannel) channels.next();
-					boolean wq = isWriteQueued(channel.socket());
-					if (log.logTrace()) {
-						log.trace(
-								"Registering channel (wq=" + wq + ") for " + Utils.toString(channel.socket()));
-					}
-					if (channel.isConnected()) {
-						// A registration is re-queued after an SSL I/O 
-						// operation to avoid a CancelledKeyException.
-						// In that case we are interested in reads, not
-						// connections.
-						if (log.logTrace()) {
-							log.trace("Interest ops change to OP_READ for " + Utils.toString(channel.socket()));
-						}
-						channel.register(this.getSocketSelector(), SelectionKey.OP_READ);
-					} else {
-						if (log.logTrace()) {
-							log.trace("Interest ops change to OP_CONNECT for " + Utils.toString(channel.socket()));
-						}
-						channel.register(this.getSocketSelector(), SelectionKey.OP_CONNECT);
-					}
-				}
-				this.pendingRegistrations.clear();
-			}
-		}
-
-		// Process any queued interestOps updates.
-		synchronized (this.pendingInterestOps) {
-			if (this.pendingInterestOps.size() > 0) {
-				Iterator entries = this.pendingInterestOps.entrySet().iterator();
-				while (entries.hasNext()) {
-					Map.Entry entry = (Map.Entry) entries.next();
-					Socket socket = (Socket) entry.getKey();
-					SelectionKey sk = socket.getChannel().keyFor(this.getSocketSelector());
-					if (socket.getChannel().isConnected()) {
-						// Only update the interest ops set if we're not
-						// waiting to complete the connection (otherwise we
-						// disable the OP_CONNECT interest op and never see
-						// the connection complete).
-						if (sk != null && sk.isValid()) {
-							int ops = ((Integer) entry.getValue()).intValue();
-							if (log.logTrace()) {
-								log.trace("Interest ops change for " + Utils.toString(socket) + ": " + (ops == OP_READ ? "OP_READ" : "OP_WRITE"));
-							}
-							sk.interestOps(ops);
-						}
-					}
-				}
-				this.pendingInterestOps.clear();
-			}
-		}
-
-		// Process any queued channel cancellations
-		synchronized (this.pendingCancellations) {
-			if (this.pendingCancellations.size() > 0) {
-				Iterator channels = this.pendingCancellations.iterator();
-				while (channels.hasNext()) {
-					SelectableChannel channel = (SelectableChannel) channels.next();
-					boolean client = channel instanceof SocketChannel;
-					boolean connected = (client && ((SocketChannel)channel).isConnected());
-					if (!client || connected) {
-						channel.close();
-						SelectionKey key = channel.keyFor(this.getSocketSelector());
-						if (key != null) {
-							key.cancel();
-						}
-					}
-					if (log.logTrace()) {
-						if (client) {
-							log.trace("Cancellation on socket " + Utils.toString(((SocketChannel)channel).socket()));
-						} else {
-							log.trace("Cancellation on serverSocket " + Utils.toString(((ServerSocketChannel)channel).socket()));
-						}
-					}
-
-				}
-				this.pendingCancellations.clear();
-			}
-		}
-	}
-
 	void processSelectionKey(SelectionKey key) throws IOException {
 		try {
 			this.handleSelectionKeyOperation(key);
@@ -507,34 +512,35 @@ public abstract class HttpRpcProcessor {
 	 */
 	protected void initialize() throws IOException {
 		this.channelSelector = this.resourcePool.getChannelSelector();
-		this.channelSelector.register(this);
+		ChannelSelector[] selectors = this.resourcePool.getChannelSelectors();
+		for (int i = 0; i < selectors.length; i++) {
+			selectors[i].register(this);
+		}
 		this.socketSelector = this.channelSelector.getSocketSelector();
 		this.initSelector(this.socketSelector);
 	}
 
 	/**
-	 * Queue's a new {@link SocketChannel} for registration
+	 * Queue's a new channel for registration
 	 * with the underlying {@link Selector}.
 	 * <p>
 	 * The update is queued internally and the selecting thread is
 	 * awoken to apply the change. This removes any risk of platform
 	 * specific NIO implementation discrepancies from blocking
 	 * indefinitely.
+	 * <p>
+	 * A {@link ServerSocketChannel} is registered for accepts,
+	 * a {@link SocketChannel} for reads (or connects if the
+	 * connection is still pending).
 	 * @param channel
-	 * 	The {@link SocketChannel} to register.
+	 * 	The channel to register.
 	 */
-	protected void queueRegistration(SocketChannel channel) {
-		synchronized (this.pendingRegistrations) {
-			this.pendingRegistrations.add(channel);
-		}
-		this.getSocketSelector().wakeup();
+	protected void queueRegistration(AbstractSelectableChannel channel) {
+		this.resourcePool.getChannelSelector(channel).queueRegistration(channel);
 	}
 
 	protected void queueCancellation(AbstractSelectableChannel channel) {
-		synchronized (this.pendingCancellations) {
-			this.pendingCancellations.add(channel);
-		}
-		this.getSocketSelector().wakeup();
+		this.resourcePool.getChannelSelector(channel).queueCancellation(channel);
 	}
 	
 	protected Timer getTimer() {
@@ -554,14 +560,94 @@ public abstract class HttpRpcProcessor {
 	}
 
 	/**
-	 * Returns a handle to the {@link Selector} this
-	 * thread is using for all I/O.
+	 * Hands a work item (a complete HTTP message, for example)
+	 * to a worker thread, or to the {@link #setExecutor(Executor)
+	 * configured executor}.
+	 * @param work
+	 * 	The work item.
+	 */
+	protected void dispatch(Object work) {
+		this.resourcePool.dispatch(work);
+	}
+
+	/**
+	 * Returns a handle to the primary {@link Selector} this
+	 * instance is using for I/O.
+	 * <p>
+	 * If the underlying {@link ResourcePool} is backed by
+	 * more than one selecting thread, connections may
+	 * be registered with other {@link Selector}s. Use
+	 * {@link #getSelectionKey(SelectableChannel)} to look up
+	 * the key for a given channel.
 	 * @return
 	 * 	A handle to the {@link Selector}.
 	 */
 	protected Selector getSocketSelector() {
 		return this.socketSelector;
 	}
+	
+	/**
+	 * Returns the {@link SelectionKey} for a channel registered
+	 * by this instance.
+	 * @param channel
+	 * 	The channel to look up.
+	 * @return
+	 * 	The key representing the channel's registration with the
+	 * 	{@link Selector} that owns it, or <code>null</code> if it
+	 * 	has not been registered (yet).
+	 */
+	protected SelectionKey getSelectionKey(SelectableChannel channel) {
+		return channel.keyFor(this.resourcePool.getChannelSelector(channel).getSocketSelector());
+	}
+	
+	/**
+	 * Returns the {@link ConnectionState} for a socket registered
+	 * by this instance.
+	 * <p>
+	 * Code handling a {@link SelectionKey} should use
+	 * {@link #getConnectionState(SelectionKey)} instead.
+	 * @param socket
+	 * 	The socket to look up.
+	 * @return
+	 * 	The socket's state, or <code>null</code> if it was never
+	 * 	registered or has since been closed and released.
+	 */
+	protected ConnectionState getConnectionState(Socket socket) {
+		SocketChannel channel = socket.getChannel();
+		if (channel == null) {
+			return null;
+		}
+		return this.resourcePool.getConnectionState(channel);
+	}
+
+	/**
+	 * Returns the {@link ConnectionState} attached to a
+	 * {@link SelectionKey} when its channel was registered.
+	 */
+	protected ConnectionState getConnectionState(SelectionKey key) {
+		return (ConnectionState) key.attachment();
+	}
+	
+	/**
+	 * Returns an approximate count of the channels registered
+	 * across all of the {@link Selector}s backing this instance.
+	 */
+	protected int getRegisteredChannelCount() throws IOException {
+		int count = 0;
+		ChannelSelector[] selectors = this.resourcePool.getChannelSelectors();
+		for (int i = 0; i < selectors.length; i++) {
+			count += selectors[i].getSocketSelector().keys().size();
+		}
+		return count;
+	}
+	
+	/**
+	 * Indicates whether or not a channel is owned by the same
+	 * {@link Selector} as the given {@link SelectionKey}.
+	 */
+	protected boolean sharesSelector(SelectionKey key, SelectableChannel channel) {
+		return this.resourcePool.getChannelSelector(channel).getSocketSelector() == key.selector();
+	}
 
 	/**
 	 * Central dispatch routine for handling I/O
@@ -592,10 +678,15 @@ public abstract class HttpRpcProcessor {
 	 * Writes any pending data to the socket indicated by
 	 * the given {@link SelectionKey}.
 	 * <p>
-	 * This implementation checks for data using the
-	 * {@link #getWriteBuffer(Socket)} method. If data
-	 * is available as much as possible is written
-	 * to the socket.
+	 * This implementation takes the buffers queued on the
+	 * socket's {@link ConnectionState} using its
+	 * {@link ConnectionState#getWriteBuffers(int)} method,
+	 * up to the {@link #setGatheringWriteLimit(int) gathering
+	 * write limit}, and writes as much of them as possible
+	 * to the socket using a single gathering write. Buffers
+	 * that are only partially written are left queued and
+	 * are resumed when the socket is next available for
+	 * writing.
 	 * @param key
 	 * 	The {@link SelectionKey} indicating the socket
 	 * 	available for writing.
@@ -606,11 +697,11 @@ public abstract class HttpRpcProcessor {
 	protected void write(SelectionKey key) throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
 		Socket socket = socketChannel.socket();
-		ByteBuffer buf = null;
+		ConnectionState state = this.getConnectionState(key);
 
 		// If we're using HTTPS and handshaking is still happening then we need to call 
 		// SSLEngine.wrap() which will write the next chunk of handshake data.
-		if (this.useHttps && this.isHandshaking(socket)) {
+		if (this.useHttps && this.isHandshaking(state)) {
 			if (log.logTrace()) {
 				log.trace(this.getClass().getSimpleName() + ": write(): still handshaking for " + Utils.toString(socket));
 			}
@@ -619,48 +710,127 @@ public abstract class HttpRpcProcessor {
 				this.progressSSLHandshake(key);
 			} catch(SSLException e) {
 				safeClose(key, socketChannel, "SSL handshake error during write()", e);
-				this.handleSSLHandshakeFailed(socket);
+				this.handleSSLHandshakeFailed(state, socket);
 				handleProcessingException(socket, e);
 			}
 
 			return;
 		}
 
-		// Get the next chunk of application data to write, if we're using
-		// HTTPS we'll encrypt it a little further down.
+		if (this.useHttps) {
+			this.writeEncrypted(key, socketChannel, state);
+			return;
+		}
+
+		// Collect as much of the queued data as we're allowed to
+		// and write it out in one go. If a close is pending only the
+		// next buffer goes out, nothing queued behind it should.
+		int limit = state.isCloseAfterWrite() ? 1 : this.gatheringWriteLimit;
+		ByteBuffer[] bufs = state.getWriteBuffers(limit);
+		if (bufs == null || bufs.length == 0) {
+			this.ignoreEmptyWrite(key, socket);
+			return;
+		}
+
+		try {
+			if (!this.writeBuffers(key, socketChannel, state, bufs)) {
+				// Partial write, leave OP_WRITE set and pick up where 
+				// we left off when the socket is next writable.
+				this.checkWriteBacklog(state);
+				return;
+			}
+		} catch(IOException e) {
+			// An error occurred
+			safeClose(key, socketChannel, "write() failed", e);
+			return;
+		}
+
+		// All data was successfully written
+		this.processDataWritten(key, state, socket);
+	}
+
+	private void writeEncrypted(SelectionKey key, SocketChannel socketChannel, ConnectionState state) throws IOException {
+		Socket socket = socketChannel.socket();
+
+		// Get the next chunk of application data to write and encrypt it
+		// before it goes out.
 		while(true) {
-			buf = this.getWriteBuffer(socket);
+			ByteBuffer buf = state.getWriteBuffer();
 			
 			if (buf == null) {
-				// A second OP_WRITE was queued at some point. This happens
-				// because multiple threads (the selector and the caller's
-				// original "write" thread) can both request an OP_WRITE
-				// interest op change. Rather than trying to coordinate their
-				// efforts we gracefully handle the case where this happens
-				// and just ignore the fact that there's nothing to write.
-				if (log.logTrace()) {
-					log.trace(this.getClass().getSimpleName() + ": Ignoring write() call with no write buffer queued on ["
-							+ Utils.toString(socket) + "]");
-				}
-	
-				key.interestOps(SelectionKey.OP_READ);
+				this.ignoreEmptyWrite(key, socket);
 				return;
 			}
 			
-			if (this.useHttps) {
-				buf = this.encryptWriteBuffer(socket, buf);
-			}
+			buf = this.encryptWriteBuffer(state, socket, buf);
 	
 			try {
 				if (writeBuffer(key, socketChannel, buf)) {
 					// All data was successsfully written
-					this.processDataWritten(key, socket);
+					state.removeWriteBuffer();
+					if (!this.processDataWritten(key, state, socket)) {
+						return;
+					}
 				}
 			} catch(IOException e) {
 				// An error occurred
 				safeClose(key, socketChannel, "write() failed", e);
+				return;
+			}
+		}
+	}
+
+	private void ignoreEmptyWrite(SelectionKey key, Socket socket) {
+		// A second OP_WRITE was queued at some point. This happens
+		// because multiple threads (the selector and the caller's
+		// original "write" thread) can both request an OP_WRITE
+		// interest op change. Rather than trying to coordinate their
+		// efforts we gracefully handle the case where this happens
+		// and just ignore the fact that there's nothing to write.
+		if (log.logTrace()) {
+			log.trace(this.getClass().getSimpleName() + ": Ignoring write() call with no write buffer queued on ["
+					+ Utils.toString(socket) + "]");
+		}
+
+		key.interestOps(SelectionKey.OP_READ);
+	}
+
+	private boolean writeBuffers(SelectionKey key, SocketChannel socketChannel, ConnectionState state, ByteBuffer[] bufs) throws IOException {
+		if (bufs.length == 1) {
+			if (!this.writeBuffer(key, socketChannel, bufs[0])) {
+				return false;
+			}
+			state.removeWriteBuffer();
+			return true;
+		}
+
+		Socket socket = socketChannel.socket();
+		if (log.logTrace()) {
+			long total = 0;
+			for (int i = 0; i < bufs.length; i++) {
+				total += bufs[i].remaining();
 			}
+			log.trace(this.getClass().getSimpleName() + ": Writing " + total + " byte(s) from " + bufs.length
+					+ " buffer(s) on " + Utils.toString(socket));
+		}
+
+		long numWritten = socketChannel.write(bufs);
+
+		// Release every buffer that was completely written. Buffers are
+		// written in order so the first one with data remaining marks
+		// where the next write will resume.
+		int numDrained = 0;
+		while (numDrained < bufs.length && !bufs[numDrained].hasRemaining()) {
+			state.removeWriteBuffer();
+			numDrained++;
 		}
+
+		if (log.logTrace()) {
+			log.trace(this.getClass().getSimpleName() + ": Wrote " + numWritten + " byte(s) on " + Utils.toString(socket)
+					+ ", " + (bufs.length - numDrained) + " buffer(s) remaining");
+		}
+		
+		return numDrained == bufs.length;
 	}
 
 	private boolean writeBuffer(SelectionKey key, SocketChannel socketChannel, ByteBuffer buf) throws IOException {
@@ -688,11 +858,17 @@ public abstract class HttpRpcProcessor {
 	 * <p>
 	 * This implementation retrieves an
 	 * {@link HttpMessageBuffer} instance for the 
-	 * indicated socket using the {@link #getReadBuffer(Socket)}
-	 * method. Data present on the socket is added to
+	 * indicated socket from its {@link ConnectionState},
+	 * creating one using the {@link #newReadBuffer(Socket)}
+	 * method if necessary. Data present on the socket is added to
 	 * this buffer and if a complete HTTP message has
 	 * been received it is enqueued on the 
 	 * {@link #getQueue() shared queue}.
+	 * <p>
+	 * Nothing is read while the underlying {@link ResourcePool} has
+	 * {@link ResourcePool#setReadWatermarks(int, int) paused reading},
+	 * or while more than {@link #setMaxQueuedWriteBytes(int) the maximum}
+	 * amount of data is queued for writing on the socket.
 	 * @param key
 	 * 	The {@link SelectionKey} indicating the socket
 	 * 	available for writing.
@@ -703,8 +879,9 @@ public abstract class HttpRpcProcessor {
 	protected void read(SelectionKey key) throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
 		Socket socket = socketChannel.socket();
+		ConnectionState state = this.getConnectionState(key);
 
-		if (this.useHttps && this.isHandshaking(socket)) {
+		if (this.useHttps && this.isHandshaking(state)) {
 			if (log.logTrace()) {
 				log.trace(this.getClass().getSimpleName() + ": read(): still handshaking for " + Utils.toString(socket));
 			}
@@ -719,9 +896,54 @@ public abstract class HttpRpcProcessor {
 			return;
 		}
 
-		HttpMessageBuffer httpMsg = this.getReadBuffer(socket);
+		if (this.isOverWriteLimit(state)) {
+			// This peer isn't keeping up with what we're sending it.
+			// Don't take on anything more until it does. The key goes
+			// back to OP_READ once everything queued has been written.
+			key.interestOps(OP_WRITE);
+			return;
+		}
+
+		ChannelSelector channelSelector = state.getSelector();
+		if (this.resourcePool.isReadingPaused()) {
+			// The workers have fallen behind. Leave the data where it is
+			// (so TCP pushes back on the sender) until they catch up.
+			channelSelector.pauseReads(key);
+			return;
+		}
+
+		HttpMessageBuffer httpMsg = this.getReadBuffer(state);
 		
-		ByteBuffer readBuf = this.nonBlockingReadBuf;
+		if (this.useHttps) {
+			this.readEncrypted(key, socketChannel, state, httpMsg, channelSelector.getReadBuffer());
+			return;
+		}
+
+		// Read straight into a pooled direct buffer, sized according
+		// to what we've been reading off this connection recently.
+		ReadBufferPool bufferPool = channelSelector.getReadBufferPool();
+		ReadBufferPool.ReceiveSize receiveSize = state.getReceiveSize();
+		ByteBuffer readBuf = bufferPool.acquire(receiveSize.getSizeIndex());
+		try {
+			int numRead;
+			try {
+				numRead = readBuffer(key, socketChannel, readBuf);
+			} catch(Exception e) {
+				this.handleMessageException(httpMsg, e);
+				return;
+			}
+			
+			if (numRead > 0) {
+				receiveSize.record(numRead);
+				this.processReadData(state, readBuf);
+			}
+		} finally {
+			bufferPool.release(readBuf);
+		}
+	}
+
+	private void readEncrypted(SelectionKey key, SocketChannel socketChannel, ConnectionState state, HttpMessageBuffer httpMsg, ByteBuffer readBuf) throws IOException {
+		Socket socket = socketChannel.socket();
 
 		int numRead;
 		try {
@@ -737,28 +959,24 @@ public abstract class HttpRpcProcessor {
 			return;
 		}
 
-		if (this.useHttps) {
-			ByteBuffer decryptedBuf = null;
-			try {
-				while (readBuf.hasRemaining()) {
-					// unwrap() (decrypt) the message
-					decryptedBuf = this.decryptReadBuffer(socket, readBuf);
-					this.processReadData(httpMsg, decryptedBuf.array(), decryptedBuf.remaining());
-				}
-			} catch (SSLException e) {
-				if (decryptedBuf != null) {
-					decryptedBuf.clear();
-				}
-	
-				// The remote entity probably forcibly closed the connection.
-				// Nothing to see here. Move on.
-				safeClose(key, socketChannel, "SSL decryption failed", e);
-				
-				this.handleMessageException(httpMsg, e);
-				return;
+		ByteBuffer decryptedBuf = null;
+		try {
+			while (readBuf.hasRemaining()) {
+				// unwrap() (decrypt) the message
+				decryptedBuf = this.decryptReadBuffer(state, socket, readBuf);
+				this.processReadData(state, decryptedBuf);
 			}
-		} else {		
-			this.processReadData(httpMsg, readBuf.array(), readBuf.remaining());
+		} catch (SSLException e) {
+			if (decryptedBuf != null) {
+				decryptedBuf.clear();
+			}
+
+			// The remote entity probably forcibly closed the connection.
+			// Nothing to see here. Move on.
+			safeClose(key, socketChannel, "SSL decryption failed", e);
+			
+			this.handleMessageException(httpMsg, e);
+			return;
 		}
 		
 		// Clear our read buffer after we've handled the data instead of before
@@ -802,10 +1020,9 @@ public abstract class HttpRpcProcessor {
 		readBuf.limit(numRead);
 		
 		if (log.logTrace()) {
-			byte[] d = readBuf.array();
 			log.trace(this.getClass().getSimpleName() + 
 					": Read " + numRead + " byte(s) on " + Utils.toString(socket)
-							+ ":\n" + Utils.toHexDump(d, readBuf.position(), readBuf.remaining()));
+							+ ":\n" + toHexDump(readBuf));
 		}
 		
 		return numRead;
@@ -828,12 +1045,12 @@ public abstract class HttpRpcProcessor {
 		this.deregisterSocket(socketChannel.socket());
 	}
 	
-	private ByteBuffer encryptWriteBuffer(Socket socket, ByteBuffer buffer) throws SSLException {
+	private ByteBuffer encryptWriteBuffer(ConnectionState state, Socket socket, ByteBuffer buffer) throws SSLException {
 		if (log.logTrace()) {
 			log.trace("Encrypting " + buffer.remaining() + " byte(s) for " + Utils.toString(socket));
 		}
 		
-		SSLSessionMetadata sessionMetadata = (SSLSessionMetadata) this.sslEngineMap.get(socket);
+		SSLSessionMetadata sessionMetadata = state.getSSLSessionMetadata();
 		
 		sessionMetadata.netBuffer.clear();
 		SSLEngineResult result = sessionMetadata.engine.wrap(buffer, sessionMetadata.netBuffer);
@@ -847,12 +1064,12 @@ public abstract class HttpRpcProcessor {
 		return sessionMetadata.netBuffer;
 	}
 
-	private ByteBuffer decryptReadBuffer(Socket socket, ByteBuffer buffer) throws SSLException {
+	private ByteBuffer decryptReadBuffer(ConnectionState state, Socket socket, ByteBuffer buffer) throws SSLException {
 		if (log.logTrace()) {
 			log.trace("Decrypting " + buffer.remaining() + " byte(s) for " + Utils.toString(socket));
 		}
 		
-		SSLSessionMetadata sessionMetadata = (SSLSessionMetadata) this.sslEngineMap.get(socket);
+		SSLSessionMetadata sessionMetadata = state.getSSLSessionMetadata();
 		
 		sessionMetadata.appBuffer.clear();
 		SSLEngineResult result = sessionMetadata.engine.unwrap(buffer, sessionMetadata.appBuffer);
@@ -881,33 +1098,33 @@ public abstract class HttpRpcProcessor {
 	 * 	The socket should be closed after the write completes
 	 */
 	protected void queueWrite(Socket socket, byte[] data, boolean close) {
-		SelectionKey key = socket.getChannel().keyFor(this.getSocketSelector());
+		ConnectionState state = this.getConnectionState(socket);
 		if (log.logTrace()) {
-			boolean pendReg = this.pendingRegistrations.contains(socket.getChannel());
 			log.trace(
 					"Queuing " + data.length + " byte(s) (close=" + close + ", socket=" + Utils.toString(socket)
-							+ ", key=" + key + ", pr=" + pendReg + "):\n" + Utils.toHexDump(data, 0, data.length));
+							+ "):\n" + Utils.toHexDump(data, 0, data.length));
+		}
+		
+		if (state == null) {
+			// The connection has already been closed and released.
+			if (log.logTrace()) {
+				log.trace("Discarding write for released channel on " + Utils.toString(socket));
+			}
+			return;
 		}
 
 		ByteBuffer buf = ByteBuffer.wrap(data);
-		this.putWriteBuffer(socket, buf);
+		state.putWriteBuffer(buf);
+		if (this.writeBacklogTimeout > 0 && this.isOverWriteLimit(state)) {
+			state.startWriteBacklogTimeout(this.writeBacklogTimeout);
+		}
 
-		if (key == null) {
-			// This channel isn't registered yet. We've queued the
-			// write. When the channel is connected the selector
-			// thread will notice and set the interest Ops to OP_WRITE
-			if (log.logTrace()) {
-				log.trace("Queued write for unregistered channel on " + Utils.toString(socket));
-			}
-		} else {
-			if (close) {
-				// Signal that we want a close after the write completes.
-				// This should never be required on an unregistered
-				// SelectionKey since it's really only used to shut down
-				// a socket in the event of bad data or to shut down
-				// a socket after responding to a pre-1.1 client.
-				key.attach(CLOSE_AFTER_WRITE);
-			}
+		if (close) {
+			// Signal that we want a close after the write completes.
+			// This is really only used to shut down a socket in the 
+			// event of bad data or to shut down a socket after 
+			// responding to a pre-1.1 client.
+			state.setCloseAfterWrite(true);
 		}
 
 		// Indicate that we're interested in writing on this socket. The socket 
@@ -920,7 +1137,7 @@ public abstract class HttpRpcProcessor {
 		// We have to do this because the connection operation may finish on this 
 		// socket before this method is called, in which case this write would
 		// never happen.
-		this.queueInterestOpsUpdate(socket, OP_WRITE);
+		state.getSelector().queueInterestOpsUpdate(socket.getChannel(), OP_WRITE);
 	}
 
 	/**
@@ -979,45 +1196,94 @@ public abstract class HttpRpcProcessor {
 	protected abstract void handleTimeout(Socket socket, Exception cause);
 
 	/**
-	 * Called when a complete HTTP message has been identified.
-	 * @param socket
-	 * 	The socket on which a complete message has been
-	 * 	received.
+	 * Called when the timeout started with
+	 * {@link ConnectionState#resetTimeout(long)} expires.
+	 * <p>
+	 * This is invoked on the selecting thread so
+	 * implementations must not block. The default
+	 * implementation does nothing.
+	 * @param state
+	 * 	The connection that timed out.
 	 */
-	protected abstract void removeReadBuffer(Socket socket);
+	protected void handleConnectionTimeout(ConnectionState state) {
+	}
 
 	/**
-	 * Called when a a socket is deregistered and any buffers
-	 * associated with it should be released.
-	 * @param socket
-	 * 	The socket on which a complete message has been
-	 * 	received.
+	 * Called when a connection has had more than the 
+	 * {@link #setMaxQueuedWriteBytes(int) maximum} amount of data
+	 * queued for writing for longer than the 
+	 * {@link #setWriteBacklogTimeout(long) configured timeout}.
+	 * <p>
+	 * This is invoked on the selecting thread so
+	 * implementations must not block. The default 
+	 * implementation closes the connection, discarding 
+	 * everything queued for it.
+	 * @param state
+	 * 	The connection that has fallen behind.
 	 */
-	protected abstract void removeReadBuffers(Socket socket);
+	protected void handleWriteBacklogTimeout(ConnectionState state) {
+		if (!this.isOverWriteLimit(state)) {
+			return;
+		}
+		SocketChannel socketChannel = (SocketChannel) state.getChannel();
+		SelectionKey key = this.getSelectionKey(socketChannel);
+		if (key == null) {
+			return;
+		}
+		if (log.logDebug()) {
+			log.debug("Closing " + Utils.toString(socketChannel.socket()) + ": " + state.getQueuedWriteBytes()
+					+ " byte(s) still queued after " + this.writeBacklogTimeout + "ms");
+		}
+		synchronized(this.profilers) {
+			this.profilers.count(System.identityHashCode(socketChannel), "write.backlog.closed");
+		}
+		this.safeClose(key, socketChannel, "Write backlog timeout", null);
+	}
+
+	private boolean isOverWriteLimit(ConnectionState state) {
+		int limit = this.maxQueuedWriteBytes;
+		return limit > 0 && state.getQueuedWriteBytes() > limit;
+	}
+
+	private void checkWriteBacklog(ConnectionState state) {
+		if (this.writeBacklogTimeout > 0 && !this.isOverWriteLimit(state)) {
+			state.cancelWriteBacklogTimeout();
+		}
+	}
 
 	/**
-	 * Called when data is available on a socket.
-	 * <p>
-	 * Implementations must return a buffer, even if this
-	 * means creating a new instance. The same buffer should
-	 * be returned for a given socket until the
-	 * {@link #removeReadBuffer(Socket)} method is invoked,
-	 * ensuring that message fragmentation is correctly handled.
+	 * Called when data arrives on a socket that doesn't have a
+	 * partially received message outstanding.
 	 * @param socket
 	 * 	The socket on which data has arrived.
 	 * @return
-	 * 	A message buffer for the given socket.
+	 * 	A new message buffer for the given socket.
 	 */
-	protected abstract HttpMessageBuffer getReadBuffer(Socket socket);
+	protected abstract HttpMessageBuffer newReadBuffer(Socket socket);
 
 	/**
-	 * Called when data is available to be written to a socket.
+	 * Returns the partially received message on a socket,
+	 * creating one using {@link #newReadBuffer(Socket)} if
+	 * necessary. The same buffer is returned for a given socket 
+	 * until a complete message has been received, ensuring that 
+	 * message fragmentation is correctly handled.
 	 * @param socket
-	 * 	The socket on which the data should be sent.
-	 * @param data
-	 * 	The data to be written.
+	 * 	A socket registered by this instance.
+	 * @return
+	 * 	A message buffer for the given socket.
 	 */
-	protected abstract void putWriteBuffer(Socket socket, ByteBuffer data);
+	protected HttpMessageBuffer getReadBuffer(Socket socket) {
+		return this.getReadBuffer(this.getConnectionState(socket));
+	}
+
+	private HttpMessageBuffer getReadBuffer(ConnectionState state) {
+		HttpMessageBuffer httpMsg = state.getReadBuffer();
+		if (httpMsg == null) {
+			httpMsg = this.newReadBuffer(((SocketChannel) state.getChannel()).socket());
+			state.setReadBuffer(httpMsg);
+		}
+		return httpMsg;
+	}
 
 	/**
 	 * Called to find out if data is queued to be written to a socket.
@@ -1027,39 +1293,10 @@ public abstract class HttpRpcProcessor {
 	 * 	<code>true</code> if there is a buffer waiting to be written on
 	 * 	the given socket
 	 */
-	protected abstract boolean isWriteQueued(Socket socket);
-
-	/**
-	 * Called when a all of the data in a pending write buffer 
-	 * has been written to a socket.
-	 * @param socket
-	 * 	The socket the buffer was associated with.
-	 */
-	protected abstract void removeWriteBuffer(Socket socket);
-
-	/**
-	 * Called when a a socket is deregistered and any buffers
-	 * associated with it should be released.
-	 * @param socket
-	 * 	The socket the buffer was associated with.
-	 */
-	protected abstract void removeWriteBuffers(Socket socket);
-
-	/**
-	 * Called when a socket becomes available for writing.
-	 * <p>
-	 * Implementations should return a buffer only if one
-	 * has been added using {@link #putWriteBuffer(Socket, ByteBuffer)}.
-	 * The same buffer should be returned for a given socket until the
-	 * {@link #removeWriteBuffer(Socket)} method is invoked,
-	 * ensuring that large messages that must be written in
-	 * multiple fragments are correctly handled.
-	 * @param socket
-	 * 	The socket that is available for writing.
-	 * @return
-	 * 	A data buffer for the given socket.
-	 */
-	protected abstract ByteBuffer getWriteBuffer(Socket socket);
+	protected boolean isWriteQueued(Socket socket) {
+		ConnectionState state = this.getConnectionState(socket);
+		return state != null && state.isWriteQueued();
+	}
 
 	/**
 	 * Request an update to a given {@link Socket}'s interest 
@@ -1074,11 +1311,9 @@ public abstract class HttpRpcProcessor {
 	 * @param interestOp
 	 * 	The new interest operation.
 	 */
-	private void queueInterestOpsUpdate(Socket socket, Integer interestOp) {
-		synchronized (this.pendingInterestOps) {
-			this.pendingInterestOps.put(socket, interestOp);
-		}
-		this.getSocketSelector().wakeup();
+	private void queueInterestOpsUpdate(Socket socket, int interestOp) {
+		SocketChannel channel = socket.getChannel();
+		this.resourcePool.getChannelSelector(channel).queueInterestOpsUpdate(channel, interestOp);
 	}
 	
 	protected void queueRead(Socket socket) {
@@ -1104,24 +1339,32 @@ public abstract class HttpRpcProcessor {
 	
 	// TODO: Comment to describe why this differes to registerSocket
 	protected void registerChannel(SelectableChannel channel) {
-		this.channelSelector.addChannel(this, channel);
+		// Server sockets always belong to the primary selector. Everything
+		// else is spread across the pool's selectors.
+		ChannelSelector selector = null;
+		if (!(channel instanceof SocketChannel)) {
+			selector = this.channelSelector;
+		}
+		ConnectionState state = this.resourcePool.assignConnectionState(channel, selector);
+		state.getSelector().addChannel(this, state);
 	}
 	
 	protected void deregisterChannel(SelectableChannel channel) {
-		this.channelSelector.removeChannel(channel);
+		this.resourcePool.getChannelSelector(channel).removeChannel(channel);
 	}
 	
 	protected void registerSocket(Socket socket, String host, int port, boolean client) throws IOException {
 	}
 
+	/**
+	 * Releases a socket's channel, discarding any partially 
+	 * received message and any data still queued for it.
+	 */
 	protected void deregisterSocket(Socket socket) {
-		this.removeReadBuffers(socket);
-		this.removeWriteBuffers(socket);
-		
 		this.deregisterChannel(socket.getChannel());
 	}
 	
-	private SSLSessionMetadata initSocketSSLHandshake(Socket socket) throws SSLException {
+	private SSLSessionMetadata initSocketSSLHandshake(ConnectionState state, Socket socket) throws SSLException {
 		// Create the engine
 		SSLEngine engine = this.initSocketSSLEngine(socket);
 		
@@ -1136,11 +1379,11 @@ public abstract class HttpRpcProcessor {
 			if (log.logTrace()) {
 				log.trace("Starting " + timeout + "ms timer for SSL handshake on " + Utils.toString(socket));
 			}
-			resourcePool.getTimer().schedule(metadata.newHandshakeTimerTask(), timeout);
+			metadata.startHandshakeTimer(state.getSelector().getTimerWheel(), timeout);
 		}
 		
 		// Record the new engine so it get's closed when the socket is shut down.
-		this.sslEngineMap.put(socket, metadata);
+		state.setSSLSessionMetadata(metadata);
 		
 		return metadata;
 	}
@@ -1152,8 +1395,8 @@ public abstract class HttpRpcProcessor {
 		return engine;
 	}
 	
-	private boolean isHandshaking(Socket socket) {
-		SSLSessionMetadata sessionMetadata = (SSLSessionMetadata) this.sslEngineMap.get(socket);
+	private boolean isHandshaking(ConnectionState state) {
+		SSLSessionMetadata sessionMetadata = state.getSSLSessionMetadata();
 		return (sessionMetadata == null) || (sessionMetadata.engine.getHandshakeStatus() != HandshakeStatus.NOT_HANDSHAKING);
 	}
 
@@ -1162,17 +1405,19 @@ public abstract class HttpRpcProcessor {
 		Socket socket = socketChannel.socket();
 
 		// Make sure an engine is initialized for this socket
-		SSLSessionMetadata sessionMetadata = (SSLSessionMetadata) this.sslEngineMap.get(socket);
+		ConnectionState state = this.getConnectionState(key);
+		SSLSessionMetadata sessionMetadata = state.getSSLSessionMetadata();
 		if (sessionMetadata == null) {
 			if (log.logTrace()) {
 				log.trace(this.getClass().getSimpleName() + ": Initializing SSL engine for " + this.getClass().getSimpleName() + " on "
 						+ Utils.toString(socket));
 			}
-			sessionMetadata = this.initSocketSSLHandshake(socket);
+			sessionMetadata = this.initSocketSSLHandshake(state, socket);
 			this.handleSSLHandshakeStarted(socket, sessionMetadata);
 		}
 		
 		SSLEngine engine = sessionMetadata.engine;
+		ByteBuffer readBuf = state.getSelector().getReadBuffer();
 		if (engine.getHandshakeStatus() == HandshakeStatus.NOT_HANDSHAKING) {
 			// This is an error condition since we never call this method
 			// after we finish handshaking.
@@ -1204,7 +1449,7 @@ public abstract class HttpRpcProcessor {
 					if (log.logTrace()) {
 						log.trace(this.getClass().getSimpleName() + ": NEED_UNWRAP for " + Utils.toString(socket) + ": calling readBuffer()");
 					}
-					numRead = this.readBuffer(key, socketChannel, this.nonBlockingReadBuf);
+					numRead = this.readBuffer(key, socketChannel, readBuf);
 				} catch(RemoteSocketClosedException e) {
 					// The remote guy shut us out during the handshak
 					throw new SSLException("Handshake aborted by remote entity (socket closed)", e);
@@ -1225,13 +1470,13 @@ public abstract class HttpRpcProcessor {
 					// Since we're in here the channel is already registered for OP_READ.
 					// Don't requeue it since that will needlessly wake up the selecting
 					// thread.
-					this.nonBlockingReadBuf.clear();
+					readBuf.clear();
 					return;
 				}
 				
-				while(this.nonBlockingReadBuf.hasRemaining()) {
+				while(readBuf.hasRemaining()) {
 					sessionMetadata.appBuffer.clear();
-					result = engine.unwrap(this.nonBlockingReadBuf, sessionMetadata.appBuffer);
+					result = engine.unwrap(readBuf, sessionMetadata.appBuffer);
 					sessionMetadata.appBuffer.flip();
 					// A handshake never produces data for us to consume.
 					if (sessionMetadata.appBuffer.hasRemaining()) {
@@ -1253,7 +1498,7 @@ public abstract class HttpRpcProcessor {
 					}
 				}
 				
-				this.nonBlockingReadBuf.clear();
+				readBuf.clear();
 				
 				break;
 			case NEED_WRAP:
@@ -1345,8 +1590,8 @@ public abstract class HttpRpcProcessor {
 		}
 	}
 
-	private void handleSSLHandshakeFailed(Socket socket) {
-		SSLSessionMetadata metadata = (SSLSessionMetadata) this.sslEngineMap.get(socket);
+	private void handleSSLHandshakeFailed(ConnectionState state, Socket socket) {
+		SSLSessionMetadata metadata = state.getSSLSessionMetadata();
 		if (metadata == null) {
 			log.warn("SSL handshake meta-data not found for " + Utils.toString(socket));
 			return;
@@ -1384,29 +1629,27 @@ public abstract class HttpRpcProcessor {
 	
 	protected abstract void handleSSLHandshakeFinished(Socket socket, SSLEngine engine);
 
-	private void processReadData(HttpMessageBuffer httpMsg, byte[] data, int numRead) throws IOException {
+	private void processReadData(ConnectionState state, ByteBuffer data) throws IOException {
 		if (log.logTrace()) {
-			log.trace("Read " + numRead + " byte(s):\n" + Utils.toHexDump(data, 0, numRead));
+			log.trace("Read " + data.remaining() + " byte(s):\n" + toHexDump(data));
 		}
 
+		HttpMessageBuffer httpMsg = this.getReadBuffer(state);
 		try {
-			Socket socket = httpMsg.getSocket();
-			int excess = httpMsg.addBytes(data, 0, numRead);
-			// FIXME: To really support pipelining we need to guarantee
-			// response order. The way I see it this means "pipelining" only
-			// really means "all requests received in a single read". If we
-			// assume that then we could collect them all together here
-			// before dispatching them and have the handler threads know how
-			// to deal with a single "batch" call.
+			int excess = httpMsg.addBytes(data);
+			// Pipelined requests are dispatched individually and may be
+			// handled in parallel. Sub-classes that care about the order
+			// of the responses (the server) number each request in
+			// dispatch(), which is called here in arrival order.
 			while (excess >= 0) {
 				// Clear this socket's request buffer
-				this.removeReadBuffer(socket);
-				this.getQueue().add(httpMsg);
+				state.setReadBuffer(null);
+				this.dispatch(httpMsg);
 				
 				if (excess > 0) {
 					// There's still data, start a new message
-					httpMsg = this.getReadBuffer(socket);
-					excess = httpMsg.addBytes(data, excess, numRead-excess);
+					httpMsg = this.getReadBuffer(state);
+					excess = httpMsg.addBytes(data);
 				} else {
 					// We have a complete message and no more data
 					// break out of the loop
@@ -1418,17 +1661,29 @@ public abstract class HttpRpcProcessor {
 		}
 	}
 
-	private boolean processDataWritten(SelectionKey key, Socket socket) throws IOException {
-		this.removeWriteBuffer(socket);
+	// Works for direct buffers too, and leaves the buffer's position alone.
+	private static String toHexDump(ByteBuffer buf) {
+		byte[] d = new byte[buf.remaining()];
+		buf.duplicate().get(d);
+		return Utils.toHexDump(d);
+	}
 
-		if (key.attachment() == CLOSE_AFTER_WRITE) {
+	private boolean processDataWritten(SelectionKey key, ConnectionState state, Socket socket) throws IOException {
+		this.checkWriteBacklog(state);
+		if (state.isCloseAfterWrite()) {
 			key.cancel();
 			socket.getChannel().close();
 			this.deregisterSocket(socket);
 			return false;
-		} else {
-			key.interestOps(SelectionKey.OP_READ);
+		}
+
+		if (state.isWriteQueued()) {
+			// More was queued than we could write in one go (or was
+			// queued while we were writing). Stay interested in writes.
 			return true;
 		}
+
+		key.interestOps(SelectionKey.OP_READ);
+		return true;
 	}
 }
@@ -0,0 +1,127 @@
+package com.flat502.rox.processing;
+
+import java.nio.ByteBuffer;
+import java.util.LinkedList;
+
+/**
+ * A pool of direct {@link ByteBuffer}s used for non-blocking reads.
+ * <p>
+ * Reading from a channel into a heap buffer forces the JDK to copy
+ * the data through a temporary direct buffer on every read. Instances
+ * of this class hand out direct buffers in a small set of size classes
+ * and take them back once the data read has been consumed.
+ * <p>
+ * An instance is owned by a single {@link ChannelSelector} and may
+ * only be used by the thread backing it. The hit and miss counters
+ * may be read from any thread.
+ */
+class ReadBufferPool {
+	// The size classes buffers are allocated in.
+	private static final int[] SIZES = { 1024, 2048, 4096, 8192, 16384, 32768, 65536 };
+
+	// 8KB, which is what we've always read into.
+	private static final int DEFAULT_SIZE_INDEX = 3;
+
+	// The most free buffers we'll hang onto per size class.
+	private static final int MAX_FREE_PER_SIZE = 4;
+
+	private LinkedList[] free = new LinkedList[SIZES.length];
+
+	private volatile long hits;
+	private volatile long misses;
+
+	ReadBufferPool() {
+		for (int i = 0; i < this.free.length; i++) {
+			this.free[i] = new LinkedList();
+		}
+	}
+
+	/**
+	 * Returns a cleared direct buffer of the indicated size class,
+	 * reusing a pooled buffer if one is available.
+	 */
+	ByteBuffer acquire(int sizeIndex) {
+		LinkedList list = this.free[sizeIndex];
+		if (!list.isEmpty()) {
+			this.hits++;
+			return (ByteBuffer) list.removeFirst();
+		}
+		this.misses++;
+		return ByteBuffer.allocateDirect(SIZES[sizeIndex]);
+	}
+
+	/**
+	 * Returns a buffer obtained from {@link #acquire(int)} to this
+	 * pool.
+	 */
+	void release(ByteBuffer buf) {
+		int sizeIndex = indexOf(buf.capacity());
+		if (sizeIndex == -1) {
+			return;
+		}
+		LinkedList list = this.free[sizeIndex];
+		if (list.size() < MAX_FREE_PER_SIZE) {
+			buf.clear();
+			list.addFirst(buf);
+		}
+	}
+
+	long getHitCount() {
+		return this.hits;
+	}
+
+	long getMissCount() {
+		return this.misses;
+	}
+
+	private static int indexOf(int size) {
+		for (int i = 0; i < SIZES.length; i++) {
+			if (SIZES[i] == size) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Tracks the receive buffer size class to use for a single
+	 * connection based on the size of recent reads.
+	 * <p>
+	 * A read that fills its buffer moves the connection up a
+	 * size class straight away, since there is probably more
+	 * data waiting (a bulk upload, for example). Two consecutive
+	 * reads that would have fit in the next size class down move
+	 * it down one, so connections carrying small calls settle on
+	 * small buffers without flapping.
+	 */
+	static class ReceiveSize {
+		private int sizeIndex = DEFAULT_SIZE_INDEX;
+		private boolean shrinkPending;
+
+		int getSizeIndex() {
+			return this.sizeIndex;
+		}
+
+		int getSize() {
+			return SIZES[this.sizeIndex];
+		}
+
+		void record(int numRead) {
+			if (numRead >= SIZES[this.sizeIndex]) {
+				if (this.sizeIndex < SIZES.length - 1) {
+					this.sizeIndex++;
+				}
+				this.shrinkPending = false;
+			} else if (this.sizeIndex > 0 && numRead <= SIZES[this.sizeIndex - 1]) {
+				if (this.shrinkPending) {
+					this.sizeIndex--;
+					this.shrinkPending = false;
+				} else {
+					this.shrinkPending = true;
+				}
+			} else {
+				this.shrinkPending = false;
+			}
+		}
+	}
+}
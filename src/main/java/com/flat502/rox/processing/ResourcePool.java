@@ -1,21 +1,83 @@
 package com.flat502.rox.processing;
 
 import java.io.IOException;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Method;
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
 import java.nio.channels.SocketChannel;
 import java.util.*;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import com.flat502.rox.log.Log;
+import com.flat502.rox.log.LogFactory;
 import com.flat502.rox.utils.BlockingQueue;
 import com.flat502.rox.utils.Profiler;
 import com.flat502.rox.utils.ProfilerCollection;
 
 // TODO: Document
 public abstract class ResourcePool {
-	private Thread processingThread;
-	private ChannelSelector channelSelector;
+	private static Log log = LogFactory.getLog(ResourcePool.class);
+
+	/**
+	 * Policies for distributing new connections across the
+	 * selecting threads backing a pool.
+	 * @see ResourcePool#setSelectorAssignment(SelectorAssignment)
+	 */
+	public static enum SelectorAssignment {
+		ROUND_ROBIN,
+		LEAST_LOADED
+	};
+	
+	private Thread[] processingThreads;
+	private ChannelSelector[] channelSelectors;
+	private int selectorCount = 1;
+	private SelectorAssignment selectorAssignment = SelectorAssignment.ROUND_ROBIN;
+	private int nextSelector;
+	
+	// Maps SelectableChannel instances to (weak references to) their
+	// ConnectionState. Channels are closed through a number of paths
+	// (idle timeouts, pooled connection expiry, remote closure) so we
+	// let the garbage collector clean up after them. The state refers
+	// back to the channel, hence the weak reference. It's kept alive by
+	// the owning ChannelSelector and by the channel's SelectionKey.
+	// This is only consulted until a channel has been registered.
+	private Map connectionStates = new WeakHashMap();
+	
 	private Timer timer;
 	private BlockingQueue queue;
 	private List workers = new LinkedList();
 	private boolean hasFirstWorker;
+	
+	// If set work is dispatched here instead of to the queue, and
+	// handled by a single (stateless) handler.
+	private volatile Executor executor;
+	private volatile HttpMessageHandler executorHandler;
+	
+	// Set if we created the executor (see useVirtualThreads())
+	// and so must shut it down.
+	private ExecutorService ownedExecutor;
+	
+	// Elastic worker pool configuration. maxWorkers is 0 unless
+	// setElasticWorkers() has been called.
+	private int minWorkers;
+	private volatile int maxWorkers;
+	private volatile long targetQueueDelay = 20;
+	private volatile long workerKeepAlive = 60000;
+	private volatile long nextDemandCheck;
+	
+	// Work dispatched but not yet picked up, and the read backpressure
+	// configuration. highWatermark is 0 unless setReadWatermarks() has
+	// been called.
+	private AtomicInteger pendingWork = new AtomicInteger();
+	private volatile int highWatermark;
+	private volatile int lowWatermark;
+	private AtomicBoolean readingPaused = new AtomicBoolean();
 	private Map namedMutexes = new HashMap();
 	
 	private ProfilerCollection profilers = new ProfilerCollection();
@@ -24,13 +86,182 @@ public abstract class ResourcePool {
 		this.queue = this.newQueue();
 	}
 
+	/**
+	 * Configure the number of selecting threads backing this pool.
+	 * <p>
+	 * By default a single thread handles all I/O for every
+	 * {@link HttpRpcProcessor} sharing this pool. Configuring
+	 * more than one thread spreads connections across multiple
+	 * {@link java.nio.channels.Selector} instances, each serviced
+	 * by its own thread. New connections are assigned to a selecting
+	 * thread according to the {@link #setSelectorAssignment(SelectorAssignment)
+	 * configured policy} and remain with that thread until they
+	 * are closed.
+	 * <p>
+	 * This must be configured before any processors are attached
+	 * to this pool.
+	 * @param count
+	 * 	The number of selecting threads. Must be at least 1.
+	 * @throws IllegalArgumentException
+	 * 	If the count provided is less than 1.
+	 * @throws IllegalStateException
+	 * 	If a processor has already been attached to this pool.
+	 */
+	public void setSelectorCount(int count) {
+		if (count < 1) {
+			throw new IllegalArgumentException("count must be at least 1");
+		}
+		synchronized(workers) {
+			if (this.channelSelectors != null) {
+				throw new IllegalStateException("Selector count must be configured before processors are attached");
+			}
+			this.selectorCount = count;
+		}
+	}
+	
+	public int getSelectorCount() {
+		return this.selectorCount;
+	}
+	
+	/**
+	 * Configure the policy used to assign new connections to
+	 * selecting threads.
+	 * <p>
+	 * This only has an effect if more than one selecting thread
+	 * has been {@link #setSelectorCount(int) configured}. The
+	 * default policy is {@link SelectorAssignment#ROUND_ROBIN}.
+	 * @param policy
+	 * 	The assignment policy to use for new connections.
+	 */
+	public void setSelectorAssignment(SelectorAssignment policy) {
+		if (policy == null) {
+			throw new NullPointerException("policy");
+		}
+		synchronized(this.connectionStates) {
+			this.selectorAssignment = policy;
+		}
+	}
+
+	/**
+	 * Returns the primary {@link ChannelSelector}. This is the
+	 * selector server sockets are registered with.
+	 */
 	protected ChannelSelector getChannelSelector() throws IOException {
+		return this.getChannelSelectors()[0];
+	}
+	
+	ChannelSelector[] getChannelSelectors() throws IOException {
 		synchronized(workers) {
-			if (this.channelSelector == null) {
-				this.channelSelector = this.newChannelSelector();
+			if (this.channelSelectors == null) {
+				ChannelSelector[] selectors = new ChannelSelector[this.selectorCount];
+				for (int i = 0; i < selectors.length; i++) {
+					selectors[i] = this.newChannelSelector();
+				}
+				this.channelSelectors = selectors;
+			}
+			return this.channelSelectors;
+		}
+	}
+	
+	/**
+	 * Look up the {@link ChannelSelector} wrapping a given {@link Selector}.
+	 */
+	ChannelSelector getChannelSelector(Selector selector) {
+		// Only ever called once selectors exist, and the array is never
+		// modified after it's created.
+		ChannelSelector[] selectors = this.channelSelectors;
+		for (int i = 0; i < selectors.length; i++) {
+			if (selectors[i].getSocketSelector() == selector) {
+				return selectors[i];
+			}
+		}
+		throw new IllegalArgumentException("Selector is not owned by this pool");
+	}
+
+	/**
+	 * Look up the {@link ChannelSelector} responsible for a given channel.
+	 * Channels that were never {@link #assignConnectionState(SelectableChannel, ChannelSelector) assigned}
+	 * belong to the primary selector.
+	 */
+	ChannelSelector getChannelSelector(SelectableChannel channel) {
+		ConnectionState state = this.getConnectionState(channel);
+		if (state == null) {
+			return this.channelSelectors[0];
+		}
+		return state.getSelector();
+	}
+	
+	/**
+	 * Look up the {@link ConnectionState} for a given channel.
+	 * @return
+	 * 	The state, or <code>null</code> if the channel was never
+	 * 	{@link #assignConnectionState(SelectableChannel, ChannelSelector) assigned}
+	 * 	or has since been released and closed.
+	 */
+	ConnectionState getConnectionState(SelectableChannel channel) {
+		// Registered channels carry their state on their SelectionKey,
+		// which saves contending for the shared map below. Looking up
+		// a key only locks the channel itself.
+		ChannelSelector[] selectors = this.channelSelectors;
+		if (selectors != null) {
+			for (int i = 0; i < selectors.length; i++) {
+				SelectionKey key = channel.keyFor(selectors[i].getSocketSelector());
+				if (key != null && key.attachment() != null) {
+					return (ConnectionState) key.attachment();
+				}
+			}
+		}
+		
+		synchronized(this.connectionStates) {
+			WeakReference ref = (WeakReference) this.connectionStates.get(channel);
+			return ref == null ? null : (ConnectionState) ref.get();
+		}
+	}
+	
+	/**
+	 * Assign a channel to a {@link ChannelSelector} and create its
+	 * {@link ConnectionState}. If the channel has already been
+	 * assigned the existing state is returned.
+	 * @param selector
+	 * 	The selector to assign the channel to, or <code>null</code>
+	 * 	to choose one using the configured {@link SelectorAssignment} 
+	 * 	policy.
+	 */
+	ConnectionState assignConnectionState(SelectableChannel channel, ChannelSelector selector) {
+		ConnectionState state = this.getConnectionState(channel);
+		if (state != null) {
+			return state;
+		}
+		
+		// Only ever called once selectors exist, and the array is never
+		// modified after it's created.
+		ChannelSelector[] selectors = this.channelSelectors;
+		synchronized(this.connectionStates) {
+			WeakReference ref = (WeakReference) this.connectionStates.get(channel);
+			state = ref == null ? null : (ConnectionState) ref.get();
+			if (state != null) {
+				return state;
+			}
+			
+			if (selector != null) {
+				// Already decided
+			} else if (selectors.length == 1) {
+				selector = selectors[0];
+			} else if (this.selectorAssignment == SelectorAssignment.LEAST_LOADED) {
+				selector = selectors[0];
+				for (int i = 1; i < selectors.length; i++) {
+					if (selectors[i].getChannelCount() < selector.getChannelCount()) {
+						selector = selectors[i];
+					}
+				}
+			} else {
+				selector = selectors[this.nextSelector];
+				this.nextSelector = (this.nextSelector + 1) % selectors.length;
 			}
+			state = new ConnectionState(channel, selector);
+			this.connectionStates.put(channel, new WeakReference(state));
+			return state;
 		}
-		return this.channelSelector;
 	}
 	
 	protected Timer getTimer() {
@@ -45,30 +276,183 @@ public abstract class ResourcePool {
 	}
 	
 	protected void startProcessingThread() {
+		Thread[] threads;
 		synchronized(workers) {
-			if (this.processingThread != null) {
+			if (this.processingThreads != null) {
 				return;
 			}
 			
-			this.processingThread = this.newProcessingThread(this.channelSelector);
+			threads = new Thread[this.channelSelectors.length];
+			for (int i = 0; i < threads.length; i++) {
+				threads[i] = this.newProcessingThread(this.channelSelectors[i]);
+			}
+			this.processingThreads = threads;
+		}
+		for (int i = 0; i < threads.length; i++) {
+			threads[i].start();
 		}
-		this.processingThread.start();
 	}
 	
 	public BlockingQueue getQueue() {
 		return this.queue;
 	}
 	
+	/**
+	 * Configure an {@link Executor} to handle complete HTTP messages
+	 * (and other work items) instead of this pool's own worker threads.
+	 * <p>
+	 * By default each item is added to this pool's {@link #getQueue()
+	 * queue} and taken by the next idle worker thread. Once an executor
+	 * is configured each item is instead wrapped in a {@link Runnable}
+	 * and passed to {@link Executor#execute(Runnable)}, so the executor
+	 * decides how many threads are used and how they're scheduled.
+	 * {@link #addWorker()} has no effect while an executor is configured.
+	 * <p>
+	 * The executor is not shut down when this pool is. 
+	 * <p>
+	 * This must be configured before any worker threads are added.
+	 * @param executor
+	 * 	The executor to dispatch work to, or <code>null</code> to use
+	 * 	worker threads.
+	 * @throws IllegalStateException
+	 * 	If worker threads have already been added to this pool.
+	 */
+	public void setExecutor(Executor executor) {
+		synchronized (workers) {
+			if (!this.workers.isEmpty() || this.maxWorkers > 0) {
+				throw new IllegalStateException("Executor must be configured before workers are added");
+			}
+			this.executorHandler = executor == null ? null : this.newWorker();
+			this.executor = executor;
+			if (this.ownedExecutor != null) {
+				this.ownedExecutor.shutdown();
+				this.ownedExecutor = null;
+			}
+		}
+	}
+	
+	/**
+	 * Handle each work item on its own virtual thread, if the JVM
+	 * supports them (Java 21 or later).
+	 * <p>
+	 * This suits handlers that spend most of their time blocked (on a
+	 * database or a downstream RPC, for example). A blocked virtual
+	 * thread doesn't tie up a platform thread so there's no need
+	 * to run (and tune) a large number of worker threads. Responses
+	 * to pipelined requests are still sent in the order the requests
+	 * arrived.
+	 * <p>
+	 * If virtual threads are not available this has no effect and work
+	 * continues to be handled by this pool's worker threads.
+	 * <p>
+	 * Like {@link #setExecutor(Executor)} this must be called before any
+	 * worker threads are added.
+	 * @return
+	 * 	<code>true</code> if virtual threads will be used.
+	 * @throws IllegalStateException
+	 * 	If worker threads have already been added to this pool.
+	 */
+	public boolean useVirtualThreads() {
+		synchronized (workers) {
+			ExecutorService executor = newVirtualThreadExecutor();
+			if (executor == null) {
+				return false;
+			}
+			try {
+				this.setExecutor(executor);
+			} catch (IllegalStateException e) {
+				executor.shutdown();
+				throw e;
+			}
+			this.ownedExecutor = executor;
+			return true;
+		}
+	}
+	
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			// Reflection so we still build and run on older JVMs
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor", (Class[]) null);
+			return (ExecutorService) factory.invoke(null, (Object[]) null);
+		} catch (NoSuchMethodException e) {
+			return null;
+		} catch (Exception e) {
+			// Java 19 and 20 have virtual threads as a preview feature
+			// and refuse to create them unless it's enabled.
+			if (log.logDebug()) {
+				log.debug("Virtual threads are not available", e);
+			}
+			return null;
+		}
+	}
+	
+	public Executor getExecutor() {
+		return this.executor;
+	}
+	
+	/**
+	 * Hands a work item to a worker thread, or to the
+	 * {@link #setExecutor(Executor) configured executor}.
+	 */
+	void dispatch(Object work) {
+		int pending = this.pendingWork.incrementAndGet();
+		int high = this.highWatermark;
+		if (high > 0 && pending >= high && this.readingPaused.compareAndSet(false, true)) {
+			synchronized (workers) {
+				this.profilers.count(pending, "reads.paused");
+			}
+			// Workers may have drained the queue before we paused, in
+			// which case none of them will see the pause to undo it.
+			this.resumeReadingIfDrained(this.pendingWork.get());
+		}
+		
+		Executor executor = this.executor;
+		if (executor == null) {
+			this.queue.add(work);
+			if (this.maxWorkers > 0) {
+				this.checkWorkerDemand();
+			}
+		} else {
+			executor.execute(new WorkItem(this.executorHandler, work));
+		}
+	}
+	
+	private class WorkItem implements Runnable {
+		private HttpMessageHandler handler;
+		private Object work;
+		
+		WorkItem(HttpMessageHandler handler, Object work) {
+			this.handler = handler;
+			this.work = work;
+		}
+		
+		public void run() {
+			try {
+				workTaken();
+				this.handler.handleWorkItem(this.work);
+			} catch (Exception e) {
+				log.error("Executor work item caught exception", e);
+			}
+		}
+	}
+	
 	public void shutdown() {
 		synchronized(workers) {
 			if (this.getWorkerCount() > 0) {
 				while (this.removeWorker() > 0) {
 				}
 			}
-			this.channelSelector.shutdown();
+			if (this.channelSelectors != null) {
+				for (int i = 0; i < this.channelSelectors.length; i++) {
+					this.channelSelectors[i].shutdown();
+				}
+			}
 			if (this.timer != null) {
 				this.timer.cancel();
 			}
+			if (this.ownedExecutor != null) {
+				this.ownedExecutor.shutdown();
+			}
 		}
 	}
 	
@@ -83,26 +467,287 @@ public abstract class ResourcePool {
 	 * If an instance of this class is constructed and started
 	 * without this method having been invoked it will be invoked
 	 * before processing begins.
+	 * <p>
+	 * This has no effect if an {@link #setExecutor(Executor) executor}
+	 * has been configured.
 	 * @return
 	 * 	The number of worker threads backing this instance.
 	 */
 	public int addWorker() {
 		synchronized (workers) {
+			if (this.executor != null) {
+				return this.workers.size();
+			}
 			if (this.workers.size() == 1 && !this.hasFirstWorker) {
 				this.hasFirstWorker = true;
 				return this.workers.size();
 			}
 			
-			HttpMessageHandler worker = this.newWorker();
-			Thread workerThread = new Thread(worker);
-			workerThread.setName(worker.getClass().getName() + "-" + System.identityHashCode(workerThread));
-			workerThread.setDaemon(true);
-			workerThread.start();
-			this.workers.add(worker);
+			this.startWorker();
 			return this.workers.size();
 		}
 	}
 
+	private void startWorker() {
+		HttpMessageHandler worker = this.newWorker();
+		worker.setResourcePool(this);
+		Thread workerThread = new Thread(worker);
+		workerThread.setName(worker.getClass().getName() + "-" + System.identityHashCode(workerThread));
+		workerThread.setDaemon(true);
+		workerThread.start();
+		this.workers.add(worker);
+	}
+
+	/**
+	 * Switch this pool to an elastic worker pool that sizes itself 
+	 * according to load.
+	 * <p>
+	 * At least <code>min</code> worker threads are started immediately.
+	 * Whenever a work item is queued and the item at the head of the 
+	 * queue has been waiting longer than the 
+	 * {@link #setTargetQueueDelay(long) target queue delay}, another
+	 * worker is started (at most one per target delay period), up to 
+	 * <code>max</code> workers. Workers that have been idle for the
+	 * {@link #setWorkerKeepAlive(long) keep-alive period} are retired
+	 * until <code>min</code> remain.
+	 * <p>
+	 * Each decision is reported to {@link #registerProfiler(Profiler)
+	 * registered profilers} as a <code>count()</code> of 
+	 * <code>workers.added</code> or <code>workers.retired</code>. The 
+	 * id passed is the number of workers after the change.
+	 * <p>
+	 * This is not available if an {@link #setExecutor(Executor) executor}
+	 * has been configured.
+	 * @param min
+	 * 	The minimum number of workers. Must be at least 1.
+	 * @param max
+	 * 	The maximum number of workers. Must be at least <code>min</code>.
+	 * @throws IllegalArgumentException
+	 * 	If the limits are invalid.
+	 * @throws IllegalStateException
+	 * 	If an executor has been configured.
+	 */
+	public void setElasticWorkers(int min, int max) {
+		if (min < 1) {
+			throw new IllegalArgumentException("min must be at least 1");
+		}
+		if (max < min) {
+			throw new IllegalArgumentException("max must be at least min");
+		}
+		synchronized (workers) {
+			if (this.executor != null) {
+				throw new IllegalStateException("Elastic workers are not available with an executor");
+			}
+			this.minWorkers = min;
+			this.maxWorkers = max;
+			while (this.workers.size() < min) {
+				this.startWorker();
+			}
+		}
+	}
+	
+	public int getMinWorkers() {
+		return this.minWorkers;
+	}
+	
+	/**
+	 * @return
+	 * 	The maximum number of workers, or 0 if this is not an
+	 * 	{@link #setElasticWorkers(int, int) elastic} pool.
+	 */
+	public int getMaxWorkers() {
+		return this.maxWorkers;
+	}
+	
+	/**
+	 * Configure how long work may wait in the queue before an 
+	 * {@link #setElasticWorkers(int, int) elastic} pool starts
+	 * another worker. The default is 20ms.
+	 * @param millis
+	 * 	The target delay in milliseconds. Must be positive.
+	 */
+	public void setTargetQueueDelay(long millis) {
+		if (millis <= 0) {
+			throw new IllegalArgumentException("delay must be positive");
+		}
+		this.targetQueueDelay = millis;
+	}
+	
+	public long getTargetQueueDelay() {
+		return this.targetQueueDelay;
+	}
+	
+	/**
+	 * Configure how long a worker in an {@link #setElasticWorkers(int, int)
+	 * elastic} pool may be idle before it is retired. The default is
+	 * 60 seconds.
+	 * @param millis
+	 * 	The keep-alive period in milliseconds. Must be positive.
+	 */
+	public void setWorkerKeepAlive(long millis) {
+		if (millis <= 0) {
+			throw new IllegalArgumentException("keep-alive must be positive");
+		}
+		this.workerKeepAlive = millis;
+	}
+	
+	/**
+	 * @return
+	 * 	The keep-alive period in milliseconds, or 0 if this is not an
+	 * 	{@link #setElasticWorkers(int, int) elastic} pool.
+	 */
+	public long getWorkerKeepAlive() {
+		return this.maxWorkers == 0 ? 0 : this.workerKeepAlive;
+	}
+	
+	private void checkWorkerDemand() {
+		long now = System.currentTimeMillis();
+		if (now < this.nextDemandCheck) {
+			return;
+		}
+		long target = this.targetQueueDelay;
+		this.nextDemandCheck = now + target;
+		if (this.queue.getWaitTime() <= target) {
+			return;
+		}
+		
+		synchronized (workers) {
+			if (this.workers.size() < this.maxWorkers) {
+				this.startWorker();
+				this.profilers.count(this.workers.size(), "workers.added");
+			}
+		}
+	}
+	
+	/**
+	 * Called by an idle worker in an elastic pool.
+	 * @return
+	 * 	<code>true</code> if the worker has been removed from this 
+	 * 	pool and should exit.
+	 */
+	boolean retireWorker(HttpMessageHandler worker) {
+		synchronized (workers) {
+			if (this.workers.size() <= this.minWorkers || !this.workers.remove(worker)) {
+				return false;
+			}
+			this.profilers.count(this.workers.size(), "workers.retired");
+			return true;
+		}
+	}
+
+	/**
+	 * Called when a worker (or executor thread) picks up a 
+	 * {@link #dispatch(Object) dispatched} work item.
+	 */
+	void workTaken() {
+		this.resumeReadingIfDrained(this.pendingWork.decrementAndGet());
+	}
+	
+	private void resumeReadingIfDrained(int pending) {
+		if (!this.readingPaused.get()) {
+			return;
+		}
+		if (this.highWatermark > 0 && pending > this.lowWatermark) {
+			return;
+		}
+		if (!this.readingPaused.compareAndSet(true, false)) {
+			return;
+		}
+		
+		ChannelSelector[] selectors;
+		synchronized (workers) {
+			this.profilers.count(pending, "reads.resumed");
+			selectors = this.getAllocatedChannelSelectors();
+		}
+		for (int i = 0; i < selectors.length; i++) {
+			selectors[i].resumeReads();
+		}
+	}
+	
+	/**
+	 * Stop reading from connections while too much work is waiting
+	 * to be handled.
+	 * <p>
+	 * Without a limit a client (or many clients) sending requests
+	 * faster than they can be handled will fill the heap with queued
+	 * requests. Once <code>high</code> work items have been dispatched
+	 * and not yet picked up by a worker thread (or {@link
+	 * #setExecutor(Executor) executor}), the selecting threads stop
+	 * reading from each connection as it next becomes readable. Unread
+	 * data is left with the operating system so TCP flow control pushes
+	 * back on the sender. Once no more than <code>low</code> items are
+	 * waiting, reads are resumed, on the connections that were paused 
+	 * first.
+	 * <p>
+	 * Each transition is reported to {@link #registerProfiler(Profiler)
+	 * registered profilers} as a <code>count()</code> of 
+	 * <code>reads.paused</code> or <code>reads.resumed</code>, with the
+	 * number of waiting work items as the id.
+	 * @param high
+	 * 	The number of waiting work items at which reading is paused,
+	 * 	or 0 to never pause reading (the default).
+	 * @param low
+	 * 	The number of waiting work items at which reading is resumed.
+	 * 	Must be less than <code>high</code>.
+	 * @throws IllegalArgumentException
+	 * 	If either value is negative or if <code>low</code> is not
+	 * 	less than a non-zero <code>high</code>.
+	 */
+	public void setReadWatermarks(int high, int low) {
+		if (high < 0 || low < 0) {
+			throw new IllegalArgumentException("watermarks must not be negative");
+		}
+		if (high > 0 && low >= high) {
+			throw new IllegalArgumentException("low watermark must be less than high watermark");
+		}
+		this.lowWatermark = low;
+		this.highWatermark = high;
+		this.resumeReadingIfDrained(this.pendingWork.get());
+	}
+	
+	public int getHighWatermark() {
+		return this.highWatermark;
+	}
+	
+	public int getLowWatermark() {
+		return this.lowWatermark;
+	}
+	
+	/**
+	 * @return
+	 * 	The number of work items dispatched but not yet picked
+	 * 	up by a worker thread or executor.
+	 */
+	public int getPendingWorkCount() {
+		return this.pendingWork.get();
+	}
+	
+	/**
+	 * @return
+	 * 	<code>true</code> if reading is currently paused because 
+	 * 	the {@link #setReadWatermarks(int, int) high watermark}
+	 * 	was reached.
+	 */
+	public boolean isReadingPaused() {
+		return this.readingPaused.get();
+	}
+	
+	/**
+	 * Get the number of connections not being read from because
+	 * the {@link #setReadWatermarks(int, int) high watermark} was
+	 * reached, across all selecting threads.
+	 * @return
+	 * 	The number of paused connections.
+	 */
+	public int getPausedConnectionCount() {
+		int count = 0;
+		ChannelSelector[] selectors = this.getAllocatedChannelSelectors();
+		for (int i = 0; i < selectors.length; i++) {
+			count += selectors[i].getPausedReadCount();
+		}
+		return count;
+	}
+
 	/**
 	 * A convenience method for adding multiple worker threads
 	 * in a single call.
@@ -141,6 +786,49 @@ public abstract class ResourcePool {
 		}
 	}
 	
+	/**
+	 * Get the number of non-blocking reads that were served by a
+	 * pooled direct buffer, across all selecting threads.
+	 * <p>
+	 * Together with {@link #getReadBufferMisses()} this gives the
+	 * hit rate of the read buffer pools.
+	 * @return
+	 * 	The number of pooled buffer hits.
+	 */
+	public long getReadBufferHits() {
+		long hits = 0;
+		ChannelSelector[] selectors = this.getAllocatedChannelSelectors();
+		for (int i = 0; i < selectors.length; i++) {
+			hits += selectors[i].getReadBufferPool().getHitCount();
+		}
+		return hits;
+	}
+
+	/**
+	 * Get the number of non-blocking reads that needed a new direct
+	 * buffer because none of the right size was pooled, across all
+	 * selecting threads.
+	 * @return
+	 * 	The number of pooled buffer misses.
+	 */
+	public long getReadBufferMisses() {
+		long misses = 0;
+		ChannelSelector[] selectors = this.getAllocatedChannelSelectors();
+		for (int i = 0; i < selectors.length; i++) {
+			misses += selectors[i].getReadBufferPool().getMissCount();
+		}
+		return misses;
+	}
+
+	private ChannelSelector[] getAllocatedChannelSelectors() {
+		synchronized (workers) {
+			if (this.channelSelectors == null) {
+				return new ChannelSelector[0];
+			}
+			return this.channelSelectors;
+		}
+	}
+
 	public void registerProfiler(Profiler p) {
 		synchronized (workers) {
 			this.profilers.addProfiler(p);
@@ -155,7 +843,8 @@ public abstract class ResourcePool {
 
 	/**
 	 * A factory method for creating the central HTTP processing
-	 * thread.
+	 * thread (or threads, if more than one selecting thread has
+	 * been {@link #setSelectorCount(int) configured}).
 	 * <p>
 	 * Sub-classes may override this method if an alternative
 	 * implementation is required, or to alter properties of 
@@ -176,7 +865,9 @@ public abstract class ResourcePool {
 	
 	protected void detach(HttpRpcProcessor processor) throws IOException {
 		synchronized (workers) {
-			this.channelSelector.deregister(processor);
+			for (int i = 0; i < this.channelSelectors.length; i++) {
+				this.channelSelectors[i].deregister(processor);
+			}
 		}
 	}
 	
@@ -3,7 +3,6 @@ package com.flat502.rox.processing;
 import java.io.IOException;
 import java.net.Socket;
 import java.nio.ByteBuffer;
-import java.util.TimerTask;
 
 import javax.net.ssl.SSLEngine;
 import javax.net.ssl.SSLException;
@@ -18,7 +17,7 @@ class SSLSessionMetadata {
 	public final SSLEngine engine;
 	public final ByteBuffer netBuffer;
 	public final ByteBuffer appBuffer;
-	private TimerTask handshakeTimerTask;
+	private Timeout handshakeTimer;
 
 	private HttpRpcProcessor processor;
 	private Socket socket;
@@ -32,13 +31,14 @@ class SSLSessionMetadata {
 		this.appBuffer = ByteBuffer.allocate(engine.getSession().getApplicationBufferSize());
 	}
 	
-	public TimerTask newHandshakeTimerTask() {
-		return(this.handshakeTimerTask = new HandshakeTimerTask());
+	public void startHandshakeTimer(TimerWheel wheel, long timeout) {
+		this.handshakeTimer = new HandshakeTimeout(wheel);
+		this.handshakeTimer.reset(timeout);
 	}
 	
 	public void cancelHandshakeTimer() {
-		if (this.handshakeTimerTask != null) {
-			this.handshakeTimerTask.cancel();
+		if (this.handshakeTimer != null) {
+			this.handshakeTimer.cancel();
 		}
 	}
 	
@@ -46,8 +46,12 @@ class SSLSessionMetadata {
 		return this.handshakeTimeout;
 	}
 	
-	private class HandshakeTimerTask extends TimerTask {
-		public void run() {
+	private class HandshakeTimeout extends Timeout {
+		HandshakeTimeout(TimerWheel wheel) {
+			super(wheel);
+		}
+
+		protected void expired() {
 			if (log.logDebug()) {
 				log.debug(processor.getClass().getSimpleName() + ": SSL handshake timer expired on " + Utils.toString(socket));
 			}
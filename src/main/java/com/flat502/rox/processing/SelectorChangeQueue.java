@@ -0,0 +1,184 @@
+package com.flat502.rox.processing;
+
+import java.nio.channels.SelectableChannel;
+import java.util.LinkedList;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A multi-producer, single-consumer queue of pending changes to a
+ * {@link java.nio.channels.Selector}.
+ * <p>
+ * Any thread may {@link #offer(SelectableChannel, int) queue} a change.
+ * Only the thread draining the queue (normally the selecting thread)
+ * may {@link #poll() remove} them. Changes are returned in the order
+ * they were queued.
+ * <p>
+ * Changes are held in a fixed size ring of preallocated slots, so
+ * queueing a change neither allocates nor takes a lock: a producer
+ * claims a slot by advancing the tail with a CAS, fills it and then
+ * publishes it by updating the slot's sequence number. If the ring
+ * fills up changes spill into a synchronized overflow list until the
+ * consumer catches up. While anything is in the overflow list new
+ * changes go there too, so ordering is preserved.
+ * <p>
+ * The consumer only turns to the overflow list once every claimed
+ * slot in the ring has been consumed. A producer may have claimed a
+ * slot that it hasn't published yet, while another producer has
+ * since published a later slot and then overflowed. That later
+ * producer's overflowed changes must not overtake its change in the
+ * ring, so {@link #poll()} reports nothing queued until the slot is
+ * published. The producer that claimed it wakes the selecting thread
+ * once it has.
+ */
+class SelectorChangeQueue {
+	/** Register the channel with the selector */
+	static final int REGISTER = -1;
+	/** Close the channel and cancel its key */
+	static final int CANCEL = -2;
+
+	private final int mask;
+	private final SelectableChannel[] channels;
+	private final int[] operations;
+
+	// A slot at index i is free for the producer claiming position p
+	// when its sequence is p, and holds a published change for the
+	// consumer at position p when its sequence is p + 1.
+	private final AtomicLongArray sequences;
+	private final AtomicLong tail = new AtomicLong();
+
+	// Only touched by the consumer
+	private long head;
+	private int lastOperation;
+
+	private final LinkedList overflow = new LinkedList();
+	private volatile boolean overflowing;
+
+	/**
+	 * @param capacity
+	 * 	The number of slots in the ring. This is rounded up to
+	 * 	a power of two.
+	 */
+	SelectorChangeQueue(int capacity) {
+		int size = 1;
+		while (size < capacity) {
+			size <<= 1;
+		}
+		this.mask = size - 1;
+		this.channels = new SelectableChannel[size];
+		this.operations = new int[size];
+		this.sequences = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++) {
+			this.sequences.set(i, i);
+		}
+	}
+
+	/**
+	 * Queues a change.
+	 * @param channel
+	 * 	The channel the change applies to.
+	 * @param operation
+	 * 	{@link #REGISTER}, {@link #CANCEL} or a new interest
+	 * 	operation set.
+	 */
+	void offer(SelectableChannel channel, int operation) {
+		if (this.overflowing && this.offerOverflow(channel, operation, false)) {
+			return;
+		}
+
+		long pos = this.claim();
+		if (pos < 0) {
+			this.offerOverflow(channel, operation, true);
+			return;
+		}
+		this.publish(pos, channel, operation);
+	}
+
+	/**
+	 * Claims the next slot in the ring. The change is queued once
+	 * it's {@link #publish(long, SelectableChannel, int) published}.
+	 * @return
+	 * 	The position of the claimed slot, or -1 if the ring is full.
+	 */
+	long claim() {
+		while (true) {
+			long pos = this.tail.get();
+			long seq = this.sequences.get((int) pos & this.mask);
+			if (seq == pos) {
+				if (this.tail.compareAndSet(pos, pos + 1)) {
+					return pos;
+				}
+			} else if (seq < pos) {
+				return -1;
+			}
+			// Otherwise another producer claimed this slot first, try again.
+		}
+	}
+
+	void publish(long pos, SelectableChannel channel, int operation) {
+		int index = (int) pos & this.mask;
+		this.channels[index] = channel;
+		this.operations[index] = operation;
+		this.sequences.set(index, pos + 1);
+	}
+
+	private boolean offerOverflow(SelectableChannel channel, int operation, boolean force) {
+		synchronized (this.overflow) {
+			if (!force && this.overflow.isEmpty()) {
+				return false;
+			}
+			this.overflow.add(channel);
+			this.overflow.add(Integer.valueOf(operation));
+			this.overflowing = true;
+			return true;
+		}
+	}
+
+	/**
+	 * Removes the next queued change. Its operation is then available
+	 * from {@link #lastOperation()}. This must only be called by the
+	 * consuming thread.
+	 * @return
+	 * 	The channel the next change applies to, or <code>null</code>
+	 * 	if nothing is queued.
+	 */
+	SelectableChannel poll() {
+		int index = (int) this.head & this.mask;
+		if (this.sequences.get(index) == this.head + 1) {
+			SelectableChannel channel = this.channels[index];
+			this.lastOperation = this.operations[index];
+			this.channels[index] = null;
+			this.sequences.set(index, this.head + this.mask + 1);
+			this.head++;
+			return channel;
+		}
+
+		if (this.tail.get() != this.head) {
+			// The next slot has been claimed but not published yet. 
+			// Anything overflowing has to wait for it.
+			return null;
+		}
+
+		if (this.overflowing) {
+			synchronized (this.overflow) {
+				if (!this.overflow.isEmpty()) {
+					SelectableChannel channel = (SelectableChannel) this.overflow.removeFirst();
+					this.lastOperation = ((Integer) this.overflow.removeFirst()).intValue();
+					if (this.overflow.isEmpty()) {
+						this.overflowing = false;
+					}
+					return channel;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The operation of the change most recently returned by
+	 * {@link #poll()}.
+	 */
+	int lastOperation() {
+		return this.lastOperation;
+	}
+}
@@ -0,0 +1,92 @@
+package com.flat502.rox.processing;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A timeout serviced by a {@link TimerWheel}.
+ * <p>
+ * An instance is allocated once (per connection, for example)
+ * and then {@link #reset(long) reset} and {@link #cancel() cancelled}
+ * as often as required. Neither operation allocates or takes a
+ * lock: both just update the deadline. The wheel only notices
+ * a change when it reaches the slot the timeout was last filed
+ * under, at which point it either expires it, files it under
+ * its new deadline or drops it. The one exception is a reset to
+ * a deadline earlier than the one it was filed under, which hands
+ * the timeout back to the wheel since the wheel may otherwise
+ * sleep past it.
+ * <p>
+ * {@link #expired()} is called on the selecting thread and must
+ * not block.
+ */
+abstract class Timeout {
+	private final TimerWheel wheel;
+
+	// 0 when not armed
+	private final AtomicLong deadline = new AtomicLong();
+
+	// Set while this instance is on the wheel (or on its way there),
+	// so only the first reset after it drops off reschedules it.
+	private final AtomicBoolean scheduled = new AtomicBoolean();
+
+	// The deadline this instance was last filed under. Only written
+	// by the selecting thread.
+	volatile long filedDeadline;
+
+	// Only touched by the selecting thread.
+	Timeout prev;
+	Timeout next;
+	int slot = -1;
+
+	Timeout(TimerWheel wheel) {
+		this.wheel = wheel;
+	}
+
+	/**
+	 * Arms this timeout to expire <code>delay</code> milliseconds from
+	 * now, replacing any existing deadline.
+	 */
+	void reset(long delay) {
+		long deadline = Math.max(1, System.currentTimeMillis() + delay);
+		this.deadline.set(deadline);
+		if (this.scheduled.compareAndSet(false, true)) {
+			this.wheel.schedule(this);
+		} else if (deadline < this.filedDeadline) {
+			this.wheel.reschedule(this);
+		}
+	}
+
+	/**
+	 * Disarms this timeout. This has no effect if it has already expired.
+	 */
+	void cancel() {
+		this.deadline.set(0);
+	}
+
+	long getDeadline() {
+		return this.deadline.get();
+	}
+
+	/**
+	 * Clears the deadline if it is still the given value.
+	 * @return
+	 * 	<code>false</code> if the deadline was changed in the meantime.
+	 */
+	boolean clearDeadline(long expected) {
+		return this.deadline.compareAndSet(expected, 0);
+	}
+
+	/**
+	 * Called by the wheel when it drops this timeout.
+	 * @return
+	 * 	<code>true</code> if the timeout was re-armed in the meantime
+	 * 	and should stay on the wheel.
+	 */
+	boolean unscheduled() {
+		this.scheduled.set(false);
+		return this.deadline.get() != 0 && this.scheduled.compareAndSet(false, true);
+	}
+
+	protected abstract void expired();
+}
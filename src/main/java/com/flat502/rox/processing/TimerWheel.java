@@ -0,0 +1,263 @@
+package com.flat502.rox.processing;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import com.flat502.rox.log.Log;
+import com.flat502.rox.log.LogFactory;
+
+/**
+ * A hashed timing wheel of {@link Timeout}s, serviced by the thread
+ * backing a {@link ChannelSelector} between calls to
+ * {@link java.nio.channels.Selector#select(long)}.
+ * <p>
+ * Time is divided into ticks and each tick maps onto one of a fixed
+ * number of slots, each a doubly linked list of timeouts threaded through
+ * the timeouts themselves. A timeout is filed under the slot its deadline
+ * falls in. When a tick has passed its slot is visited: timeouts that are
+ * due are expired, timeouts whose deadline has since moved are re-filed,
+ * cancelled timeouts are dropped and timeouts due in a later revolution
+ * of the wheel are left where they are.
+ * <p>
+ * Resetting a timeout that is already on the wheel to a later deadline
+ * never touches the wheel itself, so the selecting thread does the
+ * bookkeeping lazily and threads resetting timeouts never contend with
+ * it. Timeouts newly armed from other threads, and the rare timeout
+ * reset to an earlier deadline than it was filed under, are handed over
+ * through lock-free queues.
+ * <p>
+ * The selecting thread sleeps until the earliest deadline filed on the
+ * wheel rather than waking every tick, so an idle wheel costs nothing
+ * however far off its timeouts are. Timeouts never expire early, and
+ * expire at most one tick late (plus however long the selecting thread
+ * is busy).
+ */
+class TimerWheel {
+	private static Log log = LogFactory.getLog(TimerWheel.class);
+
+	private final ChannelSelector selector;
+	private final long tickMillis;
+	private final Timeout[] slots;
+	private final int mask;
+
+	// Only touched by the selecting thread
+	private long nextTick;
+	private int size;
+	// A lower bound on the deadlines filed on the wheel
+	private long earliestDeadline = Long.MAX_VALUE;
+
+	private final ConcurrentLinkedQueue incoming = new ConcurrentLinkedQueue();
+	private final ConcurrentLinkedQueue moved = new ConcurrentLinkedQueue();
+
+	/**
+	 * @param selector
+	 * 	The selector to wake up when a timeout is newly armed. This may
+	 * 	be <code>null</code> if the wheel is serviced some other way.
+	 * @param tickMillis
+	 * 	The length of a tick in milliseconds.
+	 * @param ticksPerWheel
+	 * 	The number of slots. This is rounded up to a power of two.
+	 */
+	TimerWheel(ChannelSelector selector, long tickMillis, int ticksPerWheel) {
+		int n = 1;
+		while (n < ticksPerWheel) {
+			n <<= 1;
+		}
+		this.selector = selector;
+		this.tickMillis = tickMillis;
+		this.slots = new Timeout[n];
+		this.mask = n - 1;
+	}
+
+	/**
+	 * Hands a newly armed timeout to the wheel. This may be called
+	 * from any thread.
+	 */
+	void schedule(Timeout timeout) {
+		this.incoming.add(timeout);
+		if (this.selector != null) {
+			// It may be due before the selecting thread next wakes up
+			this.selector.wakeup();
+		}
+	}
+
+	/**
+	 * Hands back a timeout that is already scheduled but has been reset
+	 * to a deadline earlier than the one it was filed under. This may
+	 * be called from any thread.
+	 */
+	void reschedule(Timeout timeout) {
+		this.moved.add(timeout);
+		if (this.selector != null) {
+			this.selector.wakeup();
+		}
+	}
+
+	/**
+	 * Files any newly armed timeouts and expires those that are due.
+	 * This must only be called by the selecting thread.
+	 * @param now
+	 * 	The current time in milliseconds.
+	 * @return
+	 * 	The number of milliseconds until this method should next be
+	 * 	called, or -1 if there are no timeouts on the wheel.
+	 */
+	long expireTimeouts(long now) {
+		long nowTick = now / this.tickMillis;
+
+		Timeout timeout;
+		while ((timeout = (Timeout) this.incoming.poll()) != null) {
+			long deadline = timeout.getDeadline();
+			if (deadline == 0) {
+				// Cancelled before we got to it
+				if (!timeout.unscheduled()) {
+					continue;
+				}
+				deadline = timeout.getDeadline();
+			}
+			if (this.size == 0) {
+				// Nothing to catch up on, start from here
+				this.nextTick = Math.min(deadline / this.tickMillis, nowTick);
+			}
+			this.file(timeout, deadline);
+		}
+		while ((timeout = (Timeout) this.moved.poll()) != null) {
+			// If it isn't on the wheel it's either been dropped or is
+			// still waiting to be filed with its current deadline.
+			long deadline = timeout.getDeadline();
+			if (timeout.slot != -1 && deadline != 0 && deadline < timeout.filedDeadline) {
+				this.remove(timeout);
+				this.file(timeout, deadline);
+			}
+		}
+
+		// Visit every slot whose tick has passed, but never more than
+		// one revolution's worth if we've fallen a long way behind.
+		if (nowTick - this.nextTick > this.slots.length) {
+			this.nextTick = nowTick - this.slots.length;
+		}
+		while (this.nextTick < nowTick && this.size > 0) {
+			this.visit((int) (this.nextTick & this.mask), now);
+			this.nextTick++;
+		}
+		if (this.size == 0) {
+			this.earliestDeadline = Long.MAX_VALUE;
+			return -1;
+		}
+
+		// Sleep until the tick holding the earliest deadline has passed.
+		// Once the slots up to it have been visited the bound is stale and
+		// has to be found again.
+		if (this.earliestDeadline < this.nextTick * this.tickMillis) {
+			this.earliestDeadline = this.findEarliestDeadline();
+		}
+		long wakeTick = Math.max(this.earliestDeadline / this.tickMillis, this.nextTick);
+		return Math.max(1, (wakeTick + 1) * this.tickMillis - now);
+	}
+
+	/**
+	 * The number of timeouts on the wheel, not counting any newly
+	 * armed ones that haven't been filed yet.
+	 */
+	int size() {
+		return this.size;
+	}
+
+	private void visit(int slot, long now) {
+		Timeout timeout = this.slots[slot];
+		while (timeout != null) {
+			Timeout next = timeout.next;
+			long deadline = timeout.getDeadline();
+			if (deadline == 0) {
+				this.remove(timeout);
+				if (timeout.unscheduled()) {
+					this.file(timeout, timeout.getDeadline());
+				}
+			} else if (deadline <= now) {
+				this.remove(timeout);
+				if (timeout.clearDeadline(deadline)) {
+					timeout.unscheduled();
+					this.expire(timeout);
+				} else if (timeout.unscheduled()) {
+					// Reset while we were looking at it
+					this.file(timeout, timeout.getDeadline());
+				}
+			} else if (deadline != timeout.filedDeadline) {
+				// Reset since it was filed
+				this.remove(timeout);
+				this.file(timeout, deadline);
+			}
+			// Otherwise it's due on a later revolution
+			timeout = next;
+		}
+	}
+
+	// Every timeout is filed under a slot no earlier than its deadline's
+	// tick, so scanning ahead can stop at the first tick that starts after
+	// the earliest deadline seen. That's usually a slot or two in.
+	private long findEarliestDeadline() {
+		long earliest = Long.MAX_VALUE;
+		for (long tick = this.nextTick; tick < this.nextTick + this.slots.length; tick++) {
+			if (tick * this.tickMillis > earliest) {
+				break;
+			}
+			Timeout timeout = this.slots[(int) (tick & this.mask)];
+			for (; timeout != null; timeout = timeout.next) {
+				earliest = Math.min(earliest, timeout.filedDeadline);
+			}
+		}
+		return earliest;
+	}
+
+	private void expire(Timeout timeout) {
+		try {
+			timeout.expired();
+		} catch (Exception e) {
+			log.warn("Timeout handler raised an exception", e);
+		}
+	}
+
+	private int slotFor(long deadline) {
+		long tick = Math.max(deadline / this.tickMillis, this.nextTick);
+		return (int) (tick & this.mask);
+	}
+
+	private void file(Timeout timeout, long deadline) {
+		// Publish the deadline before checking it hasn't moved earlier in
+		// the meantime. A reset does the opposite, so one of us sees the
+		// other and the earlier deadline can't be missed.
+		timeout.filedDeadline = deadline;
+		long current = timeout.getDeadline();
+		if (current != 0 && current < deadline) {
+			deadline = current;
+			timeout.filedDeadline = deadline;
+		}
+		if (deadline < this.earliestDeadline) {
+			this.earliestDeadline = deadline;
+		}
+
+		int slot = this.slotFor(deadline);
+		timeout.slot = slot;
+		timeout.prev = null;
+		timeout.next = this.slots[slot];
+		if (timeout.next != null) {
+			timeout.next.prev = timeout;
+		}
+		this.slots[slot] = timeout;
+		this.size++;
+	}
+
+	private void remove(Timeout timeout) {
+		if (timeout.prev != null) {
+			timeout.prev.next = timeout.next;
+		} else {
+			this.slots[timeout.slot] = timeout.next;
+		}
+		if (timeout.next != null) {
+			timeout.next.prev = timeout.prev;
+		}
+		timeout.prev = null;
+		timeout.next = null;
+		timeout.slot = -1;
+		this.size--;
+	}
+}
@@ -0,0 +1,335 @@
+package com.flat502.rox.processor;
+
+import java.beans.Introspector;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.annotation.processing.AbstractProcessor;
+import javax.annotation.processing.RoundEnvironment;
+import javax.annotation.processing.SupportedAnnotationTypes;
+import javax.lang.model.SourceVersion;
+import javax.lang.model.element.Element;
+import javax.lang.model.element.ElementKind;
+import javax.lang.model.element.ExecutableElement;
+import javax.lang.model.element.Modifier;
+import javax.lang.model.element.NestingKind;
+import javax.lang.model.element.TypeElement;
+import javax.lang.model.element.VariableElement;
+import javax.lang.model.type.PrimitiveType;
+import javax.lang.model.type.TypeKind;
+import javax.lang.model.type.TypeMirror;
+import javax.lang.model.util.ElementFilter;
+import javax.tools.Diagnostic;
+import javax.tools.JavaFileObject;
+
+import com.flat502.rox.marshal.StructCodec;
+import com.flat502.rox.marshal.StructCodecRegistry;
+import com.flat502.rox.marshal.XmlRpcStruct;
+
+/**
+ * An annotation processor that generates a {@link StructCodec} for
+ * each class annotated with {@link XmlRpcStruct}.
+ * <p>
+ * The generated codec is named as described under 
+ * {@link StructCodecRegistry#getCodecClassName(Class)} and 
+ * accesses fields and calls getters and setters directly, so 
+ * marshalling and unmarshalling instances of the class involves no 
+ * reflection.
+ * <p>
+ * This processor is optional. It is packaged separately from the
+ * rest of RoX (in <code>rox-processor.jar</code>) and must be on 
+ * the compiler's processor path when annotated classes are 
+ * compiled, or named explicitly using <code>javac -processor</code>.
+ */
+@SupportedAnnotationTypes("com.flat502.rox.marshal.XmlRpcStruct")
+public class StructCodecProcessor extends AbstractProcessor {
+	// A single member, and how to read or write it
+	private static class Member {
+		public String name;
+		public TypeMirror type;
+		// The accessor method, or null for a field
+		public ExecutableElement method;
+
+		public Member(String name, TypeMirror type, ExecutableElement method) {
+			this.name = name;
+			this.type = type;
+			this.method = method;
+		}
+	}
+
+	public SourceVersion getSupportedSourceVersion() {
+		return SourceVersion.latestSupported();
+	}
+
+	public boolean process(Set<? extends TypeElement> annotations, RoundEnvironment roundEnv) {
+		Iterator iter = roundEnv.getElementsAnnotatedWith(XmlRpcStruct.class).iterator();
+		while (iter.hasNext()) {
+			Element element = (Element) iter.next();
+			if (!element.getKind().isClass() || element.getKind() == ElementKind.ENUM) {
+				this.error(element, "@XmlRpcStruct can only be applied to a class");
+				continue;
+			}
+			TypeElement type = (TypeElement) element;
+			if (type.getNestingKind() != NestingKind.TOP_LEVEL
+					&& (type.getNestingKind() != NestingKind.MEMBER || !type.getModifiers().contains(Modifier.STATIC))) {
+				this.error(element, "@XmlRpcStruct can only be applied to a top level or static nested class");
+				continue;
+			}
+			if (type.getModifiers().contains(Modifier.PRIVATE)) {
+				this.error(element, "@XmlRpcStruct can't be applied to a private class");
+				continue;
+			}
+			if (!this.hasPublicConstructor(type)) {
+				// It can still be marshalled (and unmarshalled, if a
+				// subclass is) using ClassDescriptor
+				this.processingEnv.getMessager().printMessage(Diagnostic.Kind.WARNING,
+						"No codec generated: class has no public no-argument constructor", element);
+				continue;
+			}
+
+			try {
+				this.generate(type);
+			} catch (IOException e) {
+				this.error(element, "Couldn't generate codec: " + e);
+			}
+		}
+		return true;
+	}
+
+	private void error(Element element, String msg) {
+		this.processingEnv.getMessager().printMessage(Diagnostic.Kind.ERROR, msg, element);
+	}
+
+	private void generate(TypeElement type) throws IOException {
+		Map getters = new TreeMap();
+		Map setters = new TreeMap();
+		this.findMembers(type, getters, setters);
+
+		String packageName = this.processingEnv.getElementUtils().getPackageOf(type).getQualifiedName().toString();
+		String binaryName = this.processingEnv.getElementUtils().getBinaryName(type).toString();
+		String codecName = binaryName.replace('$', '_') + "_StructCodec";
+		String simpleCodecName = codecName.substring(codecName.lastIndexOf('.') + 1);
+		String structName = type.getQualifiedName().toString();
+
+		JavaFileObject file = this.processingEnv.getFiler().createSourceFile(codecName, new Element[] { type });
+		PrintWriter out = new PrintWriter(file.openWriter());
+		try {
+			if (packageName.length() > 0) {
+				out.println("package " + packageName + ";");
+				out.println();
+			}
+			out.println("/**");
+			out.println(" * Generated by " + StructCodecProcessor.class.getName() + " for {@link " + structName + "}.");
+			out.println(" */");
+			out.println("public final class " + simpleCodecName + " implements " + StructCodec.class.getName() + " {");
+
+			out.println("\tprivate static final String[] SETTER_NAMES = {");
+			Iterator members = setters.values().iterator();
+			while (members.hasNext()) {
+				out.println("\t\t\"" + ((Member) members.next()).name + "\",");
+			}
+			out.println("\t};");
+			out.println();
+
+			out.println("\tprivate static final Class[] SETTER_TYPES = {");
+			members = setters.values().iterator();
+			while (members.hasNext()) {
+				out.println("\t\t" + this.typeName(((Member) members.next()).type) + ".class,");
+			}
+			out.println("\t};");
+			out.println();
+
+			out.println("\tpublic Class getStructClass() {");
+			out.println("\t\treturn " + structName + ".class;");
+			out.println("\t}");
+			out.println();
+
+			out.println("\tpublic Object newInstance() {");
+			out.println("\t\treturn new " + structName + "();");
+			out.println("\t}");
+			out.println();
+
+			out.println("\tpublic void writeMembers(Object struct, MemberWriter writer)");
+			out.println("\t\t\tthrows com.flat502.rox.marshal.MarshallingException, java.io.IOException {");
+			if (!getters.isEmpty()) {
+				out.println("\t\t" + structName + " s = (" + structName + ") struct;");
+			}
+			members = getters.values().iterator();
+			while (members.hasNext()) {
+				Member member = (Member) members.next();
+				String read = member.method == null ? "s." + member.name : "s." + member.method.getSimpleName() + "()";
+				out.println("\t\twriter.writeMember(\"" + member.name + "\", " + this.box(member.type, read) + ");");
+			}
+			out.println("\t}");
+			out.println();
+
+			out.println("\tpublic int getSetterIndex(String name) {");
+			out.println("\t\tint index = java.util.Arrays.binarySearch(SETTER_NAMES, name);");
+			out.println("\t\treturn index < 0 ? -1 : index;");
+			out.println("\t}");
+			out.println();
+
+			out.println("\tpublic Class getSetterType(int index) {");
+			out.println("\t\treturn SETTER_TYPES[index];");
+			out.println("\t}");
+			out.println();
+
+			out.println("\tpublic void setMember(Object struct, int index, Object value) {");
+			if (!setters.isEmpty()) {
+				out.println("\t\t" + structName + " s = (" + structName + ") struct;");
+				out.println("\t\tswitch (index) {");
+				members = setters.values().iterator();
+				for (int i = 0; members.hasNext(); i++) {
+					Member member = (Member) members.next();
+					String value = this.unbox(member.type, "value");
+					out.println("\t\tcase " + i + ":");
+					if (member.method == null) {
+						out.println("\t\t\ts." + member.name + " = " + value + ";");
+					} else {
+						out.println("\t\t\ts." + member.method.getSimpleName() + "(" + value + ");");
+					}
+					out.println("\t\t\treturn;");
+				}
+				out.println("\t\t}");
+			}
+			out.println("\t\tthrow new IndexOutOfBoundsException(\"No setter at index \" + index);");
+			out.println("\t}");
+			out.println("}");
+		} finally {
+			out.close();
+		}
+	}
+
+	// Mirrors ClassDescriptor.inspect(): public fields that aren't
+	// transient, static or final, then JavaBean properties, which 
+	// replace fields of the same name.
+	private void findMembers(TypeElement type, Map getters, Map setters) {
+		List elements = this.processingEnv.getElementUtils().getAllMembers(type);
+
+		Iterator fields = ElementFilter.fieldsIn(elements).iterator();
+		while (fields.hasNext()) {
+			VariableElement field = (VariableElement) fields.next();
+			Set modifiers = field.getModifiers();
+			if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.TRANSIENT)
+					|| modifiers.contains(Modifier.STATIC) || modifiers.contains(Modifier.FINAL)) {
+				continue;
+			}
+			Member member = new Member(field.getSimpleName().toString(), field.asType(), null);
+			getters.put(member.name, member);
+			setters.put(member.name, member);
+		}
+
+		Map readMethods = new TreeMap();
+		Map writeMethods = new TreeMap();
+		Iterator methods = ElementFilter.methodsIn(elements).iterator();
+		while (methods.hasNext()) {
+			ExecutableElement method = (ExecutableElement) methods.next();
+			Set modifiers = method.getModifiers();
+			if (!modifiers.contains(Modifier.PUBLIC) || modifiers.contains(Modifier.STATIC)) {
+				continue;
+			}
+			if (((TypeElement) method.getEnclosingElement()).getQualifiedName().contentEquals("java.lang.Object")) {
+				continue;
+			}
+
+			String name = method.getSimpleName().toString();
+			TypeMirror returnType = method.getReturnType();
+			int params = method.getParameters().size();
+			if (params == 0 && returnType.getKind() != TypeKind.VOID) {
+				if (name.startsWith("get") && name.length() > 3) {
+					this.putAccessor(readMethods, Introspector.decapitalize(name.substring(3)), method, returnType);
+				} else if (name.startsWith("is") && name.length() > 2 && returnType.getKind() == TypeKind.BOOLEAN) {
+					// is<Property> takes precedence over get<Property>
+					readMethods.put(Introspector.decapitalize(name.substring(2)), new Member(Introspector
+							.decapitalize(name.substring(2)), returnType, method));
+				}
+			} else if (params == 1 && returnType.getKind() == TypeKind.VOID && name.startsWith("set")
+					&& name.length() > 3) {
+				VariableElement param = (VariableElement) method.getParameters().get(0);
+				String property = Introspector.decapitalize(name.substring(3));
+				List overloads = (List) writeMethods.get(property);
+				if (overloads == null) {
+					overloads = new ArrayList();
+					writeMethods.put(property, overloads);
+				}
+				overloads.add(new Member(property, param.asType(), method));
+			}
+		}
+
+		getters.putAll(readMethods);
+
+		// As with the Introspector, a property with a getter uses the
+		// setter overload that takes the getter's type (and has no
+		// setter if there isn't one). Otherwise the first is used.
+		Iterator iter = writeMethods.values().iterator();
+		while (iter.hasNext()) {
+			List overloads = (List) iter.next();
+			Member setter = (Member) overloads.get(0);
+			Member getter = (Member) readMethods.get(setter.name);
+			if (getter != null) {
+				setter = null;
+				for (int i = 0; i < overloads.size(); i++) {
+					Member candidate = (Member) overloads.get(i);
+					if (this.processingEnv.getTypeUtils().isSameType(getter.type, candidate.type)) {
+						setter = candidate;
+						break;
+					}
+				}
+			}
+			if (setter != null) {
+				setters.put(setter.name, setter);
+			}
+		}
+	}
+
+	private void putAccessor(Map accessors, String name, ExecutableElement method, TypeMirror type) {
+		if (!accessors.containsKey(name)) {
+			accessors.put(name, new Member(name, type, method));
+		}
+	}
+
+	private boolean hasPublicConstructor(TypeElement type) {
+		if (type.getModifiers().contains(Modifier.ABSTRACT)) {
+			return false;
+		}
+		Iterator iter = ElementFilter.constructorsIn(type.getEnclosedElements()).iterator();
+		while (iter.hasNext()) {
+			ExecutableElement ctor = (ExecutableElement) iter.next();
+			if (ctor.getModifiers().contains(Modifier.PUBLIC) && ctor.getParameters().isEmpty()) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// The name of a type as it appears in source, without any type
+	// arguments.
+	private String typeName(TypeMirror type) {
+		return this.processingEnv.getTypeUtils().erasure(type).toString();
+	}
+
+	private String box(TypeMirror type, String expr) {
+		if (!type.getKind().isPrimitive()) {
+			return expr;
+		}
+		return this.boxedName(type) + ".valueOf(" + expr + ")";
+	}
+
+	private String unbox(TypeMirror type, String expr) {
+		if (!type.getKind().isPrimitive()) {
+			return "(" + this.typeName(type) + ") " + expr;
+		}
+		return "((" + this.boxedName(type) + ") " + expr + ")." + type.toString() + "Value()";
+	}
+
+	private String boxedName(TypeMirror type) {
+		return this.processingEnv.getTypeUtils().boxedClass((PrimitiveType) type)
+				.getQualifiedName().toString();
+	}
+}
@@ -0,0 +1,84 @@
+package com.flat502.rox.server;
+
+import java.io.IOException;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.spi.SelectorProvider;
+import java.util.Iterator;
+
+import com.flat502.rox.log.Log;
+import com.flat502.rox.log.LogFactory;
+
+/**
+ * A dedicated accepting thread for an {@link HttpRpcServer}.
+ * <p>
+ * An instance owns a private {@link Selector} on which only
+ * the server's listening socket is registered. Accepted connections
+ * are handed off to the selecting threads backing the server's
+ * {@link com.flat502.rox.processing.ResourcePool}, so a burst of
+ * new connections never delays I/O on established ones (and vice
+ * versa).
+ */
+class Acceptor implements Runnable {
+	private static Log log = LogFactory.getLog(Acceptor.class);
+
+	private HttpRpcServer server;
+	private Selector selector;
+	private Thread thread;
+	private volatile boolean shouldShutdown;
+
+	Acceptor(HttpRpcServer server, ServerSocketChannel serverChannel) throws IOException {
+		this.server = server;
+		this.selector = SelectorProvider.provider().openSelector();
+
+		// Nobody is selecting on this yet so this can't block.
+		serverChannel.register(this.selector, SelectionKey.OP_ACCEPT);
+
+		this.thread = new Thread(this, HttpRpcServer.class.getName() + ".Acceptor");
+	}
+
+	void start() {
+		this.thread.start();
+	}
+
+	void shutdown() {
+		this.shouldShutdown = true;
+		this.selector.wakeup();
+	}
+
+	public void run() {
+		while (!this.shouldShutdown) {
+			try {
+				this.selector.select();
+
+				Iterator i = this.selector.selectedKeys().iterator();
+				while (i.hasNext()) {
+					SelectionKey key = (SelectionKey) i.next();
+					i.remove();
+
+					if (key.isValid() && key.isAcceptable()) {
+						this.server.accept(key);
+					}
+				}
+			} catch (ClosedSelectorException e) {
+				break;
+			} catch (Exception e) {
+				if (!this.shouldShutdown) {
+					this.server.handleProcessingException(null, e);
+				}
+			}
+		}
+
+		log.debug(Thread.currentThread().getName() + " shutting down");
+
+		// Closing the selector deregisters the listening socket,
+		// which is what finally releases it to the OS.
+		try {
+			this.selector.close();
+		} catch (IOException e) {
+			log.warn("Error closing acceptor selector", e);
+		}
+	}
+}
@@ -65,6 +65,6 @@ class HttpRequestHandler extends HttpMessageHandler {
 			log.error("Error routing HTTP request:\n" + request.toString(), e);
 		}
 
-		server.queueResponse(request.getSocket(), httpRsp.marshal(), httpRsp.mustCloseConnection());
+		server.sendResponse(request, httpRsp);
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -1,5 +1,6 @@
 package com.flat502.rox.server;
 
+import com.flat502.rox.http.HttpContentListener;
 import com.flat502.rox.http.HttpRequestBuffer;
 import com.flat502.rox.marshal.MethodCallUnmarshallerAid;
 import com.flat502.rox.marshal.RpcCall;
@@ -17,4 +18,30 @@ import com.flat502.rox.marshal.RpcCall;
  */
 public abstract class HttpRequestUnmarshaller {
 	public abstract RpcCall unmarshal(HttpRequestBuffer request, MethodCallUnmarshallerAid aid) throws Exception;
+
+	/**
+	 * Called once the headers for a request have been received,
+	 * if the server has been asked to 
+	 * {@link HttpRpcServer#setUnmarshalOnRead(boolean) unmarshal requests as they arrive}.
+	 * <p>
+	 * Implementations that can unmarshal a request a piece at a time
+	 * return a listener that does so, and use what it built when 
+	 * {@link #unmarshal(HttpRequestBuffer, MethodCallUnmarshallerAid)}
+	 * is called for the same request with the same aid. 
+	 * <p>
+	 * This implementation returns <code>null</code>.
+	 * @param request
+	 * 	The request, which has all of its headers but none of
+	 * 	its content.
+	 * @param aid
+	 * 	The aid the request will be unmarshalled with.
+	 * @return
+	 * 	A listener to hand the content to as it arrives, or 
+	 * 	<code>null</code> if it should be unmarshalled once 
+	 * 	complete.
+	 */
+	public HttpContentListener newContentListener(HttpRequestBuffer request, MethodCallUnmarshallerAid aid)
+			throws Exception {
+		return null;
+	}
 }
@@ -37,6 +37,9 @@ import com.flat502.rox.utils.Utils;
  * The selecting thread handles all low-level network I/O.
  * As soon as this thread identifies a complete HTTP request
  * the request is passed to the worker thread (or threads).
+ * New connections are accepted on the selecting thread unless
+ * a {@link #setUseAcceptorThread(boolean) dedicated accepting thread}
+ * is requested.
  * <p>
  * The number of worker threads may be adjusted dynamically
  * using the inherited 
@@ -54,21 +57,28 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 	// 	SyncRequestHandler
 	// 	AsyncRequestHandler
 	// A null URI key is a wildcard.
-	private Map uriHandlers = new HashMap();
+	//
+	// This and the following maps are consulted for every request
+	// but only change when something is registered, so they're
+	// copied on write (under registrationMutex) and never locked 
+	// on the request path.
+	private volatile Map uriHandlers = new HashMap();
 	
 	// Maps HTTP methods (strings) onto HttpRequestUnmarshaller instances.
-	private Map reqUnmarshallers = new HashMap();
+	private volatile Map reqUnmarshallers = new HashMap();
 
 	// Maps RequestHandler instances to MethodCallUnmarshallerAid
 	// instances.
-	private Map handlerUnmarshallerAids = new HashMap();
+	private volatile Map handlerUnmarshallerAids = new HashMap();
 
 	// Maps strings to their compiled Pattern
 	// instance. This is stored separately from
 	// the above since Pattern doesn't override
 	// equals() or hashCode() and we want to be
 	// able to detect duplicate patterns.
-	private Map globalPatternMap = new HashMap();
+	private volatile Map globalPatternMap = new HashMap();
+	
+	private Object registrationMutex = new Object();
 
 	// The address (and name) and port we bind on.
 	// We store the host along with the host so we
@@ -79,36 +89,37 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 
 	private ServerSocketChannel serverChannel;
 
+	// The listen backlog passed to bind(). Zero (or less) selects the
+	// platform default.
+	private int listenBacklog;
+
+	// The maximum number of connections accepted for a single
+	// accept readiness notification.
+	private int acceptBatchSize = 64;
+
+	// Set if connections should be accepted on a dedicated thread
+	// rather than on the selecting thread.
+	private boolean useAcceptorThread;
+	private Acceptor acceptor;
+
 	// The value used for the HTTP Header field.
 	// This is stored separately so we don't "forget"
 	// that the user initialized us with a null host.
 	private String headerHostValue;
 
-	// Maps Sockets to incomplete HttpRequestBuffer instances.
-	private Map requestBuffers = new HashMap();
-
-	// Maps Sockets to ByteBuffer instances that are
-	// ready to be written out on the socket.
-	// Placing a ByteBuffer in here effectively 'queues' it for
-	// delivery to the associated SocketChannel when it next
-	// becomes available for writing.
-	private Map<Socket, List<ByteBuffer>> responseBuffers = new HashMap<Socket, List<ByteBuffer>>();
-
 	private AcceptPolicy acceptPolicy;
 
 	private ServerEncodingMap contentEncodingMap = new ServerEncodingMap();
 	private boolean encodeResponses;
 
-	private int idleClientTimeout;
-	private Timer idleClientTimer;
-	
-	// Maps Sockets to Timer instances that are reset whenever there's
-	// activity on the socket. Used to enforce idle client timeouts.
-	private Map socketActivity = new HashMap();
+	// Each connection's ConnectionState holds the request being 
+	// received, the responses waiting to be written, the idle timeout
+	// (reset whenever there's activity on the socket) and the 
+	// ResponseCoordinator that keeps pipelined responses in order.
+	private volatile int idleClientTimeout;
 
-	// Maps Sockets to an object responsible for coordinating responses
-	// so we handle pipelined requests correctly.
-	private Map<Socket, ResponseCoordinator> socketResponseCoordinators = new HashMap<Socket, ResponseCoordinator>();
+	// Set if requests should be unmarshalled as they arrive
+	private volatile boolean unmarshalOnRead;
 	
 	/**
 	 * Initialize a new HTTP RPC server.
@@ -154,6 +165,138 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 		this.acceptPolicy = policy;
 	}
 
+	/**
+	 * Set the maximum length of the queue of connections
+	 * that have been established by the OS but not yet
+	 * accepted by this server.
+	 * <p>
+	 * The value is passed to {@link java.net.ServerSocket#bind(java.net.SocketAddress, int)}
+	 * when this server is started. Operating systems may silently
+	 * cap it. A value of zero selects the platform default.
+	 * @param backlog
+	 * 	The listen backlog.
+	 * @throws IllegalArgumentException
+	 * 	if <code>backlog</code> is negative.
+	 * @throws IllegalStateException
+	 * 	if this server has already been started.
+	 */
+	public synchronized void setListenBacklog(int backlog) {
+		if (backlog < 0) {
+			throw new IllegalArgumentException("backlog is negative");
+		}
+		if (this.isStarted()) {
+			throw new IllegalStateException("Can't modify listen backlog: server has been started");
+		}
+		this.listenBacklog = backlog;
+	}
+
+	/**
+	 * Set the maximum number of pending connections accepted
+	 * each time the listening socket is reported as ready.
+	 * <p>
+	 * Accepting several connections per readiness notification
+	 * drains a connection burst without a round trip through
+	 * <code>select()</code> for each one. Smaller values keep
+	 * a burst of new connections from delaying I/O on existing
+	 * connections that share the same selecting thread.
+	 * @param size
+	 * 	The batch size. Must be at least 1.
+	 */
+	public void setAcceptBatchSize(int size) {
+		if (size < 1) {
+			throw new IllegalArgumentException("batch size must be at least 1");
+		}
+		this.acceptBatchSize = size;
+	}
+
+	/**
+	 * Configure whether or not connections should be accepted
+	 * on a dedicated thread.
+	 * <p>
+	 * By default the listening socket is registered with the
+	 * primary selecting thread of the underlying
+	 * {@link ResourcePool}. When this is enabled a separate
+	 * thread is started that does nothing but accept new
+	 * connections, handing each one off to a selecting thread
+	 * for I/O. This is most useful when the pool has been
+	 * configured with {@link ResourcePool#setSelectorCount(int) several}
+	 * selecting threads.
+	 * @param useAcceptorThread
+	 * 	<code>true</code> to accept connections on a dedicated
+	 * 	thread.
+	 * @throws IllegalStateException
+	 * 	if this server has already been started.
+	 */
+	public synchronized void setUseAcceptorThread(boolean useAcceptorThread) {
+		if (this.isStarted()) {
+			throw new IllegalStateException("Can't modify acceptor configuration: server has been started");
+		}
+		this.useAcceptorThread = useAcceptorThread;
+	}
+
+	/**
+	 * Configure whether or not requests are unmarshalled as they 
+	 * arrive.
+	 * <p>
+	 * By default a request is unmarshalled by a worker thread once
+	 * all of it has been received. When this is enabled the content
+	 * of each request is handed to its 
+	 * {@link #registerRequestUnmarshaller(String, HttpRequestUnmarshaller) unmarshaller}
+	 * on the selecting thread as it is read, so the call has already
+	 * been unmarshalled by the time the last of it arrives. This
+	 * spreads the cost of parsing large calls across the reads
+	 * that deliver them.
+	 * <p>
+	 * Only unmarshallers that 
+	 * {@link HttpRequestUnmarshaller#newContentListener(HttpRequestBuffer, MethodCallUnmarshallerAid) support it}
+	 * do this. Others, and requests they can't unmarshal this way,
+	 * are unmarshalled as usual.
+	 * @param unmarshalOnRead
+	 * 	<code>true</code> to unmarshal requests as they arrive.
+	 */
+	public void setUnmarshalOnRead(boolean unmarshalOnRead) {
+		this.unmarshalOnRead = unmarshalOnRead;
+	}
+
+	public boolean getUnmarshalOnRead() {
+		return this.unmarshalOnRead;
+	}
+
+	/**
+	 * Binds the listening socket and starts this server.
+	 * <p>
+	 * The listening socket is registered with the primary selecting
+	 * thread, or with a dedicated accepting thread if one has been
+	 * {@link #setUseAcceptorThread(boolean) requested}.
+	 * @throws IOException
+	 * 	if an error occurs binding the listening socket.
+	 */
+	public synchronized void start() throws IOException {
+		if (this.isStarted()) {
+			throw new IllegalStateException("Already started");
+		}
+
+		// Bind the server socket to the local host and port
+		InetSocketAddress isa = new InetSocketAddress(this.hostAddress, this.port);
+		this.serverChannel.socket().bind(isa, this.listenBacklog);
+
+		if (this.useAcceptorThread) {
+			this.acceptor = new Acceptor(this, this.serverChannel);
+		} else {
+			// Register accepts on the server socket with the selector. This
+			// step tells the selector that the socket wants to be put on the
+			// ready list when accept operations occur, so allowing multiplexed
+			// non-blocking I/O to take place.
+			this.queueRegistration(this.serverChannel);
+		}
+
+		super.start();
+
+		if (this.acceptor != null) {
+			this.acceptor.start();
+		}
+	}
+
 	public void registerContentEncoding(Encoding encoding) {
 		this.contentEncodingMap.addEncoding(encoding);
 	}
@@ -168,7 +311,6 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 			throw new IllegalArgumentException("timeout is negative");
 		}
 
-		this.idleClientTimer = this.getTimer();
 		this.idleClientTimeout = timeout;
 	}
 
@@ -197,8 +339,11 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 	 * @see com.flat502.rox.http.HttpConstants.Methods
 	 */
 	public HttpRequestUnmarshaller registerRequestUnmarshaller(String httpMethod, HttpRequestUnmarshaller unmarshaller) {
-		synchronized(this.reqUnmarshallers) {
-			return (HttpRequestUnmarshaller) this.reqUnmarshallers.put(httpMethod, unmarshaller);
+		synchronized(this.registrationMutex) {
+			Map reqUnmarshallers = new HashMap(this.reqUnmarshallers);
+			HttpRequestUnmarshaller prev = (HttpRequestUnmarshaller) reqUnmarshallers.put(httpMethod, unmarshaller);
+			this.reqUnmarshallers = reqUnmarshallers;
+			return prev;
 		}
 	}
 
@@ -434,31 +579,38 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 			aid = (MethodCallUnmarshallerAid) handler;
 		}
 
-		synchronized (this.uriHandlers) {
+		synchronized (this.registrationMutex) {
 			if (uriPath != null) {
 				uriPath = Utils.normalizeURIPath(uriPath);
 			}
 
-			Map patternMap = (Map) this.uriHandlers.get(uriPath);
+			Map uriHandlers = new HashMap(this.uriHandlers);
+			Map patternMap = (Map) uriHandlers.get(uriPath);
 			if (patternMap == null) {
 				patternMap = new LinkedHashMap();
-				this.uriHandlers.put(uriPath, patternMap);
+			} else {
+				patternMap = new LinkedHashMap(patternMap);
 			}
+			uriHandlers.put(uriPath, patternMap);
 
 			Pattern pattern = (Pattern) this.globalPatternMap.get(method);
 			if (pattern == null) {
-				pattern = Pattern.compile(method);
-				this.globalPatternMap.put(method, pattern);
+				Map globalPatternMap = new HashMap(this.globalPatternMap);
+				globalPatternMap.put(method, Pattern.compile(method));
+				this.globalPatternMap = globalPatternMap;
 			}
 			RequestHandler prevHandler = (RequestHandler) patternMap.put(method, handler);
-			synchronized (this.handlerUnmarshallerAids) {
-				if (prevHandler != null) {
-					this.handlerUnmarshallerAids.remove(prevHandler);
-				}
-				if (aid != null) {
-					this.handlerUnmarshallerAids.put(handler, aid);
-				}
+			Map handlerUnmarshallerAids = new HashMap(this.handlerUnmarshallerAids);
+			if (prevHandler != null) {
+				handlerUnmarshallerAids.remove(prevHandler);
+			}
+			if (aid != null) {
+				handlerUnmarshallerAids.put(handler, aid);
 			}
+			this.handlerUnmarshallerAids = handlerUnmarshallerAids;
+			
+			// Publish this last so anything it refers to is visible
+			this.uriHandlers = uriHandlers;
 			return prevHandler;
 		}
 	}
@@ -473,20 +625,23 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 	 * @throws Exception
 	 */
 	RpcResponse routeRequest(Socket socket, HttpRequestBuffer request) throws Exception {
-		String reqMountPoint = Utils.normalizeURIPath(request.getURI());
-		ServerUnmarshallerAid aid = new ServerUnmarshallerAid(reqMountPoint);
+		ServerUnmarshallerAid aid;
+		if (request instanceof ServerRequestBuffer) {
+			// The content may already have been unmarshalled using this
+			// aid, in which case it knows which handler to use.
+			aid = ((ServerRequestBuffer) request).getUnmarshallerAid();
+		} else {
+			aid = new ServerUnmarshallerAid(Utils.normalizeURIPath(request.getURI()));
+		}
 		
-		HttpRequestUnmarshaller unmarshaller = null;
-		synchronized(this.reqUnmarshallers) {
-			unmarshaller = (HttpRequestUnmarshaller) this.reqUnmarshallers.get(request.getMethod());
-
-			if (unmarshaller == null) {
-				// No registered handler for this method.
-				// TODO: Add testcase
-				Iterator iter = this.reqUnmarshallers.keySet().iterator();
-				String allowed = Utils.join(", ", iter);
-				throw new MethodNotAllowedResponseException("(no handler for " + request.getMethod() + ")", allowed);
-			}
+		Map reqUnmarshallers = this.reqUnmarshallers;
+		HttpRequestUnmarshaller unmarshaller = (HttpRequestUnmarshaller) reqUnmarshallers.get(request.getMethod());
+		if (unmarshaller == null) {
+			// No registered handler for this method.
+			// TODO: Add testcase
+			Iterator iter = reqUnmarshallers.keySet().iterator();
+			String allowed = Utils.join(", ", iter);
+			throw new MethodNotAllowedResponseException("(no handler for " + request.getMethod() + ")", allowed);
 		}
 		
 		RpcCall call;
@@ -537,14 +692,23 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 	private SocketResponseChannel newSocketResponseChannel(Socket socket, HttpRequestBuffer request) {
 		Encoding rspEncoding = this.selectResponseEncoding(request);
 
-		ResponseCoordinator rc;
-		synchronized(socketResponseCoordinators) {
-			rc = socketResponseCoordinators.get(socket);
+		return new SocketResponseChannel(this.getResponseCoordinator(socket), request, rspEncoding);
+	}
+	
+	private ResponseCoordinator getResponseCoordinator(Socket socket) {
+		ConnectionState state = this.getConnectionState(socket);
+		if (state == null) {
+			// Already closed. The response will go nowhere but
+			// the handler still needs somewhere to send it.
+			return this.newResponseCoordinator(socket);
+		}
+		synchronized(state) {
+			ResponseCoordinator rc = (ResponseCoordinator) state.getResponseSequencer();
 			if (rc == null) {
-				socketResponseCoordinators.put(socket, rc = this.newResponseCoordinator(socket));
+				state.setResponseSequencer(rc = this.newResponseCoordinator(socket));
 			}
+			return rc;
 		}
-		return new SocketResponseChannel(rc, request, rspEncoding);
 	}
 	
 	private ResponseCoordinator newResponseCoordinator(Socket socket) {
@@ -567,6 +731,29 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 		this.queueWrite(socket, rspData, close);
 	}
 
+	/**
+	 * Sends the response to a request once responses to any
+	 * earlier requests on the same connection have been sent.
+	 */
+	void sendResponse(HttpRequestBuffer request, HttpResponse httpRsp) throws IOException {
+		if (request.getSequence() < 0) {
+			this.queueResponse(request.getSocket(), httpRsp.marshal(), httpRsp.mustCloseConnection());
+		} else {
+			this.getResponseCoordinator(request.getSocket()).respond(request.getSequence(), httpRsp);
+		}
+	}
+
+	protected void dispatch(Object work) {
+		if (work instanceof HttpRequestBuffer) {
+			// Requests on a connection arrive here (on the selecting
+			// thread) in order but may be handled concurrently, so 
+			// number them to keep the responses in the same order.
+			HttpRequestBuffer request = (HttpRequestBuffer) work;
+			request.setSequence(this.getResponseCoordinator(request.getSocket()).nextId());
+		}
+		super.dispatch(work);
+	}
+
 	private RequestHandler lookupHandler(String uri, String methodName) {
 		// We don't normalize the URI here because it is normalized when
 		// the HTTP request comes in.
@@ -672,34 +859,45 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 	
 	protected void read(SelectionKey key) throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
-		this.resetClientTimer(socketChannel.socket());
+		this.resetClientTimer(this.getConnectionState(key), socketChannel.socket());
 		super.read(key);
 	}
 	
 	protected void write(SelectionKey key) throws IOException {
 		SocketChannel socketChannel = (SocketChannel) key.channel();
-		this.resetClientTimer(socketChannel.socket());
+		this.resetClientTimer(this.getConnectionState(key), socketChannel.socket());
 		super.write(key);
 	}
 	
 	protected void deregisterSocket(Socket socket) {
-		TimerTask task = (TimerTask) this.socketActivity.remove(socket);
-		if (task != null) {
-			task.cancel();
+		ConnectionState state = this.getConnectionState(socket);
+		if (state != null) {
+			state.cancelTimeout();
 		}
 		
 		super.deregisterSocket(socket);
 	}
 
 	protected void deregisterResponseCoordinator(ResponseCoordinator coordinator) {
-		synchronized(socketResponseCoordinators) {
-			socketResponseCoordinators.remove(coordinator);
+		ConnectionState state = this.getConnectionState(coordinator.getSocket());
+		if (state == null) {
+			return;
+		}
+		synchronized(state) {
+			if (state.getResponseSequencer() == coordinator) {
+				state.setResponseSequencer(null);
+			}
 		}
 	}
 	
 	/**
 	 * Called when a new connection is pending on the underlying
 	 * {@link ServerSocketChannel}.
+	 * <p>
+	 * Pending connections are accepted until none remain or
+	 * the {@link #setAcceptBatchSize(int) batch size} is
+	 * reached. A failure to set up one connection closes that
+	 * connection only.
 	 * @param key
 	 * 	The {@link SelectionKey} for the socket on which
 	 * 	a connection is pending.
@@ -711,13 +909,32 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 		// Pull out the socket channel that has a connection pending
 		ServerSocketChannel serverSocketChannel = (ServerSocketChannel) key.channel();
 
-		// Accept the connection
-		SocketChannel socketChannel = serverSocketChannel.accept();
+		int batchSize = this.acceptBatchSize;
+		for (int i = 0; i < batchSize; i++) {
+			// Accept the connection
+			SocketChannel socketChannel = serverSocketChannel.accept();
+			if (socketChannel == null) {
+				// Nothing left pending
+				break;
+			}
+
+			try {
+				this.accept(key, socketChannel);
+			} catch (IOException e) {
+				Socket socket = socketChannel.socket();
+				this.deregisterSocket(socket);
+				socketChannel.close();
+				this.handleProcessingException(socket, e);
+			}
+		}
+	}
+
+	private void accept(SelectionKey key, SocketChannel socketChannel) throws IOException {
 		Socket socket = socketChannel.socket();
 
 		// Check if our AcceptPolicy will allow this new connection
 		if (this.acceptPolicy != null
-				&& !this.acceptPolicy.shouldRetain(socketChannel, this.getSocketSelector().keys().size())) {
+				&& !this.acceptPolicy.shouldRetain(socketChannel, this.getRegisteredChannelCount())) {
 			if (log.logTrace()) {
 				log.trace("Closing accepted connection (accept policy enforced)");
 			}
@@ -726,20 +943,30 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 		}
 		
 		this.registerChannel(socketChannel);
+		ConnectionState state = this.getConnectionState(socket);
 
 		// Register the new socket. This will promote it to an SSLSocket
 		// if we're configured for HTTPS.
 		this.registerSocket(socket, this.host, this.port, false);
 
-		// Add the new SocketChannel to our Selector
+		// Add the new SocketChannel to the Selector that owns it. If that's
+		// not the Selector we're running on we have to leave the registration
+		// to the thread that owns it.
 		socketChannel.configureBlocking(false);
-		SelectionKey acceptKey = socketChannel.register(this.getSocketSelector(), SelectionKey.OP_READ);
+		if (this.sharesSelector(key, socketChannel)) {
+			socketChannel.register(key.selector(), SelectionKey.OP_READ, state);
+		} else {
+			this.queueRegistration(socketChannel);
+		}
 		
-		this.resetClientTimer(socketChannel.socket());
+		this.resetClientTimer(state, socketChannel.socket());
 	}
 
-	private void resetClientTimer(Socket socket) {
-		if (this.idleClientTimer == null) {
+	private void resetClientTimer(ConnectionState state, Socket socket) {
+		// Store this in a local so we don't have to worry about
+		// the value changing underneath us.
+		long timeout = this.idleClientTimeout;
+		if (timeout == 0) {
 			if (log.logTrace()) {
 				log.trace("No idle client timeout configured, skipping timer reset");
 			}
@@ -750,46 +977,30 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 			log.trace("Resetting idle client timer: " + System.identityHashCode(socket));
 		}
 		
-		// Store this in a local so we don't have to worry about
-		// the value changing underneath us.
-		long timeout = this.idleClientTimeout;
-
-		// Cancel the existing task for this socket ...
-		TimerTask curTask = (TimerTask) this.socketActivity.get(socket);
-		if (curTask != null) {
-			curTask.cancel();
-		}
-		
-		// And schedule a new one.
-		TimerTask task = new IdleClientTimerTask(socket);
-		this.socketActivity.put(socket, task);
-		this.idleClientTimer.schedule(task, timeout);
+		// This just moves the deadline, the timeout itself is 
+		// allocated once per connection.
+		state.resetTimeout(timeout);
 	}
 
-	private class IdleClientTimerTask extends TimerTask {
-		private Socket socket;
-
-		IdleClientTimerTask(Socket socket) {
-			this.socket = socket;
-		}
-
-		public void run() {
-			try {
-				if (log.logTrace()) {
-					log.trace("Idle client timer expired: " + System.identityHashCode(socket));
-				}
-				SocketChannel socketChannel = (SocketChannel) this.socket.getChannel();
-				socketChannel.keyFor(HttpRpcServer.this.getSocketSelector()).cancel();
-				// This (shutting down the output stream) seems unnecessary but 
-				// without it the client never sees a disconnect under Linux.
-				// For good measure we shutdown the input stream too.
-				socketChannel.socket().shutdownOutput();
-				socketChannel.socket().shutdownInput();
-				socketChannel.close();
-				HttpRpcServer.this.deregisterSocket(socket);
-			} catch(Exception e) {
-				log.warn("IdleClientTimerTask caught an exception", e);
+	protected void handleConnectionTimeout(ConnectionState state) {
+		SocketChannel socketChannel = (SocketChannel) state.getChannel();
+		try {
+			if (log.logTrace()) {
+				log.trace("Idle client timer expired: " + System.identityHashCode(socketChannel.socket()));
 			}
+			SelectionKey key = this.getSelectionKey(socketChannel);
+			if (key != null) {
+				key.cancel();
+			}
+			// This (shutting down the output stream) seems unnecessary but 
+			// without it the client never sees a disconnect under Linux.
+			// For good measure we shutdown the input stream too.
+			socketChannel.socket().shutdownOutput();
+			socketChannel.socket().shutdownInput();
+			socketChannel.close();
+			this.deregisterSocket(socketChannel.socket());
+		} catch(Exception e) {
+			log.warn("Idle client timeout handler caught an exception", e);
 		}
 	}
 
@@ -844,6 +1055,10 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 	}
 
 	protected void stopImpl() throws IOException {
+		if (this.acceptor != null) {
+			this.acceptor.shutdown();
+		}
+
 		this.deregisterChannel(this.serverChannel);
 		
 		this.serverChannel.close();
@@ -855,22 +1070,15 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 	/**
 	 * Creates and initializes a {@link ServerSocketChannel}
 	 * for accepting connections on.
+	 * <p>
+	 * The channel is bound and registered for accepts when
+	 * this server is {@link #start() started}.
 	 */
 	protected void initSelector(Selector selector) throws IOException {
 		// Create a new server socket and set to non blocking mode
 		this.serverChannel = ServerSocketChannel.open();
 		serverChannel.configureBlocking(false);
 
-		// Bind the server socket to the local host and port
-		InetSocketAddress isa = new InetSocketAddress(this.hostAddress, this.port);
-		serverChannel.socket().bind(isa);
-
-		// Register accepts on the server socket with the selector. This
-		// step tells the selector that the socket wants to be put on the
-		// ready list when accept operations occur, so allowing multiplexed
-		// non-blocking I/O to take place.
-		serverChannel.register(selector, SelectionKey.OP_ACCEPT);
-		
 		this.registerChannel(serverChannel);
 	}
 	
@@ -894,66 +1102,44 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 		return engine;
 	}
 
-	protected HttpMessageBuffer getReadBuffer(Socket socket) {
-		synchronized (this.requestBuffers) {
-			HttpRequestBuffer request = (HttpRequestBuffer) this.requestBuffers.get(socket);
-			if (request == null) {
-				request = new HttpRequestBuffer(this, socket, this.contentEncodingMap);
-				this.requestBuffers.put(socket, request);
-			}
-			return request;
-		}
-	}
-
-	protected void removeReadBuffer(Socket socket) {
-		synchronized (this.requestBuffers) {
-			this.requestBuffers.remove(socket);
-		}
+	protected HttpMessageBuffer newReadBuffer(Socket socket) {
+		return new ServerRequestBuffer(socket);
 	}
 
-	protected void removeReadBuffers(Socket socket) {
-		this.removeReadBuffer(socket);
-	}
+	// A request buffer that hands its content to the request 
+	// unmarshaller as it arrives, if we've been asked to.
+	private class ServerRequestBuffer extends HttpRequestBuffer {
+		private ServerUnmarshallerAid aid;
 
-	protected void putWriteBuffer(Socket socket, ByteBuffer data) {
-		synchronized (this.responseBuffers) {
-			List<ByteBuffer> existing = this.responseBuffers.get(socket);
-			if (existing != null) {
-				existing.add(data);
-			} else {
-				LinkedList<ByteBuffer> list = new LinkedList<ByteBuffer>();
-				list.add(data);
-				this.responseBuffers.put(socket, list);
-			}
+		public ServerRequestBuffer(Socket socket) {
+			super(HttpRpcServer.this, socket, contentEncodingMap);
 		}
-	}
 
-	protected boolean isWriteQueued(Socket socket) {
-		synchronized (this.responseBuffers) {
-			return this.responseBuffers.containsKey(socket);
-		}
-	}
-
-	protected ByteBuffer getWriteBuffer(Socket socket) {
-		synchronized (this.responseBuffers) {
-			return this.responseBuffers.get(socket).get(0);
-		}
-	}
-
-	protected void removeWriteBuffer(Socket socket) {
-		synchronized (this.responseBuffers) {
-			List<ByteBuffer> existing = this.responseBuffers.get(socket);
-			if (existing != null && !existing.isEmpty()) {
-				existing.remove(0);
-			} else {
-				this.responseBuffers.remove(socket);
+		protected HttpContentListener newContentListener() {
+			if (!unmarshalOnRead) {
+				return null;
+			}
+			HttpRequestUnmarshaller unmarshaller = (HttpRequestUnmarshaller) reqUnmarshallers.get(this.getMethod());
+			if (unmarshaller == null) {
+				return null;
+			}
+			try {
+				return unmarshaller.newContentListener(this, this.getUnmarshallerAid());
+			} catch (Exception e) {
+				// routeRequest() will run into this again once the 
+				// request is complete and report it properly.
+				if (log.logDebug()) {
+					log.debug("Request will be unmarshalled once complete", e);
+				}
+				return null;
 			}
 		}
-	}
 
-	protected void removeWriteBuffers(Socket socket) {
-		synchronized (this.responseBuffers) {
-			this.responseBuffers.remove(socket);
+		ServerUnmarshallerAid getUnmarshallerAid() {
+			if (this.aid == null) {
+				this.aid = new ServerUnmarshallerAid(Utils.normalizeURIPath(this.getURI()));
+			}
+			return this.aid;
 		}
 	}
 
@@ -992,9 +1178,7 @@ public abstract class HttpRpcServer extends HttpRpcProcessor {
 				handler = lookupHandler(null, methodName);
 			}
 
-			synchronized (handlerUnmarshallerAids) {
-				return (MethodCallUnmarshallerAid) handlerUnmarshallerAids.get(handler);
-			}
+			return (MethodCallUnmarshallerAid) handlerUnmarshallerAids.get(handler);
 		}
 	}
 
@@ -2,9 +2,6 @@ package com.flat502.rox.server;
 
 import java.io.IOException;
 import java.net.Socket;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.List;
 
 import com.flat502.rox.encoding.Encoding;
 import com.flat502.rox.http.HttpRequestBuffer;
@@ -15,18 +12,15 @@ import com.flat502.rox.marshal.RpcResponse;
 
 /**
  * This class is responsible for ensuring that multiple responses on the
- * same socket delivered via different ResponseChannel instances are
- * delivered in order.
+ * same socket are delivered in the order the requests arrived, no matter
+ * which thread (or ResponseChannel) produces them.
  * <P>
- * This class is not thread-safe. Consumers are expected to synchronize access.
+ * Ids are handed out by {@link #nextId()} as requests arrive. Responses
+ * may be supplied from any thread, in any order. A response that arrives
+ * ahead of its predecessors is held in a ring buffer, indexed by id, until
+ * they have all been sent.
  */
 class ResponseCoordinator {
-	/*
-	 * basic approach: this is instantiated when first request on a socket comes
-	 * in. Two counters: nextToSend, nextToAssign
-	 * Queue requests until we have a "flush" and send all of those together.
-	 */
-
 	private HttpRpcServer server;
 	private Socket socket;
 
@@ -36,41 +30,40 @@ class ResponseCoordinator {
 	// We can't send any responses with a higher ID than this value.
 	private int nextToSend;
 	
-	private List<HttpResponse> queuedResponses = new LinkedList<HttpResponse>();
+	// Responses that arrived ahead of nextToSend, in a ring indexed 
+	// by ID. Allocated the first time a response arrives out of order 
+	// and grown (always to a power of two) if it's too small to hold 
+	// every outstanding ID. stashed counts the non-null slots.
+	private HttpResponse[] stash;
+	private int stashed;
 	
 	ResponseCoordinator(HttpRpcServer server, Socket socket) {
 		this.server = server;
 		this.socket = socket;
 	}
 	
-	public int nextId() {
+	public synchronized int nextId() {
 		return nextToAssign++;
 	}
 	
+	Socket getSocket() {
+		return this.socket;
+	}
+	
 	public void respond(int rspId, HttpRequestBuffer request, RpcResponse rsp, Encoding encoding) throws IOException, MarshallingException {
-		HttpResponse httpRsp = this.server.toHttpResponse(request, rsp, encoding);
-		
-		if (this.nextToSend > rspId) {
-			throw new IllegalStateException("Attempt to resend an asynchronous HTTP response");
-		}
-		
-		if (this.nextToSend == rspId && this.queuedResponses.isEmpty()) {
-			// Short circuit the common case
-			this.sendResponse(httpRsp);
-			return;
-		}
-		
-		this.stashResponse(rspId, httpRsp);
+		this.respond(rspId, this.server.toHttpResponse(request, rsp, encoding));
 	}
 
 	public void respond(int rspId, HttpRequestBuffer request, HttpResponseException e) throws IOException {
-		HttpResponse httpRsp = this.server.newHttpResponse(request, e);
-		
+		this.respond(rspId, this.server.newHttpResponse(request, e));
+	}
+
+	public synchronized void respond(int rspId, HttpResponse httpRsp) throws IOException {
 		if (this.nextToSend > rspId) {
-			throw new IllegalStateException("Attempt to resend an asynchronous HTTP error response");
+			throw new IllegalStateException("Attempt to resend an HTTP response");
 		}
 		
-		if (this.nextToSend == rspId && this.queuedResponses.isEmpty()) {
+		if (this.nextToSend == rspId && this.stashed == 0) {
 			// Short circuit the common case
 			this.sendResponse(httpRsp);
 			return;
@@ -89,29 +82,46 @@ class ResponseCoordinator {
 		this.nextToSend++;
 	}
 
+	// This instance stays with the connection (and keeps numbering
+	// requests) until it's closed, even when nothing is stashed.
 	protected void stashResponse(int rspId, HttpResponse httpRsp) throws IOException {
-		try {
-			while(this.queuedResponses.size() < (rspId-this.nextToSend+1)) {
-				this.queuedResponses.add(null);
-			}
-			this.queuedResponses.set(rspId-this.nextToSend, httpRsp);
-			
-			Iterator<HttpResponse> iter = this.queuedResponses.iterator();
-			while(iter.hasNext()) {
-				HttpResponse candidate = iter.next();
-				if (candidate == null) {
-					return;
-				}
-				iter.remove();
-				this.sendResponse(candidate);
+		int span = rspId - this.nextToSend + 1;
+		if (this.stash == null || span > this.stash.length) {
+			this.growStash(span);
+		}
+		int mask = this.stash.length - 1;
+		if (this.stash[rspId & mask] != null) {
+			throw new IllegalStateException("Attempt to resend an HTTP response");
+		}
+		this.stash[rspId & mask] = httpRsp;
+		this.stashed++;
+		
+		// Send everything we can, in order
+		while (this.stashed > 0) {
+			int slot = this.nextToSend & mask;
+			HttpResponse candidate = this.stash[slot];
+			if (candidate == null) {
+				return;
 			}
-		} finally {
-			if (this.queuedResponses.isEmpty()) {
-				// All responses were sent release the resources associated with 
-				// this instance. A new one will be created if any later responses
-				// ultimately become available to be delivered on this channel 
-				this.server.deregisterResponseCoordinator(this);
+			this.stash[slot] = null;
+			this.stashed--;
+			this.sendResponse(candidate);
+		}
+	}
+	
+	private void growStash(int span) {
+		int capacity = this.stash == null ? 8 : this.stash.length;
+		while (capacity < span) {
+			capacity <<= 1;
+		}
+		HttpResponse[] grown = new HttpResponse[capacity];
+		if (this.stash != null) {
+			// Re-index everything outstanding for the new mask
+			int mask = this.stash.length - 1;
+			for (int id = this.nextToSend; id < this.nextToSend + this.stash.length; id++) {
+				grown[id & (capacity - 1)] = this.stash[id & mask];
 			}
 		}
+		this.stash = grown;
 	}
 }
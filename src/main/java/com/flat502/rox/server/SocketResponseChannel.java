@@ -26,7 +26,9 @@ class SocketResponseChannel implements ResponseChannel {
 	
 	SocketResponseChannel(ResponseCoordinator coord, HttpRequestBuffer request, Encoding encoding) {
 		this.coord = coord;
-		this.rspId = coord.nextId();
+		// Requests are numbered as they arrive. Fall back to numbering
+		// here if this one wasn't.
+		this.rspId = request.getSequence() >= 0 ? request.getSequence() : coord.nextId();
 		this.request = request;
 		this.encoding = encoding;
 	}
@@ -6,6 +6,8 @@ import com.flat502.rox.http.*;
 import com.flat502.rox.marshal.MethodCallUnmarshaller;
 import com.flat502.rox.marshal.MethodCallUnmarshallerAid;
 import com.flat502.rox.marshal.RpcCall;
+import com.flat502.rox.marshal.xmlrpc.MethodCallPushParser;
+import com.flat502.rox.marshal.xmlrpc.SaxMethodCallUnmarshaller;
 import com.flat502.rox.marshal.xmlrpc.XmlRpcConstants;
 
 public class XmlRpcRequestUnmarshaller extends HttpRequestUnmarshaller {
@@ -17,9 +19,42 @@ public class XmlRpcRequestUnmarshaller extends HttpRequestUnmarshaller {
 
 	public RpcCall unmarshal(HttpRequestBuffer request, MethodCallUnmarshallerAid aid) throws Exception {
 		this.validateRequest(request);
+		HttpContentListener listener = request.getContentListener();
+		if (listener instanceof PushedCall) {
+			RpcCall call = ((PushedCall) listener).getCall();
+			if (call != null) {
+				return call;
+			}
+		}
+		if (this.unmarshaller instanceof SaxMethodCallUnmarshaller && request.getContentEncoding() == null) {
+			// Parse the content where it is (as bytes if possible)
+			return ((SaxMethodCallUnmarshaller) this.unmarshaller).unmarshal(request.getContentBuffer(), request
+					.getContentCharset(), aid);
+		}
 		return this.unmarshaller.unmarshal(request.getContentReader(), aid);
 	}
 
+	/**
+	 * Returns a listener that unmarshals the request as it arrives
+	 * if the {@link MethodCallUnmarshaller} in use is a
+	 * {@link SaxMethodCallUnmarshaller} that supports this and
+	 * the request has no <code>Content-Encoding</code>.
+	 */
+	public HttpContentListener newContentListener(HttpRequestBuffer request, MethodCallUnmarshallerAid aid)
+			throws Exception {
+		if (!(this.unmarshaller instanceof SaxMethodCallUnmarshaller) || request.getContentEncoding() != null) {
+			return null;
+		}
+		this.validateRequest(request);
+
+		MethodCallPushParser parser = ((SaxMethodCallUnmarshaller) this.unmarshaller).newPushParser(aid, request
+				.getContentCharset());
+		if (parser == null) {
+			return null;
+		}
+		return new PushedCall(parser);
+	}
+
 	/**
 	 * Validate an XML-RPC HTTP request.
 	 * <p>
@@ -74,4 +109,52 @@ public class XmlRpcRequestUnmarshaller extends HttpRequestUnmarshaller {
 	protected String getContentType() {
 		return XmlRpcConstants.ContentTypes.TEXT_XML;
 	}
+
+	// Unmarshals a call as its content arrives. If anything goes wrong
+	// we just stop and leave unmarshal() to parse the complete request 
+	// the usual way, so errors are reported exactly as they would
+	// otherwise have been. The connection may be closed (and the
+	// call abandoned) by a thread other than the one reading it.
+	private static class PushedCall implements HttpContentListener {
+		private MethodCallPushParser parser;
+		private RpcCall call;
+
+		public PushedCall(MethodCallPushParser parser) {
+			this.parser = parser;
+		}
+
+		public synchronized void contentReceived(byte[] data, int offset, int length) {
+			if (this.parser == null) {
+				return;
+			}
+			try {
+				this.parser.write(data, offset, length);
+			} catch (Exception e) {
+				this.contentAbandoned();
+			}
+		}
+
+		public synchronized void contentComplete() {
+			if (this.parser == null) {
+				return;
+			}
+			try {
+				this.call = this.parser.finish();
+				this.parser = null;
+			} catch (Exception e) {
+				this.contentAbandoned();
+			}
+		}
+
+		public synchronized void contentAbandoned() {
+			if (this.parser != null) {
+				this.parser.abandon();
+				this.parser = null;
+			}
+		}
+
+		synchronized RpcCall getCall() {
+			return this.call;
+		}
+	}
 }
@@ -1,20 +1,48 @@
 package com.flat502.rox.utils;
 
-import java.util.LinkedList;
-import java.util.List;
-
 /**
  * This class provides a simple implementation of the core functionality
  * of Java 1.5's <code>BlockingQueue</code> interface.
  * <p>
  * The intention is to be able to use this project on Java 1.4.
+ * <p>
+ * Elements are returned in the order they were added but idle
+ * threads are woken up in the reverse order they went idle: an
+ * element added while threads are blocked in {@link #take()} is
+ * handed directly to the thread that most recently blocked. Under
+ * light load this keeps the same few workers (and their caches) busy
+ * rather than cycling through all of them.
+ * <p>
+ * Elements are held in a ring buffer that grows as needed and each
+ * thread reuses the same record every time it waits, so adding an
+ * element doesn't allocate.
  */
-// TODO: Can we write this so the most recently unblocked worker
-// is unblocked again (i.e. stack them?) This will reduce paging
-// issues.
 public class BlockingQueue {
 	private Object mutex = new Object();
-	private List queue = new LinkedList();
+
+	// Elements nobody has taken yet, and when they were added
+	// (System.nanoTime()). Guarded by mutex.
+	private Object[] elements = new Object[64];
+	private long[] enqueued = new long[64];
+	private int head;
+	private int count;
+
+	// Threads blocked in take(), most recent first. Guarded by mutex.
+	private Waiter idle;
+
+	private ThreadLocal waiters = new ThreadLocal() {
+		protected Object initialValue() {
+			return new Waiter();
+		}
+	};
+
+	private static class Waiter {
+		// Guarded by the queue's mutex
+		Waiter next;
+
+		// Set (under the queue's mutex) when an element is handed over.
+		volatile Object element;
+	}
 
 	/**
 	 * Adds the specified element to this queue
@@ -26,9 +54,20 @@ public class BlockingQueue {
 			throw new NullPointerException();
 		}
 
+		Waiter waiter;
 		synchronized (this.mutex) {
-			this.queue.add(o);
-			this.mutex.notify();
+			waiter = this.idle;
+			if (waiter == null) {
+				this.enqueue(o);
+				return;
+			}
+			this.idle = waiter.next;
+			waiter.next = null;
+			waiter.element = o;
+		}
+
+		synchronized (waiter) {
+			waiter.notify();
 		}
 	}
 
@@ -39,11 +78,134 @@ public class BlockingQueue {
 	 * @throws InterruptedException if interrupted while waiting.
 	 */
 	public Object take() throws InterruptedException {
+		return this.poll(0);
+	}
+
+	/**
+	 * Retrieves and removes the head of this queue, waiting
+	 * up to the specified time if no elements are present on 
+	 * this queue.
+	 * @param timeout
+	 * 	How long to wait in milliseconds. 0 means wait
+	 * 	indefinitely.
+	 * @return the head of this queue, or <code>null</code> if 
+	 * 	the timeout elapsed before an element was added.
+	 * @throws InterruptedException if interrupted while waiting.
+	 */
+	public Object poll(long timeout) throws InterruptedException {
+		Waiter waiter;
 		synchronized (this.mutex) {
-			while (this.queue.isEmpty()) {
-				this.mutex.wait();
+			if (this.count > 0) {
+				return this.dequeue();
+			}
+			waiter = (Waiter) this.waiters.get();
+			waiter.next = this.idle;
+			this.idle = waiter;
+		}
+
+		try {
+			long deadline = timeout == 0 ? 0 : System.currentTimeMillis() + timeout;
+			synchronized (waiter) {
+				while (waiter.element == null) {
+					if (deadline == 0) {
+						waiter.wait();
+						continue;
+					}
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						break;
+					}
+					waiter.wait(remaining);
+				}
+			}
+			if (waiter.element == null) {
+				synchronized (this.mutex) {
+					if (waiter.element == null) {
+						this.withdraw(waiter);
+						return null;
+					}
+				}
+			}
+		} catch (InterruptedException e) {
+			synchronized (this.mutex) {
+				if (waiter.element == null) {
+					this.withdraw(waiter);
+					throw e;
+				}
+			}
+			// We were handed an element just as we were interrupted.
+			// Return it rather than lose it and leave the interrupt
+			// for the caller to notice.
+			Thread.currentThread().interrupt();
+		}
+
+		Object o = waiter.element;
+		waiter.element = null;
+		return o;
+	}
+
+	/**
+	 * Returns the number of elements waiting to be taken.
+	 */
+	public int size() {
+		synchronized (this.mutex) {
+			return this.count;
+		}
+	}
+
+	/**
+	 * Returns how long the element at the head of this queue
+	 * has been waiting to be taken.
+	 * @return
+	 * 	The time in milliseconds, or 0 if this queue is empty.
+	 */
+	public long getWaitTime() {
+		synchronized (this.mutex) {
+			if (this.count == 0) {
+				return 0;
+			}
+			return (System.nanoTime() - this.enqueued[this.head]) / 1000000;
+		}
+	}
+
+	private void enqueue(Object o) {
+		if (this.count == this.elements.length) {
+			Object[] grown = new Object[this.elements.length * 2];
+			long[] grownTimes = new long[grown.length];
+			for (int i = 0; i < this.count; i++) {
+				grown[i] = this.elements[(this.head + i) % this.elements.length];
+				grownTimes[i] = this.enqueued[(this.head + i) % this.elements.length];
+			}
+			this.elements = grown;
+			this.enqueued = grownTimes;
+			this.head = 0;
+		}
+		int tail = (this.head + this.count) % this.elements.length;
+		this.elements[tail] = o;
+		this.enqueued[tail] = System.nanoTime();
+		this.count++;
+	}
+
+	private Object dequeue() {
+		Object o = this.elements[this.head];
+		this.elements[this.head] = null;
+		this.head = (this.head + 1) % this.elements.length;
+		this.count--;
+		return o;
+	}
+
+	private void withdraw(Waiter waiter) {
+		if (this.idle == waiter) {
+			this.idle = waiter.next;
+		} else {
+			Waiter prev = this.idle;
+			while (prev != null && prev.next != waiter) {
+				prev = prev.next;
+			}
+			if (prev != null) {
+				prev.next = waiter.next;
 			}
-			return this.queue.remove(0);
 		}
+		waiter.next = null;
 	}
 }
@@ -0,0 +1,191 @@
+package com.flat502.rox.utils;
+
+/**
+ * Formats and parses XML-RPC <code>dateTime.iso8601</code> values
+ * without going through a {@link java.text.DateFormat}.
+ * <p>
+ * Values take the form <code>yyyyMMdd'T'HH:mm:ss</code> and are
+ * interpreted as UTC. Output is identical to that of a
+ * {@link UTCSimpleDateFormat} using that pattern.
+ * <p>
+ * Only dates from the year 1583 to 9999 inclusive are handled.
+ * Earlier dates fall before the Gregorian calendar was adopted and
+ * later dates need more than four digits for the year, and
+ * {@link java.text.SimpleDateFormat} treats both specially. Callers
+ * should check {@link #canFormat(long)} before formatting and fall
+ * back to a {@link java.text.DateFormat} when
+ * {@link #parse(char[], int, int)} returns {@link #NOT_PARSED}.
+ */
+public class DateTimeCodec {
+	/**
+	 * The length of a formatted value.
+	 */
+	public static final int LENGTH = 17;
+
+	/**
+	 * Returned by {@link #parse(char[], int, int)} when a value
+	 * isn't in the canonical form.
+	 */
+	public static final long NOT_PARSED = Long.MIN_VALUE;
+
+	private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+	// 1583-01-01T00:00:00 and 10000-01-01T00:00:00
+	private static final long MIN_TIME = daysFromCivil(1583, 1, 1) * MILLIS_PER_DAY;
+	private static final long MAX_TIME = daysFromCivil(10000, 1, 1) * MILLIS_PER_DAY;
+
+	private static final int[] DAYS_IN_MONTH = { 31, 28, 31, 30, 31, 30, 31, 31, 30, 31, 30, 31 };
+
+	private DateTimeCodec() {
+	}
+
+	/**
+	 * @return
+	 * 	<code>true</code> if <code>time</code> falls within the range
+	 * 	of dates this class can format.
+	 */
+	public static boolean canFormat(long time) {
+		return time >= MIN_TIME && time < MAX_TIME;
+	}
+
+	/**
+	 * Format a date as ASCII characters into a byte array.
+	 * @param time
+	 * 	The date, in milliseconds since the epoch.
+	 * @param buf
+	 * 	The array to format into. It must have room for
+	 * 	{@link #LENGTH} bytes from <code>off</code>.
+	 * @param off
+	 * 	The offset to start at.
+	 * @return
+	 * 	The offset following the last byte written.
+	 * @throws IllegalArgumentException
+	 * 	if {@link #canFormat(long)} returns <code>false</code>
+	 * 	for <code>time</code>.
+	 */
+	public static int format(long time, byte[] buf, int off) {
+		if (!canFormat(time)) {
+			throw new IllegalArgumentException("Date out of range: " + time);
+		}
+
+		// Times before the epoch are negative, so round the
+		// day down rather than toward zero
+		long days = time / MILLIS_PER_DAY;
+		long millis = time % MILLIS_PER_DAY;
+		if (millis < 0) {
+			days--;
+			millis += MILLIS_PER_DAY;
+		}
+		int secs = (int) (millis / 1000);
+
+		// Convert days since the epoch to a date in the proleptic
+		// Gregorian calendar (see Howard Hinnant's "chrono-Compatible
+		// Low-Level Date Algorithms"). Only 400 year eras from the
+		// year 0 on need to be handled.
+		long z = days + 719468;
+		long era = z / 146097;
+		int doe = (int) (z - era * 146097);
+		int yoe = (doe - doe / 1460 + doe / 36524 - doe / 146096) / 365;
+		int doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+		int mp = (5 * doy + 2) / 153;
+		int day = doy - (153 * mp + 2) / 5 + 1;
+		int month = mp < 10 ? mp + 3 : mp - 9;
+		int year = (int) (yoe + era * 400) + (month <= 2 ? 1 : 0);
+
+		off = put4(year, buf, off);
+		off = put2(month, buf, off);
+		off = put2(day, buf, off);
+		buf[off++] = 'T';
+		off = put2(secs / 3600, buf, off);
+		buf[off++] = ':';
+		off = put2((secs / 60) % 60, buf, off);
+		buf[off++] = ':';
+		return put2(secs % 60, buf, off);
+	}
+
+	/**
+	 * Format a date as a string.
+	 * @see #format(long, byte[], int)
+	 */
+	public static String format(long time) {
+		byte[] buf = new byte[LENGTH];
+		format(time, buf, 0);
+		char[] chars = new char[LENGTH];
+		for (int i = 0; i < LENGTH; i++) {
+			chars[i] = (char) buf[i];
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Parse a date in the canonical form {@link #format(long, byte[], int)}
+	 * produces.
+	 * <p>
+	 * Values in any other form, including out of range fields that
+	 * a lenient {@link java.text.DateFormat} would accept, are rejected
+	 * by returning {@link #NOT_PARSED}.
+	 * @return
+	 * 	The date, in milliseconds since the epoch, or
+	 * 	{@link #NOT_PARSED}.
+	 */
+	public static long parse(char[] ch, int start, int length) {
+		if (length != LENGTH || ch[start + 8] != 'T' || ch[start + 11] != ':' || ch[start + 14] != ':') {
+			return NOT_PARSED;
+		}
+
+		int year = digits(ch, start, 4);
+		int month = digits(ch, start + 4, 2);
+		int day = digits(ch, start + 6, 2);
+		int hour = digits(ch, start + 9, 2);
+		int minute = digits(ch, start + 12, 2);
+		int second = digits(ch, start + 15, 2);
+		if (year < 1583 || month < 1 || month > 12 || day < 1 || day > daysInMonth(year, month) || hour < 0
+				|| hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59) {
+			return NOT_PARSED;
+		}
+
+		return daysFromCivil(year, month, day) * MILLIS_PER_DAY + (hour * 3600 + minute * 60 + second) * 1000L;
+	}
+
+	private static int daysInMonth(int year, int month) {
+		if (month == 2 && year % 4 == 0 && (year % 100 != 0 || year % 400 == 0)) {
+			return 29;
+		}
+		return DAYS_IN_MONTH[month - 1];
+	}
+
+	// Days since the epoch of a date in the proleptic Gregorian
+	// calendar, for years from 1 on.
+	private static long daysFromCivil(int year, int month, int day) {
+		int y = month <= 2 ? year - 1 : year;
+		int era = y / 400;
+		int yoe = y - era * 400;
+		int doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+		int doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+		return era * 146097L + doe - 719468;
+	}
+
+	// Returns -1 if any of the characters isn't an ASCII digit
+	private static int digits(char[] ch, int start, int count) {
+		int value = 0;
+		for (int i = start; i < start + count; i++) {
+			char c = ch[i];
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+	private static int put2(int value, byte[] buf, int off) {
+		buf[off] = (byte) ('0' + value / 10);
+		buf[off + 1] = (byte) ('0' + value % 10);
+		return off + 2;
+	}
+
+	private static int put4(int value, byte[] buf, int off) {
+		put2(value / 100, buf, off);
+		return put2(value % 100, buf, off + 2);
+	}
+}
@@ -268,6 +268,10 @@ public class Utils {
 	 * 	The normalized header name.
 	 */
 	public static String normalizeHttpHeaderName(String name) {
+		if (isNormalizedHttpHeaderName(name)) {
+			// The common case (constants, for example), no need to copy
+			return name;
+		}
 		char[] chars = name.toCharArray();
 		int newWord = -1;
 		for (int i = 0; i < chars.length; i++) {
@@ -284,6 +288,19 @@ public class Utils {
 		return new String(chars);
 	}
 	
+	private static boolean isNormalizedHttpHeaderName(String name) {
+		boolean wordStart = true;
+		for (int i = 0; i < name.length(); i++) {
+			char ch = name.charAt(i);
+			char expected = wordStart ? Character.toUpperCase(ch) : Character.toLowerCase(ch);
+			if (ch != expected) {
+				return false;
+			}
+			wordStart = ch == '-';
+		}
+		return true;
+	}
+	
 	public static String join(String delim, Object[] values) {
 		StringBuffer sb = new StringBuffer();
 		for (int i = 0; i < values.length; i++) {
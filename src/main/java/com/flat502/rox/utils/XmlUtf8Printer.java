@@ -0,0 +1,311 @@
+package com.flat502.rox.utils;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * An implementation of {@link com.flat502.rox.utils.XmlPrinter}
+ * that produces compact UTF-8 encoded XML.
+ * <p>
+ * The output is identical to that of {@link XmlPlainPrinter}
+ * but it's produced without going through
+ * {@link String#getBytes(String)}. Characters are encoded as
+ * they're copied into an internal buffer, the tags XML-RPC uses
+ * are copied in already encoded, and
+ * {@link #writeEscapedValue(String)} escapes a value in the same
+ * pass. Nothing is allocated for values made up of ASCII
+ * characters.
+ * <p>
+ * Integers, dates and most doubles are written by formatting
+ * them directly into the buffer, producing the same characters
+ * their <code>toString()</code> methods (or, for dates,
+ * {@link DateTimeCodec}) would.
+ * <p>
+ * Output is buffered until the buffer fills or
+ * {@link #finishDocument()} is called.
+ */
+public class XmlUtf8Printer implements XmlPrinter {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private static final int BUF_SIZE = 8192;
+
+	private static final String[] XML_RPC_TAGS = { "methodCall", "methodName", "params", "param", "value", "int",
+			"i4", "boolean", "double", "string", "dateTime.iso8601", "base64", "struct", "member", "name", "array",
+			"data", "methodResponse", "fault" };
+
+	private static final int OPEN = 0;
+	private static final int CLOSE = 1;
+	private static final int EMPTY = 2;
+
+	// Maps each tag name to its encoded open, close and empty forms
+	private static final Map<String, byte[][]> TAGS = new HashMap<String, byte[][]>();
+
+	static {
+		for (int i = 0; i < XML_RPC_TAGS.length; i++) {
+			String name = XML_RPC_TAGS[i];
+			TAGS.put(name, new byte[][] { ascii("<" + name + ">"), ascii("</" + name + ">"), ascii("<" + name + "/>") });
+		}
+	}
+
+	private static final byte[] AMP = ascii("&amp;");
+	private static final byte[] LT = ascii("&lt;");
+	private static final byte[] GT = ascii("&gt;");
+	private static final byte[] POINT_ZERO = ascii(".0");
+	private static final byte[] MIN_LONG = ascii(Long.toString(Long.MIN_VALUE));
+
+	// Doubles of a smaller magnitude are formatted without an exponent
+	private static final long MAX_PLAIN_DOUBLE = 10000000L;
+
+	private static byte[] ascii(String s) {
+		byte[] bytes = new byte[s.length()];
+		for (int i = 0; i < bytes.length; i++) {
+			bytes[i] = (byte) s.charAt(i);
+		}
+		return bytes;
+	}
+
+	private OutputStream out;
+	private byte[] buf = new byte[BUF_SIZE];
+	private int count;
+	private String lastOpened;
+	private boolean hasValue;
+
+	public XmlUtf8Printer(OutputStream out) {
+		this.out = out;
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 * 	if <code>charSet</code> isn't UTF-8.
+	 */
+	public void writeHeader(String version, Charset charSet) throws IOException {
+		if (!UTF_8.equals(charSet)) {
+			throw new IllegalArgumentException("Unsupported character set: " + charSet.name());
+		}
+		this.write("<?xml version=\"", false);
+		this.write(version, false);
+		this.write("\" encoding=\"", false);
+		this.write(charSet.name(), false);
+		this.write("\"?>", false);
+	}
+
+	public void openTag(String name) throws IOException {
+		if (this.lastOpened != null) {
+			this.writeTag(this.lastOpened, OPEN);
+		}
+		this.lastOpened = name;
+	}
+
+	public void writeValue(String value) throws IOException {
+		this.writeTag(this.lastOpened, OPEN);
+		this.write(value, false);
+		this.hasValue = true;
+	}
+
+	/**
+	 * Write a value, as {@link #writeValue(String)} does, escaping
+	 * any <code>&amp;</code>, <code>&lt;</code> or
+	 * <code>&gt;</code> characters in it.
+	 * @param value
+	 * 	The (unescaped) value associated with the most
+	 * 	recently opened tag.
+	 */
+	public void writeEscapedValue(String value) throws IOException {
+		this.writeTag(this.lastOpened, OPEN);
+		this.write(value, true);
+		this.hasValue = true;
+	}
+
+	/**
+	 * Write an integer value, as {@link #writeValue(String)} does
+	 * with the result of {@link Long#toString(long)}.
+	 */
+	public void writeValue(long value) throws IOException {
+		this.writeTag(this.lastOpened, OPEN);
+		this.writeDigits(value);
+		this.hasValue = true;
+	}
+
+	/**
+	 * Write a double value, as {@link #writeValue(String)} does
+	 * with the result of {@link Double#toString(double)}.
+	 */
+	public void writeValue(double value) throws IOException {
+		this.writeTag(this.lastOpened, OPEN);
+		if (!this.writeIntegral(value)) {
+			this.write(Double.toString(value), false);
+		}
+		this.hasValue = true;
+	}
+
+	/**
+	 * Write a float value, as {@link #writeValue(String)} does
+	 * with the result of {@link Float#toString(float)}.
+	 */
+	public void writeValue(float value) throws IOException {
+		this.writeTag(this.lastOpened, OPEN);
+		if (!this.writeIntegral(value)) {
+			this.write(Float.toString(value), false);
+		}
+		this.hasValue = true;
+	}
+
+	/**
+	 * Write a date value, as {@link #writeValue(String)} does
+	 * with the result of {@link DateTimeCodec#format(long)}.
+	 * @throws IllegalArgumentException
+	 * 	if {@link DateTimeCodec#canFormat(long)} returns
+	 * 	<code>false</code> for the date.
+	 */
+	public void writeValue(Date value) throws IOException {
+		long time = value.getTime();
+		if (!DateTimeCodec.canFormat(time)) {
+			throw new IllegalArgumentException("Date out of range: " + value);
+		}
+		this.writeTag(this.lastOpened, OPEN);
+		if (this.count + DateTimeCodec.LENGTH > this.buf.length) {
+			this.flush();
+		}
+		this.count = DateTimeCodec.format(time, this.buf, this.count);
+		this.hasValue = true;
+	}
+
+	public void closeTag(String name) throws IOException {
+		if (name.equals(this.lastOpened) && !this.hasValue) {
+			this.writeTag(name, EMPTY);
+		} else {
+			this.writeTag(name, CLOSE);
+		}
+		this.lastOpened = null;
+		this.hasValue = false;
+	}
+
+	public void finishDocument() throws IOException {
+		this.flush();
+	}
+
+	private void writeTag(String name, int form) throws IOException {
+		byte[][] tag = TAGS.get(name);
+		if (tag != null) {
+			this.write(tag[form]);
+			return;
+		}
+
+		this.write('<');
+		if (form == CLOSE) {
+			this.write('/');
+		}
+		this.write(name, false);
+		if (form == EMPTY) {
+			this.write('/');
+		}
+		this.write('>');
+	}
+
+	// Handles the values Double.toString() (and Float.toString())
+	// formats as a whole number followed by ".0". Returns false
+	// for anything else.
+	private boolean writeIntegral(double value) throws IOException {
+		long l = (long) value;
+		if (l != value || l <= -MAX_PLAIN_DOUBLE || l >= MAX_PLAIN_DOUBLE) {
+			return false;
+		}
+		if (l == 0 && Double.doubleToRawLongBits(value) != 0) {
+			// -0.0
+			return false;
+		}
+		this.writeDigits(l);
+		this.write(POINT_ZERO);
+		return true;
+	}
+
+	private void writeDigits(long value) throws IOException {
+		if (value == Long.MIN_VALUE) {
+			// Can't be negated
+			this.write(MIN_LONG);
+			return;
+		}
+
+		// Leave room for a sign and 19 digits
+		if (this.count > this.buf.length - 20) {
+			this.flush();
+		}
+		if (value < 0) {
+			this.buf[this.count++] = '-';
+			value = -value;
+		}
+		int digits = 1;
+		for (long v = value; v >= 10; v /= 10) {
+			digits++;
+		}
+		int pos = this.count + digits;
+		this.count = pos;
+		do {
+			this.buf[--pos] = (byte) ('0' + (int) (value % 10));
+			value /= 10;
+		} while (value != 0);
+	}
+
+	private void write(String s, boolean escape) throws IOException {
+		int len = s.length();
+		for (int i = 0; i < len; i++) {
+			// Leave room for the longest sequence a character can become
+			if (this.count > this.buf.length - 5) {
+				this.flush();
+			}
+
+			char c = s.charAt(i);
+			if (c < 0x80) {
+				if (escape && (c == '&' || c == '<' || c == '>')) {
+					byte[] ref = c == '&' ? AMP : c == '<' ? LT : GT;
+					System.arraycopy(ref, 0, this.buf, this.count, ref.length);
+					this.count += ref.length;
+				} else {
+					this.buf[this.count++] = (byte) c;
+				}
+			} else if (c < 0x800) {
+				this.buf[this.count++] = (byte) (0xC0 | (c >> 6));
+				this.buf[this.count++] = (byte) (0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < len && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int cp = Character.toCodePoint(c, s.charAt(++i));
+				this.buf[this.count++] = (byte) (0xF0 | (cp >> 18));
+				this.buf[this.count++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+				this.buf[this.count++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+				this.buf[this.count++] = (byte) (0x80 | (cp & 0x3F));
+			} else if (Character.isHighSurrogate(c) || Character.isLowSurrogate(c)) {
+				// An unpaired surrogate, replaced just as String.getBytes() would
+				this.buf[this.count++] = (byte) '?';
+			} else {
+				this.buf[this.count++] = (byte) (0xE0 | (c >> 12));
+				this.buf[this.count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+				this.buf[this.count++] = (byte) (0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	private void write(byte[] bytes) throws IOException {
+		if (this.count + bytes.length > this.buf.length) {
+			this.flush();
+		}
+		System.arraycopy(bytes, 0, this.buf, this.count, bytes.length);
+		this.count += bytes.length;
+	}
+
+	private void write(int b) throws IOException {
+		if (this.count == this.buf.length) {
+			this.flush();
+		}
+		this.buf[this.count++] = (byte) b;
+	}
+
+	private void flush() throws IOException {
+		if (this.count > 0) {
+			this.out.write(this.buf, 0, this.count);
+			this.count = 0;
+		}
+	}
+}
@@ -1,8 +1,10 @@
 package com.flat502.rox.http;
 
 import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
 import java.io.PrintStream;
 import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Iterator;
@@ -463,6 +465,127 @@ public class Test_HttpRequestBuffer extends XMLTestCase {
 		assertEquals("More", new String(httpReq3.getContent(), "UTF-8"));
 	}
 
+	public void testHeadersArriveByteByByte() throws Exception {
+		String[] msg = new String[] {
+				"POST / HTTP/1.1",
+				"host: hostname",
+				"CONTENT-TYPE: text/xml",
+				"X-Custom-header:  custom  ",
+				"content-length: 5",
+				"",
+				"Hello" };
+		byte[] buf = toBuffer(msg);
+		HttpRequestBuffer httpReq = new HttpRequestBuffer(null, null);
+		for (int i = 0; i < buf.length - 1; i++) {
+			assertEquals(-1, httpReq.addBytes(buf, i, 1));
+		}
+		assertEquals(0, httpReq.addBytes(buf, buf.length - 1, 1));
+		assertTrue(httpReq.isComplete());
+		
+		Iterator names = httpReq.getHeaders().keySet().iterator();
+		assertEquals("Host", names.next());
+		assertEquals("Content-Type", names.next());
+		assertEquals("X-Custom-Header", names.next());
+		assertEquals("Content-Length", names.next());
+		assertEquals("hostname", httpReq.getHeaderValue("Host"));
+		assertEquals("custom", httpReq.getHeaderValue("x-custom-header"));
+		assertEquals("text/xml", httpReq.getContentType());
+		assertEquals("Hello", new String(httpReq.getContent(), "UTF-8"));
+	}
+
+	public void testHeaderWithoutColon() throws Exception {
+		String[] msg = new String[] {
+				"POST / HTTP/1.1",
+				"Host: hostname",
+				"Content-Type text/xml",
+				"Content-Length: 5",
+				"",
+				"Hello" };
+		try {
+			this.newHttpRequestBuffer(msg);
+			fail();
+		} catch (HttpBufferException e) {
+		}
+	}
+
+	public void testLargeBodyInSmallChunks() throws Exception {
+		StringBuffer body = new StringBuffer();
+		for (int i = 0; i < 100000; i++) {
+			body.append((char) ('a' + (i % 26)));
+		}
+		String[] msg = new String[] {
+				"POST / HTTP/1.1",
+				"Host: hostname",
+				"Content-Type: text/xml",
+				"Content-Length: " + body.length(),
+				"",
+				body.toString() + "POST / HTTP/1.1" };
+		byte[] buf = toBuffer(msg);
+		
+		HttpRequestBuffer httpReq = new HttpRequestBuffer(null, null);
+		int excess = -1;
+		int offset = 0;
+		while (excess == -1) {
+			int count = Math.min(1000, buf.length - offset);
+			excess = httpReq.addBytes(buf, offset, count);
+			offset += count;
+		}
+		assertEquals(buf.length - "POST / HTTP/1.1".length(), excess);
+		assertTrue(httpReq.isComplete());
+		// Growth stops at the end of the message
+		assertTrue(httpReq.getCapacity() <= buf.length);
+		
+		ByteBuffer content = httpReq.getContentBuffer();
+		assertEquals(body.length(), content.remaining());
+		assertTrue(content.isReadOnly());
+		byte[] viewed = new byte[content.remaining()];
+		content.get(viewed);
+		assertEquals(body.toString(), new String(viewed, "UTF-8"));
+		
+		assertEquals(body.toString(), new String(httpReq.getContent(), "UTF-8"));
+		
+		InputStream is = httpReq.getContentStream();
+		byte[] streamed = new byte[body.length() + 1];
+		int total = 0;
+		int numRead;
+		while ((numRead = is.read(streamed, total, streamed.length - total)) > 0) {
+			total += numRead;
+		}
+		assertEquals(body.length(), total);
+	}
+
+	public void testHeadersAloneDontAllocateContentLength() throws Exception {
+		String[] msg = new String[] {
+				"POST / HTTP/1.1",
+				"Host: hostname",
+				"Content-Type: text/xml",
+				"Content-Length: " + (4 * 1024 * 1024),
+				"",
+				"" };
+		byte[] buf = toBuffer(msg);
+		HttpRequestBuffer httpReq = new HttpRequestBuffer(null, null);
+		assertEquals(-1, httpReq.addBytes(buf, 0, buf.length));
+		assertTrue(httpReq.getCapacity() <= buf.length + 64 * 1024);
+	}
+
+	public void testContentBufferRequiresCompleteMessage() throws Exception {
+		String[] msg = new String[] {
+				"POST / HTTP/1.1",
+				"Host: hostname",
+				"Content-Type: text/xml",
+				"Content-Length: 10",
+				"",
+				"Hello" };
+		HttpRequestBuffer httpReq = this.newHttpRequestBuffer(msg);
+		assertFalse(httpReq.isComplete());
+		assertNull(httpReq.getContent());
+		try {
+			httpReq.getContentBuffer();
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+
 	private HttpRequestBuffer newHttpRequestBuffer(String[] msg)
 			throws Exception {
 		return this.newHttpRequestBuffer(msg, "UTF-8");
@@ -2,6 +2,7 @@ package com.flat502.rox.marshal;
 
 import java.sql.Timestamp;
 
+@XmlRpcStruct
 public class DateStruct {
 	public Timestamp dateMember;
 
@@ -1,5 +1,6 @@
 package com.flat502.rox.marshal;
 
+@XmlRpcStruct
 public class FirstLevel {
 	public SecondLevel publicSecondLevel;
 	private SecondLevel privateSecondLevel;
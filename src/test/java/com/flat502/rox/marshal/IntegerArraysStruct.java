@@ -5,6 +5,7 @@ package com.flat502.rox.marshal;
 
 import java.util.Date;
 
+@XmlRpcStruct
 public class IntegerArraysStruct {
 	public Integer[] publicIntegerArray;
 
@@ -25,4 +26,4 @@ public class IntegerArraysStruct {
 	public void setPrivateIntegerArray(Integer[] v) {
 		this.privateIntegerArray = v;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
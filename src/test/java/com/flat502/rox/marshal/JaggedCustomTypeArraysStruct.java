@@ -5,6 +5,7 @@ package com.flat502.rox.marshal;
 
 import java.util.Date;
 
+@XmlRpcStruct
 public class JaggedCustomTypeArraysStruct {
 	public SimpleStruct[][] publicCustomArray;
 
@@ -26,4 +27,4 @@ public class JaggedCustomTypeArraysStruct {
 	public void setprivateCustomArray(SimpleStruct[][] v) {
 		this.privateCustomArray = v;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
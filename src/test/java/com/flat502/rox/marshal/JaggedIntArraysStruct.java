@@ -5,6 +5,7 @@ package com.flat502.rox.marshal;
 
 import java.util.Date;
 
+@XmlRpcStruct
 public class JaggedIntArraysStruct {
 	public int[][] publicIntArray;
 
@@ -25,4 +26,4 @@ public class JaggedIntArraysStruct {
 	public void setPrivateIntArray(int[][] v) {
 		this.privateIntArray = v;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
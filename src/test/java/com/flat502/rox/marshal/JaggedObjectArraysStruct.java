@@ -5,6 +5,7 @@ package com.flat502.rox.marshal;
 
 import java.util.Date;
 
+@XmlRpcStruct
 public class JaggedObjectArraysStruct {
 	public Object[][] publicObjectArray;
 
@@ -26,4 +27,4 @@ public class JaggedObjectArraysStruct {
 	public void setprivateObjectArray(Object[][] v) {
 		this.privateObjectArray = v;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -5,6 +5,7 @@ package com.flat502.rox.marshal;
 
 import java.util.LinkedList;
 
+@XmlRpcStruct
 public class LinkedListStruct {
 	public LinkedList publicList;
 	private LinkedList privateList;
@@ -24,4 +25,4 @@ public class LinkedListStruct {
 	public void setPrivateList(LinkedList v) {
 		this.privateList = v;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -6,6 +6,7 @@ package com.flat502.rox.marshal;
 import java.util.Date;
 import java.util.List;
 
+@XmlRpcStruct
 public class ListStruct {
 	public List publicList;
 	private List privateList;
@@ -25,4 +26,4 @@ public class ListStruct {
 	public void setPrivateList(List v) {
 		this.privateList = v;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -5,6 +5,7 @@ package com.flat502.rox.marshal;
 
 import java.util.Map;
 
+@XmlRpcStruct
 public class MapStruct {
 	public Map publicMap;
 	private Map privateMap;
@@ -24,4 +25,4 @@ public class MapStruct {
 	public void setPrivateMap(Map v) {
 		this.privateMap = v;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
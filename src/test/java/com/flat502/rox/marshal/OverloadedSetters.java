@@ -0,0 +1,19 @@
+package com.flat502.rox.marshal;
+
+@XmlRpcStruct
+public class OverloadedSetters {
+	private String value;
+	
+	public String getValue() {
+		return this.value;
+	}
+	
+	// Declared first so it's the first overload the processor sees
+	public void setValue(int value) {
+		this.value = String.valueOf(value);
+	}
+	
+	public void setValue(String value) {
+		this.value = value;
+	}
+}
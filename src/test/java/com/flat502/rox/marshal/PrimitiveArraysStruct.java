@@ -5,6 +5,7 @@ package com.flat502.rox.marshal;
 
 import java.util.Date;
 
+@XmlRpcStruct
 public class PrimitiveArraysStruct {
 	public int[] publicIntArray;
 
@@ -55,4 +56,4 @@ public class PrimitiveArraysStruct {
 	public void setPrivateDoubleArray(double[] v) {
 		this.privateDoubleArray = v;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -2,6 +2,7 @@ package com.flat502.rox.marshal;
 
 import java.util.Date;
 
+@XmlRpcStruct
 public class PrimitivesStruct {
 	public byte byteVal;
 	public short shortVal;
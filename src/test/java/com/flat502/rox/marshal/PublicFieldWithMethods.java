@@ -1,5 +1,6 @@
 package com.flat502.rox.marshal;
 
+@XmlRpcStruct
 public class PublicFieldWithMethods {
 	public boolean getterCalled;
 	public boolean setterCalled;
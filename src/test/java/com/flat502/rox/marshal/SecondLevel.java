@@ -1,5 +1,6 @@
 package com.flat502.rox.marshal;
 
+@XmlRpcStruct
 public class SecondLevel {
 	public String name;
 
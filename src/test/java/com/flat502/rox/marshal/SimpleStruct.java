@@ -1,5 +1,6 @@
 package com.flat502.rox.marshal;
 
+@XmlRpcStruct
 public class SimpleStruct {
 	public String stringMember;
 	
@@ -6,6 +6,7 @@ package com.flat502.rox.marshal;
 import java.util.Date;
 import java.util.List;
 
+@XmlRpcStruct
 public class TestObject {
 	private Integer intObject;
 	private int intVal;
@@ -150,4 +151,4 @@ public class TestObject {
 	public String toString() {
 		return "Testing";
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -5,6 +5,7 @@ package com.flat502.rox.marshal;
 
 import java.util.Date;
 
+@XmlRpcStruct
 public class TestStruct {
 	public Integer intObject;
 	public int intVal;
@@ -41,4 +42,4 @@ public class TestStruct {
 		this.byteArray = byteArray;
 		this.objectArray = objectArray;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
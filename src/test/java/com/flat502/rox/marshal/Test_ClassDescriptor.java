@@ -101,6 +101,42 @@ public class Test_ClassDescriptor extends TestCase {
 		}
 	}
 
+	public void testGetterPlan() throws Exception {
+		ClassDescriptor cd = ClassDescriptor.getInstance(TwoStrings.class);
+		ClassDescriptor.Accessor[] plan = cd.getterPlan();
+		assertEquals(2, plan.length);
+		assertEquals("nonNullString", plan[0].getName());
+		assertEquals("nullString", plan[1].getName());
+		assertEquals(String.class, plan[0].getType());
+
+		TwoStrings struct = new TwoStrings();
+		assertEquals("Not Null", plan[0].get(struct));
+		assertNull(plan[1].get(struct));
+		assertSame(plan, cd.getterPlan());
+	}
+
+	public void testSetterPlanPrefersMethods() throws Exception {
+		ClassDescriptor cd = ClassDescriptor.getInstance(PublicFieldWithMethods.class);
+		ClassDescriptor.Accessor setter = cd.getSetter("stringMember");
+		assertNotNull(setter);
+		assertEquals(String.class, setter.getType());
+
+		PublicFieldWithMethods struct = new PublicFieldWithMethods();
+		setter.set(struct, "Hello World");
+		assertTrue(struct.setterCalled);
+		assertEquals("Hello World", struct.stringMember);
+
+		ClassDescriptor.Accessor[] plan = cd.setterPlan();
+		assertEquals(3, plan.length);
+		assertSame(setter, plan[2]);
+	}
+
+	public void testMissingSetter() throws Exception {
+		ClassDescriptor cd = ClassDescriptor.getInstance(Modifiers.class);
+		assertNull(cd.getSetter("finalString"));
+		assertNull(cd.getSetter("noSuchMember"));
+	}
+
 	public static void main(String[] args) {
 		junit.textui.TestRunner.run(Test_ClassDescriptor.class);
 	}
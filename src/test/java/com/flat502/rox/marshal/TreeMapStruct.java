@@ -5,6 +5,7 @@ package com.flat502.rox.marshal;
 
 import java.util.TreeMap;
 
+@XmlRpcStruct
 public class TreeMapStruct {
 	public TreeMap publicMap;
 	private TreeMap privateMap;
@@ -24,4 +25,4 @@ public class TreeMapStruct {
 	public void setPrivateMap(TreeMap v) {
 		this.privateMap = v;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -3,6 +3,7 @@
  */
 package com.flat502.rox.marshal;
 
+@XmlRpcStruct
 public class TwoStrings {
 	public String nullString = null;
 	public String nonNullString = "Not Null";
@@ -5,6 +5,7 @@ package com.flat502.rox.marshal;
 
 import java.util.Date;
 
+@XmlRpcStruct
 public class TypedArrayStruct {
 	public SimpleStruct[] publicTypedArray;
 	private SimpleStruct[] privateTypedArray;
@@ -24,4 +25,4 @@ public class TypedArrayStruct {
 	public void setPrivateTypedArray(SimpleStruct[] v) {
 		this.privateTypedArray = v;
 	}
-}
\ No newline at end of file
+}
\ No newline at end of file
@@ -64,6 +64,26 @@ public abstract class TestBase_MethodCallUnmarshaller extends TestBase_Unmarshal
 		}
 	}
 
+	public void testNonAsciiElementName() throws Exception {
+		String[] xmlLines = new String[] {
+				"<?xml version=\"1.0\"?>",
+				"<methodCall>",
+				"	<methodName>server.delay</methodName>",
+				"	<params>",
+				"		<param>",
+				"			<value><int\u20ac>1000</int\u20ac></value>",
+				"		</param>",
+				"	</params>",
+				"</methodCall>"};
+		String xml = toString(xmlLines);
+
+		try {
+			this.unmarshal(xml, null);
+			fail();
+		} catch(MarshallingException e) {
+		}
+	}
+
 	public void testDuplicateMethodName() throws Exception {
 		String[] xmlLines = new String[] {
 				"<?xml version=\"1.0\"?>",
@@ -547,6 +567,38 @@ public abstract class TestBase_MethodCallUnmarshaller extends TestBase_Unmarshal
 		assertEquals(new Integer(42), call.getParameters()[0]);
 	}
 
+	public void testIntParam_plusSign() throws Exception {
+		String[] xmlLines = new String[] {
+				"<?xml version=\"1.0\"?>",
+				"<methodCall>",
+				"	<methodName>testMethod</methodName>",
+				"	<params>",
+				"		<param>",
+				"			<value><i4>+5</i4></value>",
+				"		</param>",
+				"	</params>",
+				"</methodCall>" };
+		String xml = toString(xmlLines);
+
+		// Only as lenient as Integer.parseInt(), which rejects a 
+		// leading plus sign before Java 7.
+		boolean accepted;
+		try {
+			Integer.parseInt("+5");
+			accepted = true;
+		} catch (NumberFormatException e) {
+			accepted = false;
+		}
+
+		try {
+			RpcCall call = this.unmarshal(xml, null);
+			assertTrue(accepted);
+			assertEquals(new Integer(5), call.getParameters()[0]);
+		} catch (MarshallingException e) {
+			assertFalse(accepted);
+		}
+	}
+
 	public void testStringParam_implicit() throws Exception {
 		String[] xmlLines = new String[] {
 				"<?xml version=\"1.0\"?>",
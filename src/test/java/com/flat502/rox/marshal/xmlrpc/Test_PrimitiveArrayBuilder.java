@@ -0,0 +1,57 @@
+package com.flat502.rox.marshal.xmlrpc;
+
+import java.util.Arrays;
+
+import junit.framework.TestCase;
+
+import com.flat502.rox.marshal.MarshallingException;
+
+public class Test_PrimitiveArrayBuilder extends TestCase {
+	public void testUnsupportedType() throws Exception {
+		assertNull(PrimitiveArrayBuilder.newInstance(short[].class));
+		assertNull(PrimitiveArrayBuilder.newInstance(Integer[].class));
+	}
+
+	public void testGrowth() throws Exception {
+		PrimitiveArrayBuilder builder = PrimitiveArrayBuilder.newInstance(int[].class);
+		int[] expected = new int[100];
+		for (int i = 0; i < expected.length; i++) {
+			expected[i] = i;
+			builder.addInt(i);
+		}
+		assertTrue(Arrays.equals(expected, (int[]) builder.toArray()));
+	}
+
+	public void testBoxedValues() throws Exception {
+		PrimitiveArrayBuilder builder = PrimitiveArrayBuilder.newInstance(long[].class);
+		builder.add(new Integer(1));
+		builder.add(new Long(2));
+		assertTrue(Arrays.equals(new long[] { 1, 2 }, (long[]) builder.toArray()));
+
+		builder = PrimitiveArrayBuilder.newInstance(float[].class);
+		builder.add(new Double(1.5));
+		builder.add(new Float(2.5f));
+		assertTrue(Arrays.equals(new float[] { 1.5f, 2.5f }, (float[]) builder.toArray()));
+	}
+
+	public void testIncompatibleValue() throws Exception {
+		PrimitiveArrayBuilder builder = PrimitiveArrayBuilder.newInstance(int[].class);
+		assertTrue(builder.acceptsInt());
+		assertFalse(builder.acceptsDouble());
+		assertFalse(builder.acceptsBoolean());
+		try {
+			builder.add("42");
+			fail();
+		} catch (MarshallingException e) {
+		}
+		try {
+			builder.add(new Double(4.2));
+			fail();
+		} catch (MarshallingException e) {
+		}
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(Test_PrimitiveArrayBuilder.class);
+	}
+}
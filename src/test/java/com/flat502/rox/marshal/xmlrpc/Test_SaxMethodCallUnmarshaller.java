@@ -1,7 +1,20 @@
 package com.flat502.rox.marshal.xmlrpc;
 
 import java.io.InputStream;
+import java.io.StringReader;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
 
+import javax.xml.parsers.SAXParser;
+
+import org.xml.sax.AttributeList;
+import org.xml.sax.HandlerBase;
+import org.xml.sax.InputSource;
+
+import com.flat502.rox.marshal.HyphenatedFieldNameCodec;
+import com.flat502.rox.marshal.MarshallingException;
 import com.flat502.rox.marshal.MethodCallUnmarshallerAid;
 import com.flat502.rox.marshal.RpcCall;
 
@@ -27,6 +40,192 @@ public class Test_SaxMethodCallUnmarshaller extends TestBase_MethodCallUnmarshal
 		return new SaxMethodCallUnmarshaller().unmarshal(xml, aid);
 	}
 
+	public void testPushParserByteByByte() throws Exception {
+		String xml = "<?xml version=\"1.0\"?><methodCall><methodName>method</methodName>"
+				+ "<params><param><value><string>caf\u00e9 cr\u00e8me</string></value></param>"
+				+ "<param><value><i4>42</i4></value></param></params></methodCall>";
+		byte[] bytes = xml.getBytes("UTF-8");
+		MethodCallPushParser parser = new SaxMethodCallUnmarshaller().newPushParser(null, Charset.forName("UTF-8"));
+		for (int i = 0; i < bytes.length; i++) {
+			parser.write(bytes, i, 1);
+		}
+		RpcCall call = parser.finish();
+		assertEquals("method", call.getName());
+		assertEquals(2, call.getParameters().length);
+		assertEquals("caf\u00e9 cr\u00e8me", call.getParameters()[0]);
+		assertEquals(new Integer(42), call.getParameters()[1]);
+	}
+
+	public void testPushParserIncompleteCall() throws Exception {
+		byte[] bytes = "<?xml version=\"1.0\"?><methodCall><methodName>m</methodName>".getBytes("UTF-8");
+		MethodCallPushParser parser = new SaxMethodCallUnmarshaller().newPushParser(null, Charset.forName("UTF-8"));
+		parser.write(bytes, 0, bytes.length);
+		try {
+			parser.finish();
+			fail();
+		} catch (MarshallingException e) {
+		}
+		try {
+			parser.write(bytes, 0, bytes.length);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+	}
+
+	public void testPushParserReleasedWhenBuildFails() throws Exception {
+		SaxParserPool pool = new SaxParserPool();
+		SAXParser saxParser = pool.provideParser();
+		pool.returnParser(saxParser);
+
+		SaxMethodCallUnmarshaller unmarshaller = new SaxMethodCallUnmarshaller(pool) {
+			protected RpcCall buildXmlRpcMethodCall(SaxUnmarshaller unmarshaller) {
+				throw new IllegalStateException("build failed");
+			}
+		};
+		byte[] bytes = "<?xml version=\"1.0\"?><methodCall><methodName>m</methodName></methodCall>".getBytes("UTF-8");
+		MethodCallPushParser parser = unmarshaller.newPushParser(null, Charset.forName("UTF-8"));
+		parser.write(bytes, 0, bytes.length);
+		try {
+			parser.finish();
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertSame(saxParser, pool.provideParser());
+	}
+
+	public void testElementsReportedByName() throws Exception {
+		String xml = "<?xml version=\"1.0\"?><methodCall><methodName>method</methodName>"
+				+ "<params><param><value><int>42</int></value></param></params></methodCall>";
+		final List elements = new ArrayList();
+		XmlRpcSaxParser parser = new XmlRpcSaxParser();
+		parser.parse(new InputSource(new StringReader(xml)), new HandlerBase() {
+			public void startElement(String name, AttributeList attrs) {
+				elements.add(name);
+			}
+
+			public void endElement(String name) {
+				elements.add("/" + name);
+			}
+		});
+		assertEquals("[methodCall, methodName, /methodName, params, param, value, int, /int, /value, /param, /params, /methodCall]",
+				elements.toString());
+	}
+
+	public void testUnexpectedElement() throws Exception {
+		String xml = "<?xml version=\"1.0\"?><methodCall><methodName>method</methodName>"
+				+ "<params><param><int>42</int></param></params></methodCall>";
+		try {
+			unmarshal(xml, null);
+			fail();
+		} catch (MarshallingException e) {
+			assertEquals("No transition for [param, int]", e.getCause().getMessage());
+		}
+	}
+
+	private String arrayCall(String type, int count) {
+		StringBuffer sb = new StringBuffer("<?xml version=\"1.0\"?><methodCall><methodName>method</methodName>"
+				+ "<params><param><value><array><data>");
+		for (int i = 0; i < count; i++) {
+			sb.append("<value><").append(type).append(">");
+			if (type.equals("boolean")) {
+				sb.append(i % 2);
+			} else if (type.equals("double")) {
+				sb.append(i).append(".5");
+			} else {
+				sb.append(i);
+			}
+			sb.append("</").append(type).append("></value>");
+		}
+		sb.append("</data></array></value></param></params></methodCall>");
+		return sb.toString();
+	}
+
+	public void testLargePrimitiveArrays() throws Exception {
+		int[] ints = (int[]) unmarshal(arrayCall("int", 1000), new Class[] { int[].class }).getParameters()[0];
+		assertEquals(1000, ints.length);
+		assertEquals(999, ints[999]);
+
+		long[] longs = (long[]) unmarshal(arrayCall("i4", 1000), new Class[] { long[].class }).getParameters()[0];
+		assertEquals(1000, longs.length);
+		assertEquals(999, longs[999]);
+
+		double[] doubles = (double[]) unmarshal(arrayCall("double", 1000), new Class[] { double[].class })
+				.getParameters()[0];
+		assertEquals(1000, doubles.length);
+		assertEquals(999.5, doubles[999], 0);
+
+		float[] floats = (float[]) unmarshal(arrayCall("double", 1000), new Class[] { float[].class })
+				.getParameters()[0];
+		assertEquals(1000, floats.length);
+		assertEquals(999.5f, floats[999], 0);
+
+		boolean[] booleans = (boolean[]) unmarshal(arrayCall("boolean", 1000), new Class[] { boolean[].class })
+				.getParameters()[0];
+		assertEquals(1000, booleans.length);
+		assertFalse(booleans[998]);
+		assertTrue(booleans[999]);
+	}
+
+	public void testEmptyPrimitiveArray() throws Exception {
+		int[] ints = (int[]) unmarshal(arrayCall("int", 0), new Class[] { int[].class }).getParameters()[0];
+		assertEquals(0, ints.length);
+	}
+
+	public void testScalarsParsedFromChars() throws Exception {
+		SaxUnmarshaller unmarshaller = new SaxUnmarshaller(new HyphenatedFieldNameCodec());
+		String[] ints = { "0", "-0", "42", "-2147483648", "2147483647", "00000000042" };
+		for (int i = 0; i < ints.length; i++) {
+			char[] ch = ints[i].toCharArray();
+			assertEquals(Integer.parseInt(ints[i]), unmarshaller.parseIntValue(ch, 0, ch.length));
+		}
+		String[] badInts = { "", "-", "+", "2147483648", "-2147483649", "1.0", " 1", "1a", "99999999999" };
+		for (int i = 0; i < badInts.length; i++) {
+			char[] ch = badInts[i].toCharArray();
+			try {
+				unmarshaller.parseIntValue(ch, 0, ch.length);
+				fail(badInts[i]);
+			} catch (MarshallingException e) {
+			}
+		}
+
+		String[] doubles = { "0", "-0.0", "+1.5", "1.", ".5", "123.456", "0.1", "-999999999999999",
+				"0.000000000000001", "1.2345678901234567", "1e10", "NaN", "-Infinity", " 1.5" };
+		for (int i = 0; i < doubles.length; i++) {
+			char[] ch = doubles[i].toCharArray();
+			assertEquals(doubles[i], Double.doubleToLongBits(Double.parseDouble(doubles[i])), Double
+					.doubleToLongBits(unmarshaller.parseDoubleValue(ch, 0, ch.length)));
+		}
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			String s = Long.toString(Math.abs(random.nextLong() % 1000000000000000L));
+			int point = random.nextInt(s.length());
+			s = (random.nextBoolean() ? "-" : "") + s.substring(0, point) + "." + s.substring(point);
+			char[] ch = s.toCharArray();
+			assertEquals(s, Double.parseDouble(s), unmarshaller.parseDoubleValue(ch, 0, ch.length), 0);
+		}
+
+		char[] ch = "<x>1</x>".toCharArray();
+		assertTrue(unmarshaller.parseBooleanValue(ch, 3, 1));
+		try {
+			unmarshaller.parseBooleanValue(ch, 0, 2);
+			fail();
+		} catch (MarshallingException e) {
+		}
+	}
+
+	public void testJaggedPrimitiveArray() throws Exception {
+		String xml = "<?xml version=\"1.0\"?><methodCall><methodName>method</methodName><params><param><value>"
+				+ "<array><data><value><array><data><value><int>1</int></value><value><int>2</int></value></data></array></value>"
+				+ "<value><array><data><value><int>3</int></value></data></array></value></data></array>"
+				+ "</value></param></params></methodCall>";
+		int[][] ints = (int[][]) unmarshal(xml, new Class[] { int[][].class }).getParameters()[0];
+		assertEquals(2, ints.length);
+		assertEquals(2, ints[0].length);
+		assertEquals(2, ints[0][1]);
+		assertEquals(1, ints[1].length);
+		assertEquals(3, ints[1][0]);
+	}
+
 	public static void main(String[] args) {
 		junit.textui.TestRunner.run(Test_SaxMethodCallUnmarshaller.class);
 	}
@@ -0,0 +1,89 @@
+package com.flat502.rox.marshal.xmlrpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import javax.xml.parsers.SAXParser;
+
+import com.flat502.rox.marshal.ArrayParameterTypeMapper;
+import com.flat502.rox.marshal.MethodCallUnmarshallerAid;
+import com.flat502.rox.marshal.RpcCall;
+
+public class Test_SaxMethodCallUnmarshallerWithBytes extends TestBase_MethodCallUnmarshaller {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	// Ours is the only parser that parses bytes so make sure it's
+	// used, whichever parser other tests have asked for.
+	private static final SaxParserPool POOL = new SaxParserPool() {
+		public SAXParser provideParser() {
+			return new XmlRpcSaxParser();
+		}
+
+		public void returnParser(SAXParser parser) {
+		}
+	};
+
+	public Test_SaxMethodCallUnmarshallerWithBytes(String name) {
+		super(name);
+	}
+
+	protected RpcCall unmarshal(String xml, Class[] types) throws Exception {
+		return unmarshalWithAid(xml, new ArrayParameterTypeMapper(types));
+	}
+
+	protected RpcCall unmarshal(InputStream xml, Class[] types) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		while ((n = xml.read(buf)) != -1) {
+			out.write(buf, 0, n);
+		}
+		return new SaxMethodCallUnmarshaller(POOL).unmarshal(ByteBuffer.wrap(out.toByteArray()), UTF_8,
+				new ArrayParameterTypeMapper(types));
+	}
+
+	protected RpcCall unmarshalWithAid(String xml, MethodCallUnmarshallerAid aid) throws Exception {
+		return new SaxMethodCallUnmarshaller(POOL).unmarshal(ByteBuffer.wrap(xml.getBytes("UTF-8")), UTF_8, aid);
+	}
+
+	public void testMultiByteCharacters() throws Exception {
+		String xml = "<?xml version=\"1.0\"?><methodCall><methodName>method</methodName><params>"
+				+ "<param><value><string>caf\u00e9 \u20ac \ud834\udd1e &lt;&#x41;&#66;&gt;</string></value></param>"
+				+ "</params></methodCall>";
+		RpcCall call = unmarshal(xml, (Class[]) null);
+		assertEquals("caf\u00e9 \u20ac \ud834\udd1e <AB>", call.getParameters()[0]);
+	}
+
+	public void testLatin1() throws Exception {
+		String xml = "<methodCall><methodName>method</methodName><params>"
+				+ "<param><value>caf\u00e9</value></param></params></methodCall>";
+		Charset latin1 = Charset.forName("ISO-8859-1");
+		RpcCall call = new SaxMethodCallUnmarshaller(POOL).unmarshal(ByteBuffer.wrap(xml.getBytes("ISO-8859-1")), latin1,
+				(MethodCallUnmarshallerAid) null);
+		assertEquals("caf\u00e9", call.getParameters()[0]);
+	}
+
+	public void testFallBackForUtf16() throws Exception {
+		String xml = "<methodCall><methodName>method</methodName><params>"
+				+ "<param><value>caf\u00e9</value></param></params></methodCall>";
+		Charset utf16 = Charset.forName("UTF-16BE");
+		assertFalse(XmlRpcSaxParser.isByteCompatible(utf16));
+		RpcCall call = new SaxMethodCallUnmarshaller(POOL).unmarshal(ByteBuffer.wrap(xml.getBytes("UTF-16BE")), utf16,
+				(MethodCallUnmarshallerAid) null);
+		assertEquals("caf\u00e9", call.getParameters()[0]);
+	}
+
+	public void testBufferIsUnchanged() throws Exception {
+		byte[] xml = "<methodCall><methodName>method</methodName></methodCall>".getBytes("UTF-8");
+		ByteBuffer in = ByteBuffer.wrap(xml).asReadOnlyBuffer();
+		new SaxMethodCallUnmarshaller(POOL).unmarshal(in, UTF_8, (MethodCallUnmarshallerAid) null);
+		assertEquals(0, in.position());
+		assertEquals(xml.length, in.limit());
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(Test_SaxMethodCallUnmarshallerWithBytes.class);
+	}
+}
@@ -0,0 +1,57 @@
+package com.flat502.rox.marshal.xmlrpc;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import javax.xml.parsers.SAXParser;
+
+import com.flat502.rox.marshal.MethodResponseUnmarshallerAid;
+import com.flat502.rox.marshal.RpcResponse;
+
+public class Test_SaxMethodResponseUnmarshallerWithBytes extends TestBase_MethodResponseUnmarshaller {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	// Ours is the only parser that parses bytes so make sure it's
+	// used, whichever parser other tests have asked for.
+	private static final SaxParserPool POOL = new SaxParserPool() {
+		public SAXParser provideParser() {
+			return new XmlRpcSaxParser();
+		}
+
+		public void returnParser(SAXParser parser) {
+		}
+	};
+
+	public Test_SaxMethodResponseUnmarshallerWithBytes(String name) {
+		super(name);
+	}
+
+	protected RpcResponse unmarshal(String xml, final Class type) throws Exception {
+		return unmarshal(xml.getBytes("UTF-8"), type);
+	}
+
+	protected RpcResponse unmarshal(InputStream xml, final Class type) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[4096];
+		int n;
+		while ((n = xml.read(buf)) != -1) {
+			out.write(buf, 0, n);
+		}
+		return unmarshal(out.toByteArray(), type);
+	}
+
+	private RpcResponse unmarshal(byte[] xml, final Class type) throws Exception {
+		return new SaxMethodResponseUnmarshaller(POOL).unmarshal(ByteBuffer.wrap(xml), UTF_8,
+				new MethodResponseUnmarshallerAid() {
+					public Class getReturnType() {
+						return type;
+					}
+				});
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(Test_SaxMethodResponseUnmarshallerWithBytes.class);
+	}
+}
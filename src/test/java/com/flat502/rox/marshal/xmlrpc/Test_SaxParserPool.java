@@ -0,0 +1,80 @@
+package com.flat502.rox.marshal.xmlrpc;
+
+import javax.xml.parsers.SAXParser;
+
+import junit.framework.TestCase;
+
+public class Test_SaxParserPool extends TestCase {
+	private Object provideParserOnOtherThread(final SaxParserPool pool) throws Exception {
+		final Object[] result = new Object[1];
+		Thread thread = new Thread() {
+			public void run() {
+				try {
+					result[0] = pool.provideParser();
+				} catch (Exception e) {
+					result[0] = e;
+				}
+			}
+		};
+		thread.start();
+		thread.join();
+		if (result[0] instanceof Exception) {
+			throw (Exception) result[0];
+		}
+		return result[0];
+	}
+
+	public void testParserReusedByThread() throws Exception {
+		SaxParserPool pool = new SaxParserPool();
+		SAXParser parser = pool.provideParser();
+		pool.returnParser(parser);
+		assertSame(parser, pool.provideParser());
+	}
+
+	public void testUnmarshallerReusedByThread() throws Exception {
+		SaxParserPool pool = new SaxParserPool();
+		SaxUnmarshaller unmarshaller = pool.provideUnmarshaller();
+		pool.returnUnmarshaller(unmarshaller);
+		assertSame(unmarshaller, pool.provideUnmarshaller());
+	}
+
+	public void testParserSharedBetweenThreads() throws Exception {
+		SaxParserPool pool = new SaxParserPool();
+		SAXParser kept = pool.provideParser();
+		SAXParser shared = pool.provideParser();
+		pool.returnParser(kept);
+		pool.returnParser(shared);
+
+		// This thread keeps the first parser it returned for itself
+		assertSame(shared, provideParserOnOtherThread(pool));
+		assertSame(kept, pool.provideParser());
+	}
+
+	public void testMaxIdle() throws Exception {
+		SaxParserPool pool = new SaxParserPool();
+		pool.setMaxIdle(1);
+		SAXParser kept = pool.provideParser();
+		SAXParser shared = pool.provideParser();
+		SAXParser dropped = pool.provideParser();
+		pool.returnParser(kept);
+		pool.returnParser(shared);
+		pool.returnParser(dropped);
+
+		assertSame(shared, provideParserOnOtherThread(pool));
+		Object parser = provideParserOnOtherThread(pool);
+		assertNotSame(kept, parser);
+		assertNotSame(dropped, parser);
+	}
+
+	public void testNegativeMaxIdle() throws Exception {
+		try {
+			new SaxParserPool().setMaxIdle(-1);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(Test_SaxParserPool.class);
+	}
+}
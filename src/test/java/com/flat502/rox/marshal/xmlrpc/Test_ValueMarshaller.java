@@ -0,0 +1,77 @@
+package com.flat502.rox.marshal.xmlrpc;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+import com.flat502.rox.marshal.MarshallingException;
+import com.flat502.rox.utils.XmlPrinter;
+
+public class Test_ValueMarshaller extends TestBase_XmlRpcMethod {
+	// Marshals values as strings
+	private static final ValueMarshaller TO_STRING = new ValueMarshaller() {
+		public void marshal(XmlRpcMarshaller marshaller, XmlPrinter out, int depth, Object value)
+				throws MarshallingException, IOException {
+			marshaller.marshalValueContent(out, depth, value.toString());
+		}
+	};
+
+	public Test_ValueMarshaller(String name) {
+		super(name);
+	}
+
+	protected void tearDown() throws Exception {
+		XmlRpcMarshaller.unregisterValueMarshaller(BigDecimal.class);
+		XmlRpcMarshaller.unregisterValueMarshaller(UUID.class);
+		XmlRpcMarshaller.unregisterValueMarshaller(Number.class);
+		XmlRpcMarshaller.unregisterValueMarshaller(List.class);
+	}
+
+	private String marshal(Object param) throws Exception {
+		XmlRpcMethodCall call = new XmlRpcMethodCall("testName", new Object[] { param });
+		return new String(call.marshal(), "UTF-8");
+	}
+
+	public void testMarshallerResolvedOnce() throws Exception {
+		ValueMarshaller marshaller = XmlRpcMarshaller.getValueMarshaller(Integer.class);
+		assertSame(marshaller, XmlRpcMarshaller.getValueMarshaller(Integer.class));
+	}
+
+	public void testRegisteredMarshaller() throws Exception {
+		XmlRpcMarshaller.registerValueMarshaller(BigDecimal.class, TO_STRING);
+		XmlRpcMarshaller.registerValueMarshaller(UUID.class, TO_STRING);
+
+		assertXpathEvaluatesTo("3.14", "/methodCall/params/param/value/string", marshal(new BigDecimal("3.14")));
+		UUID uuid = UUID.randomUUID();
+		assertXpathEvaluatesTo(uuid.toString(), "/methodCall/params/param/value/string", marshal(uuid));
+	}
+
+	public void testRegisteredMarshallerReplacesBuiltIn() throws Exception {
+		assertXpathEvaluatesTo("42", "/methodCall/params/param/value/int", marshal(new Integer(42)));
+		XmlRpcMarshaller.registerValueMarshaller(Number.class, TO_STRING);
+		assertXpathEvaluatesTo("42", "/methodCall/params/param/value/string", marshal(new Integer(42)));
+		XmlRpcMarshaller.unregisterValueMarshaller(Number.class);
+		assertXpathEvaluatesTo("42", "/methodCall/params/param/value/int", marshal(new Integer(42)));
+	}
+
+	public void testRegisteredForInterface() throws Exception {
+		XmlRpcMarshaller.registerValueMarshaller(List.class, TO_STRING);
+		List list = new ArrayList();
+		list.add("item");
+		assertXpathEvaluatesTo("[item]", "/methodCall/params/param/value/string", marshal(list));
+	}
+
+	public void testUnsupportedPrimitiveArray() throws Exception {
+		try {
+			marshal(new short[] { 1, 2 });
+			fail();
+		} catch (MarshallingException e) {
+		}
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(Test_ValueMarshaller.class);
+	}
+}
@@ -0,0 +1,73 @@
+package com.flat502.rox.processing;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+import junit.framework.TestCase;
+
+public class Test_ConnectionState extends TestCase {
+	private SocketChannel channel;
+
+	protected void setUp() throws Exception {
+		this.channel = SocketChannel.open();
+	}
+
+	protected void tearDown() throws Exception {
+		this.channel.close();
+	}
+
+	public void testWriteQueue() throws Exception {
+		ConnectionState state = new ConnectionState(this.channel, null);
+		assertFalse(state.isWriteQueued());
+		assertNull(state.getWriteBuffer());
+		assertNull(state.getWriteBuffers(1024));
+
+		ByteBuffer buf1 = ByteBuffer.allocate(600);
+		ByteBuffer buf2 = ByteBuffer.allocate(600);
+		ByteBuffer buf3 = ByteBuffer.allocate(100);
+		state.putWriteBuffer(buf1);
+		state.putWriteBuffer(buf2);
+		state.putWriteBuffer(buf3);
+		assertTrue(state.isWriteQueued());
+		assertSame(buf1, state.getWriteBuffer());
+
+		// The limit is a preference, at least one buffer is returned
+		ByteBuffer[] bufs = state.getWriteBuffers(100);
+		assertEquals(1, bufs.length);
+		assertSame(buf1, bufs[0]);
+
+		bufs = state.getWriteBuffers(1300);
+		assertEquals(3, bufs.length);
+
+		state.removeWriteBuffer();
+		bufs = state.getWriteBuffers(700);
+		assertEquals(2, bufs.length);
+		assertSame(buf2, bufs[0]);
+		assertSame(buf3, bufs[1]);
+
+		state.removeWriteBuffer();
+		state.removeWriteBuffer();
+		assertFalse(state.isWriteQueued());
+		state.removeWriteBuffer();
+		assertFalse(state.isWriteQueued());
+	}
+
+	public void testReleaseKeepsConnectionLevelState() throws Exception {
+		ConnectionState state = new ConnectionState(this.channel, null);
+		ReadBufferPool.ReceiveSize size = state.getReceiveSize();
+		size.record(size.getSize());
+		state.putWriteBuffer(ByteBuffer.allocate(10));
+		state.setCloseAfterWrite(true);
+		state.setResponseSequencer(new Object());
+
+		state.release();
+		assertNull(state.getOwner());
+		assertNull(state.getReadBuffer());
+		assertFalse(state.isWriteQueued());
+		assertFalse(state.isCloseAfterWrite());
+		assertNull(state.getResponseSequencer());
+
+		assertSame(size, state.getReceiveSize());
+		assertEquals(16384, state.getReceiveSize().getSize());
+	}
+}
@@ -7,6 +7,7 @@ import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.SocketException;
 import java.util.ArrayList;
@@ -23,7 +24,9 @@ import com.flat502.rox.server.AsynchronousRequestHandler;
 import com.flat502.rox.server.ManualSynchronousHandler;
 import com.flat502.rox.server.ResponseChannel;
 import com.flat502.rox.server.RpcCallContext;
+import com.flat502.rox.server.ServerResourcePool;
 import com.flat502.rox.server.XmlRpcServer;
+import com.flat502.rox.utils.Profiler;
 import com.flat502.rox.utils.Utils;
 
 public class Test_Pipelining extends TestCase {
@@ -249,6 +252,217 @@ public class Test_Pipelining extends TestCase {
 		}
 	}
 
+	// Synchronous handlers on different workers may finish out of
+	// order but the responses must still go back in request order.
+	public void testHttpPipeliningSyncConcurrent() throws Exception {
+		ManualSynchronousHandler handler = new ManualSynchronousHandler();
+		server.addWorkers(2);
+		server.registerHandler(null, "^server\\.", handler);
+		server.start();
+		Socket socket = new Socket(HOST, PORT);
+		socket.setSoTimeout(10000);
+		try {
+			OutputStream os = socket.getOutputStream();
+			constructDelayRequest(1000, "first call").marshal(os);
+			constructDelayRequest(100, "second call").marshal(os);
+			os.flush();
+
+			InputStream is = socket.getInputStream();
+			List<String> rsp1Lines = readMessage(is);
+			assertEquals("HTTP/1.1 200 OK", rsp1Lines.get(0));
+			RpcResponse rsp1 = new SaxMethodResponseUnmarshaller().unmarshal(Utils.join("", rsp1Lines.toArray(new String[0])));
+			assertEquals("first call", rsp1.getReturnValue());
+
+			List<String> rsp2Lines = readMessage(is);
+			assertEquals("HTTP/1.1 200 OK", rsp2Lines.get(0));
+			RpcResponse rsp2 = new SaxMethodResponseUnmarshaller().unmarshal(Utils.join("", rsp2Lines.toArray(new String[0])));
+			assertEquals("second call", rsp2.getReturnValue());
+		} finally {
+			socket.close();
+		}
+	}
+
+	// Requests that arrive while too much work is waiting should be
+	// left unread until the worker catches up.
+	public void testReadBackpressure() throws Exception {
+		ServerResourcePool pool = new ServerResourcePool();
+		pool.setReadWatermarks(2, 0);
+		this.server = new XmlRpcServer(null, PORT, false, null, pool);
+		ManualSynchronousHandler handler = new ManualSynchronousHandler();
+		server.registerHandler(null, "^server\\.", handler);
+		server.start();
+		Socket socket = new Socket(HOST, PORT);
+		socket.setSoTimeout(10000);
+		try {
+			OutputStream os = socket.getOutputStream();
+			for (int i = 0; i < 3; i++) {
+				constructDelayRequest(500, "call " + i).marshal(os);
+			}
+			os.flush();
+
+			long deadline = System.currentTimeMillis() + 1000;
+			while (!pool.isReadingPaused() && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertTrue(pool.isReadingPaused());
+			
+			for (int i = 3; i < 6; i++) {
+				constructDelayRequest(500, "call " + i).marshal(os);
+			}
+			os.flush();
+
+			deadline = System.currentTimeMillis() + 1000;
+			while (pool.getPausedConnectionCount() == 0 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(10);
+			}
+			assertEquals(1, pool.getPausedConnectionCount());
+			assertTrue(handler.calls.size() <= 3);
+
+			InputStream is = socket.getInputStream();
+			for (int i = 0; i < 6; i++) {
+				String body = readContent(is);
+				RpcResponse rsp = new SaxMethodResponseUnmarshaller().unmarshal(body);
+				assertEquals("call " + i, rsp.getReturnValue());
+			}
+			assertFalse(pool.isReadingPaused());
+			assertEquals(0, pool.getPausedConnectionCount());
+		} finally {
+			socket.close();
+			server.stop();
+			pool.shutdown();
+		}
+	}
+
+	// Lots of large responses queued at once should be drained with
+	// gathering writes, with partial writes resuming mid-buffer.
+	public void testHttpPipeliningLargeResponses() throws Exception {
+		final int numCalls = 10;
+		StringBuffer padding = new StringBuffer();
+		for (int i = 0; i < 50000; i++) {
+			padding.append((char) ('a' + (i % 26)));
+		}
+		
+		BulkAsyncServerHandler handler = new BulkAsyncServerHandler(numCalls, padding.toString());
+		server.setGatheringWriteLimit(128 * 1024);
+		server.registerHandler(null, "^server\\.", handler);
+		server.start();
+
+		Socket socket = new Socket(HOST, PORT);
+		socket.setSoTimeout(10000);
+		try {
+			OutputStream os = socket.getOutputStream();
+			for (int i = 0; i < numCalls; i++) {
+				constructHttpRequest(new String[] {
+						"<?xml version=\"1.0\"?>",
+						"<methodCall>",
+						"	<methodName>server.method</methodName>",
+						"	<params>",
+						"		<param>",
+						"			<value><string>call " + i + "</string></value>",
+						"		</param>",
+						"	</params>",
+						"</methodCall>"}).marshal(os);
+			}
+			os.flush();
+
+			// Give the server a chance to queue everything before we start
+			// reading so the socket's send buffer fills up.
+			Thread.sleep(500);
+
+			InputStream is = socket.getInputStream();
+			for (int i = 0; i < numCalls; i++) {
+				String body = readContent(is);
+				RpcResponse rsp = new SaxMethodResponseUnmarshaller().unmarshal(body);
+				assertEquals("call " + i + padding, rsp.getReturnValue());
+			}
+			assertNull("Handler caught an exception", handler.exception);
+		} finally {
+			socket.close();
+		}
+	}
+
+	// A client that pipelines requests but doesn't read the responses
+	// should be disconnected rather than have them queued forever.
+	public void testWriteBacklogTimeout() throws Exception {
+		final int numCalls = 20;
+		StringBuffer padding = new StringBuffer();
+		for (int i = 0; i < 200000; i++) {
+			padding.append((char) ('a' + (i % 26)));
+		}
+		
+		final List<String> events = new ArrayList<String>();
+		server.registerProfiler(new Profiler() {
+			public void begin(long id, String operation) {
+			}
+
+			public void end(long id, String operation) {
+			}
+
+			public synchronized void count(long id, String operation) {
+				events.add(operation);
+			}
+		});
+		server.setMaxQueuedWriteBytes(64 * 1024);
+		server.setWriteBacklogTimeout(500);
+		server.registerHandler(null, "^server\\.", new BulkAsyncServerHandler(numCalls, padding.toString()));
+		server.start();
+
+		Socket socket = new Socket();
+		socket.setReceiveBufferSize(4096);
+		socket.connect(new InetSocketAddress(HOST, PORT));
+		socket.setSoTimeout(10000);
+		try {
+			OutputStream os = socket.getOutputStream();
+			for (int i = 0; i < numCalls; i++) {
+				constructHttpRequest(new String[] {
+						"<?xml version=\"1.0\"?>",
+						"<methodCall>",
+						"	<methodName>server.method</methodName>",
+						"	<params>",
+						"		<param>",
+						"			<value><string>call " + i + "</string></value>",
+						"		</param>",
+						"	</params>",
+						"</methodCall>"}).marshal(os);
+			}
+			os.flush();
+
+			long deadline = System.currentTimeMillis() + 5000;
+			while (!events.contains("write.backlog.closed") && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			assertTrue(events.contains("write.backlog.closed"));
+			
+			// Whatever made it out before the close is followed by EOF
+			InputStream is = socket.getInputStream();
+			byte[] buf = new byte[65536];
+			try {
+				while (is.read(buf) != -1) {
+				}
+			} catch (SocketException e) {
+				// Connection reset is fine too
+			}
+		} finally {
+			socket.close();
+		}
+	}
+
+	private static HttpRequest constructDelayRequest(int delay, String msg) throws UnsupportedEncodingException {
+		return constructHttpRequest(new String[] {
+				"<?xml version=\"1.0\"?>",
+				"<methodCall>",
+				"	<methodName>server.delay</methodName>",
+				"	<params>",
+				"		<param>",
+				"			<value><int>" + delay + "</int></value>",
+				"		</param>",
+				"		<param>",
+				"			<value><string>" + msg + "</string></value>",
+				"		</param>",
+				"	</params>",
+				"</methodCall>"});
+	}
+
 	private static HttpRequest constructHttpRequest(String[] content) throws UnsupportedEncodingException {
 		String bodystr = Utils.join("\r\n", content);
 		HttpRequest req = new HttpRequest("POST", "/", null);
@@ -280,6 +494,58 @@ public class Test_Pipelining extends TestCase {
 		return rspLines;
 	}
 
+	// Reads a single HTTP response and returns its content
+	private String readContent(InputStream is) throws Exception {
+		StringBuffer headers = new StringBuffer();
+		while (!headers.toString().endsWith("\r\n\r\n")) {
+			int c = is.read();
+			assertTrue("Unexpected end of stream", c != -1);
+			headers.append((char) c);
+		}
+		assertTrue(headers.toString().startsWith("HTTP/1.1 200 OK"));
+		int start = headers.indexOf("Content-Length: ") + "Content-Length: ".length();
+		int length = Integer.parseInt(headers.substring(start, headers.indexOf("\r\n", start)));
+		byte[] content = new byte[length];
+		int offset = 0;
+		while (offset < length) {
+			int numRead = is.read(content, offset, length - offset);
+			assertTrue("Unexpected end of stream", numRead != -1);
+			offset += numRead;
+		}
+		return new String(content, "UTF-8");
+	}
+
+	private class BulkAsyncServerHandler implements AsynchronousRequestHandler {
+		public Exception exception;
+		private int numCalls;
+		private String padding;
+		private List<ResponseChannel> channels = new ArrayList<ResponseChannel>();
+		private List<RpcCall> calls = new ArrayList<RpcCall>();
+
+		public BulkAsyncServerHandler(int numCalls, String padding) {
+			this.numCalls = numCalls;
+			this.padding = padding;
+		}
+
+		public synchronized void handleRequest(RpcCall call, RpcCallContext context, ResponseChannel rspChannel) throws Exception {
+			try {
+				this.calls.add(call);
+				this.channels.add(rspChannel);
+
+				if (this.calls.size() == this.numCalls) {
+					// Respond to everything at once
+					for (int i = 0; i < this.numCalls; i++) {
+						String rsp = this.calls.get(i).getParameters()[0] + this.padding;
+						this.channels.get(i).respond(new XmlRpcMethodResponse(rsp));
+					}
+				}
+			} catch (Exception e) {
+				this.exception = e;
+				throw e;
+			}
+		}
+	}
+
 	private class AsyncServerHandler implements AsynchronousRequestHandler {
 		public List<RpcCall> calls = new ArrayList<RpcCall>();
 		public Exception exception;
@@ -0,0 +1,86 @@
+package com.flat502.rox.processing;
+
+import java.net.URL;
+import java.nio.ByteBuffer;
+
+import junit.framework.TestCase;
+
+import com.flat502.rox.client.XmlRpcClient;
+import com.flat502.rox.server.ManualSynchronousHandler;
+import com.flat502.rox.server.ServerResourcePool;
+import com.flat502.rox.server.XmlRpcServer;
+
+public class Test_ReadBufferPool extends TestCase {
+	private static final int PORT = 8080;
+	private static final String URL = "http://localhost:" + PORT + "/";
+
+	public void testBuffersAreDirectAndReused() throws Exception {
+		ReadBufferPool pool = new ReadBufferPool();
+		ReadBufferPool.ReceiveSize size = new ReadBufferPool.ReceiveSize();
+
+		ByteBuffer buf = pool.acquire(size.getSizeIndex());
+		assertTrue(buf.isDirect());
+		assertEquals(8192, buf.capacity());
+		assertEquals(0, pool.getHitCount());
+		assertEquals(1, pool.getMissCount());
+
+		buf.put((byte) 42);
+		pool.release(buf);
+		ByteBuffer buf2 = pool.acquire(size.getSizeIndex());
+		assertSame(buf, buf2);
+		assertEquals(0, buf2.position());
+		assertEquals(buf2.capacity(), buf2.limit());
+		assertEquals(1, pool.getHitCount());
+		assertEquals(1, pool.getMissCount());
+	}
+
+	public void testReceiveSizeGrowsOnFullReads() throws Exception {
+		ReadBufferPool.ReceiveSize size = new ReadBufferPool.ReceiveSize();
+		assertEquals(8192, size.getSize());
+		size.record(8192);
+		assertEquals(16384, size.getSize());
+		size.record(16384);
+		size.record(32768);
+		assertEquals(65536, size.getSize());
+		size.record(65536);
+		assertEquals(65536, size.getSize());
+	}
+
+	public void testReceiveSizeShrinksOnRepeatedSmallReads() throws Exception {
+		ReadBufferPool.ReceiveSize size = new ReadBufferPool.ReceiveSize();
+		size.record(300);
+		assertEquals(8192, size.getSize());
+		size.record(300);
+		assertEquals(4096, size.getSize());
+
+		// A read that doesn't fit the next size down resets things
+		size.record(300);
+		size.record(3000);
+		size.record(300);
+		assertEquals(4096, size.getSize());
+
+		for (int i = 0; i < 20; i++) {
+			size.record(300);
+		}
+		assertEquals(1024, size.getSize());
+	}
+
+	public void testServerReadsHitThePool() throws Exception {
+		ServerResourcePool pool = new ServerResourcePool();
+		XmlRpcServer server = new XmlRpcServer(null, PORT, false, null, pool);
+		server.registerHandler(null, "^server\\.", new ManualSynchronousHandler());
+		server.start();
+		XmlRpcClient client = new XmlRpcClient(new URL(URL));
+		try {
+			for (int i = 0; i < 5; i++) {
+				assertEquals("CALL " + i, client.execute("server.toUpper", new Object[] { "call " + i }));
+			}
+			assertTrue(pool.getReadBufferMisses() > 0);
+			assertTrue(pool.getReadBufferHits() > 0);
+		} finally {
+			client.stop();
+			server.stop();
+			pool.shutdown();
+		}
+	}
+}
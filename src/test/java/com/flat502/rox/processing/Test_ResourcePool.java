@@ -0,0 +1,53 @@
+package com.flat502.rox.processing;
+
+import junit.framework.TestCase;
+
+public class Test_ResourcePool extends TestCase {
+	public void testReadingResumesWhenDispatchRacesWorker() throws Exception {
+		final ResourcePool pool = new ResourcePool() {
+			protected HttpMessageHandler newWorker() {
+				return null;
+			}
+		};
+		pool.setReadWatermarks(1, 0);
+
+		final int itemsPerThread = 20000;
+		Thread worker = new Thread() {
+			public void run() {
+				try {
+					for (int i = 0; i < itemsPerThread * 2; i++) {
+						pool.getQueue().take();
+						pool.workTaken();
+					}
+				} catch (InterruptedException e) {
+				}
+			}
+		};
+		Thread[] dispatchers = new Thread[2];
+		for (int i = 0; i < dispatchers.length; i++) {
+			dispatchers[i] = new Thread() {
+				public void run() {
+					for (int i = 0; i < itemsPerThread; i++) {
+						pool.dispatch(new Object());
+						if (i % 100 == 0) {
+							Thread.yield();
+						}
+					}
+				}
+			};
+		}
+
+		worker.start();
+		for (int i = 0; i < dispatchers.length; i++) {
+			dispatchers[i].start();
+		}
+		for (int i = 0; i < dispatchers.length; i++) {
+			dispatchers[i].join(30000);
+		}
+		worker.join(30000);
+		assertFalse(worker.isAlive());
+
+		assertEquals(0, pool.getPendingWorkCount());
+		assertFalse(pool.isReadingPaused());
+	}
+}
@@ -0,0 +1,140 @@
+package com.flat502.rox.processing;
+
+import java.nio.channels.SelectableChannel;
+import java.nio.channels.SocketChannel;
+
+import junit.framework.TestCase;
+
+public class Test_SelectorChangeQueue extends TestCase {
+	private SocketChannel[] channels;
+
+	protected void setUp() throws Exception {
+		this.channels = new SocketChannel[4];
+		for (int i = 0; i < this.channels.length; i++) {
+			this.channels[i] = SocketChannel.open();
+		}
+	}
+
+	protected void tearDown() throws Exception {
+		for (int i = 0; i < this.channels.length; i++) {
+			this.channels[i].close();
+		}
+	}
+
+	public void testEmpty() throws Exception {
+		SelectorChangeQueue queue = new SelectorChangeQueue(4);
+		assertNull(queue.poll());
+	}
+
+	public void testChangesAreReturnedInOrder() throws Exception {
+		SelectorChangeQueue queue = new SelectorChangeQueue(4);
+		queue.offer(this.channels[0], SelectorChangeQueue.REGISTER);
+		queue.offer(this.channels[1], 4);
+		queue.offer(this.channels[0], 1);
+		queue.offer(this.channels[1], SelectorChangeQueue.CANCEL);
+
+		assertSame(this.channels[0], queue.poll());
+		assertEquals(SelectorChangeQueue.REGISTER, queue.lastOperation());
+		assertSame(this.channels[1], queue.poll());
+		assertEquals(4, queue.lastOperation());
+		assertSame(this.channels[0], queue.poll());
+		assertEquals(1, queue.lastOperation());
+		assertSame(this.channels[1], queue.poll());
+		assertEquals(SelectorChangeQueue.CANCEL, queue.lastOperation());
+		assertNull(queue.poll());
+	}
+
+	public void testOverflowPreservesOrder() throws Exception {
+		SelectorChangeQueue queue = new SelectorChangeQueue(2);
+		for (int i = 0; i < 6; i++) {
+			queue.offer(this.channels[i % this.channels.length], i);
+		}
+
+		// Make room in the ring. Later changes must still come out after
+		// the ones that overflowed.
+		assertSame(this.channels[0], queue.poll());
+		assertEquals(0, queue.lastOperation());
+		queue.offer(this.channels[6 % this.channels.length], 6);
+
+		for (int i = 1; i < 7; i++) {
+			assertSame(this.channels[i % this.channels.length], queue.poll());
+			assertEquals(i, queue.lastOperation());
+		}
+		assertNull(queue.poll());
+
+		// And once everything's drained the ring is used again
+		queue.offer(this.channels[0], 7);
+		assertSame(this.channels[0], queue.poll());
+		assertEquals(7, queue.lastOperation());
+	}
+
+	public void testUnpublishedSlotHoldsBackOverflow() throws Exception {
+		SelectorChangeQueue queue = new SelectorChangeQueue(2);
+		// One producer claims the head slot and stalls before publishing.
+		long pos = queue.claim();
+		// Another queues a change in the next slot and then, the ring
+		// being full, a change in the overflow list.
+		queue.offer(this.channels[1], 1);
+		queue.offer(this.channels[1], 2);
+
+		// The overflowed change must not overtake the one in the ring
+		assertNull(queue.poll());
+
+		queue.publish(pos, this.channels[0], 0);
+		for (int i = 0; i < 3; i++) {
+			assertSame(this.channels[i == 0 ? 0 : 1], queue.poll());
+			assertEquals(i, queue.lastOperation());
+		}
+		assertNull(queue.poll());
+	}
+
+	public void testConcurrentProducers() throws Exception {
+		this.runConcurrentProducers(64);
+	}
+
+	public void testConcurrentProducersOverflowing() throws Exception {
+		// A tiny ring so changes regularly spill into the overflow list
+		// while other producers are part way through publishing theirs
+		for (int i = 0; i < 20; i++) {
+			this.runConcurrentProducers(2);
+		}
+	}
+
+	private void runConcurrentProducers(int capacity) throws Exception {
+		final int perProducer = 20000;
+		final SelectorChangeQueue queue = new SelectorChangeQueue(capacity);
+		Thread[] producers = new Thread[this.channels.length];
+		for (int i = 0; i < producers.length; i++) {
+			final SelectableChannel channel = this.channels[i];
+			producers[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < perProducer; j++) {
+						queue.offer(channel, j);
+					}
+				}
+			};
+			producers[i].start();
+		}
+
+		// Each producer's changes must arrive complete and in order
+		int[] expected = new int[this.channels.length];
+		int total = 0;
+		while (total < perProducer * this.channels.length) {
+			SelectableChannel channel = queue.poll();
+			if (channel == null) {
+				Thread.yield();
+				continue;
+			}
+			int producer = 0;
+			while (this.channels[producer] != channel) {
+				producer++;
+			}
+			assertEquals(expected[producer]++, queue.lastOperation());
+			total++;
+		}
+		for (int i = 0; i < producers.length; i++) {
+			producers[i].join();
+		}
+		assertNull(queue.poll());
+	}
+}
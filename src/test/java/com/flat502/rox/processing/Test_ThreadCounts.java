@@ -1,13 +1,21 @@
 package com.flat502.rox.processing;
 
 import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import junit.framework.TestCase;
 
 import com.flat502.rox.client.ClientResourcePool;
 import com.flat502.rox.client.TestServer;
 import com.flat502.rox.client.XmlRpcClient;
+import com.flat502.rox.server.ManualSynchronousHandler;
+import com.flat502.rox.server.ServerResourcePool;
 import com.flat502.rox.server.XmlRpcServer;
+import com.flat502.rox.utils.Profiler;
 
 public class Test_ThreadCounts extends TestCase {
 	private static final Integer _1_SECOND = new Integer(1000);
@@ -78,7 +86,8 @@ public class Test_ThreadCounts extends TestCase {
 			assertEquals("Client Workers", 2, ThreadUtils.countClientWorkerThreads());
 			assertEquals("Server Workers", 1, ThreadUtils.countServerWorkerThreads());
 			assertEquals("Selector", 3, ThreadUtils.countSelectorThreads());
-			assertEquals("Timer", 2, ThreadUtils.countWorkerPoolTimerThreads());
+			// Request timeouts are serviced by the selecting threads
+			assertEquals("Timer", 0, ThreadUtils.countWorkerPoolTimerThreads());
 		} finally {
 			clientA.stop();
 			clientB.stop();
@@ -100,7 +109,7 @@ public class Test_ThreadCounts extends TestCase {
 			assertEquals("Client Workers", 1, ThreadUtils.countClientWorkerThreads());
 			assertEquals("Server Workers", 1, ThreadUtils.countServerWorkerThreads());
 			assertEquals("Selector", 2, ThreadUtils.countSelectorThreads());
-			assertEquals("Timer", 1, ThreadUtils.countWorkerPoolTimerThreads());
+			assertEquals("Timer", 0, ThreadUtils.countWorkerPoolTimerThreads());
 		} finally {
 			clientA.stop();
 			clientB.stop();
@@ -109,6 +118,213 @@ public class Test_ThreadCounts extends TestCase {
 		}
 	}
 	
+	public void testServerMultipleSelectors() throws Exception {
+		ServerResourcePool pool = new ServerResourcePool();
+		pool.setSelectorCount(3);
+		XmlRpcServer server = new XmlRpcServer(null, PORT, false, null, pool);
+		server.registerHandler(null, "^server\\.", new ManualSynchronousHandler());
+		server.start();
+
+		XmlRpcClient[] clients = new XmlRpcClient[6];
+		try {
+			assertEquals("Server Workers", 1, ThreadUtils.countServerWorkerThreads());
+			assertEquals("Selector", 3, ThreadUtils.countSelectorThreads());
+			
+			// Each client has its own connection, so these are spread
+			// across all of the server's selectors.
+			for (int i = 0; i < clients.length; i++) {
+				clients[i] = new XmlRpcClient(new URL(URL));
+				Object rsp = clients[i].execute("server.toUpper", new Object[] { "call " + i });
+				assertEquals("CALL " + i, rsp);
+			}
+			for (int i = 0; i < clients.length; i++) {
+				Object rsp = clients[i].execute("server.toUpper", new Object[] { "again " + i });
+				assertEquals("AGAIN " + i, rsp);
+			}
+		} finally {
+			for (int i = 0; i < clients.length; i++) {
+				if (clients[i] != null) {
+					clients[i].stop();
+				}
+			}
+			server.stop();
+			pool.shutdown();
+		}
+	}
+	
+	public void testServerDedicatedAcceptor() throws Exception {
+		ServerResourcePool pool = new ServerResourcePool();
+		pool.setSelectorCount(2);
+		XmlRpcServer server = new XmlRpcServer(null, PORT, false, null, pool);
+		server.setUseAcceptorThread(true);
+		server.setListenBacklog(128);
+		server.setAcceptBatchSize(2);
+		server.registerHandler(null, "^server\\.", new ManualSynchronousHandler());
+		server.start();
+
+		XmlRpcClient[] clients = new XmlRpcClient[4];
+		try {
+			assertEquals("Acceptor", 1, ThreadUtils.countAcceptorThreads());
+			assertEquals("Selector", 2, ThreadUtils.countSelectorThreads());
+			
+			for (int i = 0; i < clients.length; i++) {
+				clients[i] = new XmlRpcClient(new URL(URL));
+				Object rsp = clients[i].execute("server.toUpper", new Object[] { "call " + i });
+				assertEquals("CALL " + i, rsp);
+			}
+			
+			try {
+				server.setUseAcceptorThread(false);
+				fail();
+			} catch(IllegalStateException e) {
+			}
+		} finally {
+			for (int i = 0; i < clients.length; i++) {
+				if (clients[i] != null) {
+					clients[i].stop();
+				}
+			}
+			server.stop();
+			pool.shutdown();
+		}
+	}
+	
+	public void testExecutors() throws Exception {
+		ExecutorService serverExecutor = Executors.newFixedThreadPool(2);
+		ExecutorService clientExecutor = Executors.newFixedThreadPool(2);
+		ServerResourcePool serverPool = new ServerResourcePool();
+		serverPool.setExecutor(serverExecutor);
+		XmlRpcServer server = new XmlRpcServer(null, PORT, false, null, serverPool);
+		server.registerHandler(null, "^server\\.", new ManualSynchronousHandler());
+		server.start();
+
+		ClientResourcePool clientPool = new ClientResourcePool();
+		clientPool.setExecutor(clientExecutor);
+		XmlRpcClient client = new XmlRpcClient(new URL(URL), clientPool);
+		try {
+			assertEquals("Client Workers", 0, ThreadUtils.countClientWorkerThreads());
+			assertEquals("Server Workers", 0, ThreadUtils.countServerWorkerThreads());
+			
+			for (int i = 0; i < 4; i++) {
+				Object rsp = client.execute("server.toUpper", new Object[] { "call " + i });
+				assertEquals("CALL " + i, rsp);
+			}
+			
+			// Workers are never started while an executor is configured
+			serverPool.addWorker();
+			assertEquals(0, serverPool.getWorkerCount());
+		} finally {
+			client.stop();
+			server.stop();
+			clientPool.shutdown();
+			serverPool.shutdown();
+			serverExecutor.shutdown();
+			clientExecutor.shutdown();
+		}
+	}
+	
+	public void testExecutorFixedOnceWorkersAdded() throws Exception {
+		ServerResourcePool pool = new ServerResourcePool();
+		pool.addWorker();
+		ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			pool.setExecutor(executor);
+			fail();
+		} catch(IllegalStateException e) {
+		} finally {
+			pool.shutdown();
+			executor.shutdown();
+		}
+	}
+	
+	public void testVirtualThreads() throws Exception {
+		ServerResourcePool pool = new ServerResourcePool();
+		boolean virtual = pool.useVirtualThreads();
+		XmlRpcServer server = new XmlRpcServer(null, PORT, false, null, pool);
+		server.registerHandler(null, "^server\\.", new ManualSynchronousHandler());
+		server.start();
+
+		XmlRpcClient client = new XmlRpcClient(new URL(URL));
+		try {
+			// Without virtual thread support we fall back to a worker
+			assertEquals("Server Workers", virtual ? 0 : 1, ThreadUtils.countServerWorkerThreads());
+			assertEquals(virtual, pool.getExecutor() != null);
+			
+			for (int i = 0; i < 4; i++) {
+				Object rsp = client.execute("server.toUpper", new Object[] { "call " + i });
+				assertEquals("CALL " + i, rsp);
+			}
+		} finally {
+			client.stop();
+			server.stop();
+			pool.shutdown();
+		}
+	}
+	
+	public void testElasticWorkers() throws Exception {
+		ServerResourcePool pool = new ServerResourcePool();
+		final List events = Collections.synchronizedList(new ArrayList());
+		pool.registerProfiler(new Profiler() {
+			public void begin(long id, String operation) {
+			}
+
+			public void end(long id, String operation) {
+			}
+
+			public void count(long id, String operation) {
+				events.add(operation + ":" + id);
+			}
+		});
+		pool.setTargetQueueDelay(5);
+		pool.setWorkerKeepAlive(300);
+		pool.setElasticWorkers(1, 3);
+		try {
+			assertEquals("Server Workers", 1, ThreadUtils.countServerWorkerThreads());
+			
+			// Keep the workers busy long enough for the queue to back up
+			Runnable work = new Runnable() {
+				public void run() {
+					try {
+						Thread.sleep(50);
+					} catch (InterruptedException e) {
+					}
+				}
+			};
+			for (int i = 0; i < 20; i++) {
+				((ResourcePool) pool).dispatch(work);
+				Thread.sleep(10);
+			}
+			assertEquals(3, pool.getWorkerCount());
+			assertEquals("Server Workers", 3, ThreadUtils.countServerWorkerThreads());
+			
+			// Once the work is done the extra workers are retired
+			long deadline = System.currentTimeMillis() + 10000;
+			while (pool.getWorkerCount() > 1 && System.currentTimeMillis() < deadline) {
+				Thread.sleep(50);
+			}
+			assertEquals(1, pool.getWorkerCount());
+			assertTrue(events.contains("workers.added:2"));
+			assertTrue(events.contains("workers.added:3"));
+			assertTrue(events.contains("workers.retired:1"));
+		} finally {
+			pool.shutdown();
+		}
+	}
+	
+	public void testSelectorCountFixedOnceAttached() throws Exception {
+		ServerResourcePool pool = new ServerResourcePool();
+		XmlRpcServer server = new XmlRpcServer(null, PORT, false, null, pool);
+		server.start();
+		try {
+			pool.setSelectorCount(2);
+			fail();
+		} catch(IllegalStateException e) {
+		} finally {
+			server.stop();
+			pool.shutdown();
+		}
+	}
+	
 	public static void main(String[] args) {
 		junit.textui.TestRunner.run(Test_ThreadCounts.class);
 	}
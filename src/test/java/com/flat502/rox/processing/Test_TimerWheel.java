@@ -0,0 +1,184 @@
+package com.flat502.rox.processing;
+
+import junit.framework.TestCase;
+
+public class Test_TimerWheel extends TestCase {
+	// 8 slots of 10ms so anything over 80ms spans more than one revolution
+	private TimerWheel wheel = new TimerWheel(null, 10, 8);
+
+	public void testEmptyWheel() throws Exception {
+		assertEquals(-1, this.wheel.expireTimeouts(System.currentTimeMillis()));
+	}
+
+	public void testExpiry() throws Exception {
+		long base = System.currentTimeMillis();
+		CountingTimeout timeout = new CountingTimeout(this.wheel);
+		timeout.reset(50);
+
+		assertTrue(this.wheel.expireTimeouts(base) > 0);
+		assertEquals(1, this.wheel.size());
+		this.wheel.expireTimeouts(base + 49);
+		assertEquals(0, timeout.expired);
+
+		assertEquals(-1, this.wheel.expireTimeouts(base + 500));
+		assertEquals(1, timeout.expired);
+		assertEquals(0, this.wheel.size());
+	}
+
+	public void testLongTimeoutIsNotEarly() throws Exception {
+		long base = System.currentTimeMillis();
+		CountingTimeout timeout = new CountingTimeout(this.wheel);
+		timeout.reset(1000);
+
+		for (long now = base; now < base + 1000; now += 5) {
+			this.wheel.expireTimeouts(now);
+		}
+		assertEquals(0, timeout.expired);
+
+		this.wheel.expireTimeouts(base + 2000);
+		assertEquals(1, timeout.expired);
+	}
+
+	public void testResetExtendsDeadline() throws Exception {
+		long base = System.currentTimeMillis();
+		CountingTimeout timeout = new CountingTimeout(this.wheel);
+		timeout.reset(50);
+		this.wheel.expireTimeouts(base);
+		timeout.reset(1000);
+
+		this.wheel.expireTimeouts(base + 500);
+		assertEquals(0, timeout.expired);
+		assertEquals(1, this.wheel.size());
+
+		this.wheel.expireTimeouts(base + 2000);
+		assertEquals(1, timeout.expired);
+	}
+
+	public void testSleepsUntilDeadline() throws Exception {
+		long base = System.currentTimeMillis();
+		CountingTimeout timeout = new CountingTimeout(this.wheel);
+		timeout.reset(30000);
+
+		assertTrue(this.wheel.expireTimeouts(base) >= 30000);
+		assertTrue(this.wheel.expireTimeouts(base + 20000) >= 10000);
+		assertEquals(0, timeout.expired);
+	}
+
+	public void testSleepsUntilExtendedDeadline() throws Exception {
+		long base = System.currentTimeMillis();
+		CountingTimeout timeout = new CountingTimeout(this.wheel);
+		timeout.reset(50);
+		this.wheel.expireTimeouts(base);
+		timeout.reset(30000);
+
+		this.wheel.expireTimeouts(base + 500);
+		assertTrue(this.wheel.expireTimeouts(base + 500) >= 29000);
+		assertEquals(0, timeout.expired);
+	}
+
+	public void testResetShortensDeadline() throws Exception {
+		long base = System.currentTimeMillis();
+		CountingTimeout timeout = new CountingTimeout(this.wheel);
+		timeout.reset(30000);
+		this.wheel.expireTimeouts(base);
+		timeout.reset(50);
+
+		assertTrue(this.wheel.expireTimeouts(base) < 1000);
+		this.wheel.expireTimeouts(base + 500);
+		assertEquals(1, timeout.expired);
+		assertEquals(0, this.wheel.size());
+	}
+
+	public void testCancel() throws Exception {
+		long base = System.currentTimeMillis();
+		CountingTimeout timeout = new CountingTimeout(this.wheel);
+		timeout.reset(50);
+		this.wheel.expireTimeouts(base);
+		timeout.cancel();
+
+		assertEquals(-1, this.wheel.expireTimeouts(base + 500));
+		assertEquals(0, timeout.expired);
+		assertEquals(0, this.wheel.size());
+	}
+
+	public void testCancelBeforeFiling() throws Exception {
+		long base = System.currentTimeMillis();
+		CountingTimeout timeout = new CountingTimeout(this.wheel);
+		timeout.reset(50);
+		timeout.cancel();
+
+		assertEquals(-1, this.wheel.expireTimeouts(base));
+		assertEquals(0, this.wheel.size());
+
+		// And it can be armed again afterwards
+		timeout.reset(50);
+		this.wheel.expireTimeouts(base + 500);
+		assertEquals(1, timeout.expired);
+	}
+
+	public void testRearmAfterCancel() throws Exception {
+		long base = System.currentTimeMillis();
+		CountingTimeout timeout = new CountingTimeout(this.wheel);
+		timeout.reset(50);
+		this.wheel.expireTimeouts(base);
+		timeout.cancel();
+		timeout.reset(50);
+
+		this.wheel.expireTimeouts(base + 500);
+		assertEquals(1, timeout.expired);
+		assertEquals(0, this.wheel.size());
+	}
+
+	public void testRearmFromExpiry() throws Exception {
+		long base = System.currentTimeMillis();
+		CountingTimeout timeout = new CountingTimeout(this.wheel) {
+			protected void expired() {
+				super.expired();
+				if (this.expired == 1) {
+					this.reset(50);
+				}
+			}
+		};
+		timeout.reset(50);
+
+		this.wheel.expireTimeouts(base + 500);
+		assertEquals(1, timeout.expired);
+		this.wheel.expireTimeouts(System.currentTimeMillis() + 500);
+		assertEquals(2, timeout.expired);
+	}
+
+	public void testMultipleTimeouts() throws Exception {
+		long base = System.currentTimeMillis();
+		CountingTimeout[] timeouts = new CountingTimeout[20];
+		for (int i = 0; i < timeouts.length; i++) {
+			timeouts[i] = new CountingTimeout(this.wheel);
+			timeouts[i].reset(i * 25);
+		}
+
+		this.wheel.expireTimeouts(base + 499);
+		for (int i = 0; i < timeouts.length; i++) {
+			if (i * 25 < 499 - 100) {
+				assertEquals("timeout " + i, 1, timeouts[i].expired);
+			} else if (i * 25 >= 500) {
+				assertEquals("timeout " + i, 0, timeouts[i].expired);
+			}
+		}
+
+		this.wheel.expireTimeouts(base + 2000);
+		for (int i = 0; i < timeouts.length; i++) {
+			assertEquals("timeout " + i, 1, timeouts[i].expired);
+		}
+	}
+
+	private static class CountingTimeout extends Timeout {
+		int expired;
+
+		CountingTimeout(TimerWheel wheel) {
+			super(wheel);
+		}
+
+		protected void expired() {
+			this.expired++;
+		}
+	}
+}
@@ -7,12 +7,14 @@ public class ThreadUtils {
 	private static final String SERVER_WORKER_NAME = ".*\\.HttpRequestHandler-\\d+";
 	private static final String HTTP_PROCESSOR_NAME = ".*\\.HttpRpcProcessor";
 	private static final String WORKER_POOL_TIMER = "java.util.TimerThread";
+	private static final String ACCEPTOR_NAME = ".*\\.HttpRpcServer\\.Acceptor";
 
 	public static void assertZeroThreads() throws Exception {
 		waitForTermination("Client Workers", CLIENT_WORKER_NAME);
 		waitForTermination("Server Workers", SERVER_WORKER_NAME);
 		waitForTermination("Selector", HTTP_PROCESSOR_NAME);
 		waitForTermination("Timer", WORKER_POOL_TIMER);
+		waitForTermination("Acceptor", ACCEPTOR_NAME);
 	}
 
 	private static void waitForTermination(String name, String namePattern) throws Exception {
@@ -39,6 +41,10 @@ public class ThreadUtils {
 		return countThreads(HTTP_PROCESSOR_NAME);
 	}
 	
+	public static int countAcceptorThreads() {
+		return countThreads(ACCEPTOR_NAME);
+	}
+	
 	public static int countWorkerPoolTimerThreads() {
 		return countThreads(WORKER_POOL_TIMER);
 	}
@@ -0,0 +1,246 @@
+package com.flat502.rox.processor;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import javax.tools.Diagnostic;
+import javax.tools.DiagnosticCollector;
+import javax.tools.JavaCompiler;
+import javax.tools.StandardJavaFileManager;
+import javax.tools.ToolProvider;
+
+import junit.extensions.TestSetup;
+import junit.framework.Test;
+import junit.framework.TestCase;
+import junit.framework.TestSuite;
+
+import com.flat502.rox.marshal.*;
+import com.flat502.rox.marshal.xmlrpc.Test_SaxMethodCallUnmarshaller;
+import com.flat502.rox.marshal.xmlrpc.Test_XmlRpcMethodCall;
+import com.flat502.rox.marshal.xmlrpc.Test_XmlRpcMethodResponse;
+
+/**
+ * Runs the processor over the annotated test structs, then runs the
+ * marshalling and SAX unmarshalling tests again with the generated
+ * codecs registered in place of reflection.
+ */
+public class Test_StructCodecProcessor extends TestCase {
+	private static final Class[] STRUCTS = { FirstLevel.class, SecondLevel.class,
+			IntegerArraysStruct.class, JaggedCustomTypeArraysStruct.class, JaggedIntArraysStruct.class,
+			JaggedObjectArraysStruct.class, LinkedListStruct.class, ListStruct.class, MapStruct.class,
+			PrimitiveArraysStruct.class, PrimitivesStruct.class, SimpleStruct.class, TestObject.class,
+			TestStruct.class, TreeMapStruct.class, TwoStrings.class, TypedArrayStruct.class,
+			PublicFieldWithMethods.class, OverloadedSetters.class };
+
+	public Test_StructCodecProcessor(String name) {
+		super(name);
+	}
+
+	public void testCodecsGenerated() throws Exception {
+		for (int i = 0; i < STRUCTS.length; i++) {
+			StructCodec codec = StructCodecRegistry.getCodec(STRUCTS[i]);
+			assertNotNull(STRUCTS[i].getName(), codec);
+			assertEquals(StructCodecRegistry.getCodecClassName(STRUCTS[i]), codec.getClass().getName());
+		}
+	}
+
+	public void testSettersMatchClassDescriptor() throws Exception {
+		for (int i = 0; i < STRUCTS.length; i++) {
+			StructCodec codec = StructCodecRegistry.getCodec(STRUCTS[i]);
+			ClassDescriptor.Accessor[] setters = ClassDescriptor.getInstance(STRUCTS[i]).setterPlan();
+			for (int j = 0; j < setters.length; j++) {
+				assertEquals(setters[j].getName(), j, codec.getSetterIndex(setters[j].getName()));
+				assertEquals(setters[j].getName(), setters[j].getType(), codec.getSetterType(j));
+			}
+			assertEquals(-1, codec.getSetterIndex("noSuchMember"));
+		}
+	}
+
+	public void testGettersMatchClassDescriptor() throws Exception {
+		final List names = new ArrayList();
+		final List values = new ArrayList();
+		StructCodec.MemberWriter writer = new StructCodec.MemberWriter() {
+			public void writeMember(String name, Object value) {
+				names.add(name);
+				values.add(value);
+			}
+		};
+
+		TwoStrings struct = new TwoStrings();
+		StructCodecRegistry.getCodec(TwoStrings.class).writeMembers(struct, writer);
+		assertEquals(Arrays.asList(new Object[] { "nonNullString", "nullString" }), names);
+		assertEquals(Arrays.asList(new Object[] { "Not Null", null }), values);
+	}
+
+	public void testMethodsPreferredToFields() throws Exception {
+		StructCodec codec = StructCodecRegistry.getCodec(PublicFieldWithMethods.class);
+		PublicFieldWithMethods struct = (PublicFieldWithMethods) codec.newInstance();
+		codec.setMember(struct, codec.getSetterIndex("stringMember"), "Hello World");
+		assertTrue(struct.setterCalled);
+		assertEquals("Hello World", struct.stringMember);
+	}
+
+	public void testPrimitiveMembers() throws Exception {
+		StructCodec codec = StructCodecRegistry.getCodec(PrimitivesStruct.class);
+		PrimitivesStruct struct = (PrimitivesStruct) codec.newInstance();
+		codec.setMember(struct, codec.getSetterIndex("intVal"), new Integer(42));
+		codec.setMember(struct, codec.getSetterIndex("booleanVal"), Boolean.TRUE);
+		assertEquals(42, struct.intVal);
+		assertTrue(struct.booleanVal);
+	}
+
+	public void testSetterOverloadMatchesGetter() throws Exception {
+		StructCodec codec = StructCodecRegistry.getCodec(OverloadedSetters.class);
+		int index = codec.getSetterIndex("value");
+		assertEquals(String.class, codec.getSetterType(index));
+		OverloadedSetters struct = (OverloadedSetters) codec.newInstance();
+		codec.setMember(struct, index, "Hello World");
+		assertEquals("Hello World", struct.getValue());
+	}
+
+	public void testNoPublicConstructorGeneratesNoCodec() throws Exception {
+		File dir = File.createTempFile("rox", "codecs");
+		dir.delete();
+		dir.mkdirs();
+		try {
+			File source = new File(dir, "NoConstructor.java");
+			Writer out = new FileWriter(source);
+			try {
+				out.write("@com.flat502.rox.marshal.XmlRpcStruct\n");
+				out.write("public class NoConstructor {\n");
+				out.write("\tpublic String value;\n");
+				out.write("\tpublic NoConstructor(String value) {\n");
+				out.write("\t\tthis.value = value;\n");
+				out.write("\t}\n");
+				out.write("}\n");
+			} finally {
+				out.close();
+			}
+
+			JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+			DiagnosticCollector diagnostics = new DiagnosticCollector();
+			StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+			try {
+				List options = Arrays.asList(new String[] { "-proc:only", "-processor",
+						StructCodecProcessor.class.getName(), "-cp", System.getProperty("java.class.path"), "-s",
+						dir.getPath() });
+				assertTrue(compiler.getTask(null, fileManager, diagnostics, options, null,
+						fileManager.getJavaFileObjects(new File[] { source })).call().booleanValue());
+			} finally {
+				fileManager.close();
+			}
+			Diagnostic diagnostic = (Diagnostic) diagnostics.getDiagnostics().get(0);
+			assertEquals(Diagnostic.Kind.WARNING, diagnostic.getKind());
+			assertTrue(diagnostic.getMessage(null), diagnostic.getMessage(null).indexOf("no-argument constructor") != -1);
+			assertFalse(new File(dir, "NoConstructor_StructCodec.java").exists());
+		} finally {
+			delete(dir);
+		}
+	}
+
+	public void testUnannotatedClassHasNoCodec() throws Exception {
+		assertNull(StructCodecRegistry.getCodec(Modifiers.class));
+	}
+
+	// Generates codecs for STRUCTS, then compiles and loads them.
+	private static StructCodec[] generateCodecs() throws Exception {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			throw new IllegalStateException("No Java compiler available (running on a JRE?)");
+		}
+		File dir = File.createTempFile("rox", "codecs");
+		dir.delete();
+		File srcDir = new File(dir, "src");
+		File classesDir = new File(dir, "classes");
+		srcDir.mkdirs();
+		classesDir.mkdirs();
+
+		String classPath = System.getProperty("java.class.path");
+		List classNames = new ArrayList();
+		for (int i = 0; i < STRUCTS.length; i++) {
+			classNames.add(STRUCTS[i].getName());
+		}
+		StandardJavaFileManager fileManager = compiler.getStandardFileManager(null, null, null);
+		try {
+			List options = Arrays.asList(new String[] { "-proc:only", "-processor",
+					StructCodecProcessor.class.getName(), "-cp", classPath, "-s", srcDir.getPath() });
+			if (!compiler.getTask(null, fileManager, null, options, classNames, null).call().booleanValue()) {
+				throw new IllegalStateException("Annotation processing failed");
+			}
+
+			List sources = new ArrayList();
+			findSources(srcDir, sources);
+			options = Arrays.asList(new String[] { "-proc:none", "-cp", classPath, "-d", classesDir.getPath() });
+			if (!compiler.getTask(null, fileManager, null, options, null,
+					fileManager.getJavaFileObjectsFromFiles(sources)).call().booleanValue()) {
+				throw new IllegalStateException("Compiling generated codecs failed");
+			}
+		} finally {
+			fileManager.close();
+		}
+
+		ClassLoader loader = new URLClassLoader(new URL[] { classesDir.toURI().toURL() },
+				Test_StructCodecProcessor.class.getClassLoader());
+		StructCodec[] codecs = new StructCodec[STRUCTS.length];
+		for (int i = 0; i < STRUCTS.length; i++) {
+			codecs[i] = (StructCodec) loader.loadClass(StructCodecRegistry.getCodecClassName(STRUCTS[i])).newInstance();
+		}
+		delete(dir);
+		return codecs;
+	}
+
+	private static void findSources(File dir, List sources) {
+		File[] files = dir.listFiles();
+		for (int i = 0; i < files.length; i++) {
+			if (files[i].isDirectory()) {
+				findSources(files[i], sources);
+			} else if (files[i].getName().endsWith(".java")) {
+				sources.add(files[i]);
+			}
+		}
+	}
+
+	private static void delete(File file) {
+		File[] files = file.listFiles();
+		if (files != null) {
+			for (int i = 0; i < files.length; i++) {
+				delete(files[i]);
+			}
+		}
+		file.delete();
+	}
+
+	public static Test suite() {
+		TestSuite suite = new TestSuite();
+		suite.addTestSuite(Test_StructCodecProcessor.class);
+		suite.addTestSuite(Test_XmlRpcMethodCall.class);
+		suite.addTestSuite(Test_XmlRpcMethodResponse.class);
+		suite.addTestSuite(Test_SaxMethodCallUnmarshaller.class);
+
+		return new TestSetup(suite) {
+			protected void setUp() throws Exception {
+				StructCodec[] codecs = generateCodecs();
+				for (int i = 0; i < codecs.length; i++) {
+					StructCodecRegistry.register(codecs[i]);
+				}
+			}
+
+			protected void tearDown() throws Exception {
+				for (int i = 0; i < STRUCTS.length; i++) {
+					StructCodecRegistry.unregister(STRUCTS[i]);
+				}
+			}
+		};
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(suite());
+	}
+}
@@ -3,6 +3,8 @@ package com.flat502.rox.server;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
 
 import junit.framework.TestCase;
 
@@ -136,6 +138,29 @@ public class Test_ManualSynchronousServer extends TestCase {
 		}
 	}
 
+	public void testUnmarshalOnRead() throws Exception {
+		XmlRpcClient client = new XmlRpcClient(new URL(URL+"foobar"));
+		ManualSynchronousHandler handler = new ManualSynchronousHandler();
+		server.registerHandler("/foobar", "^server\\.", handler);
+		server.setUnmarshalOnRead(true);
+		server.start();
+		try {
+			// Big enough to arrive over several reads
+			Map map = new HashMap();
+			for (int i = 0; i < 5000; i++) {
+				map.put("key" + i, "value " + i);
+			}
+			Object rsp = client.execute("server.map", new Object[]{map});
+			assertEquals(new Integer(5000), rsp);
+			assertEquals(map, handler.call.getParameters()[0]);
+			
+			rsp = client.execute("server.toUpper", new Object[]{"hello world"});
+			assertEquals("HELLO WORLD", rsp);
+		} finally {
+			client.stop();
+		}
+	}
+
 	public static void main(String[] args) {
 		junit.textui.TestRunner.run(Test_ManualSynchronousServer.class);
 	}
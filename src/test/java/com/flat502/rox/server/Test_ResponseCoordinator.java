@@ -59,6 +59,58 @@ public class Test_ResponseCoordinator extends TestCase {
 		assertTrue(rc.lastRsps.get(2).toString().contains("third-response"));
 	}
 	
+	public void testManyOutOfOrderResponses() throws Exception {
+		Socket sock = new Socket();
+		StubHttpRpcServer server = new StubHttpRpcServer();
+		HttpRequestBuffer req = new HttpRequestBuffer(server, sock);
+
+		MockResponseCoordinator rc = new MockResponseCoordinator(server, sock);
+		
+		// Several rounds so the ring wraps as well as grows
+		int sent = 0;
+		for (int round = 0; round < 4; round++) {
+			int[] ids = new int[50];
+			for (int i = 0; i < ids.length; i++) {
+				ids[i] = rc.nextId();
+			}
+			// Everything but the first, backwards, then the first
+			for (int i = ids.length - 1; i > 0; i--) {
+				rc.respond(ids[i], req, new MockRpcResponse("response-" + ids[i] + ";"), null);
+				assertEquals(sent, rc.lastRsps.size());
+			}
+			rc.respond(ids[0], req, new MockRpcResponse("response-" + ids[0] + ";"), null);
+			sent += ids.length;
+			assertEquals(sent, rc.lastRsps.size());
+		}
+		
+		for (int i = 0; i < sent; i++) {
+			assertTrue(rc.lastRsps.get(i).toString().contains("response-" + i + ";"));
+		}
+	}
+	
+	public void testDuplicateResponseRejected() throws Exception {
+		Socket sock = new Socket();
+		StubHttpRpcServer server = new StubHttpRpcServer();
+		HttpRequestBuffer req = new HttpRequestBuffer(server, sock);
+
+		MockResponseCoordinator rc = new MockResponseCoordinator(server, sock);
+		int id1 = rc.nextId();
+		int id2 = rc.nextId();
+		rc.respond(id2, req, new MockRpcResponse("second-response"), null);
+		try {
+			rc.respond(id2, req, new MockRpcResponse("second-response"), null);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		rc.respond(id1, req, new MockRpcResponse("first-response"), null);
+		try {
+			rc.respond(id1, req, new MockRpcResponse("first-response"), null);
+			fail();
+		} catch (IllegalStateException e) {
+		}
+		assertEquals(2, rc.lastRsps.size());
+	}
+	
 	private class StubHttpRpcServer extends HttpRpcServer {
 		public StubHttpRpcServer() throws Exception {
 			super(InetAddress.getLocalHost(), 8080, false, null);
@@ -0,0 +1,175 @@
+package com.flat502.rox.utils;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import junit.framework.TestCase;
+
+public class Test_BlockingQueue extends TestCase {
+	public void testElementsAreFifo() throws Exception {
+		BlockingQueue q = new BlockingQueue();
+		// Enough to make the ring grow (and wrap)
+		for (int i = 0; i < 50; i++) {
+			q.add(new Integer(i));
+		}
+		for (int i = 0; i < 25; i++) {
+			assertEquals(new Integer(i), q.take());
+		}
+		for (int i = 50; i < 200; i++) {
+			q.add(new Integer(i));
+		}
+		assertEquals(175, q.size());
+		for (int i = 25; i < 200; i++) {
+			assertEquals(new Integer(i), q.take());
+		}
+		assertEquals(0, q.size());
+	}
+
+	public void testNullRejected() throws Exception {
+		try {
+			new BlockingQueue().add(null);
+			fail();
+		} catch (NullPointerException e) {
+		}
+	}
+
+	public void testMostRecentlyIdleTakerIsWokenFirst() throws Exception {
+		BlockingQueue q = new BlockingQueue();
+		List taken = Collections.synchronizedList(new ArrayList());
+		Taker first = new Taker("first", q, taken);
+		Taker second = new Taker("second", q, taken);
+		first.start();
+		waitUntilWaiting(first);
+		second.start();
+		waitUntilWaiting(second);
+
+		q.add("a");
+		second.join(5000);
+		assertEquals(1, taken.size());
+		assertEquals("second:a", taken.get(0));
+
+		q.add("b");
+		first.join(5000);
+		assertEquals("first:b", taken.get(1));
+	}
+
+	public void testInterruptedTakerIsWithdrawn() throws Exception {
+		BlockingQueue q = new BlockingQueue();
+		List taken = Collections.synchronizedList(new ArrayList());
+		Taker first = new Taker("first", q, taken);
+		Taker second = new Taker("second", q, taken);
+		first.start();
+		waitUntilWaiting(first);
+		second.start();
+		waitUntilWaiting(second);
+
+		second.interrupt();
+		second.join(5000);
+		assertTrue(second.interrupted);
+
+		q.add("a");
+		first.join(5000);
+		assertEquals(1, taken.size());
+		assertEquals("first:a", taken.get(0));
+	}
+
+	public void testPollTimesOut() throws Exception {
+		BlockingQueue q = new BlockingQueue();
+		long start = System.currentTimeMillis();
+		assertNull(q.poll(100));
+		assertTrue(System.currentTimeMillis() - start >= 100);
+
+		// A timed out taker no longer receives elements
+		q.add("a");
+		assertEquals(1, q.size());
+		assertEquals("a", q.poll(100));
+	}
+
+	public void testWaitTime() throws Exception {
+		BlockingQueue q = new BlockingQueue();
+		assertEquals(0, q.getWaitTime());
+		q.add("a");
+		Thread.sleep(50);
+		q.add("b");
+		assertTrue(q.getWaitTime() >= 40);
+		q.take();
+		assertTrue(q.getWaitTime() < 40);
+	}
+
+	public void testManyTakers() throws Exception {
+		final Object stop = new Object();
+		final int perProducer = 10000;
+		final BlockingQueue q = new BlockingQueue();
+		final int[] counts = new int[64];
+		Thread[] takers = new Thread[counts.length];
+		for (int i = 0; i < takers.length; i++) {
+			final int id = i;
+			takers[i] = new Thread() {
+				public void run() {
+					try {
+						while (q.take() != stop) {
+							counts[id]++;
+						}
+					} catch (InterruptedException e) {
+					}
+				}
+			};
+			takers[i].start();
+		}
+
+		Thread[] producers = new Thread[4];
+		for (int i = 0; i < producers.length; i++) {
+			producers[i] = new Thread() {
+				public void run() {
+					for (int j = 0; j < perProducer; j++) {
+						q.add(new Integer(j));
+					}
+				}
+			};
+			producers[i].start();
+		}
+		for (int i = 0; i < producers.length; i++) {
+			producers[i].join();
+		}
+
+		// Each taker exits on the first stop marker it takes
+		for (int i = 0; i < takers.length; i++) {
+			q.add(stop);
+		}
+		int total = 0;
+		for (int i = 0; i < takers.length; i++) {
+			takers[i].join(10000);
+			assertFalse(takers[i].isAlive());
+			total += counts[i];
+		}
+		assertEquals(producers.length * perProducer, total);
+		assertEquals(0, q.size());
+	}
+
+	private static void waitUntilWaiting(Thread t) throws InterruptedException {
+		while (t.getState() != Thread.State.WAITING) {
+			Thread.sleep(5);
+		}
+	}
+
+	private static class Taker extends Thread {
+		private BlockingQueue queue;
+		private List taken;
+		boolean interrupted;
+
+		Taker(String name, BlockingQueue queue, List taken) {
+			super(name);
+			this.queue = queue;
+			this.taken = taken;
+		}
+
+		public void run() {
+			try {
+				this.taken.add(this.getName() + ":" + this.queue.take());
+			} catch (InterruptedException e) {
+				this.interrupted = true;
+			}
+		}
+	}
+}
@@ -0,0 +1,72 @@
+package com.flat502.rox.utils;
+
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Random;
+
+import junit.framework.TestCase;
+
+public class Test_DateTimeCodec extends TestCase {
+	private static final DateFormat FORMAT = new UTCSimpleDateFormat("yyyyMMdd'T'HH:mm:ss");
+
+	private static long parse(String s) {
+		return DateTimeCodec.parse(s.toCharArray(), 0, s.length());
+	}
+
+	private static long time(String s) throws Exception {
+		return FORMAT.parse(s).getTime();
+	}
+
+	public void testSameAsDateFormat() throws Exception {
+		Random random = new Random(42);
+		long min = time("15830101T00:00:00");
+		long max = time("99991231T23:59:59");
+		for (int i = 0; i < 10000; i++) {
+			long time = min + (long) (random.nextDouble() * (max - min));
+			String expected = FORMAT.format(new Date(time));
+			assertEquals(expected, DateTimeCodec.format(time));
+			// Milliseconds aren't formatted
+			assertEquals(FORMAT.parse(expected).getTime(), parse(expected));
+		}
+	}
+
+	public void testBoundaries() throws Exception {
+		String[] dates = { "15830101T00:00:00", "19691231T23:59:59", "19700101T00:00:00", "20000229T12:00:00",
+				"21000228T23:59:59", "21000301T00:00:00", "99991231T23:59:59" };
+		for (int i = 0; i < dates.length; i++) {
+			long time = time(dates[i]);
+			assertEquals(dates[i], DateTimeCodec.format(time));
+			assertEquals(time, parse(dates[i]));
+		}
+	}
+
+	public void testOutOfRange() throws Exception {
+		assertFalse(DateTimeCodec.canFormat(time("15821231T23:59:59")));
+		assertFalse(DateTimeCodec.canFormat(time("100000101T00:00:00")));
+		try {
+			DateTimeCodec.format(time("15821231T23:59:59"));
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+		assertEquals(DateTimeCodec.NOT_PARSED, parse("15821231T23:59:59"));
+	}
+
+	public void testNonCanonicalNotParsed() throws Exception {
+		String[] dates = { "", "20060101", "20060101T00:00:00Z", " 20060101T00:00:00", "2006-101T00:00:00",
+				"20060101 00:00:00", "20060101T00-00:00", "20061301T00:00:00", "20060230T00:00:00",
+				"21000229T00:00:00", "20060100T00:00:00", "20060101T24:00:00", "20060101T00:60:00",
+				"20060101T00:00:60", "20060101T0-:00:00" };
+		for (int i = 0; i < dates.length; i++) {
+			assertEquals(dates[i], DateTimeCodec.NOT_PARSED, parse(dates[i]));
+		}
+	}
+
+	public void testParseWindow() throws Exception {
+		char[] ch = "<x>20060101T12:34:56</x>".toCharArray();
+		assertEquals(time("20060101T12:34:56"), DateTimeCodec.parse(ch, 3, 17));
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(Test_DateTimeCodec.class);
+	}
+}
@@ -0,0 +1,179 @@
+package com.flat502.rox.utils;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Date;
+
+import junit.framework.TestCase;
+
+public class Test_XmlUtf8Printer extends TestCase {
+	private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+	private void printDocument(XmlPrinter pp) throws Exception {
+		pp.writeHeader("1.0", UTF_8);
+		pp.openTag("methodCall");
+		pp.openTag("methodName");
+		pp.writeValue("somevalue");
+		pp.closeTag("methodName");
+		pp.openTag("params");
+		pp.openTag("param");
+		pp.writeValue("somevalue");
+		pp.closeTag("param");
+		pp.openTag("list");
+		pp.openTag("value");
+		pp.writeValue("somevalue1");
+		pp.closeTag("value");
+		pp.openTag("value");
+		pp.writeValue("somevalue2");
+		pp.closeTag("value");
+		pp.closeTag("list");
+		pp.closeTag("params");
+		pp.openTag("empty");
+		pp.closeTag("empty");
+		pp.closeTag("methodCall");
+		pp.finishDocument();
+	}
+
+	public void testSameAsPlainPrinter() throws Exception {
+		ByteArrayOutputStream plain = new ByteArrayOutputStream();
+		printDocument(new XmlPlainPrinter(plain));
+		ByteArrayOutputStream utf8 = new ByteArrayOutputStream();
+		printDocument(new XmlUtf8Printer(utf8));
+
+		assertEquals(new String(plain.toByteArray(), "UTF-8"), new String(utf8.toByteArray(), "UTF-8"));
+	}
+
+	public void testNothingWrittenUntilFinished() throws Exception {
+		ByteArrayOutputStream byteOs = new ByteArrayOutputStream();
+		XmlUtf8Printer pp = new XmlUtf8Printer(byteOs);
+		pp.openTag("value");
+		pp.writeValue("somevalue");
+		pp.closeTag("value");
+		assertEquals(0, byteOs.size());
+		pp.finishDocument();
+		assertEquals("<value>somevalue</value>", new String(byteOs.toByteArray(), "UTF-8"));
+	}
+
+	public void testEscapedValue() throws Exception {
+		ByteArrayOutputStream byteOs = new ByteArrayOutputStream();
+		XmlUtf8Printer pp = new XmlUtf8Printer(byteOs);
+		pp.openTag("string");
+		pp.writeEscapedValue("a < b && b > c");
+		pp.closeTag("string");
+		pp.finishDocument();
+		assertEquals("<string>a &lt; b &amp;&amp; b &gt; c</string>", new String(byteOs.toByteArray(), "UTF-8"));
+	}
+
+	public void testNonAsciiValue() throws Exception {
+		// 2, 3 and 4 byte sequences, and an unpaired surrogate
+		String value = "caf\u00e9 \u20ac10 \ud83d\ude00 \ud83d";
+		ByteArrayOutputStream byteOs = new ByteArrayOutputStream();
+		XmlUtf8Printer pp = new XmlUtf8Printer(byteOs);
+		pp.openTag("string");
+		pp.writeValue(value);
+		pp.closeTag("string");
+		pp.finishDocument();
+
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		expected.write("<string>".getBytes("UTF-8"));
+		expected.write(value.getBytes("UTF-8"));
+		expected.write("</string>".getBytes("UTF-8"));
+		assertTrue(Arrays.equals(expected.toByteArray(), byteOs.toByteArray()));
+	}
+
+	public void testValueLargerThanBuffer() throws Exception {
+		StringBuffer sb = new StringBuffer();
+		for (int i = 0; i < 20000; i++) {
+			sb.append(i % 2 == 0 ? "\u00e9" : "&");
+		}
+		ByteArrayOutputStream byteOs = new ByteArrayOutputStream();
+		XmlUtf8Printer pp = new XmlUtf8Printer(byteOs);
+		pp.openTag("string");
+		pp.writeEscapedValue(sb.toString());
+		pp.closeTag("string");
+		pp.finishDocument();
+
+		String expected = "<string>" + sb.toString().replaceAll("&", "&amp;") + "</string>";
+		assertEquals(expected, new String(byteOs.toByteArray(), "UTF-8"));
+	}
+
+	private String printValue(Object value) throws Exception {
+		ByteArrayOutputStream byteOs = new ByteArrayOutputStream();
+		XmlUtf8Printer pp = new XmlUtf8Printer(byteOs);
+		pp.openTag("value");
+		if (value instanceof Long) {
+			pp.writeValue(((Long) value).longValue());
+		} else if (value instanceof Double) {
+			pp.writeValue(((Double) value).doubleValue());
+		} else if (value instanceof Float) {
+			pp.writeValue(((Float) value).floatValue());
+		} else {
+			pp.writeValue((Date) value);
+		}
+		pp.closeTag("value");
+		pp.finishDocument();
+		String xml = new String(byteOs.toByteArray(), "UTF-8");
+		assertTrue(xml.startsWith("<value>") && xml.endsWith("</value>"));
+		return xml.substring("<value>".length(), xml.length() - "</value>".length());
+	}
+
+	public void testLongValues() throws Exception {
+		long[] values = { 0, 1, -1, 9, 10, 99, 100, Integer.MAX_VALUE, Integer.MIN_VALUE, Long.MAX_VALUE,
+				Long.MIN_VALUE, Long.MIN_VALUE + 1 };
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(Long.toString(values[i]), printValue(new Long(values[i])));
+		}
+	}
+
+	public void testDoubleValues() throws Exception {
+		double[] values = { 0.0, -0.0, 1.0, -1.0, 0.5, 9999999.0, -9999999.0, 10000000.0, 1e-3, 1e-4, 123.456,
+				Double.NaN, Double.POSITIVE_INFINITY, Double.NEGATIVE_INFINITY, Double.MIN_VALUE, Double.MAX_VALUE };
+		for (int i = 0; i < values.length; i++) {
+			assertEquals(Double.toString(values[i]), printValue(new Double(values[i])));
+			float f = (float) values[i];
+			assertEquals(Float.toString(f), printValue(new Float(f)));
+		}
+	}
+
+	public void testDateValue() throws Exception {
+		Date date = new Date(1136073599999L);
+		assertEquals(new UTCSimpleDateFormat("yyyyMMdd'T'HH:mm:ss").format(date), printValue(date));
+		try {
+			printValue(new Date(Long.MIN_VALUE / 2));
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public void testManyValuesAcrossBufferBoundary() throws Exception {
+		ByteArrayOutputStream byteOs = new ByteArrayOutputStream();
+		XmlUtf8Printer pp = new XmlUtf8Printer(byteOs);
+		StringBuffer expected = new StringBuffer();
+		Date date = new Date(0);
+		for (int i = 0; i < 2000; i++) {
+			pp.openTag("value");
+			pp.writeValue((long) i * 1000003);
+			pp.closeTag("value");
+			pp.openTag("value");
+			pp.writeValue(date);
+			pp.closeTag("value");
+			expected.append("<value>").append((long) i * 1000003).append("</value>");
+			expected.append("<value>19700101T00:00:00</value>");
+		}
+		pp.finishDocument();
+		assertEquals(expected.toString(), new String(byteOs.toByteArray(), "UTF-8"));
+	}
+
+	public void testOtherCharSetsRejected() throws Exception {
+		try {
+			new XmlUtf8Printer(new ByteArrayOutputStream()).writeHeader("1.0", Charset.forName("ISO-8859-1"));
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+
+	public static void main(String[] args) {
+		junit.textui.TestRunner.run(Test_XmlUtf8Printer.class);
+	}
+}